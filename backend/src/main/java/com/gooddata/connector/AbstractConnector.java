@@ -26,11 +26,15 @@ package com.gooddata.connector;
 import com.gooddata.Constants;
 import com.gooddata.exception.GdcIntegrationErrorException;
 import com.gooddata.exception.HttpMethodException;
+import com.gooddata.exception.InternalErrorException;
 import com.gooddata.exception.InvalidParameterException;
 import com.gooddata.exception.ProcessingException;
+import com.gooddata.integration.datatransfer.ArchiveWriter;
+import com.gooddata.integration.datatransfer.UploadJournal;
 import com.gooddata.integration.model.Column;
 import com.gooddata.integration.model.SLI;
 import com.gooddata.integration.rest.GdcRESTApiWrapper;
+import com.gooddata.integration.webdav.GdcWebDavApiWrapper;
 import com.gooddata.modeling.generator.MaqlGenerator;
 import com.gooddata.modeling.model.SourceColumn;
 import com.gooddata.modeling.model.SourceSchema;
@@ -42,14 +46,21 @@ import com.gooddata.transform.Transformer;
 import com.gooddata.util.CSVReader;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.ParallelZipOutputStream;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 
 /**
  * GoodData abstract connector implements functionality that can be reused in several connectors.
@@ -74,6 +85,60 @@ public abstract class AbstractConnector implements Connector {
 
     public static final int DATE_LENGTH_UNRESTRICTED = -1;
 
+    /**
+     * Name of the extracted data file in the data loading package
+     */
+    public static final String DATA_FILE_NAME = "data.csv";
+
+    /**
+     * Number of rows that the extract writer collects before writing them out
+     */
+    protected int writeBatchRows = CSVWriter.DEFAULT_BATCH_ROWS;
+
+    /**
+     * Size (in characters) of the extract writer's batch buffer
+     */
+    protected int writeBatchSize = CSVWriter.DEFAULT_BATCH_SIZE;
+
+    /**
+     * Number of threads that transform the extracted rows (1 = the rows are transformed by the extracting thread)
+     */
+    protected int transformThreads = 1;
+
+    /**
+     * Write the rows processed in parallel in the order they have been read
+     */
+    protected boolean preserveOrder = true;
+
+    /**
+     * Compression level of the data loading package (0-9, Deflater.DEFAULT_COMPRESSION or ParallelZipOutputStream.STORED)
+     */
+    protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Number of threads that compress the data loading package
+     */
+    protected int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Size of the parts of the uploaded data package (0 = the package is uploaded at once)
+     */
+    protected long uploadPartSize = 0;
+
+    /**
+     * Number of attempts to repeat a failed part of the upload
+     */
+    protected int uploadRetries = GdcWebDavApiWrapper.DEFAULT_PART_RETRIES;
+
+    /**
+     * How long the data loading status is polled (ms, 0 = till the loading finishes)
+     */
+    protected long statusTimeout = 0;
+
+    // the transferred archive that replaces the data file during the streaming transfer
+    private OutputStream dataStream;
+    private boolean dataStreamOpened = false;
+
     /**
      * Default constructor
      */
@@ -99,7 +164,7 @@ public abstract class AbstractConnector implements Connector {
      * {@inheritDoc}
      */
     public void extract(String dir) throws IOException {
-        File dataFile = new File(dir + System.getProperty("file.separator") + "data.csv");
+        File dataFile = new File(dir + System.getProperty("file.separator") + DATA_FILE_NAME);
         extract(dataFile.getAbsolutePath(), true);
     }
 
@@ -122,33 +187,170 @@ public abstract class AbstractConnector implements Connector {
      * @throws IOException
      */
     protected int copyAndTransform(CSVReader cr, CSVWriter cw, boolean transform, int dateLength) throws IOException {
+        configureWriter(cw);
         Transformer t = Transformer.create(schema);
         String[] header = t.getHeader(transform);
         cw.writeNext(header);
-        String[] row = cr.readNext();
+        int rowCnt;
+        if (transform && transformThreads > 1) {
+            RowPipeline p = createPipeline(cw, transform, dateLength);
+            try {
+                for (String[] record = cr.readNext(); record != null; record = cr.readNext()) {
+                    if (record.length == 1 && record[0].length() == 0)
+                        continue;
+                    p.add(record);
+                }
+                p.finish();
+            } finally {
+                p.abort();
+            }
+            rowCnt = p.getRowCount();
+        } else {
+            rowCnt = copyRows(cr, cw, t, transform, dateLength);
+        }
+        cw.close();
+        cr.close();
+        return rowCnt;
+    }
+
+    /**
+     * Copies and transforms all rows of the reader to the writer. Doesn't write the header and
+     * doesn't close the reader or writer.
+     *
+     * @param cr         - reader
+     * @param cw         - writer
+     * @param t          - transformer
+     * @param transform  - perform transformations?
+     * @param dateLength - cuts the fate to first dateLength chars
+     * @return number of extracted rows
+     * @throws IOException
+     */
+    protected static int copyRows(CSVReader cr, CSVWriter cw, Transformer t, boolean transform, int dateLength)
+            throws IOException {
+        // the reader refills the same array for records of the same length
+        String[] record = cr.readNext(null);
+        String[] transformed = null;
         int rowCnt = 0;
-        while (row != null) {
+        while (record != null) {
             rowCnt++;
-            if (row.length == 1 && row[0].length() == 0) {
-                row = cr.readNext();
+            if (record.length == 1 && record[0].length() == 0) {
+                record = cr.readNext(record);
                 continue;
             }
+            String[] row = record;
             if (transform) {
                 try {
-                    row = t.transformRow(row, dateLength);
+                    row = transformed = t.transformRow(record, dateLength, transformed);
                 } catch (InvalidParameterException e) {
                     throw new InvalidParameterException(e.getMessage() + " Error occured at row " + rowCnt);
                 }
             }
             cw.writeNext(row);
-            cw.flush();
-            row = cr.readNext();
+            record = cr.readNext(record);
         }
-        cw.close();
-        cr.close();
         return rowCnt;
     }
 
+    /**
+     * Switches the extract writer to the batching mode and attaches a progress logger to it
+     *
+     * @param cw writer
+     * @return the same writer
+     */
+    protected CSVWriter configureWriter(CSVWriter cw) {
+        cw.setBatching(writeBatchRows, writeBatchSize);
+        cw.setProgressListener(new CSVWriter.ProgressListener() {
+            public void progress(long rows, long chars) {
+                l.debug("Extracted " + rows + " rows (" + chars + " characters).");
+            }
+        });
+        return cw;
+    }
+
+    /**
+     * Creates the pipeline that transforms and writes the extracted rows using the configured number of
+     * transformation threads. The caller writes the header, finishes the pipeline and closes the writer.
+     *
+     * @param cw         writer
+     * @param transform  perform transformations?
+     * @param dateLength cuts the dates to first dateLength chars
+     * @return the pipeline
+     */
+    protected RowPipeline createPipeline(CSVWriter cw, boolean transform, int dateLength) {
+        return new RowPipeline(schema, cw, transform, dateLength, transformThreads, RowPipeline.DEFAULT_BATCH_ROWS,
+                preserveOrder);
+    }
+
+    /**
+     * Reads the optional extract writer batching and transformation threads parameters of the command
+     *
+     * @param c command
+     * @throws InvalidParameterException in case of an invalid parameter value
+     */
+    protected void setExtractParams(Command c) throws InvalidParameterException {
+        String rows = c.getParam("batchRows");
+        String size = c.getParam("batchSize");
+        String threads = c.getParam("transformThreads");
+        String order = c.getParam("preserveOrder");
+        String compression = c.getParam("compression");
+        String compressionThreads = c.getParam("compressionThreads");
+        try {
+            if (rows != null && rows.length() > 0)
+                setWriteBatchRows(Integer.parseInt(rows));
+            if (size != null && size.length() > 0)
+                setWriteBatchSize(Integer.parseInt(size));
+            if (threads != null && threads.length() > 0)
+                setTransformThreads(Integer.parseInt(threads));
+            if (compressionThreads != null && compressionThreads.length() > 0)
+                setCompressionThreads(Integer.parseInt(compressionThreads));
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException(c.getCommand() + ": The batchRows, batchSize, transformThreads and " +
+                    "compressionThreads parameters must be numbers.");
+        }
+        if (compression != null && compression.length() > 0) {
+            if ("STORED".equalsIgnoreCase(compression)) {
+                setCompressionLevel(ParallelZipOutputStream.STORED);
+            } else if ("DEFAULT".equalsIgnoreCase(compression)) {
+                setCompressionLevel(Deflater.DEFAULT_COMPRESSION);
+            } else if (compression.matches("[0-9]")) {
+                setCompressionLevel(Integer.parseInt(compression));
+            } else {
+                throw new InvalidParameterException(c.getCommand() + ": The compression parameter must be " +
+                        "STORED, DEFAULT or a number from 0 to 9.");
+            }
+        }
+        if (order != null && order.length() > 0)
+            setPreserveOrder(!"false".equalsIgnoreCase(order));
+        if (getWriteBatchSize() <= 0)
+            throw new InvalidParameterException(c.getCommand() + ": The batchSize parameter must be positive.");
+        if (getTransformThreads() <= 0)
+            throw new InvalidParameterException(c.getCommand() + ": The transformThreads parameter must be positive.");
+        if (getCompressionThreads() <= 0)
+            throw new InvalidParameterException(c.getCommand() + ": The compressionThreads parameter must be positive.");
+    }
+
+    /**
+     * Reads the optional parameters of the upload in parts
+     *
+     * @param c command
+     * @throws InvalidParameterException in case of an invalid parameter value
+     */
+    protected void setUploadParams(Command c) throws InvalidParameterException {
+        String partSize = c.getParam("uploadPartSize");
+        String retries = c.getParam("uploadRetries");
+        try {
+            if (partSize != null && partSize.length() > 0)
+                setUploadPartSize(Long.parseLong(partSize));
+            if (retries != null && retries.length() > 0)
+                setUploadRetries(Integer.parseInt(retries));
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException(c.getCommand() + ": The uploadPartSize and uploadRetries parameters " +
+                    "must be numbers.");
+        }
+        if (getUploadRetries() < 0)
+            throw new InvalidParameterException(c.getCommand() + ": The uploadRetries parameter can't be negative.");
+    }
+
     /**
      * Extract rows
      *
@@ -168,7 +370,7 @@ public abstract class AbstractConnector implements Connector {
         String cn = sli.getSLIManifest(columns);
         FileUtil.writeStringToFile(cn, fn);
         l.debug("Manifest file written to file '" + fn + "'. Content: " + cn);
-        FileUtil.compressDir(dir, archiveName);
+        FileUtil.compressDir(dir, archiveName, compressionLevel, compressionThreads);
     }
 
     /**
@@ -244,6 +446,8 @@ public abstract class AbstractConnector implements Connector {
                 dumpData(c, cli, ctx);
             } else if (c.match("GenerateUpdateMaql")) {
                 generateUpdateMaql(c, cli, ctx);
+            } else if (c.match("WaitForLoads")) {
+                waitForLoads(c, cli, ctx);
             } else {
                 l.debug("No match for command " + c.getCommand());
                 return false;
@@ -257,6 +461,32 @@ public abstract class AbstractConnector implements Connector {
         }
     }
 
+    /**
+     * Waits for all data loads started with the waitForFinish="false"
+     *
+     * @param c   command
+     * @param p   cli parameters
+     * @param ctx current context
+     * @throws IOException          IO issues
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    private void waitForLoads(Command c, CliParams p, ProcessingContext ctx) throws IOException, InterruptedException {
+        c.paramsProcessed();
+        Map<String, Future<String>> loads = ctx.removePendingLoads();
+        l.info("Waiting for " + loads.size() + " data loads.");
+        int failed = 0;
+        for (String archiveName : loads.keySet()) {
+            try {
+                checkLoadingStatus(loads.get(archiveName), archiveName, p, ctx);
+            } catch (GdcIntegrationErrorException e) {
+                l.error("Data package " + archiveName + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        if (failed > 0)
+            throw new GdcIntegrationErrorException(failed + " of " + loads.size() + " data loads failed.");
+    }
+
     /**
      * Generates the MAQL
      *
@@ -448,25 +678,91 @@ public abstract class AbstractConnector implements Connector {
 
 
         String incremental = c.getParam("incremental");
+        String streaming = c.getParam("streaming");
+        String journalFile = c.getParam("uploadJournal");
+        String timeout = c.getParam("statusTimeout");
+        setExtractParams(c);
+        setUploadParams(c);
+        if (timeout != null && timeout.length() > 0) {
+            try {
+                setStatusTimeout(1000L * Integer.parseInt(timeout));
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException(c.getCommand() + ": The statusTimeout parameter must be a number.");
+            }
+        }
         c.paramsProcessed();
 
         if (incremental != null && incremental.length() > 0 &&
                 incremental.equalsIgnoreCase("true")) {
+            // the incremental load must keep the order of the source rows
+            if (!isPreserveOrder() || (cc instanceof AbstractConnector && !((AbstractConnector) cc).isPreserveOrder()))
+                throw new InvalidParameterException(c.getCommand() + ": The preserveOrder=\"false\" parameter " +
+                        "can't be used with the incremental load.");
             l.debug("Using incremental mode.");
             setIncremental(columns);
         }
 
-        // extract the data to the CSV that is going to be transferred to the server
-        cc.extract(tmpDir.getAbsolutePath());
+        // the upload in parts
+        UploadJournal journal = null;
+        File resumed = null;
+        if (uploadPartSize > 0 || journalFile != null) {
+            if (journalFile != null) {
+                journal = new UploadJournal(new File(journalFile));
+                File archive = journal.getArchive();
+                if (archive != null && pid.equals(journal.getProperty("project")) &&
+                        ssn.equals(journal.getProperty("dataset")))
+                    resumed = archive;
+            } else {
+                journal = new UploadJournal(new File(tmpZipDir, archiveName + ".journal"));
+            }
+        }
 
-        cc.deploy(sli, columns, tmpDir.getAbsolutePath(), archivePath);
-        // transfer the data package to the GoodData server
-        ctx.getFtpApi(p).transferDir(archivePath);
-        // kick the GooDData server to load the data package to the project
-        String taskUri = ctx.getRestApi(p).startLoading(pid, archiveName);
-        if (waitForFinish) {
-            checkLoadingStatus(taskUri, tmpDir.getName(), p, ctx);
+        boolean streamed = false;
+        if (resumed != null) {
+            // the package has been extracted by the interrupted TransferData
+            l.info("Resuming the interrupted transfer of the data package " + resumed.getAbsolutePath());
+            archivePath = resumed.getAbsolutePath();
+            archiveName = resumed.getName().split("\\.")[0];
+            MDC.put("GdcDataPackageDir", archiveName);
+            long partSize = Long.parseLong(journal.getProperty("partSize"));
+            ctx.getFtpApi(p).transferDir(archivePath, partSize, uploadRetries, journal);
+            if (resumed.delete())
+                resumed.getParentFile().delete();
+        } else {
+            if ("true".equalsIgnoreCase(streaming) && cc instanceof AbstractConnector) {
+                if (journal != null) {
+                    l.info("The streaming transfer can't be resumed, transferring the data package in parts.");
+                } else {
+                    streamed = transferStreaming((AbstractConnector) cc, sli, columns, tmpDir, archivePath, p, ctx);
+                    if (!streamed) {
+                        // the remote directory of the failed attempt can't be reused
+                        FileUtil.recursiveDelete(tmpDir);
+                        tmpDir = FileUtil.createTempDir();
+                        archiveName = tmpDir.getName();
+                        MDC.put("GdcDataPackageDir", archiveName);
+                        archivePath = tmpZipDir.getAbsolutePath() + System.getProperty("file.separator") +
+                                archiveName + ".zip";
+                    }
+                }
+            }
+            if (!streamed) {
+                // extract the data to the CSV that is going to be transferred to the server
+                cc.extract(tmpDir.getAbsolutePath());
+
+                cc.deploy(sli, columns, tmpDir.getAbsolutePath(), archivePath);
+                // transfer the data package to the GoodData server
+                if (journal != null) {
+                    journal.setProperty("project", pid);
+                    journal.setProperty("dataset", ssn);
+                    long partSize = (uploadPartSize > 0) ? (uploadPartSize) : (GdcWebDavApiWrapper.DEFAULT_PART_SIZE);
+                    ctx.getFtpApi(p).transferDir(archivePath, partSize, uploadRetries, journal);
+                } else {
+                    ctx.getFtpApi(p).transferDir(archivePath);
+                }
+            }
         }
+        // kick the GooDData server to load the data package to the project
+        startLoading(pid, archiveName, waitForFinish, p, ctx);
         //cleanup
         l.debug("Cleaning the temporary files.");
         FileUtil.recursiveDelete(tmpDir);
@@ -475,6 +771,100 @@ public abstract class AbstractConnector implements Connector {
         l.debug("Data extract finished.");
     }
 
+    /**
+     * Extracts the data directly to the data loading package that is streamed to the GoodData server. The package
+     * manifest is the first entry of the archive, the extracted data follow. Nothing is stored locally.
+     *
+     * @param cc          connector
+     * @param sli         the SLI interface
+     * @param columns     the SLI columns
+     * @param tmpDir      directory that the connector extracts to
+     * @param archivePath the name of the transferred ZIP archive
+     * @param p           cli parameters
+     * @param ctx         current context
+     * @return true if the package has been transferred, false if the transfer failed and it has to be repeated
+     *         using the local files
+     */
+    protected boolean transferStreaming(final AbstractConnector cc, SLI sli, List<Column> columns, final File tmpDir,
+                                        String archivePath, CliParams p, ProcessingContext ctx) {
+        final String manifest = sli.getSLIManifest(columns);
+        try {
+            l.debug("Streaming the data package " + archivePath);
+            ctx.getFtpApi(p).transferArchive(archivePath, new ArchiveWriter() {
+                public void write(OutputStream out) throws IOException {
+                    // the size of the streamed data isn't known in advance, so they can't be STORED
+                    int level = (compressionLevel == ParallelZipOutputStream.STORED) ? (0) : (compressionLevel);
+                    ParallelZipOutputStream zip = new ParallelZipOutputStream(out, level, compressionThreads);
+                    try {
+                        zip.putNextEntry(GdcRESTApiWrapper.DLI_MANIFEST_FILENAME);
+                        zip.write(manifest.getBytes("utf8"));
+                        zip.putNextEntry(DATA_FILE_NAME);
+                        cc.dataStream = zip;
+                        cc.dataStreamOpened = false;
+                        try {
+                            cc.extract(tmpDir.getAbsolutePath());
+                        } finally {
+                            cc.dataStream = null;
+                        }
+                        if (!cc.dataStreamOpened)
+                            throw new IOException("The connector doesn't support the streaming transfer.");
+                        zip.closeEntry();
+                        zip.finish();
+                    } finally {
+                        // stops the compression threads, the archive of a failed extract is left incomplete
+                        zip.abort();
+                    }
+                }
+            });
+            return true;
+        } catch (IOException e) {
+            l.info("The streaming data transfer failed, retrying with the file transfer. Reason: " + e.getMessage());
+            l.debug("The streaming data transfer failed.", e);
+        } catch (HttpMethodException e) {
+            l.info("The streaming data transfer failed, retrying with the file transfer. Reason: " + e.getMessage());
+            l.debug("The streaming data transfer failed.", e);
+        }
+        return false;
+    }
+
+    /**
+     * Opens the extracted data file. During the streaming transfer the data are written to the transferred
+     * archive instead of the file.
+     *
+     * @param dataFile the data file
+     * @return stream that the connector writes the data to and closes when it's done
+     * @throws IOException in case of IO issues
+     */
+    protected OutputStream openDataFile(File dataFile) throws IOException {
+        if (dataStream != null) {
+            dataStreamOpened = true;
+            // the archive stays open for the entries that follow the data
+            return new FilterOutputStream(dataStream) {
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+        return new FileOutputStream(dataFile);
+    }
+
+    /**
+     * Creates the UTF-8 writer of the extracted data file
+     *
+     * @param dataFile the data file
+     * @param escaping escape the quotes by doubling them
+     * @return the writer
+     * @throws IOException in case of IO issues
+     */
+    protected CSVWriter createDataWriter(File dataFile, boolean escaping) throws IOException {
+        OutputStream os = openDataFile(dataFile);
+        return (escaping) ? (FileUtil.createUtf8CsvEscapingWriter(os)) : (FileUtil.createUtf8CsvWriter(os));
+    }
+
     /**
      * Sets the incremental loading status for a part
      *
@@ -487,33 +877,61 @@ public abstract class AbstractConnector implements Connector {
     }
 
 
+    /**
+     * Kicks the GoodData server to load a transferred data package. Waits till the data are loaded or registers the
+     * load for the WaitForLoads command.
+     *
+     * @param pid           project id
+     * @param archiveName   the name of the transferred data package
+     * @param waitForFinish synchronous execution flag
+     * @param p             cli parameters
+     * @param ctx           current context
+     * @throws IOException          IO issues
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    protected void startLoading(String pid, String archiveName, boolean waitForFinish, CliParams p, ProcessingContext ctx)
+            throws IOException, InterruptedException {
+        Future<String> loading = ctx.getRestApi(p).startLoadingAsync(pid, archiveName, statusTimeout);
+        if (waitForFinish) {
+            checkLoadingStatus(loading, archiveName, p, ctx);
+        } else {
+            ctx.addPendingLoad(archiveName, loading);
+        }
+    }
+
     /**
      * Checks the status of data integration process in the GoodData platform
      *
      * @param taskUri the uri where the task status is determined
-     * @param tmpDir  temporary dir where the temporary data reside. This directory will be deleted.
+     * @param tmpDir  temporary dir
      * @param p       cli parameters
      * @param ctx     current context
      * @throws IOException          IO issues
      * @throws InterruptedException internal problem with making file writable
      */
     protected void checkLoadingStatus(String taskUri, String tmpDir, CliParams p, ProcessingContext ctx) throws InterruptedException, IOException {
+        checkLoadingStatus(ctx.getRestApi(p).watchLoading(taskUri, statusTimeout), tmpDir, p, ctx);
+    }
+
+    /**
+     * Waits for a data load and reports its result
+     *
+     * @param loading the watched data load
+     * @param tmpDir  the name of the loaded data package
+     * @param p       cli parameters
+     * @param ctx     current context
+     * @throws IOException          IO issues
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    protected void checkLoadingStatus(Future<String> loading, String tmpDir, CliParams p, ProcessingContext ctx) throws InterruptedException, IOException {
         l.debug("Checking data transfer status.");
-        String status = "";
-        int retryCount = 0;
-        while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-            try {
-                status = ctx.getRestApi(p).getLoadingStatus(taskUri);
-                l.debug("Loading status = " + status);
-                Thread.sleep(500);
-            }
-            catch (HttpMethodException e) {
-                retryCount++;
-                l.debug("Loading status call failed with: '" + e.getMessage()+"' Retry #"+retryCount+".");
-                Thread.sleep(retryCount*100);
-                if(retryCount > 10000)
-                    throw e;
-            }
+        String status;
+        try {
+            status = loading.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new InternalErrorException(e.getCause());
         }
         l.debug("Data transfer finished with status " + status);
         if ("OK".equalsIgnoreCase(status)) {
@@ -610,6 +1028,78 @@ public abstract class AbstractConnector implements Connector {
         return projectId;
     }
 
+    public int getWriteBatchRows() {
+        return writeBatchRows;
+    }
+
+    public void setWriteBatchRows(int writeBatchRows) {
+        this.writeBatchRows = writeBatchRows;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    public long getUploadPartSize() {
+        return uploadPartSize;
+    }
+
+    public void setUploadPartSize(long uploadPartSize) {
+        this.uploadPartSize = uploadPartSize;
+    }
+
+    public int getUploadRetries() {
+        return uploadRetries;
+    }
+
+    public void setUploadRetries(int uploadRetries) {
+        this.uploadRetries = uploadRetries;
+    }
+
+    public long getStatusTimeout() {
+        return statusTimeout;
+    }
+
+    public void setStatusTimeout(long statusTimeout) {
+        this.statusTimeout = statusTimeout;
+    }
+
+    public boolean isPreserveOrder() {
+        return preserveOrder;
+    }
+
+    public void setPreserveOrder(boolean preserveOrder) {
+        this.preserveOrder = preserveOrder;
+    }
+
     public void setProjectId(String projectId) {
         this.projectId = projectId;
     }
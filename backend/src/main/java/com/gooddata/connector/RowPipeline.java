@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.gooddata.exception.InternalErrorException;
+import com.gooddata.exception.InvalidParameterException;
+import com.gooddata.modeling.model.SourceSchema;
+import com.gooddata.transform.Transformer;
+import com.gooddata.util.CSVWriter;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extract pipeline that transforms and writes the rows that a connector reads from its data source. With a single
+ * thread the rows are transformed and written by the calling thread. With more threads the connector (reader stage)
+ * passes batches of rows through bounded queues to the transformer stages that run in parallel and to a single writer
+ * stage, so that reading from a slow source overlaps with the transformations and the writing. The number of batches
+ * in the pipeline is limited, the reader blocks when the transformers or the writer fall behind.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class RowPipeline {
+
+    private static Logger l = Logger.getLogger(RowPipeline.class);
+
+    /**
+     * Default number of rows in a batch passed between the stages
+     */
+    public static final int DEFAULT_BATCH_ROWS = 1000;
+
+    // end of the stream marker
+    private static final Batch END = new Batch(-1, 0, new Object[0][], 0);
+
+    private final SourceSchema schema;
+    private final CSVWriter cw;
+    private final boolean transform;
+    private final int dateLength;
+    private final int threads;
+    private final int batchRows;
+    private final boolean preserveOrder;
+
+    // single threaded mode
+    private Transformer transformer;
+    private String[] reuse;
+
+    // multi threaded mode
+    private ExecutorService pool;
+    private BlockingQueue<Batch> transformQueue;
+    private BlockingQueue<Batch> writeQueue;
+    private Semaphore inFlight;
+    private int capacity;
+    private volatile Throwable failure;
+
+    private Object[][] current;
+    private int currentSize = 0;
+    private long nextSeq = 0;
+    private int rowCnt = 0;
+    private boolean finished = false;
+
+    /**
+     * Creates single threaded pipeline
+     *
+     * @param schema     source schema
+     * @param cw         writer
+     * @param transform  perform transformations?
+     * @param dateLength cuts the dates to first dateLength chars
+     */
+    public RowPipeline(SourceSchema schema, CSVWriter cw, boolean transform, int dateLength) {
+        this(schema, cw, transform, dateLength, 1, DEFAULT_BATCH_ROWS, true);
+    }
+
+    /**
+     * Creates the pipeline. The transformer and writer stages are started when more than one thread is requested.
+     *
+     * @param schema        source schema
+     * @param cw            writer
+     * @param transform     perform transformations?
+     * @param dateLength    cuts the dates to first dateLength chars
+     * @param threads       number of transformer stages
+     * @param batchRows     number of rows in a batch passed between the stages
+     * @param preserveOrder write the rows in the order they have been added
+     */
+    public RowPipeline(SourceSchema schema, CSVWriter cw, boolean transform, int dateLength, int threads,
+                       int batchRows, boolean preserveOrder) {
+        if (threads <= 0)
+            throw new InvalidParameterException("The number of transformation threads must be positive.");
+        if (batchRows <= 0)
+            throw new InvalidParameterException("The number of rows in a transformation batch must be positive.");
+        this.schema = schema;
+        this.cw = cw;
+        this.transform = transform;
+        this.dateLength = dateLength;
+        this.threads = threads;
+        this.batchRows = batchRows;
+        this.preserveOrder = preserveOrder;
+        if (threads > 1) {
+            start();
+        } else if (transform) {
+            transformer = Transformer.create(schema);
+        }
+    }
+
+    /**
+     * Adds a row read from the data source. The pipeline takes over the row, the caller must not modify it later.
+     * Blocks when the pipeline is full.
+     *
+     * @param row the row data
+     * @throws IOException in case of a write problem
+     */
+    public void add(Object[] row) throws IOException {
+        rowCnt++;
+        if (pool == null) {
+            reuse = convert(transformer, row, rowCnt, reuse);
+            cw.writeNext(reuse);
+            return;
+        }
+        checkFailure();
+        current[currentSize++] = row;
+        if (currentSize >= batchRows) {
+            submit();
+        }
+    }
+
+    /**
+     * Waits until all the added rows are written. Doesn't close the writer.
+     *
+     * @return number of rows
+     * @throws IOException in case of a write problem
+     */
+    public int finish() throws IOException {
+        if (pool != null && !finished) {
+            finished = true;
+            try {
+                if (currentSize > 0) {
+                    submit();
+                }
+                checkFailure();
+                // the queue has room for the markers unless a stage has failed
+                for (int i = 0; i < threads; i++) {
+                    if (!transformQueue.offer(END))
+                        break;
+                }
+                pool.shutdown();
+                while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    l.debug("Waiting for the transformation of " + rowCnt + " rows to finish.");
+                }
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                throw new InternalErrorException(e);
+            }
+            checkFailure();
+        }
+        return rowCnt;
+    }
+
+    /**
+     * Stops the stages without writing the remaining rows. Does nothing after the pipeline has finished.
+     */
+    public void abort() {
+        if (pool != null && !pool.isTerminated()) {
+            finished = true;
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Number of rows added to the pipeline
+     *
+     * @return number of rows
+     */
+    public int getRowCount() {
+        return rowCnt;
+    }
+
+    private void start() {
+        capacity = threads * 2;
+        inFlight = new Semaphore(capacity);
+        // room for the end markers
+        transformQueue = new ArrayBlockingQueue<Batch>(capacity + threads);
+        writeQueue = new ArrayBlockingQueue<Batch>(capacity + threads);
+        current = new Object[batchRows][];
+        pool = Executors.newFixedThreadPool(threads + 1, new ThreadFactory() {
+            private int cnt = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gdc-transform-" + (++cnt));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    transformStage();
+                }
+            });
+        }
+        pool.execute(new Runnable() {
+            public void run() {
+                writeStage();
+            }
+        });
+        l.debug("Started the extract pipeline with " + threads + " transformation threads.");
+    }
+
+    private void submit() throws IOException {
+        Batch b = new Batch(nextSeq++, rowCnt - currentSize + 1, current, currentSize);
+        current = new Object[batchRows][];
+        currentSize = 0;
+        try {
+            inFlight.acquire();
+            checkFailure();
+            transformQueue.put(b);
+        } catch (InterruptedException e) {
+            abort();
+            throw new InternalErrorException(e);
+        }
+    }
+
+    private void transformStage() {
+        try {
+            Transformer t = (transform) ? (Transformer.create(schema)) : (null);
+            while (true) {
+                Batch b = transformQueue.take();
+                if (b == END) {
+                    writeQueue.put(END);
+                    return;
+                }
+                b.out = new String[b.size][];
+                for (int i = 0; i < b.size; i++) {
+                    b.out[i] = convert(t, b.rows[i], b.firstRow + i, null);
+                }
+                b.rows = null;
+                writeQueue.put(b);
+            }
+        } catch (InterruptedException e) {
+            l.debug("Transformation thread interrupted.");
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void writeStage() {
+        try {
+            Map<Long, Batch> pending = new HashMap<Long, Batch>();
+            long next = 0;
+            int ended = 0;
+            while (ended < threads) {
+                Batch b = writeQueue.take();
+                if (b == END) {
+                    ended++;
+                } else if (!preserveOrder) {
+                    write(b);
+                } else {
+                    pending.put(b.seq, b);
+                    while ((b = pending.remove(next)) != null) {
+                        write(b);
+                        next++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            l.debug("Writer thread interrupted.");
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void write(Batch b) {
+        for (int i = 0; i < b.size; i++) {
+            cw.writeNext(b.out[i]);
+        }
+        inFlight.release();
+    }
+
+    private String[] convert(Transformer t, Object[] row, int rowNum, String[] reuse) {
+        if (transform) {
+            try {
+                return t.transformRow(row, dateLength, reuse);
+            } catch (InvalidParameterException e) {
+                throw new InvalidParameterException(e.getMessage() + " Error occured at row " + rowNum);
+            }
+        }
+        if (row instanceof String[])
+            return (String[]) row;
+        String[] nrow = new String[row.length];
+        for (int i = 0; i < row.length; i++) {
+            nrow[i] = (row[i] != null) ? (row[i].toString()) : ("");
+        }
+        return nrow;
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (failure == null)
+                failure = e;
+        }
+        l.debug("Extract pipeline failed.", e);
+        pool.shutdownNow();
+        // wake up the reader
+        inFlight.release(capacity);
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e != null) {
+            abort();
+            if (e instanceof IOException)
+                throw (IOException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            throw new InternalErrorException(e);
+        }
+    }
+
+    /**
+     * Rows passed between the stages
+     */
+    private static class Batch {
+        final long seq;
+        final int firstRow;
+        final int size;
+        Object[][] rows;
+        String[][] out;
+
+        Batch(long seq, int firstRow, Object[][] rows, int size) {
+            this.seq = seq;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.size = size;
+        }
+    }
+
+}
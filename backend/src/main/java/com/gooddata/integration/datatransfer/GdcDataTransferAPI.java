@@ -43,6 +43,28 @@ public interface GdcDataTransferAPI {
      */
     public void transferDir(String archiveName) throws IOException;
 
+    /**
+     * Transfers the ZIP archive to the remote GDC server in parts (if the transfer protocol allows it). The progress
+     * is recorded in the journal, an upload that has been interrupted continues with the first unconfirmed part.
+     *
+     * @param archiveName the name of the ZIP archive that is going to be transferred
+     * @param partSize    the part size in bytes
+     * @param retries     number of attempts to repeat a failed part
+     * @param journal     the upload journal
+     * @throws IOException in case of IO issues
+     */
+    public void transferDir(String archiveName, long partSize, int retries, UploadJournal journal) throws IOException;
+
+    /**
+     * Transfers the ZIP archive produced by the writer to the remote GDC server without storing it locally
+     * (if the transfer protocol allows it)
+     *
+     * @param archiveName the name of the ZIP archive that is going to be transferred
+     * @param writer      writes the archive content
+     * @throws IOException in case of IO issues
+     */
+    public void transferArchive(String archiveName, ArchiveWriter writer) throws IOException;
+
     /**
      * GET the transfer logs from the server
      *
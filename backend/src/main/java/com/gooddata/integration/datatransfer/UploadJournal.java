@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.integration.datatransfer;
+
+import com.gooddata.util.FileUtil;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Local journal of a data package upload that is transferred in parts. The journal remembers the archive and
+ * the number of its bytes that have been uploaded, so that an interrupted upload can continue with the first
+ * part that hasn't been confirmed by the server.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class UploadJournal {
+
+    private static Logger l = Logger.getLogger(UploadJournal.class);
+
+    private final File file;
+    private final Properties props = new Properties();
+
+    /**
+     * Creates the journal stored in the file. Loads the journal content if the file exists.
+     *
+     * @param file the journal file
+     * @throws IOException in case of IO issues
+     */
+    public UploadJournal(File file) throws IOException {
+        this.file = file;
+        props.putAll(FileUtil.loadProperties(file));
+        if (!props.isEmpty())
+            l.debug("Loaded upload journal " + file + ": " + props);
+    }
+
+    /**
+     * Starts a new upload
+     *
+     * @param archive  the uploaded archive
+     * @param partSize the upload part size
+     * @throws IOException in case of IO issues
+     */
+    public void start(File archive, long partSize) throws IOException {
+        props.setProperty("archive", archive.getAbsolutePath());
+        props.setProperty("size", Long.toString(archive.length()));
+        props.setProperty("modified", Long.toString(archive.lastModified()));
+        props.setProperty("partSize", Long.toString(partSize));
+        props.setProperty("uploaded", "0");
+        save();
+    }
+
+    /**
+     * Checks whether the journal describes an unfinished upload of the archive that hasn't changed since
+     *
+     * @param archive  the archive
+     * @param partSize the upload part size
+     * @return true if the upload can be resumed
+     */
+    public boolean canResume(File archive, long partSize) {
+        return archive.getAbsolutePath().equals(props.getProperty("archive")) &&
+                Long.toString(archive.length()).equals(props.getProperty("size")) &&
+                Long.toString(archive.lastModified()).equals(props.getProperty("modified")) &&
+                Long.toString(partSize).equals(props.getProperty("partSize"));
+    }
+
+    /**
+     * The archive recorded in the journal
+     *
+     * @return the archive or null if the journal is empty or the archive doesn't exist anymore
+     */
+    public File getArchive() {
+        String archive = props.getProperty("archive");
+        if (archive == null)
+            return null;
+        File f = new File(archive);
+        return (f.exists()) ? (f) : (null);
+    }
+
+    /**
+     * Number of the archive bytes confirmed by the server
+     *
+     * @return the number of bytes
+     */
+    public long getUploaded() {
+        return Long.parseLong(props.getProperty("uploaded", "0"));
+    }
+
+    /**
+     * Records the number of the uploaded bytes
+     *
+     * @param uploaded the number of bytes
+     * @throws IOException in case of IO issues
+     */
+    public void setUploaded(long uploaded) throws IOException {
+        props.setProperty("uploaded", Long.toString(uploaded));
+        save();
+    }
+
+    /**
+     * Journal property getter
+     *
+     * @param key property name
+     * @return the property value
+     */
+    public String getProperty(String key) {
+        return props.getProperty(key);
+    }
+
+    /**
+     * Sets a journal property (e.g. the project and dataset of the upload)
+     *
+     * @param key   property name
+     * @param value property value
+     * @throws IOException in case of IO issues
+     */
+    public void setProperty(String key, String value) throws IOException {
+        props.setProperty(key, value);
+        save();
+    }
+
+    /**
+     * Deletes the journal
+     */
+    public void delete() {
+        props.clear();
+        if (!FileUtil.deleteProperties(file))
+            l.debug("Can't delete the upload journal " + file);
+    }
+
+    private void save() throws IOException {
+        FileUtil.storeProperties(props, file, "GoodData upload journal");
+    }
+
+}
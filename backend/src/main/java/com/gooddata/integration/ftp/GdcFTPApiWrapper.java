@@ -24,7 +24,9 @@
 package com.gooddata.integration.ftp;
 
 import com.gooddata.exception.GdcUploadErrorException;
+import com.gooddata.integration.datatransfer.ArchiveWriter;
 import com.gooddata.integration.datatransfer.GdcDataTransferAPI;
+import com.gooddata.integration.datatransfer.UploadJournal;
 import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
 import com.gooddata.util.FileUtil;
 import org.apache.commons.net.ftp.FTPClient;
@@ -71,6 +73,38 @@ public class GdcFTPApiWrapper implements GdcDataTransferAPI {
         }
     }
 
+    /**
+     * FTP transfers the archive at once, the FTP transfer doesn't support the uploads in parts
+     *
+     * @param archiveName the name of the ZIP archive that is going to be transferred
+     * @param partSize    ignored
+     * @param retries     ignored
+     * @param journal     ignored
+     * @throws IOException in case of IO issues
+     */
+    public void transferDir(String archiveName, long partSize, int retries, UploadJournal journal) throws IOException {
+        l.debug("The FTP transfer doesn't support uploads in parts, transferring the whole archive.");
+        transferDir(archiveName);
+        journal.delete();
+    }
+
+    /**
+     * Writes the archive to a local file and transfers it to the remote GDC FTP server
+     *
+     * @param archiveName the name of the ZIP archive that is going to be transferred
+     * @param writer      writes the archive content
+     * @throws IOException in case of IO issues
+     */
+    public void transferArchive(String archiveName, ArchiveWriter writer) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(archiveName));
+        try {
+            writer.write(out);
+        } finally {
+            out.close();
+        }
+        transferDir(archiveName);
+    }
+
     /**
      * FTP transfers a local directory to the remote GDC FTP server
      *
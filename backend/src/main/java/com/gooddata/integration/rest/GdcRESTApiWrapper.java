@@ -28,10 +28,12 @@ import com.gooddata.integration.model.Column;
 import com.gooddata.integration.model.Project;
 import com.gooddata.integration.model.SLI;
 import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
+import com.gooddata.util.Backoff;
 import com.gooddata.util.NetUtil;
 import net.sf.json.JSON;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
@@ -48,6 +50,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -98,10 +101,16 @@ public class GdcRESTApiWrapper {
 
     public static final String DLI_MANIFEST_FILENAME = "upload_info.json";
 
+    // how long the metric and report computation is polled (ms)
+    private static final long COMPUTE_TIMEOUT = 500000;
+
     protected HttpClient client;
     protected NamePasswordConfiguration config;
     private JSONObject userLogin = null;
     private JSONObject profile;
+    // the delay requested by the last response received by the calling thread
+    private final ThreadLocal<Long> retryAfter = new ThreadLocal<Long>();
+    private LoadingStatusWatcher watcher = null;
 
     private static HashMap<String, Integer> ROLES = new HashMap<String, Integer>();
 
@@ -120,11 +129,21 @@ public class GdcRESTApiWrapper {
      * @param config NamePasswordConfiguration object with the GDC name and password configuration
      */
     public GdcRESTApiWrapper(NamePasswordConfiguration config) {
-        this.config = config;
-        client = new HttpClient();
+        this(config, new HttpClient());
         NetUtil.configureHttpProxy(client);
     }
 
+    /**
+     * Constructs the GoodData REST API Java wrapper that uses a shared HTTP client configuration
+     *
+     * @param config NamePasswordConfiguration object with the GDC name and password configuration
+     * @param client HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public GdcRESTApiWrapper(NamePasswordConfiguration config, HttpClient client) {
+        this.config = config;
+        this.client = client;
+    }
+
     /**
      * GDC login - obtain GDC SSToken
      *
@@ -871,9 +890,9 @@ public class GdcRESTApiWrapper {
         obj.put("reportDefinition", reportDefinition);
         MetadataObject resp = new MetadataObject(createMetadataObject(projectId, obj));
 
-        int retryCnt = 1000;
+        Backoff backoff = new Backoff(COMPUTE_TIMEOUT);
         boolean hasFinished = false;
-        while (retryCnt-- > 0 && !hasFinished) {
+        while (!hasFinished && !backoff.isExpired()) {
             try {
                 String dataResultUri = executeReportDefinition(resp.getUri());
                 JSONObject result = getObjectByUri(dataResultUri);
@@ -899,7 +918,7 @@ public class GdcRESTApiWrapper {
             } catch (HttpMethodNotFinishedYetException e) {
                 l.debug("computeMetric: Waiting for DataResult");
                 try {
-                    Thread.sleep(500);
+                    backoff.sleep(getRetryAfter());
                 } catch (InterruptedException ex) {
                     // do nothing
                 }
@@ -919,9 +938,9 @@ public class GdcRESTApiWrapper {
         l.debug("Computing report uri=" + reportUri);
         String retVal = "";
         String reportDefUri = getReportDefinition(reportUri);
-        int retryCnt = 1000;
+        Backoff backoff = new Backoff(COMPUTE_TIMEOUT);
         boolean hasFinished = false;
-        while (retryCnt-- > 0 && !hasFinished) {
+        while (!hasFinished && !backoff.isExpired()) {
             try {
                 String dataResultUri = executeReportDefinition(reportDefUri);
                 JSONObject result = getObjectByUri(dataResultUri);
@@ -1017,7 +1036,7 @@ public class GdcRESTApiWrapper {
             } catch (HttpMethodNotFinishedYetException e) {
                 l.debug("computeReport: Waiting for DataResult");
                 try {
-                    Thread.sleep(500);
+                    backoff.sleep(getRetryAfter());
                 } catch (InterruptedException ex) {
                     // do nothing
                 }
@@ -1186,16 +1205,17 @@ public class GdcRESTApiWrapper {
         byte[] buf = null;
         String qUri = getServerUrl() + uri;
         boolean finished = false;
+        Backoff backoff = new Backoff();
         do {
             HttpMethod qGet = createGetMethod(qUri);
             try {
                 executeMethodOkOnly(qGet);
                 finished = true;
-                buf = qGet.getResponseBody();
+                buf = NetUtil.getResponseBody(qGet);
             } catch (HttpMethodNotFinishedYetException e) {
                 l.debug("Waiting for exporter to finish.");
                 try {
-                    Thread.currentThread().sleep(1000);
+                    backoff.sleep(getRetryAfter());
                 } catch (InterruptedException ex) {
                     // do nothing
                 }
@@ -1237,6 +1257,33 @@ public class GdcRESTApiWrapper {
         return taskLink;
     }
 
+    /**
+     * Kicks the GDC platform to load the transferred data. The returned future is completed by a background
+     * thread that watches all outstanding loads.
+     *
+     * @param projectId the project's ID
+     * @param remoteDir the remote (FTP) directory that contains the data
+     * @param timeout   how long the load is watched (ms, 0 = till it finishes)
+     * @return the final loading status (OK, WARNING or ERROR)
+     * @throws GdcRestApiException
+     */
+    public Future<String> startLoadingAsync(String projectId, String remoteDir, long timeout) throws GdcRestApiException {
+        return watchLoading(startLoading(projectId, remoteDir), timeout);
+    }
+
+    /**
+     * Watches a started data load
+     *
+     * @param link    the link returned from the start loading
+     * @param timeout how long the load is watched (ms, 0 = till it finishes)
+     * @return the final loading status (OK, WARNING or ERROR)
+     */
+    public synchronized Future<String> watchLoading(String link, long timeout) {
+        if (watcher == null)
+            watcher = new LoadingStatusWatcher(this);
+        return watcher.watch(link, timeout);
+    }
+
     /**
      * Returns the pull API JSON structure
      *
@@ -2392,7 +2439,7 @@ public class GdcRESTApiWrapper {
     private String executeMethodOk(HttpMethod method, boolean reloginOn401, int retries) throws HttpMethodException {
         try {
             executeMethodOkOnly(method, reloginOn401, retries);
-            return method.getResponseBodyAsString();
+            return NetUtil.getResponseBodyAsString(method);
         } catch (IOException e) {
             l.debug("Error invoking GoodData REST API.", e);
             throw new HttpMethodException("Error invoking GoodData REST API.", e);
@@ -2417,6 +2464,7 @@ public class GdcRESTApiWrapper {
     private void executeMethodOkOnly(HttpMethod method, boolean reloginOn401, int retries) throws HttpMethodException, IOException {
         try {
             client.executeMethod(method);
+            retryAfter.set(parseRetryAfter(method));
 
             /* HttpClient is rather unsupportive when it comes to robust interpreting
              * of response classes; which is mandated by RFC and extensively used in
@@ -2426,7 +2474,7 @@ public class GdcRESTApiWrapper {
             if (method.getStatusCode() == HttpStatus.SC_CREATED) {
                 return;
             } else if (method.getStatusCode() == HttpStatus.SC_ACCEPTED) {
-                throw new HttpMethodNotFinishedYetException(method.getResponseBodyAsString());
+                throw new HttpMethodNotFinishedYetException(NetUtil.getResponseBodyAsString(method));
             } else if (method.getStatusCode() == HttpStatus.SC_NO_CONTENT) {
                 return;
             } else if (method.getStatusCode() >= HttpStatus.SC_OK
@@ -2444,7 +2492,7 @@ public class GdcRESTApiWrapper {
                     && method.getResponseHeader("Retry-After") != null) {
                 /* This is recommended by RFC 2616 and should probably be dealt with by the
                  * client library. May god have mercy with it. */
-                int timeout = Integer.parseInt(method.getResponseHeader("Retry-After").getValue());
+                long timeout = parseRetryAfter(method) / 1000;
                 l.debug("Remote asked us to retry after " + timeout + " seconds, sleeping.");
                 l.debug(retries + " more retries");
                 try {
@@ -2473,6 +2521,28 @@ public class GdcRESTApiWrapper {
     }
 
 
+    /**
+     * Returns the delay requested by the Retry-After header of the last response received by the calling thread
+     *
+     * @return the delay in ms, 0 if the server hasn't requested any
+     */
+    public long getRetryAfter() {
+        Long delay = retryAfter.get();
+        return (delay != null) ? (delay) : (0);
+    }
+
+    private static long parseRetryAfter(HttpMethod method) {
+        Header header = method.getResponseHeader("Retry-After");
+        if (header != null) {
+            try {
+                return 1000L * Integer.parseInt(header.getValue().trim());
+            } catch (NumberFormatException e) {
+                l.debug("Unsupported Retry-After value " + header.getValue());
+            }
+        }
+        return 0;
+    }
+
     /**
      * Returns the data interfaces URI
      *
@@ -2992,6 +3062,7 @@ public class GdcRESTApiWrapper {
         try {
             String response = "";
             boolean isFinished = false;
+            Backoff backoff = new Backoff();
             while (!isFinished) {
                 try {
                     response = executeMethodOk(ptm);
@@ -2999,7 +3070,7 @@ public class GdcRESTApiWrapper {
                 } catch (HttpMethodNotFinishedYetException e) {
                     l.debug("getTaskManStatus: Waiting for status");
                     try {
-                        Thread.sleep(500);
+                        backoff.sleep(getRetryAfter());
                     } catch (InterruptedException ex) {
                         // do nothing
                     }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.integration.rest;
+
+import com.gooddata.exception.GdcIntegrationErrorException;
+import com.gooddata.exception.HttpMethodException;
+import com.gooddata.util.Backoff;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Polls the status of all outstanding data loads from a single background thread. Every load is polled with its
+ * own exponential backoff, the thread sleeps till the next load is due and exits when there is nothing to watch.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class LoadingStatusWatcher {
+
+    private static Logger l = Logger.getLogger(LoadingStatusWatcher.class);
+
+    // number of subsequent failed status calls that fail the load
+    private static final int MAX_FAILURES = 360;
+
+    private final GdcRESTApiWrapper rest;
+    private final List<Load> loads = new ArrayList<Load>();
+    private Thread thread = null;
+
+    /**
+     * Constructor
+     *
+     * @param rest the REST API wrapper used for the status polling
+     */
+    public LoadingStatusWatcher(GdcRESTApiWrapper rest) {
+        this.rest = rest;
+    }
+
+    /**
+     * Starts watching a data load
+     *
+     * @param taskUri the loading task URI returned by the startLoading
+     * @param timeout how long the load is watched (ms, 0 = till it finishes)
+     * @return the final loading status (OK, WARNING or ERROR)
+     */
+    public synchronized Future<String> watch(String taskUri, long timeout) {
+        Load load = new Load(taskUri, timeout);
+        loads.add(load);
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    watchLoads();
+                }
+            }, "loading-status-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            notifyAll();
+        }
+        return load;
+    }
+
+    /**
+     * @return number of the watched loads
+     */
+    public synchronized int getWatchedCount() {
+        return loads.size();
+    }
+
+    /**
+     * Retrieves the loading status
+     *
+     * @param taskUri the loading task URI
+     * @return the loading status
+     * @throws HttpMethodException in case of a failed status call
+     */
+    protected String getStatus(String taskUri) throws HttpMethodException {
+        return rest.getLoadingStatus(taskUri);
+    }
+
+    /**
+     * @return the delay requested by the last status response (ms)
+     */
+    protected long getRetryAfter() {
+        return rest.getRetryAfter();
+    }
+
+    private void watchLoads() {
+        while (true) {
+            List<Load> due = new ArrayList<Load>();
+            synchronized (this) {
+                for (Iterator<Load> i = loads.iterator(); i.hasNext();) {
+                    if (i.next().isDone())
+                        i.remove();
+                }
+                if (loads.isEmpty()) {
+                    thread = null;
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                long next = Long.MAX_VALUE;
+                for (Load load : loads) {
+                    if (load.nextPoll <= now)
+                        due.add(load);
+                    else
+                        next = Math.min(next, load.nextPoll);
+                }
+                if (due.isEmpty()) {
+                    try {
+                        wait(next - now);
+                    } catch (InterruptedException e) {
+                        // check the loads
+                    }
+                    continue;
+                }
+            }
+            for (Load load : due) {
+                poll(load);
+            }
+        }
+    }
+
+    private void poll(Load load) {
+        long retryAfter = 0;
+        try {
+            String status = getStatus(load.taskUri);
+            load.failures = 0;
+            l.debug("Loading status of " + load.taskUri + " = " + status);
+            if ("OK".equalsIgnoreCase(status) || "ERROR".equalsIgnoreCase(status) || "WARNING".equalsIgnoreCase(status)) {
+                finish(load, status, null);
+                return;
+            }
+            retryAfter = getRetryAfter();
+        } catch (HttpMethodException e) {
+            load.failures++;
+            l.debug("Loading status call failed with: '" + e.getMessage() + "' Retry #" + load.failures + ".");
+            if (load.failures > MAX_FAILURES) {
+                finish(load, null, e);
+                return;
+            }
+        } catch (RuntimeException e) {
+            finish(load, null, e);
+            return;
+        }
+        if (load.backoff.isExpired()) {
+            finish(load, null, new GdcIntegrationErrorException("The data loading hasn't finished in " +
+                    (load.timeout / 1000) + " seconds."));
+            return;
+        }
+        load.nextPoll = System.currentTimeMillis() + ((retryAfter > 0) ? (retryAfter) : (load.backoff.nextInterval()));
+    }
+
+    private void finish(Load load, String status, Throwable e) {
+        // the finished load isn't watched anymore when its result is available
+        synchronized (this) {
+            loads.remove(load);
+        }
+        if (e != null)
+            load.fail(e);
+        else
+            load.finish(status);
+    }
+
+    private static class Load extends FutureTask<String> {
+
+        final String taskUri;
+        final long timeout;
+        final Backoff backoff;
+        long nextPoll = 0;
+        int failures = 0;
+
+        Load(String taskUri, long timeout) {
+            super(new Callable<String>() {
+                public String call() {
+                    return null;
+                }
+            });
+            this.taskUri = taskUri;
+            this.timeout = timeout;
+            this.backoff = new Backoff(timeout);
+        }
+
+        void finish(String status) {
+            set(status);
+        }
+
+        void fail(Throwable e) {
+            setException(e);
+        }
+    }
+
+}
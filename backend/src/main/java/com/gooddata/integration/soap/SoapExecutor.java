@@ -23,8 +23,15 @@
 
 package com.gooddata.integration.soap;
 
+import com.gooddata.util.NetUtil;
 import com.sun.org.apache.xml.internal.serialize.OutputFormat;
 import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
 import org.jaxen.JaxenException;
 import org.jaxen.SimpleNamespaceContext;
 import org.jaxen.XPath;
@@ -33,18 +40,48 @@ import org.w3c.dom.Document;
 
 import javax.xml.soap.*;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Executes SOAP message
+ * Executes SOAP message. The messages are posted by a HTTP client that keeps the connections alive, so
+ * the consecutive calls (e.g. the result pages) reuse the connection. The compiled XPath queries are cached.
  *
  * @author zd <zd@gooddata.com>
  * @version 1.0
  */
 public class SoapExecutor {
 
+    // the maximal number of the cached XPath queries
+    private static final int MAX_CACHED_XPATHS = 256;
+
+    private final HttpClient client;
+    private MessageFactory messageFactory;
+    // the compiled XPath queries by the query and the namespaces
+    private final Map<String, XPath> xpaths = new ConcurrentHashMap<String, XPath>();
+
+    /**
+     * Creates the executor with its own pool of HTTP connections
+     */
+    public SoapExecutor() {
+        this(new HttpClient(new MultiThreadedHttpConnectionManager()));
+        NetUtil.configureHttpProxy(client);
+    }
+
+    /**
+     * Creates the executor
+     *
+     * @param client HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public SoapExecutor(HttpClient client) {
+        this.client = client;
+    }
+
     /**
      * Executes SOAP message
      *
@@ -55,7 +92,8 @@ public class SoapExecutor {
      * @throws IOException   in case of an IO issue
      */
     public SOAPMessage execute(String endpointUrl, String request) throws SOAPException, IOException {
-        SOAPMessage message = MessageFactory.newInstance().createMessage(new MimeHeaders(), new ByteArrayInputStream(request.getBytes()));
+        SOAPMessage message = getMessageFactory().createMessage(new MimeHeaders(),
+                new ByteArrayInputStream(request.getBytes("UTF-8")));
         return execute(endpointUrl, message);
     }
 
@@ -69,22 +107,43 @@ public class SoapExecutor {
      * @throws IOException   in case of an IO issue
      */
     public SOAPMessage execute(String endpointUrl, SOAPMessage message) throws SOAPException, IOException {
-        SOAPConnection conn = null;
+        if (message.saveRequired())
+            message.saveChanges();
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        message.writeTo(request);
+        PostMethod post = new PostMethod(endpointUrl);
+        String[] action = message.getMimeHeaders().getHeader("SOAPAction");
+        post.setRequestHeader("SOAPAction", (action != null && action.length > 0) ? (action[0]) : ("\"\""));
+        String[] contentType = message.getMimeHeaders().getHeader("Content-Type");
+        post.setRequestEntity(new ByteArrayRequestEntity(request.toByteArray(),
+                (contentType != null && contentType.length > 0) ? (contentType[0]) : ("text/xml; charset=utf-8")));
         try {
-            conn = SOAPConnectionFactory.newInstance().createConnection();
-            SOAPMessage response = conn.call(message, endpointUrl);
-            SOAPBody body = response.getSOAPBody();
-            if (body.hasFault())
-                throw new SOAPException(body.getFault().getFaultString());
+            int rc = client.executeMethod(post);
+            // the faults are returned with the internal server error status
+            byte[] body = NetUtil.getResponseBody(post);
+            if ((rc != HttpStatus.SC_OK && rc != HttpStatus.SC_INTERNAL_SERVER_ERROR) || body == null)
+                throw new SOAPException("Bad response: (" + rc + ") " + post.getStatusText());
+            MimeHeaders headers = new MimeHeaders();
+            Header responseType = post.getResponseHeader("Content-Type");
+            headers.addHeader("Content-Type", (responseType != null) ? (responseType.getValue()) : ("text/xml"));
+            SOAPMessage response = getMessageFactory().createMessage(headers, new ByteArrayInputStream(body));
+            SOAPBody bdy = response.getSOAPBody();
+            if (bdy.hasFault())
+                throw new SOAPException(bdy.getFault().getFaultString());
             return response;
         } finally {
-            if (conn != null)
-                conn.close();
+            post.releaseConnection();
         }
     }
 
+    private synchronized MessageFactory getMessageFactory() throws SOAPException {
+        if (messageFactory == null)
+            messageFactory = MessageFactory.newInstance();
+        return messageFactory;
+    }
+
     /**
-     * Constructs XPath query over the SOAP message
+     * Constructs XPath query over the SOAP message. The returned query is cached and shared, it must not be modified.
      *
      * @param query    XPath query
      * @param response SOAP message
@@ -93,38 +152,62 @@ public class SoapExecutor {
      * @throws JaxenException XPath problem
      */
     public XPath createXPath(String query, SOAPMessage response) throws SOAPException, JaxenException {
-        //Uses DOM to XPath mapping
-        XPath xpath = new DOMXPath(query);
+        return createXPath(query, response, null);
+    }
+
+    /**
+     * Constructs XPath query over the SOAP message. The returned query is cached and shared, it must not be modified.
+     *
+     * @param query      XPath query
+     * @param response   SOAP message
+     * @param namespaces additional namespaces by prefix or null
+     * @return XPath query
+     * @throws SOAPException  in case of SOAP issue
+     * @throws JaxenException XPath problem
+     */
+    public XPath createXPath(String query, SOAPMessage response, Map<String, String> namespaces)
+            throws SOAPException, JaxenException {
         //Define a namespaces used in response
-        SimpleNamespaceContext nsContext = new SimpleNamespaceContext();
+        Map<String, String> ns = new TreeMap<String, String>();
         SOAPPart sp = response.getSOAPPart();
         SOAPEnvelope env = sp.getEnvelope();
         SOAPBody bdy = env.getBody();
         //Add namespaces from SOAP envelope
-        addNamespaces(nsContext, env);
+        addNamespaces(ns, env);
         //Add namespaces of top body element
         Iterator bodyElements = bdy.getChildElements();
         while (bodyElements.hasNext()) {
-            SOAPElement element = (SOAPElement) bodyElements.next();
-            addNamespaces(nsContext, element);
+            Object element = bodyElements.next();
+            if (element instanceof SOAPElement)
+                addNamespaces(ns, (SOAPElement) element);
+        }
+        if (namespaces != null)
+            ns.putAll(namespaces);
+        String key = query + " " + ns;
+        XPath xpath = xpaths.get(key);
+        if (xpath == null) {
+            //Uses DOM to XPath mapping
+            xpath = new DOMXPath(query);
+            xpath.setNamespaceContext(new SimpleNamespaceContext(ns));
+            if (xpaths.size() >= MAX_CACHED_XPATHS)
+                xpaths.clear();
+            xpaths.put(key, xpath);
         }
-        xpath.setNamespaceContext(nsContext);
         return xpath;
     }
 
     /**
      * Namespace context resolver
      *
-     * @param context namespace context
-     * @param element SOAP message element
+     * @param namespaces namespaces by prefix
+     * @param element    SOAP message element
      */
-    protected void addNamespaces(SimpleNamespaceContext context,
-                                 SOAPElement element) {
-        Iterator namespaces = element.getNamespacePrefixes();
-        while (namespaces.hasNext()) {
-            String prefix = (String) namespaces.next();
+    protected void addNamespaces(Map<String, String> namespaces, SOAPElement element) {
+        Iterator prefixes = element.getNamespacePrefixes();
+        while (prefixes.hasNext()) {
+            String prefix = (String) prefixes.next();
             String uri = element.getNamespaceURI(prefix);
-            context.addNamespace(prefix, uri);
+            namespaces.put(prefix, uri);
         }
     }
 
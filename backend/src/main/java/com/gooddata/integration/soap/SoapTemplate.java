@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.integration.soap;
+
+import com.gooddata.util.FileUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SOAP request template with the %PLACEHOLDER% parameters. The template is split to the literal text and
+ * the placeholders once, a request is then filled in a single pass. The placeholders without a value are kept.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class SoapTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("%[A-Z][A-Z0-9_]*%");
+
+    // the templates loaded from the classpath by the resource path
+    private static final Map<String, SoapTemplate> templates = new ConcurrentHashMap<String, SoapTemplate>();
+
+    // the literal text and the placeholder names (without the % signs) at the odd indexes
+    private final String[] tokens;
+
+    /**
+     * Creates the template
+     *
+     * @param template the template text
+     */
+    public SoapTemplate(String template) {
+        List<String> t = new ArrayList<String>();
+        Matcher m = PLACEHOLDER.matcher(template);
+        int start = 0;
+        while (m.find()) {
+            t.add(template.substring(start, m.start()));
+            t.add(template.substring(m.start() + 1, m.end() - 1));
+            start = m.end();
+        }
+        t.add(template.substring(start));
+        tokens = t.toArray(new String[t.size()]);
+    }
+
+    private SoapTemplate(String[] tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Returns the template loaded from the classpath
+     *
+     * @param path the template resource path
+     * @param c    the class that loads the resource
+     * @return the template
+     * @throws IOException if the template can't be read
+     */
+    public static SoapTemplate getTemplate(String path, Class c) throws IOException {
+        SoapTemplate t = templates.get(path);
+        if (t == null) {
+            t = new SoapTemplate(FileUtil.readStringFromClasspath(path, c));
+            templates.put(path, t);
+        }
+        return t;
+    }
+
+    /**
+     * Fills the template
+     *
+     * @param values the placeholder values by the placeholder name (without the % signs)
+     * @return the request
+     */
+    public String fill(Map<String, String> values) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            if (i % 2 == 0) {
+                s.append(tokens[i]);
+            } else {
+                String v = values.get(tokens[i]);
+                s.append((v != null) ? (v) : ("%" + tokens[i] + "%"));
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Fills some placeholders, e.g. the ones that don't change from page to page
+     *
+     * @param values the placeholder values by the placeholder name (without the % signs)
+     * @return the template with the remaining placeholders
+     */
+    public SoapTemplate bind(Map<String, String> values) {
+        List<String> t = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            String v = (i % 2 == 0) ? (tokens[i]) : (values.get(tokens[i]));
+            if (v != null) {
+                literal.append(v);
+            } else {
+                t.add(literal.toString());
+                t.add(tokens[i]);
+                literal.setLength(0);
+            }
+        }
+        t.add(literal.toString());
+        return new SoapTemplate(t.toArray(new String[t.size()]));
+    }
+}
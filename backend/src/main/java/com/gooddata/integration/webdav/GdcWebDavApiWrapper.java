@@ -25,7 +25,9 @@ package com.gooddata.integration.webdav;
 
 import com.gooddata.exception.HttpMethodException;
 import com.gooddata.exception.HttpMethodNotFinishedYetException;
+import com.gooddata.integration.datatransfer.ArchiveWriter;
 import com.gooddata.integration.datatransfer.GdcDataTransferAPI;
+import com.gooddata.integration.datatransfer.UploadJournal;
 import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
 import com.gooddata.util.NetUtil;
 import net.sf.json.JSONException;
@@ -36,6 +38,7 @@ import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.MultiStatus;
@@ -47,6 +50,9 @@ import org.apache.log4j.Logger;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -63,6 +69,19 @@ public class GdcWebDavApiWrapper implements GdcDataTransferAPI {
     protected static final String DEFAULT_ARCHIVE_NAME = "upload.zip";
     protected static final String WEBDAV_URI = "/uploads/";
 
+    /**
+     * Default size of the parts of the uploads in parts
+     */
+    public static final long DEFAULT_PART_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default number of attempts to repeat a failed part
+     */
+    public static final int DEFAULT_PART_RETRIES = 3;
+
+    // delay before the first repeated attempt, doubles with every attempt
+    private long retryDelay = 1000;
+
     protected HttpClient client;
     protected NamePasswordConfiguration config;
 
@@ -72,10 +91,19 @@ public class GdcWebDavApiWrapper implements GdcDataTransferAPI {
      * @param config NamePasswordConfiguration object with the GDC name and password configuration
      */
     public GdcWebDavApiWrapper(NamePasswordConfiguration config) {
-        this.config = config;
-        client = new HttpClient();
-
+        this(config, new HttpClient());
         NetUtil.configureHttpProxy(client);
+    }
+
+    /**
+     * Constructs the GoodData WebDav API Java wrapper that uses a shared HTTP client configuration
+     *
+     * @param config NamePasswordConfiguration object with the GDC name and password configuration
+     * @param client HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public GdcWebDavApiWrapper(NamePasswordConfiguration config, HttpClient client) {
+        this.config = config;
+        this.client = client;
 
         Credentials creds = new UsernamePasswordCredentials(this.config.getUsername(), this.config.getPassword());
         client.getState().setCredentials(AuthScope.ANY, creds);
@@ -94,12 +122,160 @@ public class GdcWebDavApiWrapper implements GdcDataTransferAPI {
         MkColMethod mkdir = new MkColMethod(this.config.getUrl() + WEBDAV_URI + dir);
         executeMethodOk(mkdir);
         PutMethod put = new PutMethod(this.config.getUrl() + WEBDAV_URI + dir + "/" + DEFAULT_ARCHIVE_NAME);
-        RequestEntity requestEntity = new InputStreamRequestEntity(new FileInputStream(file));
-        put.setRequestEntity(requestEntity);
-        executeMethodOk(put);
+        InputStream is = new FileInputStream(file);
+        try {
+            RequestEntity requestEntity = new InputStreamRequestEntity(is);
+            put.setRequestEntity(requestEntity);
+            executeMethodOk(put);
+        } finally {
+            is.close();
+            put.releaseConnection();
+        }
         l.debug("Transferred archive " + archiveName);
     }
 
+    /**
+     * WebDav transfers the archive in parts. Every part is a PUT with the Content-Range header and it is repeated
+     * when it fails. The confirmed parts are recorded in the journal, an upload that has been interrupted continues
+     * with the first unconfirmed part.
+     *
+     * @param archiveName the name of the ZIP archive that is going to be transferred
+     * @param partSize    the part size in bytes
+     * @param retries     number of attempts to repeat a failed part
+     * @param journal     the upload journal
+     * @throws IOException in case of IO issues
+     */
+    public void transferDir(String archiveName, long partSize, int retries, UploadJournal journal) throws IOException {
+        File file = new File(archiveName);
+        String dir = file.getName().split("\\.")[0];
+        long size = file.length();
+        if (journal.canResume(file, partSize)) {
+            l.info("Resuming the transfer of archive " + archiveName + " at " + journal.getUploaded() + " of " +
+                    size + " bytes.");
+        } else {
+            l.debug("Transfering archive " + archiveName + " in parts of " + partSize + " bytes.");
+            MkColMethod mkdir = new MkColMethod(this.config.getUrl() + WEBDAV_URI + dir);
+            executeMethodOk(mkdir);
+            journal.start(file, partSize);
+        }
+        String url = this.config.getUrl() + WEBDAV_URI + dir + "/" + DEFAULT_ARCHIVE_NAME;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] part = new byte[(int) Math.max(1, Math.min(partSize, size))];
+            long offset = journal.getUploaded();
+            do {
+                int length = (int) Math.min(partSize, size - offset);
+                raf.seek(offset);
+                raf.readFully(part, 0, length);
+                putPart(url, part, length, offset, size, retries);
+                offset += length;
+                journal.setUploaded(offset);
+            } while (offset < size);
+        } finally {
+            raf.close();
+        }
+        journal.delete();
+        l.debug("Transferred archive " + archiveName);
+    }
+
+    /**
+     * Uploads a part of the archive, repeats the upload when it fails
+     *
+     * @param url     the archive URL
+     * @param part    the part data
+     * @param length  the part length
+     * @param offset  the part offset in the archive
+     * @param size    the archive size
+     * @param retries number of attempts to repeat the part
+     */
+    private void putPart(String url, final byte[] part, final int length, long offset, long size, int retries) {
+        for (int attempt = 0; ; attempt++) {
+            PutMethod put = new PutMethod(url);
+            if (length < size)
+                put.setRequestHeader("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + size);
+            put.setRequestEntity(new RequestEntity() {
+                public boolean isRepeatable() {
+                    return true;
+                }
+
+                public void writeRequest(OutputStream out) throws IOException {
+                    out.write(part, 0, length);
+                }
+
+                public long getContentLength() {
+                    return length;
+                }
+
+                public String getContentType() {
+                    return "application/zip";
+                }
+            });
+            try {
+                executeMethodOk(put);
+                return;
+            } catch (HttpMethodException e) {
+                if (attempt >= retries)
+                    throw e;
+                long delay = retryDelay << attempt;
+                l.info("Upload of the archive part at " + offset + " failed, repeating in " + delay + " ms. Reason: " +
+                        e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    throw e;
+                }
+            } finally {
+                put.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * WebDav transfers the archive produced by the writer to the remote GDC WebDav server. The archive is
+     * written directly to the body of a chunked PUT request, it is never stored locally.
+     *
+     * @param archiveName the name of the ZIP archive that is going to be transferred
+     * @param writer      writes the archive content
+     * @throws java.io.IOException in case of IO issues
+     */
+    public void transferArchive(String archiveName, final ArchiveWriter writer) throws IOException {
+        l.debug("Streaming archive " + archiveName);
+        File file = new File(archiveName);
+        String dir = file.getName().split("\\.")[0];
+        MkColMethod mkdir = new MkColMethod(this.config.getUrl() + WEBDAV_URI + dir);
+        executeMethodOk(mkdir);
+        PutMethod put = new PutMethod(this.config.getUrl() + WEBDAV_URI + dir + "/" + DEFAULT_ARCHIVE_NAME);
+        // the streamed body can't be repeated after an authentication challenge
+        put.getHostAuthState().setPreemptive();
+        put.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+        // nor can it be retried, the failure of the writer is reported as is
+        put.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(0, false));
+        put.setRequestEntity(new RequestEntity() {
+            public boolean isRepeatable() {
+                return false;
+            }
+
+            public void writeRequest(OutputStream out) throws IOException {
+                writer.write(out);
+            }
+
+            public long getContentLength() {
+                // chunked transfer encoding
+                return -1;
+            }
+
+            public String getContentType() {
+                return "application/zip";
+            }
+        });
+        try {
+            executeMethodOk(put);
+        } finally {
+            put.releaseConnection();
+        }
+        l.debug("Streamed archive " + archiveName);
+    }
+
     /**
      * GET the transfer logs from the FTP server
      *
@@ -124,6 +300,14 @@ public class GdcWebDavApiWrapper implements GdcDataTransferAPI {
         return result;
     }
 
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
     /**
      * Executes HttpMethod and test if the response if 200(OK)
      *
@@ -183,6 +367,9 @@ public class GdcWebDavApiWrapper implements GdcDataTransferAPI {
         } catch (DavException e) {
             l.debug("Error invoking GoodData REST API.", e);
             throw new HttpMethodException("Error invoking GoodData WebDav API.", e);
+        } finally {
+            // return the connection to the pool
+            method.releaseConnection();
         }
     }
 
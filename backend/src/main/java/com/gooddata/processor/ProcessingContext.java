@@ -32,10 +32,17 @@ import com.gooddata.integration.datatransfer.GdcDataTransferAPI;
 import com.gooddata.integration.rest.GdcRESTApiWrapper;
 import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
 import com.gooddata.integration.webdav.GdcWebDavApiWrapper;
+import com.gooddata.util.HttpConnectionPool;
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 
 /**
  * GoodData
@@ -51,6 +58,11 @@ public class ProcessingContext {
     private Connector connector;
     private GdcRESTApiWrapper _restApi = null;
     private GdcDataTransferAPI _ftpApi = null;
+    private HttpConnectionPool httpConnectionPool = new HttpConnectionPool();
+    // the data loads started without waiting for their finish by the data package name
+    private Map<String, Future<String>> pendingLoads = new LinkedHashMap<String, Future<String>>();
+    // the objects shared by all commands of the script (e.g. the connector session caches) by a key
+    private ConcurrentMap<String, Object> sharedObjects = new ConcurrentHashMap<String, Object>();
 
 
     public String getProjectId() throws InvalidParameterException {
@@ -102,7 +114,7 @@ public class ProcessingContext {
             NamePasswordConfiguration httpConfig = cliParams.getHttpConfig();
             checkConfig(httpConfig);
             l.debug("Using the GoodData HTTP host '" + httpConfig.getGdcHost() + "'.");
-            _restApi = new GdcRESTApiWrapper(httpConfig);
+            _restApi = new GdcRESTApiWrapper(httpConfig, createHttpClient());
             _restApi.login();
         }
         return _restApi;
@@ -122,11 +134,97 @@ public class ProcessingContext {
             }
             checkConfig(ftpConfig);
             l.debug("Using the GoodData data stage host '" + ftpConfig.getGdcHost() + "'.");
-            _ftpApi = new GdcWebDavApiWrapper(ftpConfig);
+            // the WebDav responses aren't compressed
+            _ftpApi = new GdcWebDavApiWrapper(ftpConfig, httpConnectionPool.createClient(false));
         }
         return _ftpApi;
     }
 
+    /**
+     * Creates a context for a concurrently executed script. The new context shares the project and the server
+     * connections with this context but uses its own connector.
+     *
+     * @param cliParams cli parameters
+     * @return new context
+     */
+    public ProcessingContext createChildContext(CliParams cliParams) {
+        ProcessingContext child = new ProcessingContext();
+        child.projectId = projectId;
+        child._restApi = getRestApi(cliParams);
+        child._ftpApi = getFtpApi(cliParams);
+        child.httpConnectionPool = httpConnectionPool;
+        child.pendingLoads = pendingLoads;
+        child.sharedObjects = sharedObjects;
+        return child;
+    }
+
+    /**
+     * Creates a new HTTP client that shares the pooled connections with the other clients of this context
+     *
+     * @return new HTTP client
+     */
+    public HttpClient createHttpClient() {
+        return httpConnectionPool.createClient();
+    }
+
+    /**
+     * Closes the pooled HTTP connections
+     */
+    public void close() {
+        httpConnectionPool.shutdown();
+    }
+
+    /**
+     * Registers a data load that hasn't been waited for
+     *
+     * @param archiveName the loaded data package name
+     * @param loading     the load final status
+     */
+    public void addPendingLoad(String archiveName, Future<String> loading) {
+        synchronized (pendingLoads) {
+            pendingLoads.put(archiveName, loading);
+        }
+    }
+
+    /**
+     * Returns and forgets all registered data loads
+     *
+     * @return the loads by the data package name
+     */
+    public Map<String, Future<String>> removePendingLoads() {
+        synchronized (pendingLoads) {
+            Map<String, Future<String>> loads = new LinkedHashMap<String, Future<String>>(pendingLoads);
+            pendingLoads.clear();
+            return loads;
+        }
+    }
+
+    /**
+     * Returns an object shared by all commands of the script
+     *
+     * @param key the object key
+     * @return the shared object or null if no object has been shared under the key
+     */
+    public Object getSharedObject(String key) {
+        return sharedObjects.get(key);
+    }
+
+    /**
+     * Shares an object with all commands of the script unless another object has been already shared under the key
+     *
+     * @param key    the object key
+     * @param object the object
+     * @return the object shared under the key
+     */
+    public Object shareObject(String key, Object object) {
+        Object shared = sharedObjects.putIfAbsent(key, object);
+        return (shared != null) ? (shared) : (object);
+    }
+
+    public HttpConnectionPool getHttpConnectionPool() {
+        return httpConnectionPool;
+    }
+
     private static void checkConfig(NamePasswordConfiguration config) {
         if (config.getUsername() == null) {
             throw new InvalidArgumentException("Missing the 'username' commandline parameter.");
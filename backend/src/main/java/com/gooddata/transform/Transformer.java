@@ -32,7 +32,6 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
@@ -41,10 +40,16 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * GoodData transformation
+ * GoodData transformation. The transformer is compiled for its schema once: the LDM types are resolved to
+ * integer codes, the positions of the core (non-transformed), identity and output columns are precomputed and
+ * the JEXL variables are bound to slots of a reusable context, so that no per-row lookups or allocations
+ * are needed beyond the output row itself.
  *
  * @author zd <zd@gooddata.com>
  * @version 1.0
@@ -53,9 +58,37 @@ public class Transformer {
 
     private static Logger l = Logger.getLogger(Transformer.class);
 
+    /**
+     * Compiled column kinds
+     */
+    private static final int KIND_OTHER = 0;
+    private static final int KIND_FACT = 1;
+    private static final int KIND_DATE = 2;
+
+    private static final String IDENTITY_VAR = "IDENTITY";
+    private static final String DATE_ARITHMETICS_VAR = "GdcDateArithmetics";
+
     private Expression[] expressions;
     private SourceSchema schema;
 
+    // core (non-transformed) columns in the order they appear in the processed row
+    private SourceColumn[] coreColumns;
+    private int[] coreKinds;
+    private boolean[] coreKeys;
+    private int[] coreSlots;
+
+    // output (non-ignored) columns
+    private String[] outputNames;
+    private Expression[] outputExpressions;
+    private int[] outputSlots;
+
+    private boolean computeIdentity;
+    private int identitySlot;
+    private int arithmeticsSlot;
+
+    private SlotContext context;
+    private final StringBuilder key = new StringBuilder();
+
     protected Transformer(SourceSchema schema) {
         setSchema(schema);
     }
@@ -99,78 +132,74 @@ public class Transformer {
      * @return
      */
     public String[] transformRow(Object[] row, int dateLength) {
+        return transformRow(row, dateLength, null);
+    }
+
+    /**
+     * Runs all the row transformations and stores the result to the passed array if it has the right size
+     *
+     * @param row        the row data
+     * @param dateLength cuts the dates to first dateLength chars
+     * @param reuse      the array returned by the previous call or null
+     * @return the transformed row (the reuse array if it could be refilled)
+     */
+    public String[] transformRow(Object[] row, int dateLength, String[] reuse) {
         try {
             if (row != null) {
-                List<SourceColumn> columns = schema.getColumns();
-                boolean computeIdentity = (schema.getIdentityColumn() >= 0);
-                int idx = 0;
-                String key = "";
-                JexlContext jc = new MapContext();
-                for (int i = 0; i < columns.size(); i++) {
-                    SourceColumn c = columns.get(i);
-                    String t = c.getTransformation();
-                    if (t == null) {
-                        // this is core (non-transformed) column
-                        if (idx < row.length) {
-                            if (SourceColumn.LDM_TYPE_FACT.equalsIgnoreCase(c.getLdmType())) {
-                                row[idx] = handleFact(row[idx]);
-                            }
-                            if (SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(c.getLdmType())) {
-                                row[idx] = handleDate(row[idx], c);
-                                row[idx] = cutStringDate(row[idx], dateLength);
-                            }
-                            // compute identity if required
-                            if (computeIdentity && SourceColumn.LDM_TYPE_ATTRIBUTE.equalsIgnoreCase(c.getLdmType()) ||
-                                    SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(c.getLdmType()) ||
-                                    SourceColumn.LDM_TYPE_REFERENCE.equalsIgnoreCase(c.getLdmType())) {
-                                key += row[idx] + "|";
-                            }
-                            jc.set(c.getName(), (row[idx] != null) ? (row[idx]) : (""));
-                            idx++;
-                        } else {
-                            throw new InvalidParameterException("Transform: The schema " + schema.getName() + " contains different" +
-                                    " number of columns than the processed row.");
-                        }
+                if (row.length < coreColumns.length) {
+                    throw new InvalidParameterException("Transform: The schema " + schema.getName() + " contains different" +
+                            " number of columns than the processed row.");
+                }
+                SlotContext jc = context;
+                jc.clear();
+                key.setLength(0);
+                for (int idx = 0; idx < coreColumns.length; idx++) {
+                    switch (coreKinds[idx]) {
+                        case KIND_FACT:
+                            row[idx] = handleFact(row[idx]);
+                            break;
+                        case KIND_DATE:
+                            row[idx] = handleDate(row[idx], coreColumns[idx]);
+                            row[idx] = cutStringDate(row[idx], dateLength);
+                            break;
                     }
+                    if (coreKeys[idx]) {
+                        key.append(row[idx]).append('|');
+                    }
+                    jc.set(coreSlots[idx], (row[idx] != null) ? (row[idx]) : (""));
                 }
                 // insert identity var
                 if (computeIdentity) {
-                    String identity = DigestUtils.md5Hex(key);
-                    jc.set("IDENTITY", identity);
+                    String identity = DigestUtils.md5Hex(key.toString());
+                    jc.set(identitySlot, identity);
                 }
 
-                jc.set("GdcDateArithmetics", da);
-
-
-                idx = 0;
-                int cntWithoutIgnored = columns.size();
-                List<SourceColumn> ignored = schema.getIgnored();
-                if (ignored != null)
-                    cntWithoutIgnored -= ignored.size();
-                List<String> nrow = new ArrayList<String>(cntWithoutIgnored);
-                for (int i = 0; i < columns.size(); i++) {
-                    SourceColumn c = columns.get(i);
-                    String t = c.getTransformation();
-                    //System.err.println("Column "+c.getName()+" tx:"+c.getTransformation());
-                    String cid = c.getName();
-                    if (!SourceColumn.LDM_TYPE_IGNORE.equalsIgnoreCase(c.getLdmType())) {
-                        if (t == null) {
-                            Object value = jc.get(cid);
-                            if (value != null) {
-                                nrow.add(value.toString());
-                            } else {
-                                l.debug("The column " + cid + " doesn't contain any value.");
-                            }
+                jc.set(arithmeticsSlot, da);
 
+                String[] nrow = (reuse != null && reuse.length == outputSlots.length) ? (reuse) :
+                        (new String[outputSlots.length]);
+                int cnt = 0;
+                for (int i = 0; i < outputSlots.length; i++) {
+                    Expression e = outputExpressions[i];
+                    if (e == null) {
+                        Object value = jc.get(outputSlots[i]);
+                        if (value != null) {
+                            nrow[cnt++] = value.toString();
                         } else {
-                            Object result = expressions[i].evaluate(jc);
-                            String value = (result != null) ? (result.toString()) : ("");
-                            nrow.add(value);
-                            jc.set(cid, result);
+                            l.debug("The column " + outputNames[i] + " doesn't contain any value.");
                         }
+                    } else {
+                        Object result = e.evaluate(jc);
+                        nrow[cnt++] = (result != null) ? (result.toString()) : ("");
+                        jc.set(outputSlots[i], result);
                     }
                 }
-                return nrow.toArray(fk);
+                if (cnt < nrow.length) {
+                    String[] shorter = new String[cnt];
+                    System.arraycopy(nrow, 0, shorter, 0, cnt);
+                    return shorter;
+                }
+                return nrow;
             } else {
                 throw new InvalidParameterException("The number of columns in the transformed row is different than in the schema.");
             }
@@ -179,7 +208,7 @@ public class Transformer {
         }
     }
 
-    private Object cutStringDate(Object o, int dateLength) {
+    Object cutStringDate(Object o, int dateLength) {
         if (dateLength > 0) {
             if (o != null) {
                 if (o instanceof String) {
@@ -197,7 +226,7 @@ public class Transformer {
         return o;
     }
 
-    private Object handleDate(Object o, SourceColumn c) {
+    Object handleDate(Object o, SourceColumn c) {
         if (o == null)
             return "";
         if (o instanceof DateTime) {
@@ -224,7 +253,7 @@ public class Transformer {
         return o;
     }
 
-    private Object handleFact(Object o) {
+    Object handleFact(Object o) {
         if (o == null)
             return "";
         if (o instanceof Number) {
@@ -267,6 +296,7 @@ public class Transformer {
                     }
                     setExpressions(es);
                     this.schema = schema;
+                    compile(columns, es);
                 } else {
                     throw new InvalidParameterException("The Transformer requires a non-empty schema to run.");
                 }
@@ -278,6 +308,121 @@ public class Transformer {
         }
     }
 
+    /**
+     * Precomputes the per-column decisions that the transformRow would otherwise take for every row
+     *
+     * @param columns     schema columns
+     * @param expressions compiled column transformations
+     */
+    private void compile(List<SourceColumn> columns, Expression[] expressions) {
+        computeIdentity = (schema.getIdentityColumn() >= 0);
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        List<SourceColumn> core = new ArrayList<SourceColumn>();
+        int outputCount = 0;
+        for (SourceColumn c : columns) {
+            if (c.getTransformation() == null)
+                core.add(c);
+            if (!SourceColumn.LDM_TYPE_IGNORE.equalsIgnoreCase(c.getLdmType()))
+                outputCount++;
+        }
+        coreColumns = core.toArray(new SourceColumn[core.size()]);
+        coreKinds = new int[coreColumns.length];
+        coreKeys = new boolean[coreColumns.length];
+        coreSlots = new int[coreColumns.length];
+        for (int i = 0; i < coreColumns.length; i++) {
+            SourceColumn c = coreColumns[i];
+            String type = c.getLdmType();
+            if (SourceColumn.LDM_TYPE_FACT.equalsIgnoreCase(type))
+                coreKinds[i] = KIND_FACT;
+            else if (SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(type))
+                coreKinds[i] = KIND_DATE;
+            else
+                coreKinds[i] = KIND_OTHER;
+            coreKeys[i] = computeIdentity && SourceColumn.LDM_TYPE_ATTRIBUTE.equalsIgnoreCase(type) ||
+                    SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(type) ||
+                    SourceColumn.LDM_TYPE_REFERENCE.equalsIgnoreCase(type);
+            coreSlots[i] = slot(slots, c.getName());
+        }
+        outputNames = new String[outputCount];
+        outputExpressions = new Expression[outputCount];
+        outputSlots = new int[outputCount];
+        int o = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            SourceColumn c = columns.get(i);
+            if (!SourceColumn.LDM_TYPE_IGNORE.equalsIgnoreCase(c.getLdmType())) {
+                outputNames[o] = c.getName();
+                outputExpressions[o] = expressions[i];
+                outputSlots[o] = slot(slots, c.getName());
+                o++;
+            }
+        }
+        identitySlot = slot(slots, IDENTITY_VAR);
+        arithmeticsSlot = slot(slots, DATE_ARITHMETICS_VAR);
+        context = new SlotContext(slots);
+    }
+
+    private static int slot(Map<String, Integer> slots, String name) {
+        Integer s = slots.get(name);
+        if (s == null) {
+            s = slots.size();
+            slots.put(name, s);
+        }
+        return s;
+    }
+
+    /**
+     * JEXL context that keeps the schema variables in an array. Variables the expressions assign outside
+     * of the schema are kept in a map. The context is cleared before each row, so the expressions see
+     * exactly the same variables as with a fresh MapContext.
+     */
+    private static class SlotContext implements JexlContext {
+
+        private final Map<String, Integer> slots;
+        private final Object[] values;
+        private final boolean[] defined;
+        private final Map<String, Object> others = new HashMap<String, Object>();
+
+        SlotContext(Map<String, Integer> slots) {
+            this.slots = slots;
+            this.values = new Object[slots.size()];
+            this.defined = new boolean[slots.size()];
+        }
+
+        void clear() {
+            Arrays.fill(values, null);
+            Arrays.fill(defined, false);
+            if (!others.isEmpty())
+                others.clear();
+        }
+
+        Object get(int slot) {
+            return values[slot];
+        }
+
+        void set(int slot, Object value) {
+            values[slot] = value;
+            defined[slot] = true;
+        }
+
+        public Object get(String name) {
+            Integer s = slots.get(name);
+            return (s != null) ? (values[s]) : (others.get(name));
+        }
+
+        public void set(String name, Object value) {
+            Integer s = slots.get(name);
+            if (s != null)
+                set(s, value);
+            else
+                others.put(name, value);
+        }
+
+        public boolean has(String name) {
+            Integer s = slots.get(name);
+            return (s != null) ? (defined[s]) : (others.containsKey(name));
+        }
+    }
+
     protected Expression[] getExpressions() {
         return expressions;
     }
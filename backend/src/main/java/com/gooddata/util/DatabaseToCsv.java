@@ -24,14 +24,17 @@ package com.gooddata.util;
 
 import org.apache.log4j.Logger;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Unloads all tables in a database to set of CSV files
+ * Unloads all tables in a database to set of CSV files. The tables are exported concurrently, every export thread
+ * reuses its database connection for all the tables it exports. The row counts and durations of the exports are
+ * written to the manifest file in the target directory.
  *
  * @author zd@gooddata.com
  * @version: 1.0
@@ -40,12 +43,25 @@ public class DatabaseToCsv {
 
     private static Logger l = Logger.getLogger(DatabaseToCsv.class);
 
-    private static final int FETCH_SIZE = 256;
+    public static final int FETCH_SIZE = 256;
+
+    /**
+     * Default number of the concurrently exported tables
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Name of the manifest file written to the target directory
+     */
+    public static final String MANIFEST_FILE = "export.manifest.csv";
 
     private String jdbcDriver;
     private String jdbcUrl;
     private String jdbcUsername;
     private String jdbcPassword;
+    private int threads = DEFAULT_THREADS;
+    private int fetchSize = FETCH_SIZE;
+    private boolean gzip = false;
 
 
     /**
@@ -85,14 +101,11 @@ public class DatabaseToCsv {
         return DriverManager.getConnection(getJdbcUrl(), getJdbcUsername(), getJdbcPassword());
     }
 
-    private List<String> listSourceTables() throws SQLException {
+    private List<String> listSourceTables(Connection con) throws SQLException {
         List<String> r = new ArrayList<String>();
-        Connection con = null;
-        DatabaseMetaData md = null;
         ResultSet rs = null;
         try {
-            con = connect();
-            md = con.getMetaData();
+            DatabaseMetaData md = con.getMetaData();
             rs = md.getTables(null, null, "%", null);
             while (rs.next()) {
                 String tableName = rs.getString(3);
@@ -104,8 +117,6 @@ public class DatabaseToCsv {
         } finally {
             if (rs != null)
                 rs.close();
-            if (con != null)
-                con.close();
         }
         return r;
     }
@@ -118,22 +129,119 @@ public class DatabaseToCsv {
      * @throws IOException
      */
     public void export(String dir) throws SQLException, IOException {
-        List<String> tables = listSourceTables();
-        for (String table : tables) {
-            exportTable(table, dir + System.getProperty("file.separator") + table + ".csv");
+        final BlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+        final List<Connection> connections = new ArrayList<Connection>();
+        Connection first = connect();
+        connections.add(first);
+        idle.add(first);
+        List<String> tables = listSourceTables(first);
+        l.debug("Exporting " + tables.size() + " tables using " + threads + " threads.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int cnt = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gdc-export-" + (++cnt));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<TableExport>> exports = new ArrayList<Future<TableExport>>();
+        try {
+            for (final String table : tables) {
+                final File csv = new File(dir, table + ((gzip) ? (".csv.gz") : (".csv")));
+                exports.add(pool.submit(new Callable<TableExport>() {
+                    public TableExport call() throws Exception {
+                        Connection con = idle.poll();
+                        if (con == null) {
+                            con = connect();
+                            synchronized (connections) {
+                                connections.add(con);
+                            }
+                        }
+                        boolean ok = false;
+                        try {
+                            TableExport te = exportTable(con, table, csv);
+                            ok = true;
+                            return te;
+                        } finally {
+                            // the connection of a failed export may be broken
+                            if (ok)
+                                idle.add(con);
+                            else
+                                close(con);
+                        }
+                    }
+                }));
+            }
+            pool.shutdown();
+
+            List<TableExport> results = new ArrayList<TableExport>();
+            List<String> failed = new ArrayList<String>();
+            Throwable failure = null;
+            for (int i = 0; i < tables.size(); i++) {
+                try {
+                    results.add(exports.get(i).get());
+                } catch (ExecutionException e) {
+                    l.error("Export of the table " + tables.get(i) + " failed: " + e.getCause().getMessage());
+                    l.debug("Export of the table " + tables.get(i) + " failed.", e.getCause());
+                    TableExport te = new TableExport(tables.get(i), new File(dir, tables.get(i)));
+                    te.failed = true;
+                    results.add(te);
+                    failed.add(tables.get(i));
+                    if (failure == null)
+                        failure = e.getCause();
+                }
+            }
+            writeManifest(new File(dir, MANIFEST_FILE), results);
+            if (failure != null) {
+                String msg = "Export of the tables " + failed + " failed. " + failure.getMessage();
+                if (failure instanceof SQLException) {
+                    SQLException e = new SQLException(msg);
+                    e.initCause(failure);
+                    throw e;
+                }
+                if (failure instanceof RuntimeException)
+                    throw (RuntimeException) failure;
+                IOException e = new IOException(msg);
+                e.initCause(failure);
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("The export of the tables has been interrupted.");
+        } finally {
+            pool.shutdownNow();
+            synchronized (connections) {
+                for (Connection con : connections) {
+                    close(con);
+                }
+            }
+        }
+    }
+
+    private static void close(Connection con) {
+        try {
+            if (!con.isClosed())
+                con.close();
+        } catch (SQLException e) {
+            l.debug("Error closing JDBC connection.", e);
         }
     }
 
-    private void exportTable(String tableName, String csvName) throws SQLException, IOException {
-        l.info("Exporting table " + tableName + " to " + csvName);
-        Connection con = null;
+    private TableExport exportTable(Connection con, String tableName, File csv) throws SQLException, IOException {
+        l.info("Exporting table " + tableName + " to " + csv);
+        TableExport te = new TableExport(tableName, csv);
+        long start = System.currentTimeMillis();
         Statement st = null;
         ResultSet rs = null;
-        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(new File(csvName));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(csv));
+        if (gzip)
+            os = new GZIPOutputStream(os);
+        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(os);
+        boolean ok = false;
         try {
-            con = connect();
             st = con.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-            st.setFetchSize(FETCH_SIZE);
+            st.setFetchSize(fetchSize);
             rs = st.executeQuery("SELECT * FROM " + tableName);
             ResultSetMetaData md = rs.getMetaData();
             int cnt = md.getColumnCount();
@@ -144,20 +252,59 @@ public class DatabaseToCsv {
             cw.writeNext(row);
             while (rs.next()) {
                 for (int i = 1; i <= cnt; i++) {
-                    row[i - 1] = rs.getString(i);
-                    if (row[i - 1] == null || rs.wasNull())
-                        row[i - 1] = "";
+                    String value = rs.getString(i);
+                    row[i - 1] = (value != null) ? (value) : ("");
                 }
                 cw.writeNext(row);
+                te.rows++;
             }
             cw.flush();
-            cw.close();
-            l.info("Exported table " + tableName + " to " + csvName);
+            te.time = System.currentTimeMillis() - start;
+            l.info("Exported table " + tableName + " to " + csv + " (" + te.rows + " rows in " + te.time + " ms)");
+            ok = true;
+            return te;
         } finally {
-            if (rs != null)
-                rs.close();
-            if (con != null)
-                con.close();
+            try {
+                cw.close();
+                if (rs != null)
+                    rs.close();
+                if (st != null)
+                    st.close();
+            } finally {
+                // the partial file of a failed export isn't left behind
+                if (!ok && !csv.delete())
+                    l.debug("Can't delete the partial export file " + csv);
+            }
+        }
+    }
+
+    private void writeManifest(File file, List<TableExport> results) throws IOException {
+        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(file);
+        try {
+            cw.writeNext(new String[]{"table", "file", "rows", "time", "status"});
+            for (TableExport te : results) {
+                cw.writeNext(new String[]{te.table, (te.failed) ? ("") : (te.file.getName()),
+                        Long.toString(te.rows), Long.toString(te.time), (te.failed) ? ("ERROR") : ("OK")});
+            }
+        } finally {
+            cw.close();
+        }
+        l.debug("Export manifest written to " + file);
+    }
+
+    /**
+     * Result of a table export
+     */
+    private static class TableExport {
+        final String table;
+        final File file;
+        long rows = 0;
+        long time = 0;
+        boolean failed = false;
+
+        TableExport(String table, File file) {
+            this.table = table;
+            this.file = file;
         }
     }
 
@@ -194,5 +341,29 @@ public class DatabaseToCsv {
         this.jdbcPassword = jdbcPassword;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
 
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.gooddata.connector;
+
+import com.gooddata.integration.model.Column;
+import com.gooddata.integration.model.SLI;
+import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
+import com.gooddata.modeling.model.SourceColumn;
+import com.gooddata.modeling.model.SourceSchema;
+import com.gooddata.processor.CliParams;
+import com.gooddata.processor.ProcessingContext;
+import com.gooddata.util.FileUtil;
+import com.gooddata.util.StubHttpServer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tests the streaming transfer of the data packages and its fallback to the file transfer against a local
+ * WebDav stand-in
+ */
+public class AbstractConnectorTest {
+
+    private static final int ROWS = 200000;
+
+    private StubHttpServer server;
+    // the uploaded archives by path
+    private final Map<String, byte[]> uploaded = new HashMap<String, byte[]>();
+    private File tmpDir;
+    private File zipDir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                if ("PUT".equals(request.getMethod())) {
+                    synchronized (uploaded) {
+                        uploaded.put(request.getPath(), request.getBody());
+                    }
+                }
+                response.setStatus(201);
+            }
+        });
+        tmpDir = FileUtil.createTempDir();
+        zipDir = FileUtil.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        FileUtil.recursiveDelete(tmpDir);
+        FileUtil.recursiveDelete(zipDir);
+    }
+
+    @Test
+    public void testOpenDataFile() throws IOException {
+        TestConnector cc = new TestConnector(TestConnector.STREAMING);
+        File dataFile = new File(tmpDir, AbstractConnector.DATA_FILE_NAME);
+        cc.extract(tmpDir.getAbsolutePath());
+        Assert.assertEquals(createData(), FileUtil.readStringFromFile(dataFile.getAbsolutePath()));
+    }
+
+    @Test
+    public void testTransferStreaming() throws IOException {
+        TestConnector cc = new TestConnector(TestConnector.STREAMING);
+        cc.setCompressionThreads(3);
+        Assert.assertTrue(transferStreaming(cc));
+        Map<String, String> entries = readZip(getUploaded());
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(createData(), entries.get(AbstractConnector.DATA_FILE_NAME));
+        Assert.assertTrue(entries.get("upload_info.json").contains("dataset.test"));
+        // nothing is stored locally
+        Assert.assertEquals(0, tmpDir.list().length);
+        assertNoCompressionThreads();
+    }
+
+    @Test
+    public void testTransferStreamingFailure() throws IOException {
+        TestConnector cc = new TestConnector(TestConnector.FAILING);
+        cc.setCompressionThreads(3);
+        Assert.assertFalse(transferStreaming(cc));
+        Assert.assertTrue(uploaded.isEmpty());
+        assertNoCompressionThreads();
+    }
+
+    @Test
+    public void testFileTransferFallback() throws IOException {
+        TestConnector cc = new TestConnector(TestConnector.FILE);
+        cc.setCompressionThreads(3);
+        // the connector writes the data file directly, so the package has to be transferred as a file
+        Assert.assertFalse(transferStreaming(cc));
+        assertNoCompressionThreads();
+
+        cc.extract(tmpDir.getAbsolutePath());
+        File archive = new File(zipDir, tmpDir.getName() + ".zip");
+        List<Column> columns = AbstractConnector.populateColumnsFromSchema(cc.getSchema());
+        cc.deploy(createSli(), columns, tmpDir.getAbsolutePath(), archive.getAbsolutePath());
+        ProcessingContext ctx = new ProcessingContext();
+        ctx.getFtpApi(createParams()).transferDir(archive.getAbsolutePath());
+        Map<String, String> entries = readZip(getUploaded());
+        Assert.assertEquals(createData(), entries.get(AbstractConnector.DATA_FILE_NAME));
+        Assert.assertTrue(entries.get("upload_info.json").contains("dataset.test"));
+    }
+
+    private boolean transferStreaming(TestConnector cc) {
+        List<Column> columns = AbstractConnector.populateColumnsFromSchema(cc.getSchema());
+        String archivePath = new File(zipDir, tmpDir.getName() + ".zip").getAbsolutePath();
+        return cc.transferStreaming(cc, createSli(), columns, tmpDir, archivePath, createParams(),
+                new ProcessingContext());
+    }
+
+    private byte[] getUploaded() {
+        synchronized (uploaded) {
+            Assert.assertEquals(1, uploaded.size());
+            Map.Entry<String, byte[]> e = uploaded.entrySet().iterator().next();
+            Assert.assertEquals("/uploads/" + tmpDir.getName() + "/upload.zip", e.getKey());
+            return e.getValue();
+        }
+    }
+
+    private CliParams createParams() {
+        CliParams p = new CliParams();
+        p.setFtpConfig(new NamePasswordConfiguration("http", "localhost", "user", "password",
+                server.getPort()));
+        return p;
+    }
+
+    private static SLI createSli() {
+        return new SLI("dataset.test", "Test", "/gdc/md/test/ldm/singleloadinterface/dataset.test");
+    }
+
+    private static void assertNoCompressionThreads() {
+        int cnt = 0;
+        for (int i = 0; i < 50; i++) {
+            Thread[] threads = new Thread[Thread.activeCount() + 10];
+            cnt = 0;
+            for (int j = Thread.enumerate(threads) - 1; j >= 0; j--) {
+                if (threads[j].getName().startsWith("gdc-zip-"))
+                    cnt++;
+            }
+            if (cnt == 0)
+                break;
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        Assert.assertEquals(0, cnt);
+    }
+
+    private static String createData() {
+        StringBuffer sb = new StringBuffer("name,amount\n");
+        for (int i = 0; i < ROWS; i++) {
+            sb.append("name").append(i % 97).append(',').append(i * 7).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> readZip(byte[] zip) throws IOException {
+        Map<String, String> ret = new HashMap<String, String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+        for (ZipEntry e = zis.getNextEntry(); e != null; e = zis.getNextEntry()) {
+            ret.put(e.getName(), new String(read(zis), "utf8"));
+        }
+        return ret;
+    }
+
+    private static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Writes the test data either through the openDataFile, directly to the data file or fails in the middle
+     */
+    private static class TestConnector extends AbstractConnector {
+
+        static final int STREAMING = 0;
+        static final int FILE = 1;
+        static final int FAILING = 2;
+
+        private final int mode;
+
+        TestConnector(int mode) {
+            this.mode = mode;
+            SourceSchema schema = SourceSchema.createSchema("test");
+            schema.addColumn(new SourceColumn("name", SourceColumn.LDM_TYPE_ATTRIBUTE, "Name"));
+            schema.addColumn(new SourceColumn("amount", SourceColumn.LDM_TYPE_FACT, "Amount"));
+            setSchema(schema);
+        }
+
+        public void extract(String file, boolean transform) throws IOException {
+            OutputStream os = (mode == FILE) ? (new FileOutputStream(file)) : (openDataFile(new File(file)));
+            byte[] data = createData().getBytes("utf8");
+            int half = data.length / 2;
+            os.write(data, 0, half);
+            if (mode == FAILING) {
+                os.close();
+                throw new IOException("The source failed.");
+            }
+            os.write(data, half, data.length - half);
+            os.close();
+        }
+    }
+
+}
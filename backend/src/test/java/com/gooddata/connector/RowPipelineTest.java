@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.gooddata.exception.InvalidParameterException;
+import com.gooddata.modeling.model.SourceColumn;
+import com.gooddata.modeling.model.SourceSchema;
+import com.gooddata.util.CSVWriter;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+public class RowPipelineTest {
+
+    private static final int ROWS = 25000;
+
+    @Test
+    public void testOrdered() throws IOException {
+        String expected = run(1, true);
+        Assert.assertEquals(expected, run(4, true));
+        Assert.assertEquals(expected, run(3, true));
+    }
+
+    @Test
+    public void testUnordered() throws IOException {
+        String[] expected = run(1, true).split("\n");
+        String[] actual = run(4, false).split("\n");
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        Assert.assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        RowPipeline p = new RowPipeline(createSchema(), new CSVWriter(new StringWriter()), true, -1, 4, 100, true);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                p.add((i == 1234) ? (new Object[]{"short"}) : (createRow(i)));
+            }
+            p.finish();
+            Assert.fail("The transformation error hasn't been reported.");
+        } catch (InvalidParameterException e) {
+            Assert.assertTrue(e.getMessage().endsWith("Error occured at row 1235"));
+        } finally {
+            p.abort();
+        }
+    }
+
+    private static String run(int threads, boolean preserveOrder) throws IOException {
+        StringWriter sw = new StringWriter();
+        CSVWriter cw = new CSVWriter(sw);
+        RowPipeline p = new RowPipeline(createSchema(), cw, true, -1, threads, 100, preserveOrder);
+        for (int i = 0; i < ROWS; i++) {
+            p.add(createRow(i));
+        }
+        Assert.assertEquals(ROWS, p.finish());
+        cw.close();
+        return sw.toString();
+    }
+
+    private static SourceSchema createSchema() {
+        SourceSchema schema = SourceSchema.createSchema("test");
+        schema.addColumn(new SourceColumn("name", SourceColumn.LDM_TYPE_ATTRIBUTE, "Name"));
+        schema.addColumn(new SourceColumn("amount", SourceColumn.LDM_TYPE_FACT, "Amount"));
+        SourceColumn total = new SourceColumn("total", SourceColumn.LDM_TYPE_FACT, "Total");
+        total.setTransformation("amount * 2");
+        schema.addColumn(total);
+        return schema;
+    }
+
+    private static Object[] createRow(int i) {
+        return new Object[]{"name" + i, Integer.valueOf(i)};
+    }
+
+}
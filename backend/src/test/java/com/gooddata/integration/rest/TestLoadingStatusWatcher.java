@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.integration.rest;
+
+import com.gooddata.exception.GdcIntegrationErrorException;
+import com.gooddata.exception.HttpMethodException;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * GoodData
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class TestLoadingStatusWatcher extends TestCase {
+
+    // remaining RUNNING polls of every task
+    private final Map<String, Integer> remaining = Collections.synchronizedMap(new HashMap<String, Integer>());
+    private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+    private final LoadingStatusWatcher watcher = new LoadingStatusWatcher(null) {
+        protected String getStatus(String taskUri) throws HttpMethodException {
+            threads.add(Thread.currentThread().getName());
+            if (taskUri.startsWith("/broken"))
+                throw new HttpMethodException("503 Service Unavailable");
+            int r = remaining.get(taskUri);
+            remaining.put(taskUri, r - 1);
+            if (r > 0)
+                return "RUNNING";
+            return taskUri.startsWith("/error") ? "ERROR" : "OK";
+        }
+
+        protected long getRetryAfter() {
+            return 0;
+        }
+    };
+
+    public void testMultipleLoads() throws Exception {
+        remaining.put("/load1", 0);
+        remaining.put("/load2", 2);
+        remaining.put("/error3", 1);
+        Future<String> l1 = watcher.watch("/load1", 0);
+        Future<String> l2 = watcher.watch("/load2", 0);
+        Future<String> l3 = watcher.watch("/error3", 0);
+        assertEquals("OK", l1.get());
+        assertEquals("OK", l2.get());
+        assertEquals("ERROR", l3.get());
+        // all loads are polled by a single thread
+        assertEquals(1, threads.size());
+        assertEquals(-1, (int) remaining.get("/load2"));
+    }
+
+    public void testTimeout() throws Exception {
+        remaining.put("/slow", 1000);
+        Future<String> f = watcher.watch("/slow", 1200);
+        try {
+            f.get();
+            fail("The timeout hasn't been reported.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof GdcIntegrationErrorException);
+        }
+    }
+
+    public void testFailedStatusCalls() throws Exception {
+        Future<String> f = watcher.watch("/broken", 1200);
+        try {
+            f.get();
+            fail("The failed status calls haven't been reported.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof GdcIntegrationErrorException);
+        }
+        assertEquals(0, watcher.getWatchedCount());
+    }
+
+}
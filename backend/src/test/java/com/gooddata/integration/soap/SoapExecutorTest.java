@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.integration.soap;
+
+import com.gooddata.util.StubHttpServer;
+import junit.framework.Assert;
+import org.jaxen.XPath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Tests the SOAP calls against a local SOAP stand-in
+ */
+public class SoapExecutorTest {
+
+    private static final String ENVELOPE = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+            "<soap:Body>%BODY%</soap:Body></soap:Envelope>";
+
+    private StubHttpServer server;
+    private String url;
+    private volatile String lastRequest;
+    private volatile String lastAction;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                lastRequest = request.getBodyAsString();
+                lastAction = request.getHeader("SOAPAction");
+                String body;
+                int rc = 200;
+                if (lastRequest.contains("<fail/>")) {
+                    rc = 500;
+                    body = "<soap:Fault><faultcode>soap:Server</faultcode><faultstring>Invalid session</faultstring>" +
+                            "</soap:Fault>";
+                } else {
+                    body = "<r:result xmlns:r=\"urn:result\"><r:id>42</r:id></r:result>";
+                }
+                response.setStatus(rc);
+                response.setBody(ENVELOPE.replace("%BODY%", body), "text/xml");
+            }
+        });
+        url = server.getUrl("/soap");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        SoapExecutor soap = new SoapExecutor();
+        for (int i = 0; i < 3; i++) {
+            SOAPMessage response = soap.execute(url, ENVELOPE.replace("%BODY%", "<get>č" + i + "</get>"));
+            Assert.assertTrue(lastRequest.contains("<get>č" + i + "</get>"));
+            Assert.assertEquals("\"\"", lastAction);
+            XPath xp = soap.createXPath("//r:id/text()", response);
+            Assert.assertEquals("42", ((Node) xp.selectSingleNode(response.getSOAPBody())).getNodeValue());
+        }
+    }
+
+    @Test
+    public void testFault() throws Exception {
+        SoapExecutor soap = new SoapExecutor();
+        try {
+            soap.execute(url, ENVELOPE.replace("%BODY%", "<fail/>"));
+            Assert.fail("The SOAP fault hasn't been reported.");
+        } catch (SOAPException e) {
+            Assert.assertEquals("Invalid session", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testXPathCache() throws Exception {
+        SoapExecutor soap = new SoapExecutor();
+        SOAPMessage response = soap.execute(url, ENVELOPE.replace("%BODY%", "<get/>"));
+        XPath xp = soap.createXPath("//r:id", response);
+        Assert.assertSame(xp, soap.createXPath("//r:id", soap.execute(url, ENVELOPE.replace("%BODY%", "<get/>"))));
+        XPath other = soap.createXPath("//x:id", response, Collections.singletonMap("x", "urn:result"));
+        Assert.assertNotSame(xp, other);
+        Assert.assertNotNull(other.selectSingleNode(response.getSOAPBody()));
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.integration.soap;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SoapTemplateTest {
+
+    @Test
+    public void testFill() {
+        SoapTemplate t = new SoapTemplate("<a>%SESSION%</a><b>%MODULE%</b><c>%MISSING%</c>100%");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("SESSION", "s$1\\");
+        values.put("MODULE", "%MODULE%");
+        Assert.assertEquals("<a>s$1\\</a><b>%MODULE%</b><c>%MISSING%</c>100%", t.fill(values));
+    }
+
+    @Test
+    public void testBind() {
+        SoapTemplate t = new SoapTemplate("%SESSION%:%MODULE%:%OFFSET%");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("SESSION", "s");
+        values.put("MODULE", "m");
+        SoapTemplate bound = t.bind(values);
+        Assert.assertEquals("s:m:0", bound.fill(Collections.singletonMap("OFFSET", "0")));
+        Assert.assertEquals("s:m:%OFFSET%", bound.fill(new HashMap<String, String>()));
+        Assert.assertEquals("%SESSION%:%MODULE%:%OFFSET%", t.fill(new HashMap<String, String>()));
+    }
+}
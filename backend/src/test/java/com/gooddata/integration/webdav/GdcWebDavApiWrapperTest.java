@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.integration.webdav;
+
+import com.gooddata.exception.HttpMethodException;
+import com.gooddata.integration.datatransfer.ArchiveWriter;
+import com.gooddata.integration.datatransfer.UploadJournal;
+import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
+import com.gooddata.util.StubHttpServer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the upload in parts against a local WebDav stand-in that supports the PUT with Content-Range
+ */
+public class GdcWebDavApiWrapperTest {
+
+    private StubHttpServer server;
+    private final List<String> requests = new ArrayList<String>();
+    private byte[] uploaded;
+    // the PUT requests that fail
+    private final List<Integer> failures = new ArrayList<Integer>();
+    private int puts = 0;
+    private File archive;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                String method = request.getMethod();
+                String range = request.getHeader("Content-Range");
+                synchronized (GdcWebDavApiWrapperTest.this) {
+                    requests.add(method + " " + request.getPath() + ((range != null) ? (" " + range) : ("")));
+                    if ("PUT".equals(method) && failures.contains(puts++)) {
+                        response.setStatus(503);
+                    } else {
+                        if ("PUT".equals(method))
+                            store(range, request.getBody());
+                        response.setStatus(201);
+                    }
+                }
+            }
+        });
+        archive = File.createTempFile("gdc-upload", ".zip");
+        byte[] data = new byte[250000];
+        new Random(1).nextBytes(data);
+        FileOutputStream fos = new FileOutputStream(archive);
+        fos.write(data);
+        fos.close();
+        journalFile = new File(archive.getAbsolutePath() + ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        archive.delete();
+        journalFile.delete();
+    }
+
+    @Test
+    public void testPartRetry() throws IOException {
+        failures.add(1);
+        createWrapper().transferDir(archive.getAbsolutePath(), 100000, 2, new UploadJournal(journalFile));
+        String dir = "/uploads/" + archive.getName().split("\\.")[0];
+        Assert.assertEquals(Arrays.asList("MKCOL " + dir,
+                "PUT " + dir + "/upload.zip bytes 0-99999/250000",
+                "PUT " + dir + "/upload.zip bytes 100000-199999/250000",
+                "PUT " + dir + "/upload.zip bytes 100000-199999/250000",
+                "PUT " + dir + "/upload.zip bytes 200000-249999/250000"), requests);
+        assertUploaded();
+        Assert.assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        failures.add(2);
+        failures.add(3);
+        try {
+            createWrapper().transferDir(archive.getAbsolutePath(), 100000, 1, new UploadJournal(journalFile));
+            Assert.fail("The failed part hasn't been reported.");
+        } catch (HttpMethodException e) {
+            // expected
+        }
+        UploadJournal journal = new UploadJournal(journalFile);
+        Assert.assertEquals(archive, journal.getArchive());
+        Assert.assertEquals(200000, journal.getUploaded());
+        requests.clear();
+        createWrapper().transferDir(archive.getAbsolutePath(), 100000, 1, journal);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertTrue(requests.get(0).endsWith("bytes 200000-249999/250000"));
+        assertUploaded();
+        Assert.assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void testTransferArchive() throws IOException {
+        final byte[] data = new byte[300000];
+        new Random(2).nextBytes(data);
+        createWrapper().transferArchive(archive.getAbsolutePath(), new ArchiveWriter() {
+            public void write(OutputStream out) throws IOException {
+                for (int i = 0; i < data.length; i += 7000) {
+                    out.write(data, i, Math.min(7000, data.length - i));
+                }
+            }
+        });
+        String dir = "/uploads/" + archive.getName().split("\\.")[0];
+        Assert.assertEquals(Arrays.asList("MKCOL " + dir, "PUT " + dir + "/upload.zip"), requests);
+        Assert.assertTrue(Arrays.equals(data, uploaded));
+    }
+
+    @Test
+    public void testTransferArchiveFailure() throws IOException {
+        final IOException failure = new IOException("The extract failed.");
+        try {
+            createWrapper().transferArchive(archive.getAbsolutePath(), new ArchiveWriter() {
+                public void write(OutputStream out) throws IOException {
+                    out.write(new byte[1000]);
+                    throw failure;
+                }
+            });
+            Assert.fail("The failed archive hasn't been reported.");
+        } catch (HttpMethodException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+        // the incomplete archive isn't stored
+        Assert.assertNull(uploaded);
+    }
+
+    private GdcWebDavApiWrapper createWrapper() {
+        GdcWebDavApiWrapper w = new GdcWebDavApiWrapper(new NamePasswordConfiguration("http", "localhost", "user",
+                "password", server.getPort()));
+        w.setRetryDelay(1);
+        return w;
+    }
+
+    private void store(String range, byte[] body) {
+        if (range == null) {
+            uploaded = body;
+            return;
+        }
+        // bytes start-end/size
+        String[] r = range.substring("bytes ".length()).split("[-/]");
+        int start = Integer.parseInt(r[0]);
+        if (uploaded == null)
+            uploaded = new byte[Integer.parseInt(r[2])];
+        System.arraycopy(body, 0, uploaded, start, body.length);
+    }
+
+    private void assertUploaded() throws IOException {
+        InputStream is = new java.io.FileInputStream(archive);
+        Assert.assertTrue(Arrays.equals(read(is), uploaded));
+        is.close();
+    }
+
+    private static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+}
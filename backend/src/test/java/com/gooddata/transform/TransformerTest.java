@@ -4,14 +4,29 @@
 package com.gooddata.transform;
 
 import com.gooddata.Constants;
+import com.gooddata.modeling.model.SourceColumn;
+import com.gooddata.modeling.model.SourceSchema;
+import com.gooddata.exception.InvalidParameterException;
 import com.gooddata.util.DateUtil;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.MapContext;
+import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class TransformerTest {
 
+    private static Logger l = Logger.getLogger(TransformerTest.class);
+
     @Test
     public void testDateFacts() {
         DateArithmetics da = new DateArithmetics();
@@ -24,4 +39,194 @@ public class TransformerTest {
         
     }
 
+    @Test
+    public void testCompiledTransformation() {
+        for (SourceSchema schema : new SourceSchema[]{createSchema(true), createSchema(false)}) {
+            Transformer t = Transformer.create(schema);
+            Transformer r = new MapContextTransformer(schema);
+            String[] reuse = null;
+            for (int i = 0; i < 1000; i++) {
+                String[] expected = r.transformRow(createRow(i), 10);
+                String[] actual = t.transformRow(createRow(i), 10, reuse);
+                assertArrayEquals(expected, actual);
+                assertArrayEquals(expected, t.transformRow(createRow(i), 10));
+                assertArrayEquals(r.transformRow(createRow(i), 0), t.transformRow(createRow(i), 0));
+                reuse = actual;
+            }
+        }
+    }
+
+    /**
+     * Compares the throughput of the compiled transformer with the per-row MapContext evaluation
+     */
+    @Test
+    public void testCompiledTransformationThroughput() {
+        SourceSchema schema = createSchema(true);
+        Object[][] data = new Object[5000][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = createRow(i);
+        }
+        Transformer compiled = Transformer.create(schema);
+        Transformer interpreted = new MapContextTransformer(schema);
+        // the first round warms up the JIT
+        long compiledRate = 0, interpretedRate = 0;
+        for (int round = 0; round < 3; round++) {
+            long[] c = measure(compiled, data);
+            long[] i = measure(interpreted, data);
+            assertEquals(i[1], c[1]);
+            if (round > 0) {
+                compiledRate = Math.max(compiledRate, c[0]);
+                interpretedRate = Math.max(interpretedRate, i[0]);
+            }
+        }
+        l.info("Transformer throughput: MapContext " + interpretedRate + " rows/s, compiled " + compiledRate +
+                " rows/s (" + (compiledRate * 100 / Math.max(interpretedRate, 1)) + "%)");
+        assertTrue(compiledRate > 0 && interpretedRate > 0);
+    }
+
+    /**
+     * Transforms all rows reusing the output array like the extract does
+     *
+     * @return the rows per second and the hash of the transformed rows
+     */
+    private static long[] measure(Transformer t, Object[][] data) {
+        long hash = 0;
+        String[] reuse = null;
+        long start = System.nanoTime();
+        for (Object[] row : data) {
+            reuse = t.transformRow(row.clone(), 10, reuse);
+            hash = 31 * hash + Arrays.hashCode(reuse);
+        }
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        return new long[]{data.length * 1000000000L / elapsed, hash};
+    }
+
+    private static SourceSchema createSchema(boolean identity) {
+        SourceSchema schema = SourceSchema.createSchema("test");
+        if (identity) {
+            SourceColumn cp = new SourceColumn("id", SourceColumn.LDM_TYPE_CONNECTION_POINT, "Id");
+            cp.setTransformation(SourceColumn.LDM_IDENTITY);
+            schema.addColumn(cp);
+        }
+        schema.addColumn(new SourceColumn("name", SourceColumn.LDM_TYPE_ATTRIBUTE, "Name"));
+        schema.addColumn(new SourceColumn("amount", SourceColumn.LDM_TYPE_FACT, "Amount"));
+        SourceColumn date = new SourceColumn("created", SourceColumn.LDM_TYPE_DATE, "Created");
+        date.setFormat("yyyy-MM-dd");
+        schema.addColumn(date);
+        schema.addColumn(new SourceColumn("skipped", SourceColumn.LDM_TYPE_IGNORE, "Skipped"));
+        SourceColumn ref = new SourceColumn("ref", SourceColumn.LDM_TYPE_REFERENCE, "Ref");
+        ref.setSchemaReference("other");
+        ref.setReference("id");
+        schema.addColumn(ref);
+        SourceColumn upper = new SourceColumn("upper", SourceColumn.LDM_TYPE_ATTRIBUTE, "Upper");
+        // refers to a column that is computed later in the same row
+        upper.setTransformation("name.toUpperCase() + (empty(later) ? '' : later)");
+        schema.addColumn(upper);
+        SourceColumn later = new SourceColumn("later", SourceColumn.LDM_TYPE_ATTRIBUTE, "Later");
+        later.setTransformation("amount + '/' + created");
+        schema.addColumn(later);
+        return schema;
+    }
+
+    private static Object[] createRow(int i) {
+        Object amount;
+        switch (i % 4) {
+            case 0: amount = i * 3; break;
+            case 1: amount = i * 1.5d; break;
+            case 2: amount = null; break;
+            default: amount = Integer.toString(i * 3);
+        }
+        Object created;
+        switch (i % 3) {
+            case 0: created = new DateTime(2011, 1, 10 + i % 20, 10, 0, 0, 0); break;
+            case 1: created = null; break;
+            default: created = "2011-01-" + (10 + i % 20) + " 10:00";
+        }
+        return new Object[]{"name" + (i % 17), amount, created, (i % 5 == 0) ? null : "x" + i, "r" + (i % 7)};
+    }
+
+    /**
+     * The original transformation that evaluates every row with a fresh MapContext and decides the column
+     * handling by the schema for every row. It is the reference the compiled transformation is verified and
+     * measured against.
+     */
+    private static class MapContextTransformer extends Transformer {
+        private final DateArithmetics da = new DateArithmetics();
+
+        MapContextTransformer(SourceSchema schema) {
+            super(schema);
+        }
+
+        public String[] transformRow(Object[] row, int dateLength, String[] reuse) {
+            try {
+                if (row != null) {
+                    SourceSchema schema = getSchema();
+                    List<SourceColumn> columns = schema.getColumns();
+                    boolean computeIdentity = (schema.getIdentityColumn() >= 0);
+                    int idx = 0;
+                    String key = "";
+                    JexlContext jc = new MapContext();
+                    for (int i = 0; i < columns.size(); i++) {
+                        SourceColumn c = columns.get(i);
+                        String t = c.getTransformation();
+                        if (t == null) {
+                            // this is core (non-transformed) column
+                            if (idx < row.length) {
+                                if (SourceColumn.LDM_TYPE_FACT.equalsIgnoreCase(c.getLdmType())) {
+                                    row[idx] = handleFact(row[idx]);
+                                }
+                                if (SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(c.getLdmType())) {
+                                    row[idx] = handleDate(row[idx], c);
+                                    row[idx] = cutStringDate(row[idx], dateLength);
+                                }
+                                // compute identity if required
+                                if (computeIdentity && SourceColumn.LDM_TYPE_ATTRIBUTE.equalsIgnoreCase(c.getLdmType()) ||
+                                        SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(c.getLdmType()) ||
+                                        SourceColumn.LDM_TYPE_REFERENCE.equalsIgnoreCase(c.getLdmType())) {
+                                    key += row[idx] + "|";
+                                }
+                                jc.set(c.getName(), (row[idx] != null) ? (row[idx]) : (""));
+                                idx++;
+                            } else {
+                                throw new InvalidParameterException("Transform: The schema " + schema.getName() +
+                                        " contains different number of columns than the processed row.");
+                            }
+                        }
+                    }
+                    // insert identity var
+                    if (computeIdentity) {
+                        String identity = DigestUtils.md5Hex(key);
+                        jc.set("IDENTITY", identity);
+                    }
+                    jc.set("GdcDateArithmetics", da);
+
+                    List<String> nrow = new ArrayList<String>(columns.size());
+                    for (int i = 0; i < columns.size(); i++) {
+                        SourceColumn c = columns.get(i);
+                        String cid = c.getName();
+                        if (!SourceColumn.LDM_TYPE_IGNORE.equalsIgnoreCase(c.getLdmType())) {
+                            if (c.getTransformation() == null) {
+                                Object value = jc.get(cid);
+                                if (value != null) {
+                                    nrow.add(value.toString());
+                                }
+                            } else {
+                                Object result = getExpressions()[i].evaluate(jc);
+                                nrow.add((result != null) ? (result.toString()) : (""));
+                                jc.set(cid, result);
+                            }
+                        }
+                    }
+                    return nrow.toArray(new String[nrow.size()]);
+                } else {
+                    throw new InvalidParameterException("The number of columns in the transformed row is different" +
+                            " than in the schema.");
+                }
+            } catch (Exception e) {
+                throw new InvalidParameterException("Transformation expression error (see debug log). " +
+                        e.getMessage(), e);
+            }
+        }
+    }
+
 }
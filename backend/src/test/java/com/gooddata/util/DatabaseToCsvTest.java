@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests the concurrent export of the tables of an embedded Derby database
+ */
+public class DatabaseToCsvTest {
+
+    private static final String URL = "jdbc:derby:memory:gdc_export;create=true";
+
+    private static final int THREADS = 3;
+
+    // table name -> rows, the first row is the header
+    private final Map<String, List<String[]>> tables = new LinkedHashMap<String, List<String[]>>();
+    // the connections opened by the export
+    private final List<Connection> connections = Collections.synchronizedList(new ArrayList<Connection>());
+    private Connection con;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+        dir = FileUtil.createTempDir();
+        con = DriverManager.getConnection(URL);
+        Statement st = con.createStatement();
+        for (int t = 0; t < 8; t++) {
+            st.execute("CREATE TABLE T" + t + " (ID INTEGER, NAME VARCHAR(40))");
+            PreparedStatement ps = con.prepareStatement("INSERT INTO T" + t + " VALUES (?, ?)");
+            List<String[]> rows = new ArrayList<String[]>();
+            rows.add(new String[]{"ID", "NAME"});
+            for (int i = 0; i < 500 * t; i++) {
+                String name = (i % 10 == 0) ? (null) : ("name \"" + t + "\", " + i);
+                ps.setInt(1, i);
+                ps.setString(2, name);
+                ps.executeUpdate();
+                rows.add(new String[]{Integer.toString(i), name});
+            }
+            ps.close();
+            tables.put("T" + t, rows);
+        }
+        // the views aren't exported
+        st.execute("CREATE VIEW V1 AS SELECT * FROM T1");
+        st.close();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        FileUtil.recursiveDelete(dir);
+        con.rollback();
+        Statement st = con.createStatement();
+        st.execute("DROP VIEW V1");
+        for (String table : tables.keySet()) {
+            st.execute("DROP TABLE " + table);
+        }
+        st.close();
+        con.close();
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        createExport(false).export(dir.getAbsolutePath());
+        for (String table : tables.keySet()) {
+            assertExported(tables.get(table), new FileInputStream(new File(dir, table + ".csv")));
+        }
+        List<String[]> manifest = readCsv(new FileInputStream(new File(dir, DatabaseToCsv.MANIFEST_FILE)));
+        Assert.assertEquals(tables.size() + 1, manifest.size());
+        for (int i = 1; i < manifest.size(); i++) {
+            String[] row = manifest.get(i);
+            Assert.assertEquals("T" + (i - 1), row[0]);
+            Assert.assertEquals("T" + (i - 1) + ".csv", row[1]);
+            Assert.assertEquals(Integer.toString(500 * (i - 1)), row[2]);
+            Assert.assertEquals("OK", row[4]);
+        }
+        // a connection per export thread
+        Assert.assertTrue(connections.size() <= THREADS);
+        assertClosed();
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        createExport(true).export(dir.getAbsolutePath());
+        for (String table : tables.keySet()) {
+            Assert.assertFalse(new File(dir, table + ".csv").exists());
+            assertExported(tables.get(table), new GZIPInputStream(new FileInputStream(new File(dir, table + ".csv.gz"))));
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        // the export of T3 times out on the row locked by the uncommitted update
+        Statement st = con.createStatement();
+        st.execute("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY('derby.locks.waitTimeout', '1')");
+        con.setAutoCommit(false);
+        st.executeUpdate("UPDATE T3 SET NAME = 'locked' WHERE ID = 700");
+        st.close();
+        try {
+            createExport(false).export(dir.getAbsolutePath());
+            Assert.fail("The failed table hasn't been reported.");
+        } catch (SQLException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Export of the tables [T3] failed."));
+            Assert.assertEquals("40XL1", ((SQLException) e.getCause()).getSQLState());
+        } finally {
+            con.rollback();
+            con.setAutoCommit(true);
+            st = con.createStatement();
+            st.execute("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY('derby.locks.waitTimeout', NULL)");
+            st.close();
+        }
+        List<String[]> manifest = readCsv(new FileInputStream(new File(dir, DatabaseToCsv.MANIFEST_FILE)));
+        Assert.assertEquals(tables.size() + 1, manifest.size());
+        for (int i = 1; i < manifest.size(); i++) {
+            String[] row = manifest.get(i);
+            Assert.assertEquals((i == 4) ? ("ERROR") : ("OK"), row[4]);
+            Assert.assertEquals((i == 4) ? ("") : (row[0] + ".csv"), row[1]);
+        }
+        // the rows exported before the failure are deleted
+        Assert.assertFalse(new File(dir, "T3.csv").exists());
+        // the connection of the failed export isn't reused
+        Assert.assertTrue(connections.size() <= THREADS + 1);
+        assertClosed();
+    }
+
+    private void assertClosed() throws SQLException {
+        for (Connection c : connections) {
+            Assert.assertTrue(c.isClosed());
+        }
+    }
+
+    private void assertExported(List<String[]> expected, InputStream is) throws IOException {
+        List<String[]> rows = readCsv(is);
+        Assert.assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String[] e = expected.get(i);
+            Assert.assertEquals(Arrays.asList(e[0], (e[1] != null) ? (e[1]) : ("")), Arrays.asList(rows.get(i)));
+        }
+    }
+
+    private static List<String[]> readCsv(InputStream is) throws IOException {
+        CSVReader cr = FileUtil.createUtf8CsvReader(is);
+        try {
+            List<String[]> ret = new ArrayList<String[]>();
+            for (String[] row = cr.readNext(); row != null; row = cr.readNext()) {
+                ret.add(row);
+            }
+            return ret;
+        } finally {
+            cr.close();
+        }
+    }
+
+    private DatabaseToCsv createExport(boolean gzip) {
+        DatabaseToCsv d = new DatabaseToCsv("org.apache.derby.jdbc.EmbeddedDriver", URL, null, null) {
+            public Connection connect() throws SQLException {
+                Connection c = super.connect();
+                connections.add(c);
+                return c;
+            }
+        };
+        d.setThreads(THREADS);
+        d.setGzip(gzip);
+        return d;
+    }
+
+}
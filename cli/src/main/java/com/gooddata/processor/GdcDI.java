@@ -30,23 +30,29 @@ import com.gooddata.integration.model.SLI;
 import com.gooddata.integration.rest.GdcRESTApiWrapper;
 import com.gooddata.integration.rest.MetadataObject;
 import com.gooddata.integration.rest.configuration.NamePasswordConfiguration;
+import com.gooddata.modeling.model.SourceColumn;
 import com.gooddata.modeling.model.SourceSchema;
 import com.gooddata.naming.N;
 import com.gooddata.processor.parser.DIScriptParser;
 import com.gooddata.processor.parser.ParseException;
+import com.gooddata.util.Backoff;
 import com.gooddata.util.DatabaseToCsv;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.HttpConnectionPool;
 import com.gooddata.util.StringUtil;
 import org.apache.commons.cli.*;
 import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
 import org.apache.log4j.PropertyConfigurator;
 import org.joda.time.DateTimeZone;
 
 import java.io.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * The GoodData Data Integration CLI processor.
@@ -80,6 +86,10 @@ public class GdcDI implements Executor {
     public static String[] CLI_PARAM_HTTP_PROXY_USERNAME = {"proxyusername", "U"};
     public static String[] CLI_PARAM_HTTP_PROXY_PASSWORD = {"proxypassword", "P"};
     public static String[] CLI_PARAM_TIMEZONE = {"timezone", "T"};
+    public static String[] CLI_PARAM_HTTP_MAX_CONNECTIONS = {"maxconnections", "M"};
+    public static String[] CLI_PARAM_HTTP_CONNECT_TIMEOUT = {"connecttimeout", "C"};
+    public static String[] CLI_PARAM_HTTP_TIMEOUT = {"timeout", "W"};
+    public static String[] CLI_PARAM_HTTP_GZIP = {"gzip", "z"};
     public static String CLI_PARAM_SCRIPT = "script";
 
     private static String DEFAULT_PROPERTIES = "gdi.properties";
@@ -103,6 +113,10 @@ public class GdcDI implements Executor {
             new Option(CLI_PARAM_INSECURE[1], CLI_PARAM_INSECURE[0], false, "Disable encryption"),
             new Option(CLI_PARAM_VERSION[1], CLI_PARAM_VERSION[0], false, "Prints the tool version."),
             new Option(CLI_PARAM_TIMEZONE[1], CLI_PARAM_TIMEZONE[0], true, "Specify the default timezone (the computer timezone is the default)."),
+            new Option(CLI_PARAM_HTTP_MAX_CONNECTIONS[1], CLI_PARAM_HTTP_MAX_CONNECTIONS[0], true, "Maximal number of the pooled HTTP connections to a single host (default is 8)."),
+            new Option(CLI_PARAM_HTTP_CONNECT_TIMEOUT[1], CLI_PARAM_HTTP_CONNECT_TIMEOUT[0], true, "HTTP connection timeout in seconds (default is 60)."),
+            new Option(CLI_PARAM_HTTP_TIMEOUT[1], CLI_PARAM_HTTP_TIMEOUT[0], true, "HTTP response timeout in seconds (default is no timeout)."),
+            new Option(CLI_PARAM_HTTP_GZIP[1], CLI_PARAM_HTTP_GZIP[0], false, "Request the gzip compressed HTTP responses."),
             new Option(CLI_PARAM_EXECUTE[1], CLI_PARAM_EXECUTE[0], true, "Commands and params to execute before the commands in provided files"),
             new Option(CLI_PARAM_DEFAULT_DATE_FOREIGN_KEY[1], CLI_PARAM_DEFAULT_DATE_FOREIGN_KEY[0], true, "Foreign key to represent an 'unknown' date")
     };
@@ -116,6 +130,9 @@ public class GdcDI implements Executor {
 
     private static long LOCK_EXPIRATION_TIME = 1000 * 3600; // 1 hour
 
+    // default number of concurrent loads of the TransferAll command
+    private static final int DEFAULT_TRANSFER_THREADS = 4;
+
     private final static String BUILD_NUMBER = "";
 
 
@@ -138,6 +155,8 @@ public class GdcDI implements Executor {
                 }
             }
 
+            configureHttpConnectionPool(context.getHttpConnectionPool());
+
             if(cliParams.containsKey(CLI_PARAM_HTTP_PORT[0])) {
                 String httpPortString = cliParams.get(CLI_PARAM_HTTP_PORT[0]);
                 int httpPort = 0;
@@ -344,9 +363,44 @@ public class GdcDI implements Executor {
             if (cliParams != null)
                 context.getRestApi(cliParams).logout();
                 */
+            context.close();
         }
     }
 
+    /**
+     * Configures the HTTP connection pool from the cli arguments
+     *
+     * @param pool the HTTP connection pool
+     * @throws InvalidArgumentException in case of an incorrect cli argument
+     */
+    private void configureHttpConnectionPool(HttpConnectionPool pool) throws InvalidArgumentException {
+        if (cliParams.containsKey(CLI_PARAM_HTTP_MAX_CONNECTIONS[0])) {
+            int maxConnections = parsePositiveInt(CLI_PARAM_HTTP_MAX_CONNECTIONS[0]);
+            pool.setMaxConnectionsPerHost(maxConnections);
+            pool.setMaxTotalConnections(Math.max(maxConnections, HttpConnectionPool.DEFAULT_MAX_TOTAL_CONNECTIONS));
+        }
+        if (cliParams.containsKey(CLI_PARAM_HTTP_CONNECT_TIMEOUT[0])) {
+            pool.setConnectTimeout(1000 * parsePositiveInt(CLI_PARAM_HTTP_CONNECT_TIMEOUT[0]));
+        }
+        if (cliParams.containsKey(CLI_PARAM_HTTP_TIMEOUT[0])) {
+            pool.setSocketTimeout(1000 * parsePositiveInt(CLI_PARAM_HTTP_TIMEOUT[0]));
+        }
+        pool.setGzip(cliParams.containsKey(CLI_PARAM_HTTP_GZIP[0]));
+    }
+
+    private int parsePositiveInt(String name) throws InvalidArgumentException {
+        String value = cliParams.get(name);
+        try {
+            int i = Integer.parseInt(value);
+            if (i > 0)
+                return i;
+        }
+        catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new InvalidArgumentException("Invalid " + name + " value: '" + value + "'.");
+    }
+
     /**
      * Parse and validate the cli arguments
      *
@@ -482,15 +536,26 @@ public class GdcDI implements Executor {
         List<Command> cmds = new ArrayList<Command>();
         cmds.addAll(parseCmd(FileUtil.readStringFromFile(scriptFile.getAbsolutePath())));
         for (Command command : cmds) {
-            boolean processed = false;
-            for (int i = 0; i < connectors.length && !processed; i++) {
-                processed = connectors[i].processCommand(command, cliParams, context);
-            }
-            if (!processed)
-                processed = this.processCommand(command, cliParams, context);
-            if (!processed)
-                throw new InvalidCommandException("Unknown command '" + command.getCommand() + "'");
+            execute(command, connectors, context);
+        }
+    }
+
+    /**
+     * Executes a command
+     *
+     * @param command command
+     * @param cs      connectors
+     * @param ctx     processing context
+     */
+    private void execute(Command command, Connector[] cs, ProcessingContext ctx) {
+        boolean processed = false;
+        for (int i = 0; i < cs.length && !processed; i++) {
+            processed = cs[i].processCommand(command, cliParams, ctx);
         }
+        if (!processed)
+            processed = this.processCommand(command, cliParams, ctx);
+        if (!processed)
+            throw new InvalidCommandException("Unknown command '" + command.getCommand() + "'");
     }
 
     /**
@@ -640,6 +705,8 @@ public class GdcDI implements Executor {
                 migrateDatasets(c, cli, ctx);
             } else if (c.match("GenerateManifests")) {
                 generateManifests(c, cli, ctx);
+            } else if (c.match("TransferAll")) {
+                transferAll(c, cli, ctx);
             } else {
                 l.debug("No match command " + c.getCommand());
                 return false;
@@ -673,12 +740,7 @@ public class GdcDI implements Executor {
             String taskUri = ctx.getRestApi(p).executeDML(pid, cmd);
             if (taskUri != null && taskUri.length() > 0) {
                 l.debug("Checking MAQL DML execution status.");
-                String status = "";
-                while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-                    status = ctx.getRestApi(p).getMigrationStatus(taskUri);
-                    l.debug("MAQL DML execution status = " + status);
-                    Thread.sleep(500);
-                }
+                String status = waitForTask(taskUri, false, "MAQL DML execution", p, ctx);
                 l.info("MAQL DML execution finished with status " + status);
                 if ("ERROR".equalsIgnoreCase(status)) {
                     l.error("Error executing the MAQL DML. Check debug log for more details.");
@@ -726,12 +788,7 @@ public class GdcDI implements Executor {
             String token = r.getExportToken();
             if (taskUri != null && taskUri.length() > 0) {
                 l.debug("Checking project export status.");
-                String status = "";
-                while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-                    status = ctx.getRestApi(p).getMigrationStatus(taskUri);
-                    l.debug("Project export status = " + status);
-                    Thread.sleep(500);
-                }
+                String status = waitForTask(taskUri, false, "Project export", p, ctx);
                 l.info("Project export finished with status " + status);
                 if ("OK".equalsIgnoreCase(status) || "WARNING".equalsIgnoreCase(status)) {
                     FileUtil.writeStringToFile(token, fileName);
@@ -769,12 +826,7 @@ public class GdcDI implements Executor {
             String taskUri = ctx.getRestApi(p).importProject(pid, token);
             if (taskUri != null && taskUri.length() > 0) {
                 l.debug("Checking project import status.");
-                String status = "";
-                while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-                    status = ctx.getRestApi(p).getMigrationStatus(taskUri);
-                    l.debug("Project import status = " + status);
-                    Thread.sleep(500);
-                }
+                String status = waitForTask(taskUri, false, "Project import", p, ctx);
                 l.info("Project import finished with status " + status);
                 if ("ERROR".equalsIgnoreCase(status)) {
                     l.error("Error importing project. Check debug log for more details.");
@@ -826,12 +878,7 @@ public class GdcDI implements Executor {
                 token = r.getExportToken();
                 if (taskUri != null && taskUri.length() > 0) {
                     l.debug("Checking MD export status.");
-                    String status = "";
-                    while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-                        status = ctx.getRestApi(p).getTaskManStatus(taskUri);
-                        l.debug("MD export status = " + status);
-                        Thread.sleep(500);
-                    }
+                    String status = waitForTask(taskUri, true, "MD export", p, ctx);
                     l.info("MD export finished with status " + status);
                     if ("OK".equalsIgnoreCase(status) || "WARNING".equalsIgnoreCase(status)) {
                         FileUtil.writeStringToFile(token, fileName);
@@ -881,12 +928,7 @@ public class GdcDI implements Executor {
             String taskUri = ctx.getRestApi(p).importMD(pid, token, overwrite, updateLDM);
             if (taskUri != null && taskUri.length() > 0) {
                 l.debug("Checking MD import status.");
-                String status = "";
-                while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-                    status = ctx.getRestApi(p).getTaskManStatus(taskUri);
-                    l.debug("MD import status = " + status);
-                    Thread.sleep(500);
-                }
+                String status = waitForTask(taskUri, true, "MD import", p, ctx);
                 l.info("MD import finished with status " + status);
                 if ("ERROR".equalsIgnoreCase(status)) {
                     l.error("Error importing MD. Check debug log for more details.");
@@ -1076,6 +1118,9 @@ public class GdcDI implements Executor {
             String drv = c.getParamMandatory("driver");
             String url = c.getParamMandatory("url");
             String fl = c.getParamMandatory("dir");
+            String threads = c.getParam("threads");
+            String fetchSize = c.getParam("fetchSize");
+            String gzip = c.getParam("gzip");
             c.paramsProcessed();
 
             File dir = new File(fl);
@@ -1083,6 +1128,17 @@ public class GdcDI implements Executor {
                 throw new InvalidParameterException("The dir parameter in the ExportJdbcToCsv command must be an existing directory.");
             }
             DatabaseToCsv d = new DatabaseToCsv(drv, url, usr, psw);
+            try {
+                if (threads != null && threads.length() > 0)
+                    d.setThreads(Integer.parseInt(threads));
+                if (fetchSize != null && fetchSize.length() > 0)
+                    d.setFetchSize(Integer.parseInt(fetchSize));
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException("ExportJdbcToCsv: The threads and fetchSize parameters must be numbers.");
+            }
+            if (d.getThreads() <= 0)
+                throw new InvalidParameterException("ExportJdbcToCsv: The threads parameter must be positive.");
+            d.setGzip("true".equalsIgnoreCase(gzip));
             d.export(dir.getAbsolutePath());
             l.info("All tables successfully exported to " + dir.getAbsolutePath());
         } catch (SQLException e) {
@@ -1090,6 +1146,75 @@ public class GdcDI implements Executor {
         }
     }
 
+    /**
+     * Executes the data loads of multiple scripts concurrently. The commands of every script that precede its first
+     * TransferXXX command (the connector configuration) are executed immediately, the rest when the datasets that
+     * the loaded dataset references are loaded.
+     *
+     * @param c   command
+     * @param p   cli parameters
+     * @param ctx current context
+     * @throws IOException IO issues
+     */
+    private void transferAll(Command c, CliParams p, ProcessingContext ctx) throws IOException {
+        String scripts = c.getParamMandatory("scripts");
+        String ts = c.getParam("threads");
+        c.paramsProcessed();
+        int threads = DEFAULT_TRANSFER_THREADS;
+        if (ts != null && ts.length() > 0) {
+            try {
+                threads = Integer.parseInt(ts);
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException("TransferAll: The threads parameter must be a number.");
+            }
+        }
+        TransferScheduler scheduler = new TransferScheduler(threads);
+        for (String script : scripts.split(",")) {
+            script = script.trim();
+            File f = FileUtil.getFile(script);
+            final List<Command> cmds = parseCmd(FileUtil.readStringFromFile(f.getAbsolutePath()));
+            final Connector[] cs = instantiateConnectors();
+            final ProcessingContext jctx = ctx.createChildContext(p);
+            int first = 0;
+            while (first < cmds.size() && !cmds.get(first).getCommand().toLowerCase().startsWith("transfer")) {
+                execute(cmds.get(first), cs, jctx);
+                first++;
+            }
+            String name = script;
+            Set<String> dependencies = new HashSet<String>();
+            Connector cc = jctx.getConnector();
+            if (cc != null && cc.getSchema() != null) {
+                name = cc.getSchema().getName();
+                for (SourceColumn column : cc.getSchema().getColumns()) {
+                    if (SourceColumn.LDM_TYPE_REFERENCE.equals(column.getLdmType()) ||
+                            SourceColumn.LDM_TYPE_DATE.equals(column.getLdmType())) {
+                        String reference = column.getSchemaReference();
+                        if (reference != null && reference.length() > 0)
+                            dependencies.add(reference);
+                    }
+                }
+            } else if (cc instanceof DateDimensionConnector) {
+                name = ((DateDimensionConnector) cc).getName();
+            }
+            final List<Command> transfers = cmds.subList(first, cmds.size());
+            l.debug("Scheduling the load of " + name + " from " + script + " after " + dependencies);
+            scheduler.add(name, dependencies, new Runnable() {
+                public void run() {
+                    if (jctx.getProjectId() != null)
+                        MDC.put("GdcProjectId", jctx.getProjectId());
+                    try {
+                        for (Command command : transfers) {
+                            execute(command, cs, jctx);
+                        }
+                    } finally {
+                        MDC.remove("GdcProjectId");
+                    }
+                }
+            });
+        }
+        scheduler.run();
+    }
+
     /**
      * Checks the project status. Waits till the status is LOADING
      *
@@ -1100,11 +1225,37 @@ public class GdcDI implements Executor {
      */
     private void checkProjectCreationStatus(String projectId, CliParams p, ProcessingContext ctx) throws InterruptedException {
         l.debug("Checking project " + projectId + " loading status.");
-        String status = "LOADING";
+        Backoff backoff = new Backoff();
+        String status = ctx.getRestApi(p).getProjectStatus(projectId);
+        l.debug("Project " + projectId + " loading  status = " + status);
         while ("LOADING".equalsIgnoreCase(status)) {
+            backoff.sleep(ctx.getRestApi(p).getRetryAfter());
             status = ctx.getRestApi(p).getProjectStatus(projectId);
             l.debug("Project " + projectId + " loading  status = " + status);
-            Thread.sleep(500);
+        }
+    }
+
+    /**
+     * Polls the status of a server task till the task finishes
+     *
+     * @param taskUri the task URI
+     * @param taskMan true for the TaskMan tasks, false for the migration tasks
+     * @param name    the task name for the log
+     * @param p       cli parameters
+     * @param ctx     current context
+     * @return the final task status (OK, WARNING or ERROR)
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    private String waitForTask(String taskUri, boolean taskMan, String name, CliParams p, ProcessingContext ctx)
+            throws InterruptedException {
+        Backoff backoff = new Backoff();
+        while (true) {
+            String status = (taskMan) ? (ctx.getRestApi(p).getTaskManStatus(taskUri)) :
+                    (ctx.getRestApi(p).getMigrationStatus(taskUri));
+            l.debug(name + " status = " + status);
+            if ("OK".equalsIgnoreCase(status) || "ERROR".equalsIgnoreCase(status) || "WARNING".equalsIgnoreCase(status))
+                return status;
+            backoff.sleep(ctx.getRestApi(p).getRetryAfter());
         }
     }
 
@@ -1183,12 +1334,7 @@ public class GdcDI implements Executor {
                 String taskUri = ctx.getRestApi(p).migrateDataSets(pid, manifests);
                 if (taskUri != null && taskUri.length() > 0) {
                     l.debug("Checking migration status.");
-                    String status = "";
-                    while (!"OK".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status) && !"WARNING".equalsIgnoreCase(status)) {
-                        status = ctx.getRestApi(p).getMigrationStatus(taskUri);
-                        l.debug("Migration status = " + status);
-                        Thread.sleep(500);
-                    }
+                    String status = waitForTask(taskUri, false, "Migration", p, ctx);
                     l.info("Migration finished with status " + status);
                 } else {
                     l.info("No migration needed anymore.");
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.processor;
+
+import com.gooddata.exception.ProcessingException;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Executes the data loads of multiple datasets concurrently. A load starts when all loads of the datasets that it
+ * references have finished. The loads of the datasets that reference a failed load are skipped. All failures are
+ * reported together when all loads finish.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class TransferScheduler {
+
+    private static Logger l = Logger.getLogger(TransferScheduler.class);
+
+    private final int threads;
+    // loads by dataset name in the order they have been added
+    private final Map<String, Load> loads = new LinkedHashMap<String, Load>();
+    // the failures in the order they happened
+    private final List<String> failures = new ArrayList<String>();
+
+    private int running = 0;
+
+    /**
+     * Constructor
+     *
+     * @param threads maximal number of concurrent loads
+     */
+    public TransferScheduler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Adds a load
+     *
+     * @param name         the loaded dataset name
+     * @param dependencies names of the datasets that must be loaded first, the datasets that aren't loaded by
+     *                     this scheduler are ignored
+     * @param job          the load
+     */
+    public synchronized void add(String name, Set<String> dependencies, Runnable job) {
+        if (loads.containsKey(name))
+            throw new ProcessingException("The dataset " + name + " is loaded multiple times.");
+        loads.put(name, new Load(name, dependencies, job));
+    }
+
+    /**
+     * Executes all loads and waits till they finish
+     *
+     * @throws ProcessingException if any load fails
+     */
+    public void run() throws ProcessingException {
+        checkCycles();
+        l.debug("Starting " + loads.size() + " loads with " + threads + " threads.");
+        synchronized (this) {
+            startReady();
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new ProcessingException(e);
+                }
+                startReady();
+            }
+            for (Load load : loads.values()) {
+                if (load.state == Load.WAITING) {
+                    load.state = Load.FAILED;
+                    failures.add(load.name + ": not started.");
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            StringBuffer msg = new StringBuffer(failures.size() + " of " + loads.size() + " loads failed:");
+            for (String failure : failures)
+                msg.append("\n").append(failure);
+            throw new ProcessingException(msg.toString());
+        }
+        l.info("All " + loads.size() + " loads successfully finished.");
+    }
+
+    // starts the loads with all dependencies finished, skips the loads with a failed dependency
+    private void startReady() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Load load : loads.values()) {
+                if (load.state != Load.WAITING)
+                    continue;
+                String failed = null;
+                boolean ready = true;
+                for (String d : load.dependencies) {
+                    Load dependency = loads.get(d);
+                    if (dependency == null || dependency == load)
+                        continue;
+                    if (dependency.state == Load.FAILED)
+                        failed = d;
+                    else if (dependency.state != Load.FINISHED)
+                        ready = false;
+                }
+                if (failed != null) {
+                    load.state = Load.FAILED;
+                    failures.add(load.name + ": skipped because the load of the referenced dataset " + failed +
+                            " failed.");
+                    l.error("Skipping the load of the dataset " + load.name + ". The load of the referenced dataset " +
+                            failed + " failed.");
+                    changed = true;
+                } else if (ready && running < threads) {
+                    load.state = Load.RUNNING;
+                    running++;
+                    Thread t = new Thread(load, "load-" + load.name);
+                    t.setDaemon(true);
+                    t.start();
+                }
+            }
+        }
+    }
+
+    private synchronized void finished(Load load, Throwable error) {
+        running--;
+        if (error == null) {
+            load.state = Load.FINISHED;
+        } else {
+            load.state = Load.FAILED;
+            failures.add(load.name + ": " + error.getMessage());
+        }
+        notifyAll();
+    }
+
+    private void checkCycles() {
+        for (Load load : loads.values()) {
+            Set<String> visited = new HashSet<String>();
+            List<String> stack = new ArrayList<String>(load.dependencies);
+            while (!stack.isEmpty()) {
+                String d = stack.remove(stack.size() - 1);
+                Load dependency = loads.get(d);
+                if (dependency == null || dependency == load || !visited.add(d))
+                    continue;
+                if (dependency.dependencies.contains(load.name))
+                    throw new ProcessingException("The datasets " + load.name + " and " + d +
+                            " reference each other.");
+                stack.addAll(dependency.dependencies);
+            }
+        }
+    }
+
+    private class Load implements Runnable {
+
+        static final int WAITING = 0;
+        static final int RUNNING = 1;
+        static final int FINISHED = 2;
+        static final int FAILED = 3;
+
+        final String name;
+        final Set<String> dependencies;
+        final Runnable job;
+        int state = WAITING;
+
+        Load(String name, Set<String> dependencies, Runnable job) {
+            this.name = name;
+            this.dependencies = (dependencies != null) ? (dependencies) : (new HashSet<String>());
+            this.job = job;
+        }
+
+        public void run() {
+            MDC.put("GdcDataset", name);
+            Throwable error = null;
+            try {
+                l.info("Loading the dataset " + name + ".");
+                job.run();
+                l.info("The dataset " + name + " successfully loaded.");
+            } catch (Throwable e) {
+                l.error("The load of the dataset " + name + " failed: " + e.getMessage());
+                l.debug("The load of the dataset " + name + " failed.", e);
+                error = e;
+            } finally {
+                MDC.remove("GdcDataset");
+                finished(this, error);
+            }
+        }
+    }
+
+}
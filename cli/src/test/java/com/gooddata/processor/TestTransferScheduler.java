@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.processor;
+
+import com.gooddata.exception.ProcessingException;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * GoodData
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class TestTransferScheduler extends TestCase {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    private Runnable job(final String name, final boolean fail) {
+        return new Runnable() {
+            public void run() {
+                events.add("start " + name);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+                events.add("end " + name);
+                if (fail)
+                    throw new IllegalStateException("broken " + name);
+            }
+        };
+    }
+
+    private static Set<String> deps(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+
+    public void testDependencies() {
+        TransferScheduler s = new TransferScheduler(4);
+        s.add("orders", deps("customer", "created", "product"), job("orders", false));
+        s.add("customer", deps("created"), job("customer", false));
+        s.add("product", deps(), job("product", false));
+        s.add("created", deps(), job("created", false));
+        s.run();
+        assertEquals(8, events.size());
+        assertTrue(events.indexOf("end created") < events.indexOf("start customer"));
+        assertTrue(events.indexOf("end customer") < events.indexOf("start orders"));
+        assertTrue(events.indexOf("end product") < events.indexOf("start orders"));
+    }
+
+    public void testConcurrency() {
+        TransferScheduler s = new TransferScheduler(2);
+        for (int i = 0; i < 6; i++)
+            s.add("ds" + i, deps(), job("ds" + i, false));
+        s.run();
+        int running = 0, max = 0;
+        for (String e : events) {
+            running += e.startsWith("start") ? 1 : -1;
+            max = Math.max(max, running);
+        }
+        assertEquals(2, max);
+    }
+
+    public void testFailure() {
+        TransferScheduler s = new TransferScheduler(4);
+        s.add("customer", deps(), job("customer", true));
+        s.add("orders", deps("customer"), job("orders", false));
+        s.add("product", deps(), job("product", false));
+        try {
+            s.run();
+            fail("The failed load hasn't been reported.");
+        } catch (ProcessingException e) {
+            assertTrue(e.getMessage().contains("2 of 3 loads failed"));
+            assertTrue(e.getMessage().contains("broken customer"));
+            assertTrue(e.getMessage().contains("orders: skipped"));
+        }
+        assertFalse(events.contains("start orders"));
+        assertTrue(events.contains("end product"));
+    }
+
+    public void testCycle() {
+        TransferScheduler s = new TransferScheduler(4);
+        s.add("a", deps("b"), job("a", false));
+        s.add("b", deps("c"), job("b", false));
+        s.add("c", deps("a"), job("c", false));
+        try {
+            s.run();
+            fail("The cycle hasn't been reported.");
+        } catch (ProcessingException e) {
+            assertTrue(events.isEmpty());
+        }
+    }
+
+}
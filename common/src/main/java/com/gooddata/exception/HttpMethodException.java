@@ -30,6 +30,8 @@ package com.gooddata.exception;
 
 import java.util.Formatter;
 
+import com.gooddata.util.NetUtil;
+
 import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 
@@ -63,7 +65,7 @@ public class HttpMethodException extends GdcRestApiException {
         String msg = guiltyMethod.getStatusCode() + " " + guiltyMethod.getStatusText();
         String body = null;
         try {
-            body = guiltyMethod.getResponseBodyAsString();
+            body = NetUtil.getResponseBodyAsString(guiltyMethod);
         } catch (java.io.IOException ioexception) {
             /* No body? No problem, msg is already set fine. */
         }
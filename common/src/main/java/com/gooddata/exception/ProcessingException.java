@@ -35,5 +35,9 @@ public class ProcessingException extends GdcException {
         super(e);
     }
 
+    public ProcessingException(String msg) {
+        super(msg);
+    }
+
 
 }
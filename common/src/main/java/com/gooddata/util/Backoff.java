@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for polling the status of the asynchronous server tasks. Every wait is longer than
+ * the previous one (up to the maximal interval), the random jitter spreads the requests of the concurrent pollers.
+ * The server can ask for a specific delay (the Retry-After header). The polling can be limited by a deadline.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class Backoff {
+
+    /**
+     * Default first polling interval (ms)
+     */
+    public static final long DEFAULT_INITIAL_INTERVAL = 500;
+
+    /**
+     * Default maximal polling interval (ms)
+     */
+    public static final long DEFAULT_MAX_INTERVAL = 10000;
+
+    /**
+     * Default growth of the subsequent intervals
+     */
+    public static final double DEFAULT_MULTIPLIER = 1.5;
+
+    /**
+     * Default random deviation of the intervals (as a fraction of the interval)
+     */
+    public static final double DEFAULT_JITTER = 0.25;
+
+    private final long initialInterval;
+    private final long maxInterval;
+    private final double multiplier;
+    private final double jitter;
+    private final long deadline;
+    private final Random random = new Random();
+    private long interval;
+
+    /**
+     * Creates the default backoff without a deadline
+     */
+    public Backoff() {
+        this(0);
+    }
+
+    /**
+     * Creates the default backoff
+     *
+     * @param timeout the polling deadline in ms from now (0 = no deadline)
+     */
+    public Backoff(long timeout) {
+        this(DEFAULT_INITIAL_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_MULTIPLIER, DEFAULT_JITTER, timeout);
+    }
+
+    /**
+     * Creates the backoff
+     *
+     * @param initialInterval the first interval (ms)
+     * @param maxInterval     the maximal interval (ms)
+     * @param multiplier      growth of the subsequent intervals
+     * @param jitter          random deviation of the intervals (as a fraction of the interval)
+     * @param timeout         the polling deadline in ms from now (0 = no deadline)
+     */
+    public Backoff(long initialInterval, long maxInterval, double multiplier, double jitter, long timeout) {
+        this.initialInterval = initialInterval;
+        this.maxInterval = Math.max(initialInterval, maxInterval);
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.deadline = (timeout > 0) ? (System.currentTimeMillis() + timeout) : (0);
+        this.interval = initialInterval;
+    }
+
+    /**
+     * Returns the next interval with the jitter and prolongs the following one
+     *
+     * @return the next interval (ms)
+     */
+    public long nextInterval() {
+        long current = interval;
+        interval = Math.min(maxInterval, (long) (interval * multiplier));
+        long deviation = (long) (current * jitter * (2 * random.nextDouble() - 1));
+        return Math.max(0, current + deviation);
+    }
+
+    /**
+     * Waits for the next interval
+     *
+     * @return false if the deadline has been reached, true otherwise
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean sleep() throws InterruptedException {
+        return sleep(0);
+    }
+
+    /**
+     * Waits for the next interval or for the delay requested by the server
+     *
+     * @param retryAfter the delay requested by the server (ms), 0 if the server hasn't requested any
+     * @return false if the deadline has been reached, true otherwise
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean sleep(long retryAfter) throws InterruptedException {
+        if (isExpired())
+            return false;
+        long delay = (retryAfter > 0) ? (retryAfter) : (nextInterval());
+        if (deadline > 0)
+            delay = Math.min(delay, deadline - System.currentTimeMillis());
+        if (delay > 0)
+            Thread.sleep(delay);
+        return true;
+    }
+
+    /**
+     * Starts over with the initial interval (e.g. after the polled task has made a progress)
+     */
+    public void reset() {
+        interval = initialInterval;
+    }
+
+    /**
+     * @return true if the deadline has been reached
+     */
+    public boolean isExpired() {
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
+    }
+
+}
@@ -49,6 +49,23 @@ public class CSVWriter implements Closeable {
 
     private boolean alwaysQuoted = true;
 
+    // batching mode: rows are collected in the batch buffer and written out by row count or size threshold
+    private int batchRows = 0;
+
+    private int batchSize = 0;
+
+    private StringBuilder batchBuffer = null;
+
+    private char[] batchChars = null;
+
+    private int pendingRows = 0;
+
+    private long rowCount = 0;
+
+    private long charCount = 0;
+
+    private ProgressListener progressListener = null;
+
     public boolean isAlwaysQuoted() {
         return alwaysQuoted;
     }
@@ -57,6 +74,60 @@ public class CSVWriter implements Closeable {
         this.alwaysQuoted = alwaysQuoted;
     }
 
+    /**
+     * Switches the writer to the batching mode. Rows are collected in a reusable buffer that is written
+     * to the underlying writer and flushed once it holds batchRows rows or batchSize characters.
+     * The remaining rows are written on {@link #flush()} or {@link #close()}.
+     *
+     * @param batchRows max number of rows in a batch (0 or less means no row limit)
+     * @param batchSize max number of characters in a batch
+     */
+    public void setBatching(int batchRows, int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("The batch size must be positive.");
+        writeBatch();
+        this.batchRows = batchRows;
+        this.batchSize = batchSize;
+        this.batchBuffer = new StringBuilder(batchSize + INITIAL_STRING_SIZE);
+        this.batchChars = new char[batchSize + INITIAL_STRING_SIZE];
+    }
+
+    /**
+     * Returns true if the writer collects rows in batches
+     *
+     * @return true in the batching mode
+     */
+    public boolean isBatching() {
+        return batchBuffer != null;
+    }
+
+    /**
+     * Sets the listener that is notified each time a batch is written out
+     *
+     * @param progressListener the listener
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Returns the number of rows passed to the writer
+     *
+     * @return number of rows
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of characters passed to the writer
+     *
+     * @return number of characters
+     */
+    public long getCharCount() {
+        return charCount;
+    }
+
     /**
      * The character used for escaping quotes.
      */
@@ -88,6 +159,30 @@ public class CSVWriter implements Closeable {
      */
     public static final String DEFAULT_LINE_END = "\n";
 
+    /**
+     * The default number of rows collected before a batch is written out.
+     */
+    public static final int DEFAULT_BATCH_ROWS = 10000;
+
+    /**
+     * The default size (in characters) of the batch buffer.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+
+    /**
+     * Receives the number of rows and characters written so far every time a batch is written out.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after a batch has been written to the underlying writer
+         *
+         * @param rows  total number of rows written so far
+         * @param chars total number of characters written so far
+         */
+        public void progress(long rows, long chars);
+    }
+
     private ResultSetHelper resultService = new ResultSetHelperService();
 
     /**
@@ -256,8 +351,36 @@ public class CSVWriter implements Closeable {
         }
 
         sb.append(lineEnd);
-        pw.write(sb.toString());
+        rowCount++;
+        charCount += sb.length();
+        if (batchBuffer != null) {
+            batchBuffer.append(sb);
+            pendingRows++;
+            if (batchBuffer.length() >= batchSize || (batchRows > 0 && pendingRows >= batchRows)) {
+                writeBatch();
+                pw.flush();
+            }
+        } else {
+            pw.write(sb.toString());
+        }
+
+    }
 
+    /**
+     * Writes the rows collected in the batch buffer to the underlying writer
+     */
+    private void writeBatch() {
+        if (batchBuffer == null || pendingRows == 0)
+            return;
+        int len = batchBuffer.length();
+        if (len > batchChars.length)
+            batchChars = new char[len];
+        batchBuffer.getChars(0, len, batchChars, 0);
+        pw.write(batchChars, 0, len);
+        batchBuffer.setLength(0);
+        pendingRows = 0;
+        if (progressListener != null)
+            progressListener.progress(rowCount, charCount);
     }
 
     private void quote(StringBuilder sb, boolean really) {
@@ -294,6 +417,7 @@ public class CSVWriter implements Closeable {
      */
     public void flush() throws IOException {
 
+        writeBatch();
         pw.flush();
 
     }
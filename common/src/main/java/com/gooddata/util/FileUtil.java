@@ -29,9 +29,10 @@ import org.apache.log4j.Logger;
 
 import java.io.*;
 import java.net.URL;
+import java.util.Properties;
 import java.util.UUID;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * File utils
@@ -43,7 +44,7 @@ public class FileUtil {
 
     private static Logger l = Logger.getLogger(FileUtil.class);
 
-    private static final int BUF_SIZE = 2048;
+    private static final int BUF_SIZE = 64 * 1024;
 
     /**
      * Compresses local directory to the archiveName
@@ -53,30 +54,74 @@ public class FileUtil {
      * @throws IOException
      */
     public static void compressDir(String dirPath, String archiveName) throws IOException {
+        compressDir(dirPath, archiveName, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compresses local directory to the archiveName
+     *
+     * @param dirPath     path to the directory
+     * @param archiveName the name of the ZIP archive that is going to be created
+     * @param level       deflate compression level (0-9, Deflater.DEFAULT_COMPRESSION) or ParallelZipOutputStream.STORED
+     * @param threads     number of compressing threads
+     * @throws IOException
+     */
+    public static void compressDir(String dirPath, String archiveName, int level, int threads) throws IOException {
         l.debug("Compressing " + dirPath + " -> " + archiveName);
         File d = new File(dirPath);
         if (d.isDirectory()) {
             File[] files = d.listFiles();
             byte data[] = new byte[BUF_SIZE];
-            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archiveName)));
-            for (File file : files) {
-                BufferedInputStream fi = new BufferedInputStream(new FileInputStream(file), BUF_SIZE);
-                ZipEntry entry = new ZipEntry(file.getName());
-                out.putNextEntry(entry);
-                int count;
-                while ((count = fi.read(data, 0, BUF_SIZE)) != -1) {
-                    out.write(data, 0, count);
+            ParallelZipOutputStream out = new ParallelZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(archiveName), BUF_SIZE), level, threads);
+            try {
+                for (File file : files) {
+                    if (level == ParallelZipOutputStream.STORED) {
+                        out.putNextEntry(file.getName(), file.length(), crc(file, data));
+                    } else {
+                        out.putNextEntry(file.getName());
+                    }
+                    InputStream fi = new FileInputStream(file);
+                    try {
+                        int count;
+                        while ((count = fi.read(data, 0, data.length)) != -1) {
+                            out.write(data, 0, count);
+                        }
+                    } finally {
+                        fi.close();
+                    }
                 }
-                fi.close();
+            } finally {
+                out.close();
             }
-            out.close();
-            File file = new File(archiveName);
         } else
             throw new IOException("The referenced directory isn't directory!");
         l.debug("Compressed " + dirPath + " -> " + archiveName);
 
     }
 
+    /**
+     * Computes the CRC-32 of a file
+     *
+     * @param file the file
+     * @param buf  read buffer
+     * @return the CRC-32 value
+     * @throws IOException
+     */
+    private static long crc(File file, byte[] buf) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream fi = new FileInputStream(file);
+        try {
+            int count;
+            while ((count = fi.read(buf, 0, buf.length)) != -1) {
+                crc.update(buf, 0, count);
+            }
+        } finally {
+            fi.close();
+        }
+        return crc.getValue();
+    }
+
     /**
      * writes the data from the input stream to the provided output stream
      *
@@ -196,6 +241,89 @@ public class FileUtil {
         return fileOrDir.delete();
     }
 
+    /**
+     * Writes the properties to a state file. The file keeps either the old or the new content even if the process
+     * crashes during the write: the new content is written to a temporary file first and the old file is kept
+     * as a backup until the temporary file takes its place. An interrupted write is completed by the next
+     * {@link #loadProperties(File)} or {@link #storeProperties(Properties, File, String)}.
+     *
+     * @param props    the properties
+     * @param file     the state file
+     * @param comments the file header comments
+     * @throws IOException in case of IO issues
+     */
+    public static void storeProperties(Properties props, File file, String comments) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        File bak = new File(file.getPath() + ".bak");
+        recoverProperties(file, tmp, bak);
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            props.store(os, comments);
+        } finally {
+            os.close();
+        }
+        // the backup marks the temporary file as completely written
+        if (file.exists()) {
+            if (!file.renameTo(bak))
+                throw new IOException("Can't back up the file " + file);
+        } else if (!bak.createNewFile()) {
+            throw new IOException("Can't create the backup file " + bak);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Can't replace the file " + file);
+        if (!bak.delete())
+            l.debug("Can't delete the backup file " + bak);
+    }
+
+    /**
+     * Reads the properties stored by the {@link #storeProperties(Properties, File, String)}
+     *
+     * @param file the state file
+     * @return the properties, empty if the file doesn't exist
+     * @throws IOException in case of IO issues
+     */
+    public static Properties loadProperties(File file) throws IOException {
+        recoverProperties(file, new File(file.getPath() + ".tmp"), new File(file.getPath() + ".bak"));
+        Properties props = new Properties();
+        if (file.exists()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Deletes the state file stored by the {@link #storeProperties(Properties, File, String)} including the leftovers
+     * of an interrupted write
+     *
+     * @param file the state file
+     * @return true if the file has been deleted
+     */
+    public static boolean deleteProperties(File file) {
+        new File(file.getPath() + ".tmp").delete();
+        new File(file.getPath() + ".bak").delete();
+        return !file.exists() || file.delete();
+    }
+
+    private static void recoverProperties(File file, File tmp, File bak) throws IOException {
+        if (!file.exists() && bak.exists()) {
+            // interrupted after the new content had been completely written
+            File last = (tmp.exists()) ? (tmp) : (bak);
+            if (!last.renameTo(file))
+                throw new IOException("Can't recover the file " + file + " from " + last);
+            l.debug("Recovered the file " + file + " from " + last);
+        }
+        // a temporary file without the backup hasn't been completely written
+        if (tmp.exists() && !tmp.delete())
+            throw new IOException("Can't delete the temporary file " + tmp);
+        if (bak.exists() && !bak.delete())
+            throw new IOException("Can't delete the backup file " + bak);
+    }
+
     /**
      * Writes a string to a file.
      *
@@ -551,7 +679,18 @@ public class FileUtil {
      * @throws IOException
      */
     public static CSVWriter createUtf8CsvEscapingWriter(File file) throws IOException {
-        return new CSVWriter(new OutputStreamWriter(new FileOutputStream(file), "utf8"), ',', '"', '"');
+        return createUtf8CsvEscapingWriter(new FileOutputStream(file));
+    }
+
+    /**
+     * Creates a UTF-8 {@link CSVWriter} of the given <tt>outputStream</tt>.
+     *
+     * @param outputStream
+     * @return
+     * @throws IOException
+     */
+    public static CSVWriter createUtf8CsvEscapingWriter(OutputStream outputStream) throws IOException {
+        return new CSVWriter(new OutputStreamWriter(outputStream, "utf8"), ',', '"', '"');
     }
 
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HostParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of the persistent (keep-alive) HTTP connections shared by all HTTP clients of the CLI. The clients created
+ * by the pool keep their own state (cookies, credentials) but reuse the open connections to the same host, so
+ * the subsequent requests don't repeat the TCP and SSL handshakes.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class HttpConnectionPool {
+
+    private static Logger l = Logger.getLogger(HttpConnectionPool.class);
+
+    /**
+     * Default maximal number of open connections to a single host
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    /**
+     * Default maximal number of all open connections
+     */
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 32;
+
+    /**
+     * Default timeout of establishing a connection (ms)
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 60000;
+
+    /**
+     * Default timeout of waiting for the response data (ms, 0 = no timeout)
+     */
+    public static final int DEFAULT_SOCKET_TIMEOUT = 0;
+
+    /**
+     * Default time an unused connection stays open (ms)
+     */
+    public static final int DEFAULT_KEEP_ALIVE = 30000;
+
+    private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    private int keepAlive = DEFAULT_KEEP_ALIVE;
+    private boolean gzip = false;
+
+    private MultiThreadedHttpConnectionManager manager = null;
+    private IdleConnectionTimeoutThread idleThread = null;
+
+    /**
+     * Creates a new HTTP client that uses the pooled connections. The client is configured with the HTTP proxy
+     * and asks for the gzip compressed responses if the compression is enabled. The compressed responses
+     * must be read using the {@link NetUtil#getResponseBodyAsString} and {@link NetUtil#getResponseBodyAsStream}.
+     *
+     * @return new HTTP client
+     */
+    public HttpClient createClient() {
+        return createClient(gzip);
+    }
+
+    /**
+     * Creates a new HTTP client that uses the pooled connections
+     *
+     * @param gzip asks for the gzip compressed responses
+     * @return new HTTP client
+     */
+    public synchronized HttpClient createClient(boolean gzip) {
+        if (manager == null) {
+            l.debug("Creating the HTTP connection pool maxConnectionsPerHost=" + maxConnectionsPerHost +
+                    " maxTotalConnections=" + maxTotalConnections);
+            manager = new MultiThreadedHttpConnectionManager();
+            HttpConnectionManagerParams params = manager.getParams();
+            params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+            params.setMaxTotalConnections(maxTotalConnections);
+            params.setConnectionTimeout(connectTimeout);
+            params.setSoTimeout(socketTimeout);
+            params.setStaleCheckingEnabled(true);
+            if (keepAlive > 0) {
+                idleThread = new IdleConnectionTimeoutThread();
+                idleThread.setTimeoutInterval(Math.max(keepAlive / 2, 1000));
+                idleThread.setConnectionTimeout(keepAlive);
+                idleThread.addConnectionManager(manager);
+                idleThread.start();
+            }
+        }
+        HttpClient client = new HttpClient(manager);
+        NetUtil.configureHttpProxy(client);
+        if (gzip) {
+            List<Header> headers = new ArrayList<Header>();
+            headers.add(new Header("Accept-Encoding", "gzip"));
+            client.getHostConfiguration().getParams().setParameter(HostParams.DEFAULT_HEADERS, headers);
+        }
+        return client;
+    }
+
+    /**
+     * Closes all pooled connections. The clients created by the pool can't be used anymore.
+     */
+    public synchronized void shutdown() {
+        if (idleThread != null) {
+            idleThread.shutdown();
+            idleThread = null;
+        }
+        if (manager != null) {
+            l.debug("Closing the HTTP connection pool.");
+            manager.shutdown();
+            manager = null;
+        }
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(int keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Reads a single column of the current JDBC ResultSet row. The readers are resolved from the ResultSetMetaData once
+ * per query and use the typed ResultSet getters, so the per-row extraction doesn't touch the metadata nor
+ * convert the driver's objects. The SQL NULL is returned as an empty string.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public abstract class JdbcColumnReader {
+
+    /**
+     * Reads the column value as string
+     */
+    public static final JdbcColumnReader STRING = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            String value = rs.getString(index);
+            return (value != null) ? (value) : ("");
+        }
+    };
+
+    /**
+     * Reads an integral column value
+     */
+    public static final JdbcColumnReader LONG = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            long value = rs.getLong(index);
+            return (rs.wasNull()) ? ("") : (Long.toString(value));
+        }
+    };
+
+    /**
+     * Reads a double precision column value
+     */
+    public static final JdbcColumnReader DOUBLE = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            double value = rs.getDouble(index);
+            return (rs.wasNull()) ? ("") : (Double.toString(value));
+        }
+    };
+
+    /**
+     * Reads a single precision column value
+     */
+    public static final JdbcColumnReader FLOAT = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            float value = rs.getFloat(index);
+            return (rs.wasNull()) ? ("") : (Float.toString(value));
+        }
+    };
+
+    /**
+     * Reads a DECIMAL or NUMERIC column value
+     */
+    public static final JdbcColumnReader DECIMAL = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            BigDecimal value = rs.getBigDecimal(index);
+            return (value != null) ? (value.toString()) : ("");
+        }
+    };
+
+    /**
+     * Reads a DATE or TIMESTAMP column value as the Joda DateTime that is formatted later (by the Transformer)
+     */
+    public static final JdbcColumnReader DATETIME = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            Timestamp value = rs.getTimestamp(index);
+            return (value != null) ? (new DateTime(value.getTime())) : ("");
+        }
+    };
+
+    /**
+     * Reads any other column value as the string representation of the driver's object
+     */
+    public static final JdbcColumnReader OBJECT = new JdbcColumnReader() {
+        public Object read(ResultSet rs, int index) throws SQLException {
+            Object value = rs.getObject(index);
+            return (value != null && !rs.wasNull()) ? (value.toString()) : ("");
+        }
+    };
+
+    /**
+     * Reads the column of the current row
+     *
+     * @param rs    the result set positioned at a row
+     * @param index column index (1 based)
+     * @return the column value, an empty string for the SQL NULL
+     * @throws SQLException in case of a db issue
+     */
+    public abstract Object read(ResultSet rs, int index) throws SQLException;
+
+    /**
+     * Creates a reader of a DATE or TIMESTAMP column that prints the value directly with the given format
+     *
+     * @param format the date format
+     * @return the column reader
+     */
+    public static JdbcColumnReader createDateReader(final DateTimeFormatter format) {
+        return new JdbcColumnReader() {
+            public Object read(ResultSet rs, int index) throws SQLException {
+                Timestamp value = rs.getTimestamp(index);
+                return (value != null) ? (format.print(value.getTime())) : ("");
+            }
+        };
+    }
+
+    /**
+     * Creates the reader for the given SQL type
+     *
+     * @param sqlType    the java.sql.Types constant
+     * @param dateFormat the format of the DATE and TIMESTAMP values, null reads them as DateTime
+     * @return the column reader
+     */
+    public static JdbcColumnReader create(int sqlType, DateTimeFormatter dateFormat) {
+        switch (sqlType) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return STRING;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return LONG;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.REAL:
+                return FLOAT;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return DECIMAL;
+            case Types.DATE:
+            case Types.TIMESTAMP:
+                return (dateFormat != null) ? (createDateReader(dateFormat)) : (DATETIME);
+            default:
+                return OBJECT;
+        }
+    }
+
+    /**
+     * Resolves the readers of all the result set columns
+     *
+     * @param rsm         the result set metadata
+     * @param dateFormats the formats of the DATE and TIMESTAMP columns (indexed from 0), null or a null item reads
+     *                    the column as DateTime
+     * @return the column readers (indexed from 0)
+     * @throws SQLException in case of a db issue
+     */
+    public static JdbcColumnReader[] create(ResultSetMetaData rsm, DateTimeFormatter[] dateFormats) throws SQLException {
+        int cnt = rsm.getColumnCount();
+        JdbcColumnReader[] readers = new JdbcColumnReader[cnt];
+        for (int i = 0; i < cnt; i++) {
+            DateTimeFormatter fmt = (dateFormats != null && i < dateFormats.length) ? (dateFormats[i]) : (null);
+            readers[i] = create(rsm.getColumnType(i + 1), fmt);
+        }
+        return readers;
+    }
+
+    /**
+     * Reads all columns of the current row
+     *
+     * @param rs      the result set positioned at a row
+     * @param readers the column readers
+     * @return the row values
+     * @throws SQLException in case of a db issue
+     */
+    public static Object[] readRow(ResultSet rs, JdbcColumnReader[] readers) throws SQLException {
+        Object[] row = new Object[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            row[i] = readers[i].read(rs, i + 1);
+        }
+        return row;
+    }
+
+}
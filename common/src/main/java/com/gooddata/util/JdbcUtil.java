@@ -166,6 +166,41 @@ public class JdbcUtil {
         executeQuery(c, sql, handler, Integer.MAX_VALUE, fetchSize);
     }
 
+    /**
+     * Executes a prepared query and passes the ResultSet to the given handler on each record
+     *
+     * @param c         JDBC connection
+     * @param sql       sql prepared statement (i.e. may contain the "?" placeholders to be populated by the <tt>sh</tt> handler
+     * @param sh        {@link StatementHandler} instance to setup the prepared statement
+     * @param handler   Jdbc ResultSet handler
+     * @param fetchSize max fetch size
+     * @throws SQLException in case of a db issue
+     */
+    public static void executeQuery(Connection c, String sql, StatementHandler sh, ResultSetHandler handler, int fetchSize)
+            throws SQLException, IOException {
+        PreparedStatement st = null;
+        ResultSet rs = null;
+        try {
+            st = c.prepareStatement(sql, java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(fetchSize);
+            sh.prepare(st);
+            l.debug("Executing SQL: statement='" + sql + "', fetchSize=" + fetchSize);
+            rs = st.executeQuery();
+            l.debug("Executed SQL: statement='" + sql + "'");
+            while (rs.next()) {
+                handler.handle(rs);
+            }
+        } catch (SQLException e) {
+            l.debug("Error executing SQL: statement='" + sql + "'", e);
+            throw e;
+        } finally {
+            if (rs != null)
+                rs.close();
+            if (st != null)
+                st.close();
+        }
+    }
+
     /**
      * Result set handler callback interface for {@link JdbcUtil#executeQuery(Connection, String, ResultSetHandler, int)}
      */
@@ -23,15 +23,23 @@
 
 package com.gooddata.util;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.NTCredentials;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthPolicy;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.log4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Net Utilities
@@ -74,5 +82,63 @@ public class NetUtil {
         }
     }
 
+    /**
+     * Returns the response body of an executed HTTP method, decompresses the gzip encoded response
+     *
+     * @param method executed HTTP method
+     * @return response body as String
+     * @throws IOException in case of IO issues
+     */
+    public static String getResponseBodyAsString(HttpMethod method) throws IOException {
+        if (!isGzipEncoded(method))
+            return method.getResponseBodyAsString();
+        byte[] body = getResponseBody(method);
+        if (body == null)
+            return null;
+        String charset = (method instanceof HttpMethodBase) ? (((HttpMethodBase) method).getResponseCharSet()) :
+                ("ISO-8859-1");
+        return new String(body, charset);
+    }
+
+    /**
+     * Returns the response body of an executed HTTP method, decompresses the gzip encoded response
+     *
+     * @param method executed HTTP method
+     * @return response body
+     * @throws IOException in case of IO issues
+     */
+    public static byte[] getResponseBody(HttpMethod method) throws IOException {
+        byte[] body = method.getResponseBody();
+        if (body == null || !isGzipEncoded(method))
+            return body;
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(body));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        is.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Returns the response body stream of an executed HTTP method, decompresses the gzip encoded response
+     *
+     * @param method executed HTTP method
+     * @return response body stream
+     * @throws IOException in case of IO issues
+     */
+    public static InputStream getResponseBodyAsStream(HttpMethod method) throws IOException {
+        InputStream is = method.getResponseBodyAsStream();
+        if (is != null && isGzipEncoded(method))
+            return new GZIPInputStream(is);
+        return is;
+    }
+
+    private static boolean isGzipEncoded(HttpMethod method) {
+        Header encoding = method.getResponseHeader("Content-Encoding");
+        return encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim());
+    }
 
 }
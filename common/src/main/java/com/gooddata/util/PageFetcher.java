@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.util;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fetches the pages of a paged API whose page index is known up front (e.g. a page number or an offset).
+ * Up to window pages are requested concurrently. The pages are returned in the page order as they complete.
+ * The end of the data isn't known in advance, so up to window - 1 pages after the last one are requested
+ * in vain.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class PageFetcher<T> {
+
+    /**
+     * Default number of the concurrently fetched pages
+     */
+    public static final int DEFAULT_WINDOW = 4;
+
+    /**
+     * The paged API
+     */
+    public interface Source<T> {
+
+        /**
+         * Fetches a page
+         *
+         * @param page the page index
+         * @return the page
+         * @throws Exception in case of the fetch issues
+         */
+        public T fetch(int page) throws Exception;
+
+        /**
+         * Checks if there are no more pages after the page
+         *
+         * @param page the fetched page
+         * @return true if the page is the last one
+         */
+        public boolean isLast(T page);
+    }
+
+    private final Source<T> source;
+    private final int window;
+    private final LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+    private ExecutorService pool;
+    private int nextPage;
+    private boolean done = false;
+
+    /**
+     * Creates the fetcher
+     *
+     * @param source    the paged API
+     * @param firstPage the index of the first page
+     * @param window    number of the concurrently fetched pages, 1 fetches the pages one by one on the caller's thread
+     */
+    public PageFetcher(Source<T> source, int firstPage, int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("The page window must be at least 1.");
+        this.source = source;
+        this.window = window;
+        this.nextPage = firstPage;
+    }
+
+    /**
+     * Returns the next page
+     *
+     * @return the page or null if the last page has been returned
+     * @throws IOException in case of the fetch issues
+     */
+    public T next() throws IOException {
+        if (done)
+            return null;
+        T page;
+        if (window == 1) {
+            try {
+                page = source.fetch(nextPage++);
+            } catch (Exception e) {
+                close();
+                throw toIOException(e);
+            }
+        } else {
+            if (pool == null)
+                pool = createPool();
+            while (pending.size() < window) {
+                final int index = nextPage++;
+                pending.add(pool.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        return source.fetch(index);
+                    }
+                }));
+            }
+            try {
+                page = pending.removeFirst().get();
+            } catch (ExecutionException e) {
+                close();
+                throw toIOException(e.getCause());
+            } catch (InterruptedException e) {
+                close();
+                IOException ioe = new IOException("The page fetch has been interrupted.");
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+        if (source.isLast(page))
+            close();
+        return page;
+    }
+
+    /**
+     * Stops fetching the pages
+     */
+    public void close() {
+        done = true;
+        for (Future<T> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    private ExecutorService createPool() {
+        return Executors.newFixedThreadPool(window, new ThreadFactory() {
+            private int cnt = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gdc-page-" + (++cnt));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static IOException toIOException(Throwable e) {
+        if (e instanceof IOException)
+            return (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
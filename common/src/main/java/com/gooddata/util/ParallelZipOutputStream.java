@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes standard ZIP archives. The deflated entries are split to blocks that are compressed in parallel (each block
+ * is primed with the last 32KB of the previous one and ends with a sync flush, so the concatenated blocks form
+ * a single deflate stream). The parallel compression requires the Deflater sync flush that is available since
+ * Java 7, older runtimes compress the entries in the calling thread. Large entries and archives use the ZIP64
+ * extensions.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class ParallelZipOutputStream extends FilterOutputStream {
+
+    private static Logger l = Logger.getLogger(ParallelZipOutputStream.class);
+
+    /**
+     * Compression level that stores the entries without compression (the entry size and CRC must be known in advance)
+     */
+    public static final int STORED = -2;
+
+    /**
+     * Default size of the independently compressed blocks
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    // Deflater.deflate(byte[], int, int, int) with Deflater.SYNC_FLUSH, Java 7 and later
+    private static final int SYNC_FLUSH = 2;
+    private static final Method SYNC_DEFLATE = syncDeflateMethod();
+
+    private final int level;
+    private final int threads;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private ExecutorService pool;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private long written = 0;
+
+    // current entry
+    private Entry entry;
+    private final CRC32 crc = new CRC32();
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private Deflater deflater;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private boolean finished = false;
+
+    /**
+     * Creates the ZIP stream
+     *
+     * @param out     target stream
+     * @param level   deflate compression level (0-9, Deflater.DEFAULT_COMPRESSION) or STORED
+     * @param threads number of compressing threads
+     */
+    public ParallelZipOutputStream(OutputStream out, int level, int threads) {
+        super(out);
+        if (level != STORED && level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9))
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        if (threads <= 0)
+            throw new IllegalArgumentException("The number of compression threads must be positive.");
+        this.level = level;
+        this.threads = (SYNC_DEFLATE != null) ? (threads) : (1);
+        if (threads > 1 && SYNC_DEFLATE == null)
+            l.debug("The parallel compression requires Java 7, compressing in a single thread.");
+    }
+
+    /**
+     * Size of the blocks that are compressed in parallel
+     *
+     * @param blockSize block size in bytes
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize <= DICTIONARY_SIZE)
+            throw new IllegalArgumentException("The compression block size must be greater than " + DICTIONARY_SIZE);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Compression level
+     *
+     * @return deflate compression level or STORED
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Starts a new entry. The entry is stored when the STORED level is used, deflated otherwise.
+     *
+     * @param name entry name
+     * @param size uncompressed size (required for the STORED level, -1 if unknown)
+     * @param crc  CRC-32 of the uncompressed data (required for the STORED level, -1 if unknown)
+     * @throws IOException in case of IO issues
+     */
+    public void putNextEntry(String name, long size, long crc) throws IOException {
+        closeEntry();
+        Entry e = new Entry(name);
+        if (level == STORED) {
+            if (size < 0 || crc < 0)
+                throw new IllegalArgumentException("The STORED entry '" + name + "' requires the size and CRC.");
+            e.method = METHOD_STORED;
+            e.size = size;
+            e.csize = size;
+            e.crc = crc;
+        }
+        e.offset = written;
+        writeLocalHeader(e);
+        entries.add(e);
+        entry = e;
+        this.crc.reset();
+        if (e.method == METHOD_DEFLATED) {
+            block = new byte[blockSize];
+            blockLength = 0;
+            dictionary = null;
+            if (threads > 1) {
+                if (pool == null)
+                    pool = createPool(threads);
+            } else {
+                deflater = new Deflater(level, true);
+            }
+        }
+    }
+
+    /**
+     * Starts a new deflated entry
+     *
+     * @param name entry name
+     * @throws IOException in case of IO issues
+     */
+    public void putNextEntry(String name) throws IOException {
+        putNextEntry(name, -1, -1);
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (entry == null)
+            throw new IOException("No current ZIP entry.");
+        crc.update(b, off, len);
+        if (entry.method == METHOD_STORED) {
+            writeRaw(b, off, len);
+            entry.written += len;
+            return;
+        }
+        entry.written += len;
+        while (len > 0) {
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == block.length)
+                compressBlock(false);
+        }
+    }
+
+    /**
+     * Closes the current entry
+     *
+     * @throws IOException in case of IO issues
+     */
+    public void closeEntry() throws IOException {
+        Entry e = entry;
+        if (e == null)
+            return;
+        if (e.method == METHOD_STORED) {
+            if (e.written != e.size || crc.getValue() != e.crc)
+                throw new IOException("The STORED entry '" + e.name + "' has different size or CRC than declared.");
+        } else {
+            compressBlock(true);
+            while (!pending.isEmpty())
+                writeCompressed(pending.removeFirst());
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+            block = null;
+            dictionary = null;
+            e.size = e.written;
+            e.crc = crc.getValue();
+            e.csize = written - e.dataOffset;
+            writeDataDescriptor(e);
+        }
+        entry = null;
+    }
+
+    /**
+     * Writes the central directory. Doesn't close the underlying stream.
+     *
+     * @throws IOException in case of IO issues
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        try {
+            closeEntry();
+            long cdOffset = written;
+            for (Entry e : entries)
+                writeCentralHeader(e);
+            long cdSize = written - cdOffset;
+            writeEnd(cdOffset, cdSize);
+            out.flush();
+            finished = true;
+        } finally {
+            // a failed archive can't be completed later
+            if (!finished)
+                abort();
+            release();
+        }
+    }
+
+    /**
+     * Stops the compression of an archive that can't be completed (e.g. its data source failed). The central
+     * directory isn't written, so the archive stays incomplete. Doesn't close the underlying stream.
+     */
+    public void abort() {
+        if (finished)
+            return;
+        finished = true;
+        entry = null;
+        block = null;
+        dictionary = null;
+        release();
+    }
+
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            try {
+                release();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // stops the compression threads and frees the deflater
+    private void release() {
+        for (Future<byte[]> f : pending)
+            f.cancel(true);
+        pending.clear();
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private static ExecutorService createPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int cnt = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gdc-zip-" + (++cnt));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private void compressBlock(boolean last) throws IOException {
+        if (deflater != null) {
+            deflater.setInput(block, 0, blockLength);
+            byte[] buf = new byte[OUTPUT_BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished())
+                    writeRaw(buf, 0, deflater.deflate(buf));
+            } else {
+                while (!deflater.needsInput())
+                    writeRaw(buf, 0, deflater.deflate(buf));
+            }
+            blockLength = 0;
+            return;
+        }
+        final byte[] data = block;
+        final int length = blockLength;
+        final byte[] dict = dictionary;
+        final boolean finish = last;
+        if (!last) {
+            dictionary = new byte[DICTIONARY_SIZE];
+            System.arraycopy(data, length - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+        pending.add(pool.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return deflate(data, length, dict, finish);
+            }
+        }));
+        while (pending.size() > threads * 2)
+            writeCompressed(pending.removeFirst());
+    }
+
+    private byte[] deflate(byte[] data, int length, byte[] dict, boolean last) throws IOException {
+        Deflater d = new Deflater(level, true);
+        try {
+            if (dict != null)
+                d.setDictionary(dict);
+            d.setInput(data, 0, length);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buf = new byte[OUTPUT_BUFFER_SIZE];
+            if (last) {
+                d.finish();
+                while (!d.finished())
+                    result.write(buf, 0, d.deflate(buf));
+            } else {
+                // the block ends on a byte boundary, the next block continues the deflate stream
+                int n;
+                do {
+                    n = syncDeflate(d, buf);
+                    result.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return result.toByteArray();
+        } finally {
+            d.end();
+        }
+    }
+
+    private void writeCompressed(Future<byte[]> f) throws IOException {
+        try {
+            byte[] data = f.get();
+            writeRaw(data, 0, data.length);
+        } catch (InterruptedException e) {
+            throw new IOException("Compression interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException("Compression failed: " + cause);
+        }
+    }
+
+    private static int syncDeflate(Deflater d, byte[] buf) throws IOException {
+        try {
+            return (Integer) SYNC_DEFLATE.invoke(d, buf, 0, buf.length, SYNC_FLUSH);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Can't invoke the Deflater: " + e.getMessage());
+        } catch (InvocationTargetException e) {
+            throw new IOException("Deflater failed: " + e.getCause());
+        }
+    }
+
+    private static Method syncDeflateMethod() {
+        try {
+            return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private void writeLocalHeader(Entry e) throws IOException {
+        byte[] name = e.name.getBytes("utf8");
+        boolean zip64 = e.method == METHOD_STORED && e.size >= ZIP64_MAGIC;
+        writeInt(0x04034b50L);
+        if (e.method == METHOD_STORED) {
+            writeShort(zip64 ? 45 : 10);
+            writeShort(0);
+        } else {
+            writeShort(20);
+            writeShort(FLAG_DATA_DESCRIPTOR);
+        }
+        writeShort(e.method);
+        writeInt(e.time);
+        if (e.method == METHOD_STORED) {
+            writeInt(e.crc);
+            writeInt(zip64 ? ZIP64_MAGIC : e.csize);
+            writeInt(zip64 ? ZIP64_MAGIC : e.size);
+        } else {
+            writeInt(0);
+            writeInt(0);
+            writeInt(0);
+        }
+        writeShort(name.length);
+        writeShort(zip64 ? 20 : 0);
+        writeRaw(name, 0, name.length);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(e.size);
+            writeLong(e.csize);
+        }
+        e.dataOffset = written;
+    }
+
+    private void writeDataDescriptor(Entry e) throws IOException {
+        writeInt(0x08074b50L);
+        writeInt(e.crc);
+        if (e.csize >= ZIP64_MAGIC || e.size >= ZIP64_MAGIC) {
+            writeLong(e.csize);
+            writeLong(e.size);
+        } else {
+            writeInt(e.csize);
+            writeInt(e.size);
+        }
+    }
+
+    private void writeCentralHeader(Entry e) throws IOException {
+        byte[] name = e.name.getBytes("utf8");
+        boolean size64 = e.size >= ZIP64_MAGIC;
+        boolean csize64 = e.csize >= ZIP64_MAGIC;
+        boolean offset64 = e.offset >= ZIP64_MAGIC;
+        int extra = (size64 ? 8 : 0) + (csize64 ? 8 : 0) + (offset64 ? 8 : 0);
+        boolean zip64 = extra > 0;
+        writeInt(0x02014b50L);
+        writeShort(zip64 ? 45 : 20);
+        writeShort(zip64 ? 45 : (e.method == METHOD_STORED) ? 10 : 20);
+        writeShort((e.method == METHOD_STORED) ? 0 : FLAG_DATA_DESCRIPTOR);
+        writeShort(e.method);
+        writeInt(e.time);
+        writeInt(e.crc);
+        writeInt(csize64 ? ZIP64_MAGIC : e.csize);
+        writeInt(size64 ? ZIP64_MAGIC : e.size);
+        writeShort(name.length);
+        writeShort(zip64 ? extra + 4 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(offset64 ? ZIP64_MAGIC : e.offset);
+        writeRaw(name, 0, name.length);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(extra);
+            if (size64)
+                writeLong(e.size);
+            if (csize64)
+                writeLong(e.csize);
+            if (offset64)
+                writeLong(e.offset);
+        }
+    }
+
+    private void writeEnd(long cdOffset, long cdSize) throws IOException {
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+            long end64 = written;
+            // ZIP64 end of central directory record
+            writeInt(0x06064b50L);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(cdSize);
+            writeLong(cdOffset);
+            // ZIP64 end of central directory locator
+            writeInt(0x07064b50L);
+            writeInt(0);
+            writeLong(end64);
+            writeInt(1);
+        }
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(cdSize, ZIP64_MAGIC));
+        writeInt(Math.min(cdOffset, ZIP64_MAGIC));
+        writeShort(0);
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xffff));
+        writeShort((int) ((v >>> 16) & 0xffff));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xffffffffL);
+        writeInt(v >>> 32);
+    }
+
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+    /**
+     * Converts the time to the MS-DOS date and time format
+     *
+     * @param time time in milliseconds
+     * @return DOS time
+     */
+    private static long dosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16) |
+                (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Archive entry
+     */
+    private static class Entry {
+        final String name;
+        final long time = dosTime(System.currentTimeMillis());
+        int method = METHOD_DEFLATED;
+        long crc;
+        long size;
+        long csize;
+        long offset;
+        long dataOffset;
+        long written;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class BackoffTest {
+
+    @Test
+    public void testIntervals() {
+        Backoff b = new Backoff(100, 1000, 2, 0, 0);
+        long[] expected = {100, 200, 400, 800, 1000, 1000};
+        for (long e : expected)
+            Assert.assertEquals(e, b.nextInterval());
+        b.reset();
+        Assert.assertEquals(100, b.nextInterval());
+    }
+
+    @Test
+    public void testJitter() {
+        Backoff b = new Backoff(1000, 1000, 1, 0.25, 0);
+        boolean varies = false;
+        long first = b.nextInterval();
+        for (int i = 0; i < 100; i++) {
+            long interval = b.nextInterval();
+            Assert.assertTrue(interval >= 750 && interval <= 1250);
+            varies |= (interval != first);
+        }
+        Assert.assertTrue(varies);
+    }
+
+    @Test
+    public void testDeadline() throws InterruptedException {
+        Backoff b = new Backoff(10, 50, 2, 0, 200);
+        long start = System.currentTimeMillis();
+        int polls = 0;
+        while (b.sleep())
+            polls++;
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(b.isExpired());
+        Assert.assertTrue(elapsed >= 200 && elapsed < 1000);
+        Assert.assertTrue(polls >= 4);
+    }
+
+    @Test
+    public void testRetryAfter() throws InterruptedException {
+        Backoff b = new Backoff(10000, 10000, 1, 0, 0);
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(b.sleep(50));
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        // the requested delay doesn't prolong the backoff
+        Assert.assertEquals(10000, b.nextInterval());
+    }
+
+}
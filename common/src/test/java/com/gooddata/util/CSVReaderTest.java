@@ -29,6 +29,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.List;
 
 public class CSVReaderTest {
 
@@ -138,4 +139,37 @@ public class CSVReaderTest {
         }
         Assert.assertFalse("IllegalStateException expected", true);
     }
+
+    @Test
+    public void testFastPath() throws IOException {
+        String[] files = new String[]{"/com/gooddata/util/crazy.csv", "/com/gooddata/util/escaping.csv.win",
+                "/com/gooddata/util/chunk-boundary.csv", "/com/gooddata/util/long.csv.win"};
+        for (final String f : files) {
+            List<String[]> expected = new CSVReader(new InputStreamReader(
+                    CSVReaderTest.class.getResourceAsStream(f), "utf8")).readAll();
+
+            CSVReader fields = new CSVReader(new InputStreamReader(
+                    CSVReaderTest.class.getResourceAsStream(f), "utf8"));
+            CSVReader reusing = new CSVReader(new InputStreamReader(
+                    CSVReaderTest.class.getResourceAsStream(f), "utf8"));
+            String[] line = null;
+            for (String[] e : expected) {
+                Assert.assertTrue(f, fields.nextRecord());
+                Assert.assertEquals(f, e.length, fields.getFieldCount());
+                for (int j = 0; j < e.length; j++) {
+                    Assert.assertEquals(f, e[j].length(), fields.getFieldLength(j));
+                    Assert.assertEquals(f, e[j], fields.getField(j));
+                }
+                String[] previous = line;
+                line = reusing.readNext(line);
+                if (previous != null && previous.length == e.length)
+                    Assert.assertSame(f, previous, line);
+                for (int j = 0; j < e.length; j++) {
+                    Assert.assertEquals(f, e[j], line[j]);
+                }
+            }
+            Assert.assertFalse(f, fields.nextRecord());
+            Assert.assertNull(f, reusing.readNext(line));
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CSVWriterTest {
+
+    @Test
+    public void testBatching() throws IOException {
+        StringWriter unbatched = new StringWriter();
+        StringWriter batched = new StringWriter();
+        CSVWriter cw = new CSVWriter(unbatched);
+        CSVWriter bw = new CSVWriter(batched);
+        final List<Long> progress = new ArrayList<Long>();
+        bw.setBatching(3, 1024);
+        bw.setProgressListener(new CSVWriter.ProgressListener() {
+            public void progress(long rows, long chars) {
+                progress.add(rows);
+            }
+        });
+        for (int i = 0; i < 7; i++) {
+            String[] row = new String[]{"row" + i, "a,b", "quote\"d"};
+            cw.writeNext(row);
+            bw.writeNext(row);
+            if (i == 2) {
+                Assert.assertEquals(unbatched.toString(), batched.toString());
+            }
+            if (i == 3) {
+                Assert.assertTrue(batched.toString().length() < unbatched.toString().length());
+            }
+        }
+        cw.close();
+        bw.close();
+        Assert.assertEquals(unbatched.toString(), batched.toString());
+        Assert.assertEquals(7, bw.getRowCount());
+        Assert.assertEquals(batched.toString().length(), bw.getCharCount());
+        Assert.assertEquals(3, progress.size());
+        Assert.assertEquals(Long.valueOf(7), progress.get(2));
+    }
+
+    @Test
+    public void testBatchSizeThreshold() throws IOException {
+        StringWriter sw = new StringWriter();
+        CSVWriter cw = new CSVWriter(sw);
+        cw.setBatching(0, 10);
+        cw.writeNext(new String[]{"abc"});
+        Assert.assertEquals(0, sw.toString().length());
+        cw.writeNext(new String[]{"abcdef"});
+        Assert.assertEquals("\"abc\"\n\"abcdef\"\n", sw.toString());
+        cw.close();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+public class FileUtilTest {
+
+    private File file;
+    private File tmp;
+    private File bak;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("state", ".properties");
+        file.delete();
+        tmp = new File(file.getPath() + ".tmp");
+        bak = new File(file.getPath() + ".bak");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.deleteProperties(file);
+    }
+
+    @Test
+    public void testStoreProperties() throws IOException {
+        Assert.assertTrue(FileUtil.loadProperties(file).isEmpty());
+        FileUtil.storeProperties(props("1"), file, null);
+        FileUtil.storeProperties(props("2"), file, null);
+        Assert.assertEquals("2", FileUtil.loadProperties(file).getProperty("value"));
+        Assert.assertFalse(tmp.exists());
+        Assert.assertFalse(bak.exists());
+        Assert.assertTrue(FileUtil.deleteProperties(file));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testCrashAfterBackup() throws IOException {
+        // the old file has been backed up, the new one hasn't taken its place yet
+        FileUtil.storeProperties(props("1"), bak, null);
+        FileUtil.storeProperties(props("2"), tmp, null);
+        Assert.assertEquals("2", FileUtil.loadProperties(file).getProperty("value"));
+        Assert.assertFalse(tmp.exists());
+        Assert.assertFalse(bak.exists());
+    }
+
+    @Test
+    public void testCrashAfterTemporaryFileRenamed() throws IOException {
+        FileUtil.storeProperties(props("1"), bak, null);
+        Assert.assertEquals("1", FileUtil.loadProperties(file).getProperty("value"));
+    }
+
+    @Test
+    public void testCrashDuringWrite() throws IOException {
+        FileUtil.storeProperties(props("1"), file, null);
+        FileWriter w = new FileWriter(tmp);
+        w.write("value=");
+        w.close();
+        Assert.assertEquals("1", FileUtil.loadProperties(file).getProperty("value"));
+        Assert.assertFalse(tmp.exists());
+        FileUtil.storeProperties(props("2"), file, null);
+        Assert.assertEquals("2", FileUtil.loadProperties(file).getProperty("value"));
+    }
+
+    private static Properties props(String value) {
+        Properties p = new Properties();
+        p.setProperty("value", value);
+        return p;
+    }
+}
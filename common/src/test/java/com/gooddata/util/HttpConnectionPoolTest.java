@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+public class HttpConnectionPoolTest {
+
+    private StubHttpServer server;
+    private HttpConnectionPool pool;
+    private final Set<Integer> clientPorts = new HashSet<Integer>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) throws IOException {
+                synchronized (clientPorts) {
+                    clientPorts.add(request.getRemotePort());
+                }
+                response.setBody("Hello " + request.getPath(), "text/plain");
+                String accept = request.getHeader("Accept-Encoding");
+                if (accept != null && accept.contains("gzip")) {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    OutputStream os = new GZIPOutputStream(bos);
+                    os.write(("Hello " + request.getPath()).getBytes("UTF-8"));
+                    os.close();
+                    response.setHeader("Content-Encoding", "gzip");
+                    response.setBody(bos.toByteArray());
+                }
+            }
+        });
+        pool = new HttpConnectionPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        // two clients with their own state share the connection
+        HttpClient c1 = pool.createClient();
+        HttpClient c2 = pool.createClient();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("Hello /" + i, get((i % 2 == 0) ? (c1) : (c2), "/" + i));
+        }
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        pool.setGzip(true);
+        Assert.assertEquals("Hello /compressed", get(pool.createClient(), "/compressed"));
+        Assert.assertEquals("Hello /plain", get(pool.createClient(false), "/plain"));
+    }
+
+    private String get(HttpClient client, String path) throws IOException {
+        GetMethod m = new GetMethod(server.getUrl(path));
+        try {
+            Assert.assertEquals(200, client.executeMethod(m));
+            return NetUtil.getResponseBodyAsString(m);
+        } finally {
+            m.releaseConnection();
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Tests the column readers on an embedded Derby database
+ */
+public class JdbcColumnReaderTest {
+
+    private static final String URL = "jdbc:derby:memory:gdc_column_reader;create=true";
+
+    private static final String COLUMNS = "s VARCHAR(10), i INTEGER, d DECIMAL(5,2), f DOUBLE, t TIMESTAMP, r REAL, tm TIME";
+
+    private static final int[] TYPES = {Types.VARCHAR, Types.INTEGER, Types.DECIMAL, Types.DOUBLE, Types.TIMESTAMP,
+            Types.REAL, Types.TIME};
+
+    private Connection con;
+    private Statement st;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = DriverManager.getConnection(URL);
+        st = con.createStatement();
+        st.execute("CREATE TABLE t (" + COLUMNS + ")");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        st.execute("DROP TABLE t");
+        st.close();
+        con.close();
+    }
+
+    /**
+     * Result set of the inserted row
+     */
+    private ResultSet query(Object[] values) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("INSERT INTO t VALUES (?, ?, ?, ?, ?, ?, ?)");
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                ps.setObject(i + 1, values[i]);
+            else
+                ps.setNull(i + 1, TYPES[i]);
+        }
+        ps.executeUpdate();
+        ps.close();
+        ResultSet rs = st.executeQuery("SELECT * FROM t");
+        Assert.assertTrue(rs.next());
+        for (int i = 0; i < TYPES.length; i++)
+            Assert.assertEquals(TYPES[i], rs.getMetaData().getColumnType(i + 1));
+        return rs;
+    }
+
+    @Test
+    public void testReadRow() throws Exception {
+        Timestamp ts = new Timestamp(DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").parseMillis("2011-03-04 05:06:07"));
+        ResultSet rs = query(new Object[]{"abc", 42, new BigDecimal("1.50"), 2.5, ts, 0.25f, Time.valueOf("05:06:07")});
+        JdbcColumnReader[] readers = JdbcColumnReader.create(rs.getMetaData(), null);
+        Object[] row = JdbcColumnReader.readRow(rs, readers);
+        Assert.assertEquals("abc", row[0]);
+        Assert.assertEquals("42", row[1]);
+        Assert.assertEquals("1.50", row[2]);
+        Assert.assertEquals("2.5", row[3]);
+        Assert.assertEquals(ts.getTime(), ((DateTime) row[4]).getMillis());
+        Assert.assertEquals("0.25", row[5]);
+        // read as the driver's object
+        Assert.assertEquals("05:06:07", row[6]);
+        rs.close();
+    }
+
+    @Test
+    public void testFormattedDate() throws Exception {
+        Timestamp ts = new Timestamp(DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").parseMillis("2011-03-04 05:06:07"));
+        ResultSet rs = query(new Object[]{"abc", 42, new BigDecimal("1.50"), 2.5, ts, 0.25f, Time.valueOf("05:06:07")});
+        JdbcColumnReader[] readers = JdbcColumnReader.create(rs.getMetaData(),
+                new DateTimeFormatter[]{null, null, null, null, DateUtil.getDateFormatter(null, false)});
+        Assert.assertEquals("2011-03-04", JdbcColumnReader.readRow(rs, readers)[4]);
+        rs.close();
+    }
+
+    @Test
+    public void testNulls() throws Exception {
+        ResultSet rs = query(new Object[TYPES.length]);
+        Object[] row = JdbcColumnReader.readRow(rs, JdbcColumnReader.create(rs.getMetaData(), null));
+        for (Object value : row)
+            Assert.assertEquals("", value);
+        rs.close();
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class PageFetcherTest {
+
+    /**
+     * Pages 1..lastPage of the page index, the later pages are empty
+     */
+    private static class Pages implements PageFetcher.Source<Integer> {
+        private final int lastPage;
+        private final Random random = new Random();
+        private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        private volatile int failingPage = -1;
+
+        Pages(int lastPage) {
+            this.lastPage = lastPage;
+        }
+
+        public Integer fetch(int page) throws Exception {
+            threads.add(Thread.currentThread().getName());
+            Thread.sleep(random.nextInt(20));
+            if (page == failingPage)
+                throw new IllegalStateException("page " + page);
+            return (page <= lastPage) ? (page) : (0);
+        }
+
+        public boolean isLast(Integer page) {
+            return page == 0 || page == lastPage;
+        }
+    }
+
+    @Test
+    public void testPageOrder() throws IOException {
+        Pages source = new Pages(25);
+        PageFetcher<Integer> f = new PageFetcher<Integer>(source, 1, 4);
+        Integer page;
+        int expected = 1;
+        while ((page = f.next()) != null) {
+            Assert.assertEquals(expected++, page.intValue());
+        }
+        Assert.assertEquals(26, expected);
+        Assert.assertNull(f.next());
+        Assert.assertTrue(source.threads.size() > 1);
+    }
+
+    @Test
+    public void testSequential() throws IOException {
+        Pages source = new Pages(3);
+        PageFetcher<Integer> f = new PageFetcher<Integer>(source, 1, 1);
+        Assert.assertEquals(1, f.next().intValue());
+        Assert.assertEquals(2, f.next().intValue());
+        Assert.assertEquals(3, f.next().intValue());
+        Assert.assertNull(f.next());
+        Assert.assertEquals(Collections.singleton(Thread.currentThread().getName()), source.threads);
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        Pages source = new Pages(10);
+        source.failingPage = 3;
+        PageFetcher<Integer> f = new PageFetcher<Integer>(source, 1, 3);
+        Assert.assertEquals(1, f.next().intValue());
+        Assert.assertEquals(2, f.next().intValue());
+        try {
+            f.next();
+            Assert.fail("The page failure hasn't been reported.");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("page 3", e.getMessage());
+        }
+        Assert.assertNull(f.next());
+    }
+}
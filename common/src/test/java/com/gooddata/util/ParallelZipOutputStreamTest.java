@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class ParallelZipOutputStreamTest {
+
+    @Test
+    public void testLevels() throws IOException {
+        byte[] data = createData(1000000);
+        int[] levels = new int[]{Deflater.DEFAULT_COMPRESSION, 0, 1, 9, ParallelZipOutputStream.STORED};
+        for (int level : levels) {
+            for (int threads = 1; threads <= 4; threads += 3) {
+                byte[] zip = zip(data, level, threads);
+                ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+                ZipEntry e = zis.getNextEntry();
+                Assert.assertEquals("upload_info.json", e.getName());
+                Assert.assertEquals("{}", new String(read(zis), "utf8"));
+                e = zis.getNextEntry();
+                Assert.assertEquals("data.csv", e.getName());
+                Assert.assertTrue(Arrays.equals(data, read(zis)));
+                e = zis.getNextEntry();
+                Assert.assertEquals("empty.csv", e.getName());
+                Assert.assertEquals(0, read(zis).length);
+                Assert.assertNull(zis.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    public void testZipFile() throws IOException {
+        byte[] data = createData(300000);
+        File file = File.createTempFile("gdc-zip", ".zip");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(zip(data, Deflater.DEFAULT_COMPRESSION, 3));
+            fos.close();
+            ZipFile zf = new ZipFile(file);
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            Assert.assertEquals("upload_info.json", entries.nextElement().getName());
+            ZipEntry e = entries.nextElement();
+            Assert.assertEquals(data.length, e.getSize());
+            Assert.assertTrue(Arrays.equals(data, read(zf.getInputStream(e))));
+            zf.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAbort() throws IOException, InterruptedException {
+        byte[] data = createData(300000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ParallelZipOutputStream zos = new ParallelZipOutputStream(bos, Deflater.DEFAULT_COMPRESSION, 4);
+        zos.setBlockSize(64 * 1024);
+        zos.putNextEntry("data.csv");
+        zos.write(data);
+        zos.abort();
+        int size = bos.size();
+        // the aborted archive isn't completed
+        zos.close();
+        Assert.assertEquals(size, bos.size());
+        for (int i = 0; i < 50 && countZipThreads() > 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0, countZipThreads());
+    }
+
+    private static int countZipThreads() {
+        Thread[] threads = new Thread[Thread.activeCount() + 10];
+        int cnt = 0;
+        for (int i = Thread.enumerate(threads) - 1; i >= 0; i--) {
+            if (threads[i].getName().startsWith("gdc-zip-"))
+                cnt++;
+        }
+        return cnt;
+    }
+
+    private static byte[] zip(byte[] data, int level, int threads) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ParallelZipOutputStream zos = new ParallelZipOutputStream(bos, level, threads);
+        zos.setBlockSize(64 * 1024);
+        byte[] manifest = "{}".getBytes("utf8");
+        zos.putNextEntry("upload_info.json", manifest.length, crc(manifest));
+        zos.write(manifest);
+        zos.putNextEntry("data.csv", data.length, crc(data));
+        for (int i = 0; i < data.length; i += 10000) {
+            zos.write(data, i, Math.min(10000, data.length - i));
+        }
+        zos.putNextEntry("empty.csv", 0, crc(new byte[0]));
+        zos.close();
+        return bos.toByteArray();
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] createData(int size) throws IOException {
+        Random r = new Random(1);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+        while (bos.size() < size) {
+            bos.write(("\"name" + r.nextInt(1000) + "\"," + r.nextInt() + ",2011-01-" + (10 + r.nextInt(20)) + "\n").getBytes("utf8"));
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.gooddata.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal HTTP/1.1 server the tests use as a stand-in of the remote services. It serves every request
+ * with a single handler, keeps the connections alive, and handles each connection in its own thread.
+ * It is built on plain sockets so it runs on any JRE the tested code supports.
+ */
+public class StubHttpServer {
+
+    /**
+     * Handles the stub server requests, the handler is called concurrently by the connection threads
+     */
+    public interface Handler {
+        /**
+         * Handles a request
+         * @param request the request with its complete body
+         * @param response the response to fill in, 200 with an empty body by default
+         * @throws IOException the server responds with 500
+         */
+        public void handle(Request request, Response response) throws IOException;
+    }
+
+    private final ServerSocket socket;
+    private final Handler handler;
+    private final Set<Socket> connections = new HashSet<Socket>();
+    private int threads = 0;
+
+    /**
+     * Starts the server on a free local port
+     * @param handler the request handler
+     * @throws IOException if the server can't be started
+     */
+    public StubHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        socket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        start(new Runnable() {
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * Stops the server and closes its connections
+     */
+    public void stop() {
+        close(socket);
+        synchronized (connections) {
+            for (Socket s : connections) {
+                close(s);
+            }
+            connections.clear();
+        }
+    }
+
+    /**
+     * Returns the URL of a path on this server
+     * @param path the absolute path
+     * @return the URL
+     */
+    public String getUrl(String path) {
+        return "http://localhost:" + getPort() + path;
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                final Socket s = socket.accept();
+                synchronized (connections) {
+                    connections.add(s);
+                }
+                start(new Runnable() {
+                    public void run() {
+                        serve(s);
+                    }
+                });
+            } catch (IOException e) {
+                // stopped
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try {
+            InputStream is = new BufferedInputStream(s.getInputStream());
+            OutputStream os = s.getOutputStream();
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String line = readLine(is);
+                if (line == null)
+                    break;
+                if (line.length() == 0)
+                    continue;
+                String[] requestLine = line.split(" ");
+                Request request = new Request(requestLine[0], requestLine[1], s.getPort());
+                for (String h = readLine(is); h != null && h.length() > 0; h = readLine(is)) {
+                    int i = h.indexOf(':');
+                    request.headers.put(h.substring(0, i).trim().toLowerCase(), h.substring(i + 1).trim());
+                }
+                if ("100-continue".equalsIgnoreCase(request.getHeader("Expect"))) {
+                    os.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+                    os.flush();
+                }
+                request.body = readBody(is, request);
+                keepAlive = !"HTTP/1.0".equals(requestLine[2]) && !"close".equalsIgnoreCase(request.getHeader("Connection"));
+
+                Response response = new Response();
+                try {
+                    handler.handle(request, response);
+                } catch (Exception e) {
+                    response = new Response();
+                    response.setStatus(500);
+                    response.setBody(String.valueOf(e.getMessage()), "text/plain");
+                }
+                StringBuffer head = new StringBuffer("HTTP/1.1 ").append(response.status)
+                        .append((response.status < 400) ? (" OK") : (" Error")).append("\r\n");
+                for (Map.Entry<String, String> h : response.headers.entrySet()) {
+                    head.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+                }
+                head.append("Content-Length: ").append(response.body.length).append("\r\n");
+                if (!keepAlive)
+                    head.append("Connection: close\r\n");
+                os.write(head.append("\r\n").toString().getBytes("ISO-8859-1"));
+                if (!"HEAD".equals(request.getMethod()))
+                    os.write(response.body);
+                os.flush();
+            }
+        } catch (IOException e) {
+            // the connection has been closed
+        } finally {
+            synchronized (connections) {
+                connections.remove(s);
+            }
+            close(s);
+        }
+    }
+
+    private static byte[] readBody(InputStream is, Request request) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(request.getHeader("Transfer-Encoding"))) {
+            for (int size = readChunkSize(is); size > 0; size = readChunkSize(is)) {
+                copy(is, bos, size);
+                readLine(is);
+            }
+            // skips the trailers
+            String h = readLine(is);
+            while (h != null && h.length() > 0)
+                h = readLine(is);
+        } else if (request.getHeader("Content-Length") != null) {
+            copy(is, bos, Integer.parseInt(request.getHeader("Content-Length")));
+        }
+        return bos.toByteArray();
+    }
+
+    private static int readChunkSize(InputStream is) throws IOException {
+        String line = readLine(is);
+        if (line == null)
+            throw new EOFException("Unexpected end of the chunked request body.");
+        int i = line.indexOf(';');
+        return Integer.parseInt(((i >= 0) ? (line.substring(0, i)) : (line)).trim(), 16);
+    }
+
+    private static void copy(InputStream is, OutputStream os, int len) throws IOException {
+        byte[] buf = new byte[8192];
+        while (len > 0) {
+            int n = is.read(buf, 0, Math.min(buf.length, len));
+            if (n < 0)
+                throw new EOFException("Unexpected end of the request body.");
+            os.write(buf, 0, n);
+            len -= n;
+        }
+    }
+
+    // returns null at the end of the stream
+    private static String readLine(InputStream is) throws IOException {
+        StringBuffer sb = new StringBuffer();
+        int c = is.read();
+        if (c < 0)
+            return null;
+        for (; c >= 0 && c != '\n'; c = is.read()) {
+            if (c != '\r')
+                sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private synchronized void start(Runnable r) {
+        Thread t = new Thread(r, "stub-http-" + (++threads));
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void close(ServerSocket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static void close(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Stub server request
+     */
+    public static class Request {
+        private final String method;
+        private final String uri;
+        private final int remotePort;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+        private byte[] body;
+
+        Request(String method, String uri, int remotePort) {
+            this.method = method;
+            this.uri = uri;
+            this.remotePort = remotePort;
+        }
+
+        /**
+         * Returns the value of a request header
+         * @param name the case insensitive header name
+         * @return the header value or null if the request doesn't have the header
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        /**
+         * Returns the request body as text
+         * @return the UTF-8 decoded body
+         */
+        public String getBodyAsString() {
+            try {
+                return new String(body, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the raw request URI including the query
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return the request URI path without the query
+         */
+        public String getPath() {
+            int i = uri.indexOf('?');
+            return (i >= 0) ? (uri.substring(0, i)) : (uri);
+        }
+
+        /**
+         * @return the raw query or null if the request URI doesn't have any
+         */
+        public String getQuery() {
+            int i = uri.indexOf('?');
+            return (i >= 0) ? (uri.substring(i + 1)) : (null);
+        }
+
+        public int getRemotePort() {
+            return remotePort;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Stub server response
+     */
+    public static class Response {
+        private int status = 200;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+        private byte[] body = new byte[0];
+
+        /**
+         * Sets a response header
+         * @param name the header name
+         * @param value the header value
+         */
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        /**
+         * Sets a text response body
+         * @param text the body
+         * @param contentType the body content type, the charset is appended
+         */
+        public void setBody(String text, String contentType) {
+            try {
+                body = text.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            setHeader("Content-Type", contentType + "; charset=UTF-8");
+        }
+
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        public void setBody(byte[] body) {
+            this.body = body;
+        }
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+}
@@ -26,26 +26,20 @@ import com.gooddata.exception.HttpMethodException;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
 import com.gooddata.util.NetUtil;
+import com.gooddata.util.PageFetcher;
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.*;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -86,11 +80,22 @@ public class ChargifyWrapper {
      * @param apiToken Chargify password
      */
     public ChargifyWrapper(String hostName, String apiToken) {
+        // the pages are fetched concurrently
+        this(hostName, apiToken, new HttpClient(new MultiThreadedHttpConnectionManager()));
+        NetUtil.configureHttpProxy(client);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hostName Chargify domain
+     * @param apiToken Chargify password
+     * @param client   HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public ChargifyWrapper(String hostName, String apiToken, HttpClient client) {
         setDomain(hostName);
         setApiToken(apiToken);
-        client = new HttpClient();
-
-        NetUtil.configureHttpProxy(client);
+        this.client = client;
 
         client.getHostConfiguration().setHost(getDomain());
 
@@ -101,29 +106,67 @@ public class ChargifyWrapper {
     }
 
 
-    public int getAllData(String entity, String[] fields, String csvFile)
-            throws IOException, SAXException, XPathExpressionException, ParserConfigurationException {
+    public int getAllData(String entity, String[] fields, String csvFile) throws IOException {
+        return getAllData(entity, fields, csvFile, PageFetcher.DEFAULT_WINDOW);
+    }
+
+    /**
+     * Retrieves all entity records to a CSV file. The responses are parsed as streams, only the requested fields
+     * are kept. With a single page window the records are written to the CSV file straight from the response.
+     *
+     * @param entity  Chargify entity (e.g. customers or subscriptions)
+     * @param fields  the entity fields
+     * @param csvFile name of the CSV file where the results will be stored
+     * @param window  number of the result pages requested concurrently
+     * @return number of rows retrieved
+     * @throws IOException in case of IO or communication issues
+     */
+    public int getAllData(final String entity, String[] fields, String csvFile, int window) throws IOException {
         int cnt = 0;
-        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(new File(csvFile));
+        final Map<String, int[]> positions = getPositions(fields);
+        final int width = fields.length;
+        final CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(new File(csvFile));
         try {
-            int pageNumber = 1;
-            String cookie = "";
-            boolean hasNext = true;
-            while (hasNext) {
-                List<Map<String, String>> ret = new ArrayList<Map<String, String>>();
-                getData(entity, pageNumber++, ret);
-                for (Map<String, String> m : ret) {
-                    String[] row = new String[fields.length];
-                    for (int i = 0; i < fields.length; i++) {
-                        row[i] = m.get(fields[i]);
+            if (window == 1) {
+                int count = PAGE_COUNT;
+                for (int page = 1; count >= PAGE_COUNT; page++) {
+                    count = getData(entity, page, new Rows(positions, width) {
+                        void row(String[] row) {
+                            cw.writeNext(row);
+                        }
+                    });
+                    cnt += count;
+                    cw.flush();
+                }
+            } else {
+                PageFetcher<List<String[]>> pages = new PageFetcher<List<String[]>>(
+                        new PageFetcher.Source<List<String[]>>() {
+                            public List<String[]> fetch(int page) throws Exception {
+                                final List<String[]> ret = new ArrayList<String[]>();
+                                getData(entity, page, new Rows(positions, width) {
+                                    void row(String[] row) {
+                                        ret.add(row);
+                                    }
+                                });
+                                return ret;
+                            }
+
+                            public boolean isLast(List<String[]> page) {
+                                return page.size() < PAGE_COUNT;
+                            }
+                        }, 1, window);
+                try {
+                    List<String[]> ret;
+                    while ((ret = pages.next()) != null) {
+                        for (String[] row : ret) {
+                            cw.writeNext(row);
+                        }
+                        cnt += ret.size();
+                        cw.flush();
                     }
-                    cw.writeNext(row);
+                } finally {
+                    pages.close();
                 }
-                int count = ret.size();
-                cnt += count;
-                cw.flush();
-                if (count < PAGE_COUNT)
-                    hasNext = false;
             }
         } finally {
             cw.close();
@@ -131,73 +174,207 @@ public class ChargifyWrapper {
         return cnt;
     }
 
+    /**
+     * Retrieves a page of the entity records
+     *
+     * @param entity Chargify entity (e.g. customers or subscriptions)
+     * @param page   the page number (1..N)
+     * @param ret    the List of Maps that will be populated with the records' fields
+     * @throws IOException in case of IO or communication issues
+     */
+    public void getData(String entity, int page, final List<Map<String, String>> ret) throws IOException {
+        getData(entity, page, new RecordHandler() {
+            private Map<String, String> record = new HashMap<String, String>();
 
-    public void getData(String entity, int page, List<Map<String, String>> ret)
-            throws IOException, ParserConfigurationException, SAXException, XPathExpressionException {
+            void field(String name, String value) {
+                record.put(name, value);
+            }
+
+            void endRecord() {
+                ret.add(record);
+                record = new HashMap<String, String>();
+            }
+        });
+    }
+
+    /**
+     * Retrieves a page of the entity records
+     *
+     * @param entity Chargify entity (e.g. customers or subscriptions)
+     * @param page   the page number (1..N)
+     * @param h      the records' handler
+     * @return number of the records
+     * @throws IOException in case of IO or communication issues
+     */
+    private int getData(String entity, int page, RecordHandler h) throws IOException {
         String path = HTTPS + getDomain() + "." + CHARGIFY_ENDPOINT + "/" + entity + ".xml?page=" + page;
         GetMethod m = createGetMethod(path);
-        int rc = executeHttpMethod(m);
-        if (rc == HttpStatus.SC_OK) {
-            String payload = readRespone(m);
-            //System.err.println(payload);
-            DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-            domFactory.setNamespaceAware(true);
-            DocumentBuilder builder = domFactory.newDocumentBuilder();
-            Document doc = builder.parse(new InputSource(new StringReader(payload)));
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            XPathExpression expr = xpath.compile("//" + entity);
-            Object result = expr.evaluate(doc, XPathConstants.NODESET);
-            NodeList nodes = (NodeList) result;
-            if (nodes != null && nodes.getLength() > 0) {
-                Node root = nodes.item(0);
-                NodeList rows = root.getChildNodes();
-                if (rows != null && rows.getLength() > 0) {
-                    for (int i = 0; i < rows.getLength(); i++) {
-                        Node row = rows.item(i);
-                        if (row != null && row instanceof Element) {
-                            NodeList columns = row.getChildNodes();
-                            Map<String, String> r = new HashMap<String, String>();
-                            if (columns != null && columns.getLength() > 0) {
-                                for (int j = 0; j < columns.getLength(); j++) {
-                                    Node name = columns.item(j);
-                                    boolean isNested = false;
-                                    if (name != null && name instanceof Element) {
-                                        NodeList nestedNodes = name.getChildNodes();
-                                        if (nestedNodes != null && nestedNodes.getLength() > 0) {
-                                            for (int k = 0; k < nestedNodes.getLength(); k++) {
-                                                Node nestedNode = nestedNodes.item(k);
-                                                if (nestedNode != null && nestedNode instanceof Element) {
-                                                    isNested = true;
-                                                    Node value = nestedNode.getFirstChild();
-                                                    if (value != null) {
-                                                        r.put(name.getNodeName() + "_" + nestedNode.getNodeName(), value.getNodeValue());
-                                                    } else {
-                                                        r.put(name.getNodeName() + "_" + nestedNode.getNodeName(), "");
-                                                    }
-                                                }
-                                            }
-                                        }
-                                        if (!isNested) {
-                                            Node value = name.getFirstChild();
-                                            if (value != null) {
-                                                r.put(name.getNodeName(), value.getNodeValue());
-                                            } else {
-                                                r.put(name.getNodeName(), "");
-                                            }
-                                        }
-                                    }
-                                }
-                            } else {
-                                throw new IOException("getData: No columns in the row.");
-                            }
-                            ret.add(r);
-                        }
-                    }
+        try {
+            int rc = executeHttpMethod(m);
+            if (rc == HttpStatus.SC_OK) {
+                InputStream is = NetUtil.getResponseBodyAsStream(m);
+                try {
+                    return parseRecords(is, entity, h);
+                } finally {
+                    is.close();
+                }
+            } else {
+                // a failed page can't be skipped, the extract would be silently truncated
+                String msg = "getData: Chargify " + entity + " page " + page + " request failed. HTTP response " + rc +
+                        ": " + NetUtil.getResponseBodyAsString(m);
+                l.debug(msg);
+                throw new HttpMethodException(msg);
+            }
+        } finally {
+            m.releaseConnection();
+        }
+    }
+
+    /**
+     * Parses the records of a Chargify response. The records are the child elements of the first element named
+     * by the entity. The nested fields are flattened to the parent_child fields.
+     *
+     * @param is     the response
+     * @param entity Chargify entity (e.g. customers or subscriptions)
+     * @param h      the records' handler
+     * @return number of the records
+     * @throws IOException in case of an invalid response
+     */
+    static int parseRecords(InputStream is, String entity, RecordHandler h) throws IOException {
+        try {
+            // the pull parser doesn't resolve the DTDs
+            XmlPullParser r = new MXParser();
+            r.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            r.setInput(is, null);
+            boolean found = false;
+            int event = r.getEventType();
+            while (!found && event != XmlPullParser.END_DOCUMENT) {
+                event = r.next();
+                found = event == XmlPullParser.START_TAG && entity.equals(r.getName());
+            }
+            int cnt = 0;
+            while (found) {
+                event = r.next();
+                if (event == XmlPullParser.END_TAG)
+                    break;
+                if (event != XmlPullParser.START_TAG)
+                    continue;
+                boolean hasColumns = false;
+                while ((event = r.next()) != XmlPullParser.END_TAG) {
+                    hasColumns = true;
+                    if (event == XmlPullParser.START_TAG)
+                        parseField(r, h);
+                }
+                if (!hasColumns)
+                    throw new IOException("getData: No columns in the row.");
+                h.endRecord();
+                cnt++;
+            }
+            return cnt;
+        } catch (XmlPullParserException e) {
+            IOException ioe = new IOException("getData: Invalid Chargify response.");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Parses a record field, the parser is positioned at the field's start tag
+     */
+    private static void parseField(XmlPullParser r, RecordHandler h) throws XmlPullParserException, IOException {
+        String name = r.getName();
+        StringBuffer value = new StringBuffer();
+        boolean isNested = false;
+        int event;
+        while ((event = r.next()) != XmlPullParser.END_TAG) {
+            if (event == XmlPullParser.START_TAG) {
+                isNested = true;
+                h.field(name + "_" + r.getName(), readText(r));
+            } else if (event == XmlPullParser.TEXT) {
+                value.append(r.getText());
+            }
+        }
+        if (!isNested)
+            h.field(name, value.toString());
+    }
+
+    /**
+     * Reads the text of an element and skips its child elements, the parser is positioned at the element's start
+     * tag
+     */
+    private static String readText(XmlPullParser r) throws XmlPullParserException, IOException {
+        StringBuffer value = new StringBuffer();
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XmlPullParser.START_TAG)
+                depth++;
+            else if (event == XmlPullParser.END_TAG)
+                depth--;
+            else if (depth == 1 && event == XmlPullParser.TEXT)
+                value.append(r.getText());
+        }
+        return value.toString();
+    }
+
+    /**
+     * Maps the field names to their positions in the CSV row
+     */
+    private static Map<String, int[]> getPositions(String[] fields) {
+        Map<String, int[]> positions = new HashMap<String, int[]>();
+        for (int i = 0; i < fields.length; i++) {
+            int[] p = positions.get(fields[i]);
+            if (p == null) {
+                p = new int[]{i};
+            } else {
+                int[] n = new int[p.length + 1];
+                System.arraycopy(p, 0, n, 0, p.length);
+                n[p.length] = i;
+                p = n;
+            }
+            positions.put(fields[i], p);
+        }
+        return positions;
+    }
+
+    /**
+     * Receives the parsed records
+     */
+    static abstract class RecordHandler {
+        abstract void field(String name, String value);
+
+        abstract void endRecord() throws IOException;
+    }
+
+    /**
+     * Collects the requested fields of a record to a CSV row
+     */
+    private static abstract class Rows extends RecordHandler {
+        private final Map<String, int[]> positions;
+        private final int width;
+        private String[] row;
+
+        Rows(Map<String, int[]> positions, int width) {
+            this.positions = positions;
+            this.width = width;
+            this.row = new String[width];
+        }
+
+        void field(String name, String value) {
+            int[] p = positions.get(name);
+            if (p != null) {
+                for (int i : p) {
+                    row[i] = value;
                 }
             }
-        } else {
-            System.err.println("HTTP response " + rc);
         }
+
+        void endRecord() throws IOException {
+            row(row);
+            row = new String[width];
+        }
+
+        abstract void row(String[] row) throws IOException;
     }
 
     /**
@@ -221,11 +398,6 @@ public class ChargifyWrapper {
         }
     }
 
-    private String readRespone(HttpMethod m) throws IOException {
-        return m.getResponseBodyAsString();
-    }
-
-
     private static GetMethod createGetMethod(String path) {
         return configureHttpMethod(new GetMethod(path));
     }
@@ -30,12 +30,11 @@ import com.gooddata.processor.CliParams;
 import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.PageFetcher;
 import com.gooddata.util.StringUtil;
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.log4j.Logger;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
 import java.io.IOException;
 
@@ -57,6 +56,10 @@ public class ChargifyConnector extends AbstractConnector implements Connector {
     private String entity;
     // Sugar CRM hostname
     private String domain;
+    // pooled HTTP client
+    private HttpClient client;
+    // number of the result pages requested concurrently
+    private int pageWindow = PageFetcher.DEFAULT_WINDOW;
 
 
     /**
@@ -81,27 +84,20 @@ public class ChargifyConnector extends AbstractConnector implements Connector {
      */
     public void extract(String file, boolean transform) throws IOException {
         l.debug("Extracting Chargify data.");
-        try {
-            ChargifyWrapper m = new ChargifyWrapper(getDomain(), getApiToken());
-            l.debug("Executing Chargify query entity: " + getEntity() + " fields: " + getFields());
-            if (fields != null && fields.length() > 0) {
-                String[] fs = fields.split(",");
-                for (int i = 0; i < fs.length; i++)
-                    fs[i] = fs[i].trim();
-                File dt = FileUtil.getTempFile();
-                m.getAllData(getEntity(), fs, dt.getAbsolutePath());
-                int rowCnt = copyAndTransform(FileUtil.createUtf8CsvReader(dt), FileUtil.createUtf8CsvWriter(new File(file)), transform, 10);
-                l.info("Finished Chargify query execution. Retrieved " + rowCnt + " rows of data.");
-            } else {
-                throw new InvalidParameterException("The Chargify fields parameter must contain the comma separated list " +
-                        "of the entity fields.");
-            }
-        } catch (SAXException e) {
-            throw new IOException(e);
-        } catch (XPathExpressionException e) {
-            throw new IOException(e);
-        } catch (ParserConfigurationException e) {
-            throw new IOException(e);
+        ChargifyWrapper m = (client != null) ? (new ChargifyWrapper(getDomain(), getApiToken(), client)) :
+                (new ChargifyWrapper(getDomain(), getApiToken()));
+        l.debug("Executing Chargify query entity: " + getEntity() + " fields: " + getFields());
+        if (fields != null && fields.length() > 0) {
+            String[] fs = fields.split(",");
+            for (int i = 0; i < fs.length; i++)
+                fs[i] = fs[i].trim();
+            File dt = FileUtil.getTempFile();
+            m.getAllData(getEntity(), fs, dt.getAbsolutePath(), getPageWindow());
+            int rowCnt = copyAndTransform(FileUtil.createUtf8CsvReader(dt), createDataWriter(new File(file), false), transform, 10);
+            l.info("Finished Chargify query execution. Retrieved " + rowCnt + " rows of data.");
+        } else {
+            throw new InvalidParameterException("The Chargify fields parameter must contain the comma separated list " +
+                    "of the entity fields.");
         }
     }
 
@@ -153,6 +149,7 @@ public class ChargifyConnector extends AbstractConnector implements Connector {
         String e = c.getParamMandatory("entity");
         String f = c.getParamMandatory("fields");
         String domain = c.getParamMandatory("domain");
+        String w = c.getParam("pageWindow");
         c.paramsProcessed();
 
         File conf = FileUtil.getFile(configFile);
@@ -161,6 +158,16 @@ public class ChargifyConnector extends AbstractConnector implements Connector {
         setFields(f);
         setApiToken(apiKey);
         setDomain(domain);
+        if (w != null && w.length() > 0) {
+            try {
+                setPageWindow(Integer.parseInt(w));
+            } catch (NumberFormatException ex) {
+                throw new InvalidParameterException("UseChargify: The pageWindow parameter must be a number.");
+            }
+            if (getPageWindow() < 1)
+                throw new InvalidParameterException("UseChargify: The pageWindow parameter must be at least 1.");
+        }
+        client = ctx.createHttpClient();
         ctx.setConnector(this);
         setProjectId(ctx);
         l.info("Chargify Connector successfully loaded (entity: " + e + " fields: " + StringUtil.previewString(f, 256) + ").");
@@ -189,4 +196,12 @@ public class ChargifyConnector extends AbstractConnector implements Connector {
     public void setApiToken(String apiToken) {
         this.apiToken = apiToken;
     }
+
+    public int getPageWindow() {
+        return pageWindow;
+    }
+
+    public void setPageWindow(int pageWindow) {
+        this.pageWindow = pageWindow;
+    }
 }
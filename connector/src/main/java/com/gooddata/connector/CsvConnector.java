@@ -25,6 +25,8 @@ package com.gooddata.connector;
 
 import com.gooddata.Constants;
 import com.gooddata.csv.DataTypeGuess;
+import com.gooddata.csv.MappedCsvSplitter;
+import com.gooddata.exception.InternalErrorException;
 import com.gooddata.exception.InvalidParameterException;
 import com.gooddata.exception.ProcessingException;
 import com.gooddata.modeling.model.SourceColumn;
@@ -32,6 +34,7 @@ import com.gooddata.modeling.model.SourceSchema;
 import com.gooddata.processor.CliParams;
 import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
+import com.gooddata.transform.Transformer;
 import com.gooddata.util.*;
 import org.apache.log4j.Logger;
 
@@ -39,8 +42,16 @@ import java.io.*;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * GoodData CSV Connector
@@ -61,6 +72,14 @@ public class CsvConnector extends AbstractConnector implements Connector {
     // field separator
     private boolean hasHeader = true;
 
+    // number of threads that parse and transform the memory-mapped data file (1 = sequential processing)
+    private int threads = 1;
+
+    // approximate size of the parallel processed chunks in bytes
+    private int chunkSize = MappedCsvSplitter.DEFAULT_CHUNK_SIZE;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
     /**
      * Creates GoodData CSV connector
      */
@@ -82,14 +101,129 @@ public class CsvConnector extends AbstractConnector implements Connector {
      */
     @Override
     public void extract(String file, final boolean transform) throws IOException {
+        if (threads > 1) {
+            int rowCnt = extractParallel(file, transform);
+            l.info("The CSV connector extracted " + rowCnt + " rows using " + threads + " threads.");
+            return;
+        }
         CSVReader cr = FileUtil.createUtf8CsvReader(this.getDataFile(), this.getSeparator());
-        CSVWriter cw = FileUtil.createUtf8CsvWriter(new File(file));
+        CSVWriter cw = createDataWriter(new File(file), false);
         if (hasHeader)
             cr.readNext();
         int rowCnt = copyAndTransform(cr, cw, transform, DATE_LENGTH_UNRESTRICTED);
         l.info("The CSV connector extracted " + rowCnt + " rows.");
     }
 
+    /**
+     * Memory-maps the data file, splits it to chunks of whole records and parses and transforms the chunks
+     * in a thread pool. The chunks are written to the target file in the data file order unless the
+     * preserveOrder flag is off.
+     *
+     * @param file      the target file
+     * @param transform perform transformations
+     * @return number of extracted rows
+     * @throws IOException in case of an IO issue
+     */
+    private int extractParallel(String file, final boolean transform) throws IOException {
+        final MappedCsvSplitter splitter = new MappedCsvSplitter(getDataFile(), CSVReader.DEFAULT_QUOTE_CHARACTER,
+                CSVReader.DEFAULT_ESCAPE_CHARACTER, chunkSize);
+        final OutputStream out = new BufferedOutputStream(openDataFile(new File(file)), OUTPUT_BUFFER_SIZE);
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final CompletionService<ChunkResult> completed = new ExecutorCompletionService<ChunkResult>(pool);
+        final LinkedList<Future<ChunkResult>> pending = new LinkedList<Future<ChunkResult>>();
+        final int maxPending = threads * 2;
+        int rowCnt = 0;
+        try {
+            CSVWriter hw = FileUtil.createUtf8CsvWriter(out);
+            hw.writeNext(Transformer.create(schema).getHeader(transform));
+            hw.flush();
+            if (hasHeader)
+                splitter.skipRecord();
+            MappedCsvSplitter.Chunk chunk = splitter.next();
+            while (chunk != null || !pending.isEmpty()) {
+                if (chunk != null) {
+                    ChunkTask task = new ChunkTask(splitter, chunk, transform);
+                    // the ordered mode doesn't use the completion queue, it would keep all results
+                    pending.add(preserveOrder ? pool.submit(task) : completed.submit(task));
+                    chunk = splitter.next();
+                }
+                if (pending.size() >= maxPending || (chunk == null && !pending.isEmpty())) {
+                    Future<ChunkResult> f;
+                    if (preserveOrder) {
+                        f = pending.removeFirst();
+                    } else {
+                        f = completed.take();
+                        pending.remove(f);
+                    }
+                    ChunkResult r = f.get();
+                    r.data.writeTo(out);
+                    rowCnt += r.rows;
+                    l.debug("Extracted " + rowCnt + " rows.");
+                }
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            throw new InternalErrorException("The CSV extraction has been interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException)
+                throw (IOException) c;
+            if (c instanceof RuntimeException)
+                throw (RuntimeException) c;
+            throw new InternalErrorException(c);
+        } finally {
+            pool.shutdownNow();
+            out.close();
+            splitter.close();
+        }
+        return rowCnt;
+    }
+
+    /**
+     * Parses and transforms one chunk of the data file
+     */
+    private class ChunkTask implements Callable<ChunkResult> {
+
+        private final MappedCsvSplitter splitter;
+        private final MappedCsvSplitter.Chunk chunk;
+        private final boolean transform;
+
+        ChunkTask(MappedCsvSplitter splitter, MappedCsvSplitter.Chunk chunk, boolean transform) {
+            this.splitter = splitter;
+            this.chunk = chunk;
+            this.transform = transform;
+        }
+
+        public ChunkResult call() throws IOException {
+            CSVReader cr = new CSVReader(new InputStreamReader(splitter.open(chunk), "utf8"), getSeparator());
+            ByteArrayOutputStream data = new ByteArrayOutputStream(chunk.getLength() + chunk.getLength() / 4);
+            CSVWriter cw = FileUtil.createUtf8CsvWriter(data);
+            cw.setBatching(getWriteBatchRows(), getWriteBatchSize());
+            int rows;
+            try {
+                rows = copyRows(cr, cw, Transformer.create(schema), transform, DATE_LENGTH_UNRESTRICTED);
+            } catch (InvalidParameterException e) {
+                throw new InvalidParameterException(e.getMessage() + " of the data chunk starting at byte " +
+                        chunk.getOffset() + ".");
+            }
+            cw.close();
+            return new ChunkResult(data, rows);
+        }
+    }
+
+    /**
+     * The transformed chunk
+     */
+    private static class ChunkResult {
+        private final ByteArrayOutputStream data;
+        private final int rows;
+
+        ChunkResult(ByteArrayOutputStream data, int rows) {
+            this.data = data;
+            this.rows = rows;
+        }
+    }
+
     /**
      * Saves a template of the config file
      *
@@ -306,6 +440,20 @@ public class CsvConnector extends AbstractConnector implements Connector {
         if (hasHeaderStr != null) {
             setHasHeader("true".equalsIgnoreCase(hasHeaderStr));
         }
+        final String threadsStr = c.getParam("threads");
+        if (threadsStr != null && threadsStr.length() > 0) {
+            try {
+                setThreads(Integer.parseInt(threadsStr));
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException("The number of threads must be a number.");
+            }
+            if (getThreads() < 1)
+                throw new InvalidParameterException("The number of threads must be positive.");
+        } else {
+            setThreads(1);
+        }
+        final String preserveOrderStr = c.getParam("preserveOrder");
+        setPreserveOrder(preserveOrderStr == null || !"false".equalsIgnoreCase(preserveOrderStr));
         c.paramsProcessed();
 
         initSchema(conf.getAbsolutePath());
@@ -377,6 +525,22 @@ public class CsvConnector extends AbstractConnector implements Connector {
         this.hasHeader = hasHeader;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     private static String[] splitParam(Command c, String name) {
         String v = c.getParam(name);
 
@@ -29,6 +29,7 @@ import com.gooddata.integration.rest.GdcRESTApiWrapper;
 import com.gooddata.processor.CliParams;
 import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
+import com.gooddata.time.TimeDimensionCache;
 import com.gooddata.util.FileUtil;
 import com.gooddata.util.StringUtil;
 import org.apache.log4j.Logger;
@@ -54,6 +55,9 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
 
     private String type = "URN:GOODDATA:DATE";
 
+    // the time dimension data and packages
+    private TimeDimensionCache cache;
+
     /**
      * Creates a new Time Dimension Connector
      */
@@ -69,8 +73,6 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
         return new DateDimensionConnector();
     }
 
-    private final int BUF_LEN = 2048;
-
     /**
      * {@inheritDoc}
      */
@@ -78,16 +80,7 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
         l.debug("Extracting time dimension data " + name);
         if (name == null || name.trim().length() <= 0)
             name = "";
-        InputStream r = DateDimensionConnector.class.getResourceAsStream("/com/gooddata/connector/data.csv");
-        FileOutputStream w = new FileOutputStream(file);
-        byte[] buf = new byte[BUF_LEN];
-        int cnt = r.read(buf, 0, BUF_LEN);
-        while (cnt > 0) {
-            w.write(buf, 0, cnt);
-            cnt = r.read(buf, 0, BUF_LEN);
-        }
-        w.flush();
-        w.close();
+        TimeDimensionCache.copy(getCache().getData(), new File(file));
         l.debug("Extracted time dimension data " + name);
     }
 
@@ -98,27 +91,21 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
             throws IOException, InterruptedException {
         if (includeTime) {
             l.debug("Extracting data.");
-            File tmpDir = FileUtil.createTempDir();
+            if (name == null || name.trim().length() <= 0)
+                name = "";
             File tmpZipDir = FileUtil.createTempDir();
-            String archiveName = tmpDir.getName();
+            String archiveName = tmpZipDir.getName();
             MDC.put("GdcDataPackageDir", archiveName);
-            String archivePath = tmpZipDir.getAbsolutePath() + System.getProperty("file.separator") +
-                    archiveName + ".zip";
+            File archive = new File(tmpZipDir, archiveName + ".zip");
 
-            // extract the data to the CSV that is going to be transferred to the server
-            this.extract(tmpDir.getAbsolutePath());
-
-            this.deploy(tmpDir.getAbsolutePath(), archivePath);
+            // the package is uploaded under a unique name
+            TimeDimensionCache.copy(getCache().getPackage(StringUtil.toIdentifier(name)), archive);
             // transfer the data package to the GoodData server
-            ctx.getFtpApi(p).transferDir(archivePath);
+            ctx.getFtpApi(p).transferDir(archive.getAbsolutePath());
             // kick the GooDData server to load the data package to the project
-            String taskUri = ctx.getRestApi(p).startLoading(pid, archiveName);
-            if (waitForFinish) {
-                checkLoadingStatus(taskUri, tmpDir.getName(), p, ctx);
-            }
+            startLoading(pid, archiveName, waitForFinish, p, ctx);
             //cleanup
             l.debug("Cleaning the temporary files.");
-            FileUtil.recursiveDelete(tmpDir);
             FileUtil.recursiveDelete(tmpZipDir);
             MDC.remove("GdcDataPackageDir");
             l.debug("Data extract finished.");
@@ -139,16 +126,8 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
             name = "";
         }
 
-        String idp = StringUtil.toIdentifier(name);
-        StringBuffer script = new StringBuffer();
-        BufferedReader is = new BufferedReader(new InputStreamReader(
-                DateDimensionConnector.class.getResourceAsStream("/com/gooddata/connector/upload_info.json")));
-        String line = is.readLine();
-        while (line != null) {
-            script.append(line.replace("%id%", idp) + "\n");
-            line = is.readLine();
-        }
-        FileUtil.writeStringToFile(script.toString(), fn);
+        String script = getCache().getManifest(StringUtil.toIdentifier(name));
+        FileUtil.writeStringToFile(script, fn);
         l.debug("Manifest file written to file '" + fn + "'. Content: " + script);
     }
 
@@ -234,6 +213,8 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
         }
         c.paramsProcessed();
 
+        // the time dimension packages are shared by the dimensions of the script
+        cache = TimeDimensionCache.getCache(ctx);
         // sets the current connector
         ctx.setConnector(this);
         l.info("Time Dimension Connector successfully loaded (name: " + ct + ").");
@@ -261,6 +242,16 @@ public class DateDimensionConnector extends AbstractConnector implements Connect
         this.type = type;
     }
 
+    public synchronized TimeDimensionCache getCache() {
+        if (cache == null)
+            cache = new TimeDimensionCache(TimeDimensionCache.getDefaultDir());
+        return cache;
+    }
+
+    public synchronized void setCache(TimeDimensionCache cache) {
+        this.cache = cache;
+    }
+
     public boolean isIncludeTime() {
         return includeTime;
     }
@@ -169,7 +169,7 @@ public class FacebookConnector extends AbstractConnector implements Connector {
         File dataFile = new File(file);
 
         l.debug("Extracting Facebook data to file=" + dataFile.getAbsolutePath());
-        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(dataFile);
+        CSVWriter cw = configureWriter(createDataWriter(dataFile, true));
         Transformer t = Transformer.create(schema);
         String[] header = t.getHeader(true);
         cw.writeNext(header);
@@ -191,7 +191,6 @@ public class FacebookConnector extends AbstractConnector implements Connector {
                 if (transform)
                     row = t.transformRow(row, DATE_LENGTH_UNRESTRICTED);
                 cw.writeNext(row);
-                cw.flush();
             }
         } else {
             l.debug("The Facebook query hasn't returned any row.");
@@ -25,6 +25,7 @@ package com.gooddata.connector;
 
 import com.gooddata.Constants;
 import com.gooddata.exception.HttpMethodException;
+import com.gooddata.exception.InvalidParameterException;
 import com.gooddata.exception.ProcessingException;
 import com.gooddata.modeling.model.SourceColumn;
 import com.gooddata.modeling.model.SourceSchema;
@@ -35,12 +36,17 @@ import com.gooddata.transform.Transformer;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
 import com.gooddata.util.NetUtil;
+import com.gooddata.util.PageFetcher;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
@@ -49,6 +55,8 @@ import org.joda.time.format.ISODateTimeFormat;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
@@ -64,18 +72,37 @@ public class FacebookInsightsConnector extends AbstractConnector implements Conn
 
     private static Logger l = Logger.getLogger(FacebookInsightsConnector.class);
 
+    /**
+     * Default number of days in a date range shard
+     */
+    public static final int DEFAULT_SHARD_DAYS = 30;
+
+    /**
+     * Max number of the requests in a Graph API batch request
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
     private String oauthToken;
     private DateTime startDate;
     private DateTime endDate;
     private String baseUrl;
     private HttpClient client;
+    // number of days in a date range shard
+    private int shardDays = DEFAULT_SHARD_DAYS;
+    // number of the batches fetched concurrently
+    private int shardWindow = PageFetcher.DEFAULT_WINDOW;
+    // max number of the requests in a Graph API batch request
+    private int batchSize = MAX_BATCH_SIZE;
+    // the insights metrics requested separately, all metrics are requested at once if null
+    private String[] metrics;
 
     private final DateTimeFormatter baseFmt = DateTimeFormat.forPattern(Constants.DEFAULT_DATETIME_FMT_STRING);
     private final DateTime base = baseFmt.parseDateTime("1900-01-01 00:00:00");
 
 
     protected FacebookInsightsConnector() {
-        client = new HttpClient();
+        // the batches are fetched concurrently
+        client = new HttpClient(new MultiThreadedHttpConnectionManager());
 
         NetUtil.configureHttpProxy(client);
 
@@ -129,11 +156,21 @@ public class FacebookInsightsConnector extends AbstractConnector implements Conn
     }
 
     private String fetchData(String uri) {
+        GetMethod method = new GetMethod(uri);
+        return executeMethod(method);
+    }
+
+    private String postData(String uri, NameValuePair[] params) {
+        PostMethod method = new PostMethod(uri);
+        method.setRequestBody(params);
+        return executeMethod(method);
+    }
+
+    private String executeMethod(HttpMethod method) {
         try {
-            GetMethod method = new GetMethod(uri);
             client.executeMethod(method);
             if (method.getStatusCode() == HttpStatus.SC_OK) {
-                return method.getResponseBodyAsString();
+                return NetUtil.getResponseBodyAsString(method);
             } else {
                 String msg = method.getStatusCode() + " " + method.getStatusText();
                 l.debug("Exception executing " + method.getName() + " on " + method.getPath() + ": " + msg);
@@ -145,161 +182,165 @@ public class FacebookInsightsConnector extends AbstractConnector implements Conn
         } catch (IOException e) {
             l.debug("Error invoking GoodData REST API.", e);
             throw new HttpMethodException("Error invoking Facebook REST API.", e);
+        } finally {
+            method.releaseConnection();
         }
     }
 
-    private JSONObject fetchJSON(String uri) {
-        return JSONObject.fromObject(fetchData(uri));
-    }
-
-    private String constructInsightsApiUrl(String baseUrlWithTime) {
-        return baseUrlWithTime + "&access_token=" + URLEncoder.encode(oauthToken);
-    }
-
-    private String constructInsightsApiUrl(String baseUrl, DateTime startDate, DateTime endDate) {
-        return baseUrl + "?since=" + (startDate.getMillis() / 1000) + "&until=" + (endDate.getMillis() / 1000) + "&access_token=" + URLEncoder.encode(oauthToken);
+    private String constructInsightsApiUrl(String relativeUrl) {
+        return getGraphUrl() + relativeUrl + "&access_token=" + URLEncoder.encode(oauthToken);
     }
 
     private final DateTimeFormatter isoFmt = ISODateTimeFormat.dateTimeParser();
     private final DateTimeFormatter defFmt = DateTimeFormat.forPattern(Constants.DEFAULT_DATE_FMT_STRING);
 
-    private class InsightsRecord {
-
-        private DateTime date;
-        private String objectId;
-        private String metric;
-        private Number value;
-
-        public InsightsRecord(String o, DateTime d, String m, Number v) {
-            setObjectId(o);
-            setDate(d);
-            setMetric(m);
-            setValue(v);
-        }
-
-        public InsightsRecord(String o, String d, String m, Number v) {
-            setObjectId(o);
-            setDate(isoFmt.parseDateTime(d));
-            setMetric(m);
-            setValue(v);
-        }
-
-        public InsightsRecord(String o, DateTime d, String m, String v) {
-            setObjectId(o);
-            setDate(d);
-            setMetric(m);
-            try {
-                Number n = Double.parseDouble(v);
-                setValue(n);
-            } catch (NumberFormatException e) {
-                l.debug("Invalid Facebook Insights value: " + v);
-            }
+    /**
+     * Returns the Graph API root URL of the base URL (e.g. https://graph.facebook.com/)
+     *
+     * @return the Graph API root URL
+     */
+    private String getGraphUrl() {
+        try {
+            URL u = new URL(getBaseUrl());
+            return u.getProtocol() + "://" + u.getAuthority() + "/";
+        } catch (MalformedURLException e) {
+            throw new InvalidParameterException("Invalid Facebook Insights base URL '" + getBaseUrl() + "'.");
         }
+    }
 
-        public InsightsRecord(String o, String d, String m, String v) {
-            setObjectId(o);
-            setDate(isoFmt.parseDateTime(d));
-            setMetric(m);
-            try {
-                Number n = Double.parseDouble(v);
-                setValue(n);
-            } catch (NumberFormatException e) {
-                l.debug("Invalid Facebook Insights value: " + v);
+    /**
+     * Creates the insights requests. The date range is split to consecutive shards (the same way as the Graph API
+     * pages the insights), every shard is requested for every metric or for all metrics at once.
+     *
+     * @return the request URLs relative to the Graph API root URL without the access token
+     */
+    private List<String> createRequests() {
+        String graphUrl = getGraphUrl();
+        String path = getBaseUrl().substring(graphUrl.length());
+        List<String> ret = new ArrayList<String>();
+        DateTime since = getStartDate();
+        do {
+            DateTime until = since.plusDays(shardDays);
+            if (until.isAfter(getEndDate()))
+                until = getEndDate();
+            String range = "?since=" + (since.getMillis() / 1000) + "&until=" + (until.getMillis() / 1000);
+            if (metrics != null) {
+                for (String metric : metrics) {
+                    ret.add(path + "/" + metric + range);
+                }
+            } else {
+                ret.add(path + range);
             }
-        }
-
-        public String[] getRecord() {
-            return new String[]{getObjectId(), defFmt.print(getDate()), getMetric(), (getValue() != null) ? (getValue().toString()) : ("0")};
-        }
-
-        public DateTime getDate() {
-            return date;
-        }
-
-        public void setDate(DateTime date) {
-            this.date = date;
-        }
-
-        public String getMetric() {
-            return metric;
-        }
-
-        public void setMetric(String metric) {
-            this.metric = metric;
-        }
-
-        public Number getValue() {
-            return value;
-        }
+            since = until;
+        } while (since.isBefore(getEndDate()));
+        return ret;
+    }
 
-        public void setValue(Number value) {
-            this.value = value;
+    /**
+     * Fetches the insights requests, the requests are sent in a single Graph API batch request if there are more
+     * of them
+     *
+     * @param requests the request URLs relative to the Graph API root URL
+     * @return the response bodies in the request order
+     */
+    private List<String> fetchBatch(List<String> requests) {
+        List<String> ret = new ArrayList<String>();
+        if (requests.size() == 1) {
+            ret.add(fetchData(constructInsightsApiUrl(requests.get(0))));
+            return ret;
         }
-
-        public String getObjectId() {
-            return objectId;
+        JSONArray batch = new JSONArray();
+        for (String request : requests) {
+            JSONObject r = new JSONObject();
+            r.put("method", "GET");
+            r.put("relative_url", request);
+            batch.add(r);
         }
-
-        public void setObjectId(String objectId) {
-            this.objectId = objectId;
+        l.debug("Sending a Facebook batch of " + requests.size() + " requests.");
+        JSONArray responses = JSONArray.fromObject(postData(getGraphUrl(), new NameValuePair[]{
+                new NameValuePair("access_token", oauthToken),
+                new NameValuePair("batch", batch.toString())
+        }));
+        for (int i = 0; i < requests.size(); i++) {
+            Object response = (i < responses.size()) ? (responses.get(i)) : (null);
+            if (!(response instanceof JSONObject) || ((JSONObject) response).isNullObject())
+                throw new HttpMethodException("No response to the Facebook batch request " + requests.get(i));
+            JSONObject r = (JSONObject) response;
+            int code = r.optInt("code");
+            if (code != HttpStatus.SC_OK) {
+                l.debug("Facebook batch request " + requests.get(i) + " failed: " + r.optString("body"));
+                throw new HttpMethodException(code + " " + HttpStatus.getStatusText(code));
+            }
+            ret.add(r.getString("body"));
         }
-
-
+        return ret;
     }
 
-    private String fetchInsightsRecords(String uri, List<InsightsRecord> ret) {
-        String nextUri = null;
-        JSONObject data = fetchJSON(uri);
-        if (data != null) {
-            JSONArray dt = data.getJSONArray("data");
-            if (dt != null && !dt.isEmpty() && dt.size() > 0) {
-                for (int i = 0; i < dt.size(); i++) {
-                    JSONObject metricData = dt.getJSONObject(i);
-                    if (metricData != null && !metricData.isNullObject() && !metricData.isEmpty()) {
-                        String id = metricData.getString("id");
-                        String metricName = metricData.getString("name");
-                        if (id != null && id.length() > 0 && metricName != null && metricName.length() > 0) {
-                            if (id.indexOf("/") > 0) {
-                                String oid = id.split("/")[0];
-                                JSONArray dataPoints = metricData.getJSONArray("values");
-                                if (dataPoints != null && !dataPoints.isEmpty() && dataPoints.size() > 0) {
-                                    for (int j = 0; j < dataPoints.size(); j++) {
-                                        JSONObject dataPoint = dataPoints.getJSONObject(j);
-                                        if (dataPoint != null && !dataPoint.isNullObject() && !dataPoint.isEmpty()) {
-                                            String d = dataPoint.getString("end_time");
-                                            Object v = dataPoint.get("value");
-                                            if (d != null && v != null && d.length() > 0) {
-                                                String value = "0";
-                                                if (v instanceof Number || v instanceof String) {
-                                                    value = v.toString();
-                                                } else if (v instanceof JSONArray) {
-                                                    Object vl = ((JSONArray) v).get(0);
-                                                    if (vl != null) {
-                                                        value = vl.toString();
-                                                    }
-                                                } else {
-                                                    value = v.toString();
-                                                }
-                                                ret.add(new InsightsRecord(oid, d, metricName, value));
+    /**
+     * Adds the insights data points of a response to the pipeline
+     *
+     * @param data the response
+     * @param p    extract pipeline that transforms and writes the rows
+     * @return number of rows
+     * @throws IOException in case of a write problem
+     */
+    private int addInsightsRecords(JSONObject data, RowPipeline p) throws IOException {
+        int cnt = 0;
+        if (data == null || data.isNullObject())
+            return cnt;
+        JSONArray dt = data.optJSONArray("data");
+        if (dt == null || dt.isEmpty())
+            return cnt;
+        for (int i = 0; i < dt.size(); i++) {
+            JSONObject metricData = dt.getJSONObject(i);
+            if (metricData != null && !metricData.isNullObject() && !metricData.isEmpty()) {
+                String id = metricData.getString("id");
+                String metricName = metricData.getString("name");
+                if (id != null && id.length() > 0 && metricName != null && metricName.length() > 0) {
+                    if (id.indexOf("/") > 0) {
+                        String oid = id.split("/")[0];
+                        JSONArray dataPoints = metricData.getJSONArray("values");
+                        if (dataPoints != null && !dataPoints.isEmpty()) {
+                            for (int j = 0; j < dataPoints.size(); j++) {
+                                JSONObject dataPoint = dataPoints.getJSONObject(j);
+                                if (dataPoint != null && !dataPoint.isNullObject() && !dataPoint.isEmpty()) {
+                                    String d = dataPoint.getString("end_time");
+                                    Object v = dataPoint.get("value");
+                                    if (d != null && v != null && d.length() > 0) {
+                                        String value = "0";
+                                        if (v instanceof JSONArray) {
+                                            Object vl = ((JSONArray) v).get(0);
+                                            if (vl != null) {
+                                                value = vl.toString();
                                             }
+                                        } else {
+                                            value = v.toString();
                                         }
+                                        p.add(new String[]{oid, defFmt.print(isoFmt.parseDateTime(d)), metricName,
+                                                toNumber(value)});
+                                        cnt++;
                                     }
                                 }
-                            } else {
-                                l.debug("Invalid format of the Facebook Insights id: " + id);
                             }
-                        } else {
-                            l.debug("Invalid format of the Facebook Insights id: " + id + " or metric: " + metricName);
                         }
+                    } else {
+                        l.debug("Invalid format of the Facebook Insights id: " + id);
                     }
+                } else {
+                    l.debug("Invalid format of the Facebook Insights id: " + id + " or metric: " + metricName);
                 }
             }
-            JSONObject paging = data.getJSONObject("paging");
-            if (paging != null && !paging.isNullObject() && !paging.isEmpty()) {
-                nextUri = paging.getString("next");
-            }
         }
-        return nextUri;
+        return cnt;
+    }
+
+    private static String toNumber(String v) {
+        try {
+            return Double.toString(Double.parseDouble(v));
+        } catch (NumberFormatException e) {
+            l.debug("Invalid Facebook Insights value: " + v);
+            return "0";
+        }
     }
 
     /**
@@ -308,32 +349,44 @@ public class FacebookInsightsConnector extends AbstractConnector implements Conn
     public void extract(String file, final boolean transform) throws IOException {
         File dataFile = new File(file);
         l.debug("Extracting Facebook data to file=" + dataFile.getAbsolutePath());
-        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(dataFile);
+        CSVWriter cw = configureWriter(createDataWriter(dataFile, true));
         Transformer t = Transformer.create(schema);
         String[] header = t.getHeader(transform);
         cw.writeNext(header);
 
-        String url = constructInsightsApiUrl(getBaseUrl(), getStartDate(), getEndDate());
-        List<InsightsRecord> result = new ArrayList<InsightsRecord>();
-        url = fetchInsightsRecords(url, result);
-        int cnt = 0;
+        List<String> requests = createRequests();
+        // at least one batch per concurrently fetched batch
+        int size = Math.max(1, Math.min(batchSize, (requests.size() + shardWindow - 1) / shardWindow));
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        for (int i = 0; i < requests.size(); i += size) {
+            batches.add(requests.subList(i, Math.min(i + size, requests.size())));
+        }
+        l.debug("Started retrieving Facebook data in " + requests.size() + " requests and " + batches.size() +
+                " batches.");
+        PageFetcher<List<String>> f = new PageFetcher<List<String>>(new PageFetcher.Source<List<String>>() {
+            public List<String> fetch(int page) {
+                if (page >= batches.size())
+                    return new ArrayList<String>();
+                return fetchBatch(batches.get(page));
+            }
 
-        while (result != null && result.size() > 0) {
-            cnt += result.size();
-            l.debug("Started retrieving Facebook data.");
-            for (InsightsRecord o : result) {
-                String[] record = o.getRecord();
-                String[] row = new String[record.length];
-                for (int i = 0; i < record.length; i++) {
-                    row[i] = record[i];
+            public boolean isLast(List<String> page) {
+                return false;
+            }
+        }, 0, Math.max(1, Math.min(shardWindow, batches.size())));
+
+        int cnt = 0;
+        RowPipeline p = createPipeline(cw, transform, DATE_LENGTH_UNRESTRICTED);
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                for (String body : f.next()) {
+                    cnt += addInsightsRecords(JSONObject.fromObject(body), p);
                 }
-                if (transform)
-                    row = t.transformRow(row, DATE_LENGTH_UNRESTRICTED);
-                cw.writeNext(row);
-                cw.flush();
             }
-            result.clear();
-            url = fetchInsightsRecords(url, result);
+            p.finish();
+        } finally {
+            f.close();
+            p.abort();
         }
 
         l.debug("Retrieved " + cnt + " rows of Facebook data.");
@@ -372,17 +425,44 @@ public class FacebookInsightsConnector extends AbstractConnector implements Conn
         setStartDate(defFmt.parseDateTime(c.getParamMandatory("startDate")));
         setEndDate(defFmt.parseDateTime(c.getParamMandatory("endDate")));
         String auth = c.getParamMandatory("authToken");
+        String m = c.getParam("metrics");
+        setShardDays(getPositiveParam(c, "shardDays", DEFAULT_SHARD_DAYS));
+        setShardWindow(getPositiveParam(c, "shardWindow", PageFetcher.DEFAULT_WINDOW));
+        setBatchSize(getPositiveParam(c, "batchSize", MAX_BATCH_SIZE));
         c.paramsProcessed();
 
+        if (getBatchSize() > MAX_BATCH_SIZE)
+            throw new InvalidParameterException("UseFacebookInsights: The batchSize parameter must be at most " +
+                    MAX_BATCH_SIZE + ".");
+        if (m != null && m.length() > 0)
+            setMetrics(m.split("\\|"));
+
         File conf = FileUtil.getFile(configFile);
         initSchema(conf.getAbsolutePath());
         setOauthToken(auth);
+        // reuse the pooled Graph API connections
+        client = ctx.createHttpClient();
         // sets the current connector
         ctx.setConnector(this);
         setProjectId(ctx);
         l.info("Facebook Insights Connector successfully loaded.");
     }
 
+    private static int getPositiveParam(Command c, String name, int defaultValue) {
+        String v = c.getParam(name);
+        if (v == null || v.length() <= 0)
+            return defaultValue;
+        int ret;
+        try {
+            ret = Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException("UseFacebookInsights: The " + name + " parameter must be a number.");
+        }
+        if (ret < 1)
+            throw new InvalidParameterException("UseFacebookInsights: The " + name + " parameter must be at least 1.");
+        return ret;
+    }
+
     /**
      * Generate new config file from CSV command processor
      *
@@ -433,4 +513,36 @@ public class FacebookInsightsConnector extends AbstractConnector implements Conn
         this.oauthToken = oauthToken;
     }
 
+    public int getShardDays() {
+        return shardDays;
+    }
+
+    public void setShardDays(int shardDays) {
+        this.shardDays = shardDays;
+    }
+
+    public int getShardWindow() {
+        return shardWindow;
+    }
+
+    public void setShardWindow(int shardWindow) {
+        this.shardWindow = shardWindow;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public String[] getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(String[] metrics) {
+        this.metrics = metrics;
+    }
+
 }
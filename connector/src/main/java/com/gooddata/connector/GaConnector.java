@@ -26,6 +26,7 @@ package com.gooddata.connector;
 import com.gooddata.exception.InternalErrorException;
 import com.gooddata.exception.InvalidArgumentException;
 import com.gooddata.exception.InvalidCommandException;
+import com.gooddata.exception.InvalidParameterException;
 import com.gooddata.exception.ProcessingException;
 import com.gooddata.google.analytics.FeedDumper;
 import com.gooddata.google.analytics.GaQuery;
@@ -37,11 +38,10 @@ import com.gooddata.processor.ProcessingContext;
 import com.gooddata.transform.Transformer;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.PageFetcher;
 import com.google.gdata.client.ClientLoginAccountType;
 import com.google.gdata.client.analytics.AnalyticsService;
-import com.google.gdata.data.analytics.DataFeed;
 import com.google.gdata.util.AuthenticationException;
-import com.google.gdata.util.ServiceException;
 import org.apache.log4j.Logger;
 
 import java.io.File;
@@ -63,10 +63,20 @@ public class GaConnector extends AbstractConnector implements Connector {
     private static final String APP_NAME = "gdc-ga-client";
 
     private static final int GOOGLE_ANALYTICS_CHUNK = 9900;
+
+    // date range shard sizes in days
+    private static final int SHARD_NONE = 0;
+    private static final int SHARD_DAY = 1;
+    private static final int SHARD_WEEK = 7;
+
     private String googleAnalyticsUsername;
     private String googleAnalyticsPassword;
     private String googleAnalyticsToken;
     private GaQuery googleAnalyticsQuery;
+    // number of days in a date range shard, the whole date range is fetched at once if zero
+    private int shardDays = SHARD_NONE;
+    // number of the date range shards fetched concurrently
+    private int shardWindow = PageFetcher.DEFAULT_WINDOW;
 
     /**
      * Creates a new Google Analytics Connector
@@ -164,27 +174,24 @@ public class GaConnector extends AbstractConnector implements Connector {
             }
             File dataFile = new File(file);
             GaQuery gaq = getGoogleAnalyticsQuery();
-            gaq.setMaxResults(GOOGLE_ANALYTICS_CHUNK);
-            int cnt = 1;
 
-            CSVWriter cw = FileUtil.createUtf8CsvWriter(dataFile);
+            CSVWriter cw = configureWriter(createDataWriter(dataFile, false));
             Transformer t = Transformer.create(schema);
 
             String[] header = t.getHeader(transform);
             cw.writeNext(header);
 
-            for (int startIndex = 1; cnt > 0; startIndex += cnt + 1) {
-                gaq.setStartIndex(startIndex);
-                DataFeed feed = as.getFeed(gaq.getUrl(), DataFeed.class);
-                l.debug("Retrieving GA data from index=" + startIndex);
-                cnt = FeedDumper.dump(cw, feed, gaq, t, transform);
-                l.debug("Retrieved " + cnt + " entries.");
+            RowPipeline p = createPipeline(cw, transform, DATE_LENGTH_UNRESTRICTED);
+            try {
+                int cnt = FeedDumper.dump(p, as, gaq, GOOGLE_ANALYTICS_CHUNK, shardDays, shardWindow);
+                l.debug("Retrieved " + cnt + " GA entries.");
+                p.finish();
+            } finally {
+                p.abort();
             }
             cw.close();
         } catch (AuthenticationException e) {
             throw new InternalErrorException(e);
-        } catch (ServiceException e) {
-            throw new InternalErrorException(e);
         }
     }
 
@@ -304,8 +311,35 @@ public class GaConnector extends AbstractConnector implements Connector {
         gq.setEndDate(c.getParamMandatory("endDate"));
         if (c.checkParam("filters"))
             gq.setFilters(c.getParam("filters"));
+        String shard = c.getParam("shard");
+        String w = c.getParam("shardWindow");
         c.paramsProcessed();
 
+        boolean hasDate = ("," + gq.getDimensions() + ",").contains("," + GA_DATE + ",");
+        if (shard == null || shard.length() <= 0 || "none".equalsIgnoreCase(shard)) {
+            // the whole date range is fetched at once unless the sharding is requested
+            setShardDays(SHARD_NONE);
+        } else if (!hasDate) {
+            // without the ga:date dimension the shards' rows couldn't be merged
+            throw new InvalidParameterException("UseGoogleAnalytics: The shard parameter requires the " + GA_DATE +
+                    " dimension.");
+        } else if ("day".equalsIgnoreCase(shard)) {
+            setShardDays(SHARD_DAY);
+        } else if ("week".equalsIgnoreCase(shard)) {
+            setShardDays(SHARD_WEEK);
+        } else {
+            throw new InvalidParameterException("UseGoogleAnalytics: The shard parameter must be day, week, or none.");
+        }
+        if (w != null && w.length() > 0) {
+            try {
+                setShardWindow(Integer.parseInt(w));
+            } catch (NumberFormatException ex) {
+                throw new InvalidParameterException("UseGoogleAnalytics: The shardWindow parameter must be a number.");
+            }
+            if (getShardWindow() < 1)
+                throw new InvalidParameterException("UseGoogleAnalytics: The shardWindow parameter must be at least 1.");
+        }
+
         // sets the current connector
         ctx.setConnector(this);
         setProjectId(ctx);
@@ -346,4 +380,20 @@ public class GaConnector extends AbstractConnector implements Connector {
     public void setGoogleAnalyticsToken(String googleAnalyticsToken) {
         this.googleAnalyticsToken = googleAnalyticsToken;
     }
+
+    public int getShardDays() {
+        return shardDays;
+    }
+
+    public void setShardDays(int shardDays) {
+        this.shardDays = shardDays;
+    }
+
+    public int getShardWindow() {
+        return shardWindow;
+    }
+
+    public void setShardWindow(int shardWindow) {
+        this.shardWindow = shardWindow;
+    }
 }
@@ -34,19 +34,20 @@ import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
 import com.gooddata.transform.Transformer;
 import com.gooddata.util.CSVWriter;
+import com.gooddata.util.DateUtil;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.JdbcColumnReader;
 import com.gooddata.util.JdbcUtil;
 import com.gooddata.util.JdbcUtil.ResultSetHandler;
+import com.gooddata.util.JdbcUtil.StatementHandler;
 import com.gooddata.util.StringUtil;
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -64,10 +65,22 @@ public class JdbcConnector extends AbstractConnector implements Connector {
     private String jdbcPassword;
     private String sqlQuery;
     private int fetchSize = FETCH_SIZE;
+    private String partitionColumn;
+    private int partitionCount = 0;
+    private String partitionRanges;
+    private boolean partitionOrder = true;
+    private JdbcWatermark watermark;
+    // restricts the extract to the rows above the watermark
+    private boolean watermarkFilter = false;
 
 
 	protected static int FETCH_SIZE = 256;
 
+    /**
+     * Number of the partitions of the parallel extract when only the partition column is specified
+     */
+    public static final int DEFAULT_PARTITIONS = 4;
+
 
     /**
      * Creates a new JDBC connector
@@ -213,63 +226,49 @@ public class JdbcConnector extends AbstractConnector implements Connector {
         Connection con = null;
         ResultSet rs = null;
         try {
-            con = connect();
             File dataFile = new File(file);
-            final DateTimeFormatter dtf = DateTimeFormat.forPattern(Constants.DEFAULT_DATETIME_FMT_STRING);
             final List<SourceColumn> columns = schema.getColumns();
             l.debug("Extracting JDBC data to file=" + dataFile.getAbsolutePath());
-            final CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(dataFile);
+            final CSVWriter cw = configureWriter(createDataWriter(dataFile, true));
             final Transformer t = Transformer.create(schema);
             String[] header = t.getHeader(true);
             cw.writeNext(header);
+            final RowPipeline p = createPipeline(cw, transform, DATE_LENGTH_UNRESTRICTED);
+            final DateTimeFormatter[] dateFormats = (transform) ? (getDateFormats(columns)) : (null);
+
+            final JdbcWatermark.Tracker tracker = (watermark != null) ? (watermark.createTracker()) : (null);
 
             class ResultSetCsvWriter implements ResultSetHandler {
 
-                private final CSVWriter cw;
-                protected int rowCnt = 0;
+                private JdbcColumnReader[] readers;
 
-                public ResultSetCsvWriter(CSVWriter cw) {
-                    this.cw = cw;
+                public void handle(ResultSet rs) throws SQLException, IOException {
+                    if (readers == null)
+                        readers = JdbcColumnReader.create(rs.getMetaData(), dateFormats);
+                    if (tracker != null)
+                        tracker.update(rs);
+                    p.add(JdbcColumnReader.readRow(rs, readers));
                 }
+            }
 
-                public void handle(ResultSet rs) throws SQLException, IOException {
-                    final int length = rs.getMetaData().getColumnCount();
-                    Object[] row = new Object[length];
-                    for (int i = 1; i <= length; i++) {
-                        final int sqlType = rs.getMetaData().getColumnType(i);
-                        final Object value = rs.getObject(i);
-                        if (value == null || rs.wasNull())
-                            row[i - 1] = "";
-                        else {
-                            switch (sqlType) {
-                                case Types.DATE:
-                                case Types.TIMESTAMP:
-                                    row[i - 1] = new DateTime((Date) value);
-                                    break;
-                                default:
-                                    row[i - 1] = value.toString();
-                            }
-                        }
-                    }
-                    String[] nrow = null;
-                    if (transform) {
-                        nrow = t.transformRow(row, DATE_LENGTH_UNRESTRICTED);
-                    } else {
-                        nrow = new String[row.length];
-                        for (int i = 0; i < row.length; i++) {
-                            nrow[i] = row[i].toString();
+            try {
+                if (getPartitionColumn() != null) {
+                    extractPartitions(p, dateFormats);
+                } else {
+                    con = connect();
+                    JdbcUtil.executeQuery(con, getExtractQuery(), new StatementHandler() {
+                        public void prepare(PreparedStatement stmt) throws SQLException {
+                            bindExtractQuery(stmt);
                         }
-                    }
-                    cw.writeNext(nrow);
-                    cw.flush();
-                    rowCnt++;
+                    }, new ResultSetCsvWriter(), fetchSize);
+                    if (tracker != null)
+                        watermark.merge(tracker);
                 }
+                p.finish();
+            } finally {
+                p.abort();
             }
-
-            ResultSetCsvWriter rw = new ResultSetCsvWriter(cw);
-
-            JdbcUtil.executeQuery(con, getSqlQuery(), rw, fetchSize);
-            l.debug("Finished retrieving JDBC data. Retrieved " + rw.rowCnt + " rows.");
+            l.debug("Finished retrieving JDBC data. Retrieved " + p.getRowCount() + " rows.");
             cw.close();
         } catch (SQLException e) {
             l.debug("Error retrieving data from the JDBC source.", e);
@@ -286,6 +285,96 @@ public class JdbcConnector extends AbstractConnector implements Connector {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void extractAndTransfer(Command c, String pid, Connector cc, boolean waitForFinish, CliParams p, ProcessingContext ctx)
+            throws IOException, InterruptedException {
+        if (watermark == null) {
+            super.extractAndTransfer(c, pid, cc, waitForFinish, p, ctx);
+            return;
+        }
+        // only the incremental load can skip the rows that have been loaded before
+        watermarkFilter = "true".equalsIgnoreCase(c.getParameters().getProperty("incremental"));
+        watermark.load(pid, getSchema().getDatasetName());
+        if (!waitForFinish)
+            l.info("The JDBC watermark is stored when the data are loaded, waiting for the data load to finish.");
+        try {
+            super.extractAndTransfer(c, pid, cc, true, p, ctx);
+        } finally {
+            watermarkFilter = false;
+        }
+        watermark.store();
+    }
+
+    /**
+     * The query that the extract executes. It is restricted to the rows above the watermark in the incremental
+     * mode.
+     *
+     * @return the SQL query with the placeholders populated by the {@link #bindExtractQuery(PreparedStatement)}
+     */
+    public String getExtractQuery() {
+        if (watermark != null && watermarkFilter)
+            return watermark.getQuery(getSqlQuery());
+        return getSqlQuery();
+    }
+
+    /**
+     * Binds the parameters of the {@link #getExtractQuery()}
+     *
+     * @param st the prepared statement
+     * @return the index of the next placeholder
+     * @throws SQLException in case of a DB issue
+     */
+    public int bindExtractQuery(PreparedStatement st) throws SQLException {
+        if (watermark != null && watermarkFilter)
+            return watermark.bind(st, 1);
+        return 1;
+    }
+
+    /**
+     * Extracts the query ranges of the partition column in parallel
+     *
+     * @param p           the extract pipeline
+     * @param dateFormats the formats of the date columns
+     * @throws IOException  in case of IO issues
+     * @throws SQLException in case of a DB issue
+     */
+    private void extractPartitions(RowPipeline p, DateTimeFormatter[] dateFormats) throws IOException, SQLException {
+        List<JdbcPartitioner.Partition> partitions;
+        if (getPartitionRanges() != null)
+            partitions = JdbcPartitioner.parseRanges(getPartitionRanges());
+        else
+            partitions = JdbcPartitioner.discoverPartitions(this, getPartitionColumn(), getPartitionCount());
+        l.debug("Extracting JDBC data in " + partitions.size() + " partitions of the column " + getPartitionColumn() +
+                ": " + partitions);
+        new JdbcPartitioner(this, getPartitionColumn(), partitions, isPartitionOrder()).extract(p, dateFormats, fetchSize,
+                watermark);
+    }
+
+    /**
+     * Determines the formats of the date columns that can be printed directly when they are read. The result set
+     * columns match the schema columns without a transformation.
+     *
+     * @param columns the schema columns
+     * @return the date formats (null for the columns that are passed to the Transformer as DateTime)
+     */
+    private static DateTimeFormatter[] getDateFormats(List<SourceColumn> columns) {
+        List<DateTimeFormatter> formats = new ArrayList<DateTimeFormatter>();
+        for (SourceColumn c : columns) {
+            if (c.getTransformation() != null)
+                continue;
+            DateTimeFormatter fmt = null;
+            if (SourceColumn.LDM_TYPE_DATE.equalsIgnoreCase(c.getLdmType())
+                    && !Constants.UNIX_DATE_FORMAT.equalsIgnoreCase(c.getFormat())
+                    && !Constants.GOODDATA_DATE_FORMAT.equalsIgnoreCase(c.getFormat())) {
+                fmt = DateUtil.getDateFormatter(c.getFormat(), c.isDatetime());
+            }
+            formats.add(fmt);
+        }
+        return formats.toArray(new DateTimeFormatter[formats.size()]);
+    }
+
     /**
      * Connects the DB
      *
@@ -386,6 +475,46 @@ public class JdbcConnector extends AbstractConnector implements Connector {
 		this.fetchSize = fetchSize;
 	}
 
+    public JdbcWatermark getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(JdbcWatermark watermark) {
+        this.watermark = watermark;
+    }
+
+    public String getPartitionColumn() {
+        return partitionColumn;
+    }
+
+    public void setPartitionColumn(String partitionColumn) {
+        this.partitionColumn = partitionColumn;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        this.partitionCount = partitionCount;
+    }
+
+    public String getPartitionRanges() {
+        return partitionRanges;
+    }
+
+    public void setPartitionRanges(String partitionRanges) {
+        this.partitionRanges = partitionRanges;
+    }
+
+    public boolean isPartitionOrder() {
+        return partitionOrder;
+    }
+
+    public void setPartitionOrder(boolean partitionOrder) {
+        this.partitionOrder = partitionOrder;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -448,6 +577,12 @@ public class JdbcConnector extends AbstractConnector implements Connector {
         String q = c.getParam("query");
         String qf = c.getParam("queryFile");
         String fs = c.getParam("fetchSize");
+        String pc = c.getParam("partitionColumn");
+        String pn = c.getParam("partitions");
+        String pr = c.getParam("partitionRanges");
+        String po = c.getParam("partitionOrder");
+        String wc = c.getParam("watermarkColumn");
+        String wf = c.getParam("watermarkFile");
         c.paramsProcessed();
 
         if (q != null && qf != null) {
@@ -482,6 +617,39 @@ public class JdbcConnector extends AbstractConnector implements Connector {
         		throw new InvalidParameterException("The fetchSize parameter must be an integer");
         	}
         }
+        if ((pn != null || pr != null) && (pc == null || pc.length() <= 0)) {
+            l.error("The partitions and partitionRanges parameters of the UseJdbc command require the partitionColumn.");
+            throw new InvalidParameterException("The partitions and partitionRanges parameters of the UseJdbc command require the partitionColumn.");
+        }
+        if (pn != null && pr != null) {
+            l.error("Only one of the partitions and partitionRanges parameters can be specified with the UseJdbc command.");
+            throw new InvalidParameterException("Only one of the partitions and partitionRanges parameters can be specified with the UseJdbc command.");
+        }
+        if (pc != null && pc.length() > 0) {
+            setPartitionColumn(pc);
+            setPartitionRanges(pr);
+            setPartitionCount(DEFAULT_PARTITIONS);
+            if (pn != null) {
+                try {
+                    setPartitionCount(Integer.parseInt(pn));
+                } catch (NumberFormatException e) {
+                    l.error("The partitions parameter must be an integer");
+                    throw new InvalidParameterException("The partitions parameter must be an integer");
+                }
+                if (getPartitionCount() <= 0)
+                    throw new InvalidParameterException("The partitions parameter must be positive");
+            }
+            if (po != null)
+                setPartitionOrder(!"false".equalsIgnoreCase(po));
+        }
+        if (wf != null && (wc == null || wc.length() <= 0)) {
+            l.error("The watermarkFile parameter of the UseJdbc command requires the watermarkColumn.");
+            throw new InvalidParameterException("The watermarkFile parameter of the UseJdbc command requires the watermarkColumn.");
+        }
+        if (wc != null && wc.length() > 0) {
+            File state = (wf != null && wf.length() > 0) ? (new File(wf)) : (new File(conf.getAbsolutePath() + ".watermark"));
+            setWatermark(new JdbcWatermark(wc, state));
+        }
         // sets the current connector
         ctx.setConnector(this);
         setProjectId(ctx);
@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.gooddata.exception.InternalErrorException;
+import com.gooddata.exception.InvalidParameterException;
+import com.gooddata.util.JdbcColumnReader;
+import com.gooddata.util.JdbcUtil;
+import com.gooddata.util.JdbcUtil.ResultSetHandler;
+import com.gooddata.util.JdbcUtil.StatementHandler;
+import org.apache.log4j.Logger;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Extracts the JDBC query in parallel. The query is split to ranges of the partition column and every range is read
+ * on its own connection. The rows are merged to the connector's extract pipeline either in the order of the ranges or
+ * as they arrive. With the ordered merge the rows of all but the first range are spooled to temporary files until
+ * their turn comes.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class JdbcPartitioner {
+
+    private static Logger l = Logger.getLogger(JdbcPartitioner.class);
+
+    private static final String ALIAS = "gdc_partition";
+
+    // number of rows passed between the partition readers and the pipeline at once
+    private static final int BATCH_ROWS = RowPipeline.DEFAULT_BATCH_ROWS;
+
+    // number of batches buffered per partition reader
+    private static final int QUEUE_BATCHES = 4;
+
+    // end of the partition marker
+    private static final Object[][] END = new Object[0][];
+
+    private final JdbcConnector connector;
+    private final String column;
+    private final List<Partition> partitions;
+    private final boolean ordered;
+    private volatile Throwable failure;
+
+    /**
+     * Creates the partitioned extract
+     *
+     * @param connector  the connector that provides the query and the connections
+     * @param column     partition column
+     * @param partitions ranges of the partition column
+     * @param ordered    merge the partitions in the order of the ranges
+     */
+    public JdbcPartitioner(JdbcConnector connector, String column, List<Partition> partitions, boolean ordered) {
+        if (partitions == null || partitions.size() <= 0)
+            throw new InvalidParameterException("The partitioned JDBC extract requires at least one partition.");
+        this.connector = connector;
+        this.column = column;
+        this.partitions = partitions;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Splits the interval of the partition column values to ranges of the same size. Supports integral and date
+     * values.
+     *
+     * @param min   minimal value of the partition column
+     * @param max   maximal value of the partition column
+     * @param count number of partitions
+     * @return the partitions
+     */
+    public static List<Partition> createPartitions(Object min, Object max, int count) {
+        if (count <= 0)
+            throw new InvalidParameterException("The number of JDBC partitions must be positive.");
+        List<Partition> ret = new ArrayList<Partition>();
+        if (min == null || max == null) {
+            // no values or only NULLs
+            ret.add(new Partition(null, null, true));
+            return ret;
+        }
+        boolean dates = (min instanceof java.util.Date);
+        long lo = toLong(min);
+        long hi = toLong(max);
+        long step = (hi - lo) / count + 1;
+        for (int i = 0; i < count; i++) {
+            long lower = lo + i * step;
+            if (lower > hi)
+                break;
+            boolean last = (i == count - 1) || (lower + step > hi);
+            Object lb = (i == 0) ? (null) : (toBound(lower, dates));
+            Object ub = (last) ? (null) : (toBound(lower + step, dates));
+            ret.add(new Partition(lb, ub, i == 0));
+        }
+        return ret;
+    }
+
+    /**
+     * Creates the partitions from the comma separated boundaries of the partition column ranges. The first range
+     * contains all values lower than the first boundary (and the NULLs), the last one all values starting with
+     * the last boundary.
+     *
+     * @param boundaries comma separated boundaries in the ascending order (e.g. 1000,2000,3000)
+     * @return the partitions
+     */
+    public static List<Partition> parseRanges(String boundaries) {
+        String[] items = boundaries.split(",");
+        List<Object> bounds = new ArrayList<Object>();
+        for (String item : items) {
+            String b = item.trim();
+            if (b.length() <= 0)
+                continue;
+            try {
+                bounds.add(Long.valueOf(b));
+            } catch (NumberFormatException e) {
+                bounds.add(b);
+            }
+        }
+        if (bounds.size() <= 0)
+            throw new InvalidParameterException("The JDBC partition ranges must contain at least one boundary.");
+        List<Partition> ret = new ArrayList<Partition>();
+        Object lower = null;
+        for (Object b : bounds) {
+            ret.add(new Partition(lower, b, lower == null));
+            lower = b;
+        }
+        ret.add(new Partition(lower, null, false));
+        return ret;
+    }
+
+    /**
+     * Discovers the interval of the partition column values and splits it to ranges
+     *
+     * @param connector the connector that provides the query and the connection
+     * @param column    partition column
+     * @param count     number of partitions
+     * @return the partitions
+     * @throws SQLException in case of a db issue
+     */
+    public static List<Partition> discoverPartitions(JdbcConnector connector, String column, int count)
+            throws SQLException {
+        Connection con = connector.connect();
+        try {
+            String sql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM (" + connector.getExtractQuery() + ") "
+                    + ALIAS;
+            PreparedStatement st = con.prepareStatement(sql);
+            try {
+                connector.bindExtractQuery(st);
+                l.debug("Discovering the JDBC partitions: statement='" + sql + "'");
+                ResultSet rs = st.executeQuery();
+                Object min = null, max = null;
+                if (rs.next()) {
+                    min = rs.getObject(1);
+                    max = rs.getObject(2);
+                }
+                rs.close();
+                l.debug("The partition column " + column + " values are from " + min + " to " + max);
+                return createPartitions(min, max, count);
+            } finally {
+                st.close();
+            }
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Reads all partitions and adds the rows to the pipeline
+     *
+     * @param p           the extract pipeline
+     * @param dateFormats the formats of the date columns (see {@link JdbcColumnReader#create(ResultSetMetaData, DateTimeFormatter[])})
+     * @param fetchSize   JDBC fetch size
+     * @param watermark   the watermark that tracks the maximal value of its column or null
+     * @throws IOException in case of IO issues
+     */
+    public void extract(RowPipeline p, DateTimeFormatter[] dateFormats, int fetchSize, JdbcWatermark watermark)
+            throws IOException {
+        final int n = partitions.size();
+        ExecutorService pool = Executors.newFixedThreadPool(n, new ThreadFactory() {
+            private int cnt = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gdc-jdbc-partition-" + (++cnt));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        BlockingQueue<Object[][]> queue = new ArrayBlockingQueue<Object[][]>(QUEUE_BATCHES * n);
+        List<File> spools = new ArrayList<File>();
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+        boolean done = false;
+        try {
+            for (int i = 0; i < n; i++) {
+                File spool = null;
+                if (ordered && i > 0) {
+                    spool = File.createTempFile("gdc-jdbc-partition", ".bin");
+                    spool.deleteOnExit();
+                    spools.add(spool);
+                }
+                readers.add(pool.submit(new PartitionReader(partitions.get(i), queue, spool, dateFormats, fetchSize,
+                        watermark)));
+            }
+            pool.shutdown();
+            // streamed partitions
+            int running = (ordered) ? (1) : (n);
+            while (running > 0) {
+                Object[][] batch = queue.poll(1, TimeUnit.SECONDS);
+                checkFailure();
+                if (batch == END)
+                    running--;
+                else if (batch != null)
+                    for (Object[] row : batch)
+                        p.add(row);
+            }
+            // spooled partitions
+            for (int i = 0; i < spools.size(); i++) {
+                waitFor(readers.get(i + 1));
+                replay(spools.get(i), p);
+            }
+            for (Future<?> f : readers)
+                waitFor(f);
+            done = true;
+        } catch (InterruptedException e) {
+            throw new InternalErrorException(e);
+        } finally {
+            if (!done)
+                fail(new InternalErrorException("The partitioned JDBC extract has been aborted."));
+            pool.shutdownNow();
+            for (File spool : spools)
+                spool.delete();
+        }
+    }
+
+    private void waitFor(Future<?> f) throws InterruptedException, IOException {
+        try {
+            f.get();
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        }
+        checkFailure();
+    }
+
+    private void replay(File spool, RowPipeline p) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(spool)));
+        try {
+            Object[] row;
+            while ((row = (Object[]) in.readObject()) != null)
+                p.add(row);
+        } catch (ClassNotFoundException e) {
+            throw new InternalErrorException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e != null) {
+            if (e instanceof IOException)
+                throw (IOException) e;
+            if (e instanceof SQLException)
+                throw new InternalErrorException("Error retrieving data from the JDBC source.", e);
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            throw new InternalErrorException(e);
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        if (value instanceof java.util.Date)
+            return ((java.util.Date) value).getTime();
+        throw new InvalidParameterException("The JDBC partition column must be an integer or a date, found " +
+                value.getClass().getName());
+    }
+
+    private static Object toBound(long value, boolean date) {
+        return (date) ? (new Timestamp(value)) : (Long.valueOf(value));
+    }
+
+    /**
+     * Range of the partition column values. The lower bound is inclusive, the upper one exclusive, a null bound
+     * is unlimited.
+     */
+    public static class Partition {
+        private final Object lower;
+        private final Object upper;
+        private final boolean nulls;
+
+        /**
+         * Creates the range
+         *
+         * @param lower inclusive lower bound or null
+         * @param upper exclusive upper bound or null
+         * @param nulls include the rows with NULL in the partition column
+         */
+        public Partition(Object lower, Object upper, boolean nulls) {
+            this.lower = lower;
+            this.upper = upper;
+            this.nulls = nulls;
+        }
+
+        /**
+         * Wraps the query to select the rows of the range
+         *
+         * @param query  the original query
+         * @param column partition column
+         * @return the prepared statement SQL
+         */
+        public String getQuery(String query, String column) {
+            String cond;
+            if (lower != null && upper != null)
+                cond = column + " >= ? AND " + column + " < ?";
+            else if (lower != null)
+                cond = column + " >= ?";
+            else if (upper != null)
+                cond = column + " < ?";
+            else
+                cond = null;
+            if (nulls)
+                cond = (cond != null) ? ("(" + cond + ") OR " + column + " IS NULL") : (null);
+            StringBuffer sql = new StringBuffer("SELECT * FROM (").append(query).append(") ").append(ALIAS);
+            if (cond != null)
+                sql.append(" WHERE ").append(cond);
+            return sql.toString();
+        }
+
+        /**
+         * Binds the range bounds to the statement created from {@link #getQuery(String, String)}
+         *
+         * @param st  the prepared statement
+         * @param idx the index of the first range placeholder
+         * @throws SQLException in case of a db issue
+         */
+        public void bind(PreparedStatement st, int idx) throws SQLException {
+            if (lower != null)
+                bind(st, idx++, lower);
+            if (upper != null)
+                bind(st, idx, upper);
+        }
+
+        private static void bind(PreparedStatement st, int idx, Object value) throws SQLException {
+            if (value instanceof Long)
+                st.setLong(idx, (Long) value);
+            else if (value instanceof Timestamp)
+                st.setTimestamp(idx, (Timestamp) value);
+            else
+                st.setString(idx, value.toString());
+        }
+
+        public Object getLower() {
+            return lower;
+        }
+
+        public Object getUpper() {
+            return upper;
+        }
+
+        public boolean isNulls() {
+            return nulls;
+        }
+
+        public String toString() {
+            return "[" + ((lower != null) ? (lower) : ("")) + ", " + ((upper != null) ? (upper) : ("")) + ")" +
+                    ((nulls) ? (" + NULL") : (""));
+        }
+    }
+
+    /**
+     * Reads one partition on its own connection to the queue or to the spool file
+     */
+    private class PartitionReader implements Callable<Object> {
+        private final Partition partition;
+        private final BlockingQueue<Object[][]> queue;
+        private final File spool;
+        private final DateTimeFormatter[] dateFormats;
+        private final int fetchSize;
+        private final JdbcWatermark watermark;
+
+        PartitionReader(Partition partition, BlockingQueue<Object[][]> queue, File spool,
+                        DateTimeFormatter[] dateFormats, int fetchSize, JdbcWatermark watermark) {
+            this.partition = partition;
+            this.queue = queue;
+            this.spool = spool;
+            this.dateFormats = dateFormats;
+            this.fetchSize = fetchSize;
+            this.watermark = watermark;
+        }
+
+        public Object call() throws Exception {
+            Connection con = null;
+            final ObjectOutputStream out = (spool != null) ?
+                    (new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(spool)))) : (null);
+            try {
+                con = connector.connect();
+                final String sql = partition.getQuery(connector.getExtractQuery(), column);
+                final JdbcWatermark.Tracker tracker = (watermark != null) ? (watermark.createTracker()) : (null);
+                l.debug("Extracting JDBC partition " + partition);
+                final Object[][][] batch = new Object[][][]{new Object[BATCH_ROWS][]};
+                final int[] size = new int[1];
+                JdbcUtil.executeQuery(con, sql, new StatementHandler() {
+                    public void prepare(PreparedStatement stmt) throws SQLException {
+                        partition.bind(stmt, connector.bindExtractQuery(stmt));
+                    }
+
+                    public String toString() {
+                        return sql;
+                    }
+                }, new ResultSetHandler() {
+                    private JdbcColumnReader[] readers;
+
+                    public void handle(ResultSet rs) throws SQLException, IOException {
+                        if (failure != null)
+                            throw new InternalErrorException("The JDBC partition " + partition + " has been aborted.");
+                        if (readers == null)
+                            readers = JdbcColumnReader.create(rs.getMetaData(), dateFormats);
+                        if (tracker != null)
+                            tracker.update(rs);
+                        Object[] row = JdbcColumnReader.readRow(rs, readers);
+                        if (out != null) {
+                            out.writeObject(row);
+                            if (++size[0] >= BATCH_ROWS) {
+                                out.reset();
+                                size[0] = 0;
+                            }
+                        } else {
+                            batch[0][size[0]++] = row;
+                            if (size[0] >= BATCH_ROWS) {
+                                put(batch[0]);
+                                batch[0] = new Object[BATCH_ROWS][];
+                                size[0] = 0;
+                            }
+                        }
+                    }
+                }, fetchSize);
+                if (tracker != null)
+                    watermark.merge(tracker);
+                if (out != null) {
+                    out.writeObject(null);
+                } else {
+                    if (size[0] > 0) {
+                        Object[][] rest = new Object[size[0]][];
+                        System.arraycopy(batch[0], 0, rest, 0, size[0]);
+                        put(rest);
+                    }
+                    put(END);
+                }
+                l.debug("Extracted JDBC partition " + partition);
+                return null;
+            } catch (Throwable e) {
+                fail(e);
+                if (e instanceof Exception)
+                    throw (Exception) e;
+                throw (Error) e;
+            } finally {
+                if (out != null)
+                    out.close();
+                if (con != null && !con.isClosed())
+                    con.close();
+            }
+        }
+
+        private void put(Object[][] batch) throws InterruptedIOException {
+            try {
+                while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                    if (failure != null)
+                        throw new InternalErrorException("The JDBC partition " + partition + " has been aborted.");
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("The JDBC partition " + partition + " has been interrupted.");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.gooddata.exception.InvalidParameterException;
+import com.gooddata.util.FileUtil;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Properties;
+
+/**
+ * High-watermark of an incremental JDBC extract. The watermark is the maximal value of a monotonically increasing
+ * column (e.g. the row id or the last update time) that has been loaded to the project. It is kept in a local state
+ * file keyed by the project and the dataset. The next incremental extract reads only the rows above the watermark.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class JdbcWatermark {
+
+    private static Logger l = Logger.getLogger(JdbcWatermark.class);
+
+    private static final String ALIAS = "gdc_watermark";
+
+    private static final String TYPE_LONG = "long";
+    private static final String TYPE_DECIMAL = "decimal";
+    private static final String TYPE_TIMESTAMP = "timestamp";
+    private static final String TYPE_STRING = "string";
+
+    private final String column;
+    private final File file;
+
+    // the watermark loaded from the state file
+    private Object value;
+    private String key;
+
+    // the maximal value seen by the current extract
+    private Object max;
+
+    /**
+     * Creates the watermark
+     *
+     * @param column the watermark column
+     * @param file   the state file
+     */
+    public JdbcWatermark(String column, File file) {
+        this.column = column;
+        this.file = file;
+    }
+
+    /**
+     * Loads the stored watermark of the dataset and starts a new extract
+     *
+     * @param projectId project id
+     * @param dataset   dataset name
+     * @throws IOException in case of IO issues
+     */
+    public synchronized void load(String projectId, String dataset) throws IOException {
+        key = projectId + "." + dataset;
+        max = null;
+        Properties props = FileUtil.loadProperties(file);
+        String v = props.getProperty(key);
+        String type = props.getProperty(key + ".type");
+        value = (v != null) ? (parse(v, type)) : (null);
+        l.debug("Loaded the JDBC watermark " + key + "=" + value + " from " + file);
+    }
+
+    /**
+     * Stores the maximal value of the watermark column seen by the extract. Does nothing when the extract read no
+     * rows.
+     *
+     * @throws IOException in case of IO issues
+     */
+    public synchronized void store() throws IOException {
+        if (key == null || max == null) {
+            l.debug("No new JDBC watermark to store.");
+            return;
+        }
+        Properties props = FileUtil.loadProperties(file);
+        props.setProperty(key, max.toString());
+        props.setProperty(key + ".type", typeOf(max));
+        FileUtil.storeProperties(props, file, "GoodData JDBC watermarks");
+        value = max;
+        l.info("Stored the JDBC watermark " + key + "=" + max);
+    }
+
+    /**
+     * Restricts the query to the rows above the stored watermark
+     *
+     * @param query the query
+     * @return the query with a placeholder for the watermark (see {@link #bind(PreparedStatement, int)}) or the
+     *         original query if there is no watermark yet
+     */
+    public synchronized String getQuery(String query) {
+        if (value == null)
+            return query;
+        return "SELECT * FROM (" + query + ") " + ALIAS + " WHERE " + column + " > ?";
+    }
+
+    /**
+     * Binds the watermark to the statement created from the {@link #getQuery(String)}
+     *
+     * @param st  the statement
+     * @param idx the index of the watermark placeholder
+     * @return the index of the next placeholder
+     * @throws SQLException in case of a db issue
+     */
+    public synchronized int bind(PreparedStatement st, int idx) throws SQLException {
+        if (value == null)
+            return idx;
+        if (value instanceof Long)
+            st.setLong(idx, (Long) value);
+        else if (value instanceof BigDecimal)
+            st.setBigDecimal(idx, (BigDecimal) value);
+        else if (value instanceof Timestamp)
+            st.setTimestamp(idx, (Timestamp) value);
+        else
+            st.setString(idx, value.toString());
+        return idx + 1;
+    }
+
+    /**
+     * Creates the tracker of the maximal watermark column value of one result set. The tracker doesn't need any
+     * synchronization, it is merged by the {@link #merge(Tracker)} when the result set has been read.
+     *
+     * @return the tracker
+     */
+    public Tracker createTracker() {
+        return new Tracker();
+    }
+
+    /**
+     * Merges the maximum seen by a tracker
+     *
+     * @param t the tracker
+     */
+    public synchronized void merge(Tracker t) {
+        Object v = t.getMax();
+        if (v != null && (max == null || compare(v, max) > 0))
+            max = v;
+    }
+
+    /**
+     * The watermark loaded from the state file
+     *
+     * @return the watermark or null
+     */
+    public synchronized Object getValue() {
+        return value;
+    }
+
+    /**
+     * The maximal value of the watermark column seen by the current extract
+     *
+     * @return the maximum or null
+     */
+    public synchronized Object getMax() {
+        return max;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static Object parse(String v, String type) {
+        if (TYPE_LONG.equals(type))
+            return Long.valueOf(v);
+        if (TYPE_DECIMAL.equals(type))
+            return new BigDecimal(v);
+        if (TYPE_TIMESTAMP.equals(type))
+            return Timestamp.valueOf(v);
+        return v;
+    }
+
+    private static String typeOf(Object v) {
+        if (v instanceof Long)
+            return TYPE_LONG;
+        if (v instanceof BigDecimal)
+            return TYPE_DECIMAL;
+        if (v instanceof Timestamp)
+            return TYPE_TIMESTAMP;
+        return TYPE_STRING;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable) a).compareTo(b);
+    }
+
+    /**
+     * Tracks the maximal watermark column value of a result set
+     */
+    public class Tracker {
+        private int index = 0;
+        private String type;
+        private boolean seen = false;
+        private long maxLong;
+        private Object maxObject;
+
+        /**
+         * Checks the watermark column of the current row
+         *
+         * @param rs the result set positioned at a row
+         * @throws SQLException in case of a db issue
+         */
+        public void update(ResultSet rs) throws SQLException {
+            if (index == 0)
+                resolve(rs.getMetaData());
+            if (type == TYPE_LONG) {
+                long v = rs.getLong(index);
+                if (!rs.wasNull() && (!seen || v > maxLong)) {
+                    maxLong = v;
+                    seen = true;
+                }
+            } else {
+                Object v;
+                if (type == TYPE_DECIMAL)
+                    v = rs.getBigDecimal(index);
+                else if (type == TYPE_TIMESTAMP)
+                    v = rs.getTimestamp(index);
+                else
+                    v = rs.getString(index);
+                if (v != null && (maxObject == null || compare(v, maxObject) > 0))
+                    maxObject = v;
+            }
+        }
+
+        /**
+         * The maximal value seen
+         *
+         * @return the maximum or null if no value has been seen
+         */
+        public Object getMax() {
+            return (type == TYPE_LONG) ? ((seen) ? (Long.valueOf(maxLong)) : (null)) : (maxObject);
+        }
+
+        private void resolve(ResultSetMetaData rsm) throws SQLException {
+            for (int i = 1; i <= rsm.getColumnCount(); i++) {
+                String name = rsm.getColumnLabel(i);
+                if (name == null || name.length() <= 0)
+                    name = rsm.getColumnName(i);
+                if (column.equalsIgnoreCase(name)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == 0)
+                throw new InvalidParameterException("The watermark column " + column + " isn't in the JDBC query result.");
+            switch (rsm.getColumnType(index)) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    type = TYPE_LONG;
+                    break;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    type = TYPE_DECIMAL;
+                    break;
+                case Types.DATE:
+                case Types.TIMESTAMP:
+                    type = TYPE_TIMESTAMP;
+                    break;
+                default:
+                    type = TYPE_STRING;
+            }
+        }
+    }
+
+}
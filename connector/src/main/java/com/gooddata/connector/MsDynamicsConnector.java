@@ -31,6 +31,7 @@ import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
 import com.gooddata.util.FileUtil;
 import com.gooddata.util.StringUtil;
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.log4j.Logger;
 import org.jaxen.JaxenException;
 
@@ -59,6 +60,8 @@ public class MsDynamicsConnector extends AbstractConnector implements Connector
     private String entity;
     // MS CRM 2011 Online instance hostname
     private String hostname;
+    // pooled HTTP client
+    private HttpClient client;
     // MS CRM 2011 organization
     private String organization;
 
@@ -102,7 +105,9 @@ public class MsDynamicsConnector extends AbstractConnector implements Connector
     public void extract(String file, boolean transform) throws IOException {
         l.debug("Extracting MS CRM data.");
         try {
-            MsDynamicsWrapper m = new MsDynamicsWrapper(getHostname(), getOrganization(), getUsername(), getPassword());
+            MsDynamicsWrapper m = (client != null) ?
+                    (new MsDynamicsWrapper(getHostname(), getOrganization(), getUsername(), getPassword(), client)) :
+                    (new MsDynamicsWrapper(getHostname(), getOrganization(), getUsername(), getPassword()));
             m.connect();
             l.debug("Executing MS CRM query entity: " + getEntity() + " fields: " + getFields());
             if (fields != null && fields.length() > 0) {
@@ -111,7 +116,7 @@ public class MsDynamicsConnector extends AbstractConnector implements Connector
                     fs[i] = fs[i].trim();
                 File dt = FileUtil.getTempFile();
                 m.retrieveMultiple(getEntity(), fs, dt.getAbsolutePath());
-                int rowCnt = copyAndTransform(FileUtil.createUtf8CsvReader(dt), FileUtil.createUtf8CsvWriter(new File(file)), transform, 10);
+                int rowCnt = copyAndTransform(FileUtil.createUtf8CsvReader(dt), createDataWriter(new File(file), false), transform, 10);
                 l.info("Finished MS CRM query execution. Retrieved " + rowCnt + " rows of data.");
             } else {
                 throw new InvalidParameterException("The MS CRM fields parameter must contain the comma separated list " +
@@ -221,6 +226,7 @@ public class MsDynamicsConnector extends AbstractConnector implements Connector
         setFields(f);
         setOrganization(o);
         setHostname(host);
+        client = ctx.createHttpClient();
         ctx.setConnector(this);
         setProjectId(ctx);
         l.info("MS CRM Connector successfully loaded (entity: " + e + "fields: " + StringUtil.previewString(f, 256) + ").");
@@ -116,7 +116,7 @@ public class PtConnector extends AbstractConnector implements Connector {
 
         File dataFile = new File(dir + System.getProperty("file.separator") + "data.csv");
         l.debug("Extracting PT data to file=" + dataFile.getAbsolutePath());
-        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(dataFile);
+        CSVWriter cw = configureWriter(createDataWriter(dataFile, true));
         CSVReader cr = FileUtil.createUtf8CsvReader(new File(inputFile));
         // skip header
         cr.readNext();
@@ -133,7 +133,6 @@ public class PtConnector extends AbstractConnector implements Connector {
             }
             row = t.transformRow(row, 10);
             cw.writeNext(row);
-            cw.flush();
             row = cr.readNext();
         }
         cw.close();
@@ -159,6 +158,7 @@ public class PtConnector extends AbstractConnector implements Connector {
         if (sliColumns.size() > columns.size())
             throw new InvalidParameterException("The GoodData data loading interface (SLI) expects more columns.");
         String incremental = c.getParam("incremental");
+        setExtractParams(c);
         c.paramsProcessed();
 
         if (incremental != null && incremental.length() > 0 &&
@@ -173,10 +173,7 @@ public class PtConnector extends AbstractConnector implements Connector {
         // transfer the data package to the GoodData server
         ctx.getFtpApi(p).transferDir(archivePath);
         // kick the GooDData server to load the data package to the project
-        String taskUri = ctx.getRestApi(p).startLoading(pid, archiveName);
-        if (waitForFinish) {
-            checkLoadingStatus(taskUri, tmpDir.getName(), p, ctx);
-        }
+        startLoading(pid, archiveName, waitForFinish, p, ctx);
         //cleanup
         l.debug("Cleaning the temporary files.");
         FileUtil.recursiveDelete(tmpDir);
@@ -194,7 +191,7 @@ public class PtConnector extends AbstractConnector implements Connector {
 
         File mainDir = FileUtil.createTempDir();
 
-        PivotalApi papi = new PivotalApi(getUsername(), getPassword(), getPivotalProjectId());
+        PivotalApi papi = new PivotalApi(getUsername(), getPassword(), getPivotalProjectId(), ctx.createHttpClient());
         papi.signin();
         File ptf = FileUtil.getTempFile();
         papi.getCsvData(ptf.getAbsolutePath());
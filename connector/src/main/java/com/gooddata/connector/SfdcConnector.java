@@ -23,6 +23,7 @@
 
 package com.gooddata.connector;
 
+import com.gooddata.exception.InvalidParameterException;
 import com.gooddata.exception.ProcessingException;
 import com.gooddata.exception.SfdcException;
 import com.gooddata.modeling.model.SourceColumn;
@@ -31,6 +32,10 @@ import com.gooddata.processor.CliParams;
 import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
 import com.gooddata.transform.Transformer;
+import com.gooddata.sfdc.SfdcBulkApi;
+import com.gooddata.sfdc.SfdcSessionCache;
+import com.gooddata.util.Backoff;
+import com.gooddata.util.CSVReader;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
 import com.gooddata.util.StringUtil;
@@ -38,6 +43,7 @@ import com.sforce.soap.partner.*;
 import com.sforce.soap.partner.fault.*;
 import com.sforce.soap.partner.sobject.SObject;
 import org.apache.axis.message.MessageElement;
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 
@@ -45,6 +51,9 @@ import java.io.File;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GoodData SFDC Connector
@@ -56,12 +65,26 @@ public class SfdcConnector extends AbstractConnector implements Connector {
 
     private static Logger l = Logger.getLogger(SfdcConnector.class);
 
+    /**
+     * Default number of records retrieved by a query or queryMore call
+     */
+    public static final int DEFAULT_QUERY_BATCH_SIZE = 500;
+
+    // the maximal number of objects described by one describeSObjects call
+    private static final int MAX_DESCRIBE_BATCH = 100;
+
     private String sfdcUsername;
     private String sfdcPassword;
     private String sfdcQuery;
     private String sfdcToken;
     private String sfdcHostname = "www.salesforce.com";
     private String clientID;
+    private boolean bulk = false;
+    private int queryBatchSize = DEFAULT_QUERY_BATCH_SIZE;
+    private int prefetch = 0;
+    private long bulkTimeout = 0;
+    private HttpClient client;
+    private SfdcSessionCache sessionCache;
 
 
     /**
@@ -128,27 +151,91 @@ public class SfdcConnector extends AbstractConnector implements Connector {
     /**
      * Retrieves the object's metadata
      *
-     * @param c    SFDC stub
-     * @param name SFDC object name
+     * @param c     SFDC stub
+     * @param cache the session cache or null
+     * @param name  SFDC object name
      * @return Map of fields
      * @throws RemoteException communication error
      */
-    protected static Map<String, Field> describeObject(SoapBindingStub c, String name) throws RemoteException {
-        l.debug("Retrieving SFDC object " + name + " metadata.");
-        Map<String, Field> result = new HashMap<String, Field>();
-        DescribeSObjectResult describeSObjectResult = c.describeSObject(name);
-        if (!(describeSObjectResult == null)) {
-            Field[] fields = describeSObjectResult.getFields();
-            if (fields != null) {
-                for (Field field : fields) {
-                    result.put(field.getName(), field);
+    protected static Map<String, Field> describeObject(SoapBindingStub c, SfdcSessionCache cache, String name)
+            throws RemoteException {
+        return describeObjects(c, cache, name).get(name);
+    }
+
+    /**
+     * Retrieves the metadata of several objects. The objects that aren't in the session cache are described
+     * by the describeSObjects batches.
+     *
+     * @param c     SFDC stub
+     * @param cache the session cache or null
+     * @param names SFDC object names
+     * @return Map of fields by the object name
+     * @throws RemoteException communication error
+     */
+    protected static Map<String, Map<String, Field>> describeObjects(SoapBindingStub c, SfdcSessionCache cache,
+                                                                     String... names) throws RemoteException {
+        Map<String, Map<String, Field>> result = new HashMap<String, Map<String, Field>>();
+        String sessionId = getSessionId(c);
+        List<String> missing = new ArrayList<String>();
+        for (String name : names) {
+            Field[] fields = (cache != null) ? (cache.getFields(sessionId, name)) : (null);
+            if (fields != null)
+                result.put(name, getFieldMap(fields));
+            else if (!missing.contains(name))
+                missing.add(name);
+        }
+        for (int i = 0; i < missing.size(); i += MAX_DESCRIBE_BATCH) {
+            List<String> batch = missing.subList(i, Math.min(i + MAX_DESCRIBE_BATCH, missing.size()));
+            l.debug("Retrieving SFDC objects " + batch + " metadata.");
+            DescribeSObjectResult[] described;
+            if (batch.size() == 1)
+                described = new DescribeSObjectResult[]{c.describeSObject(batch.get(0))};
+            else
+                described = c.describeSObjects(batch.toArray(new String[batch.size()]));
+            Map<String, Field[]> fieldsByName = new HashMap<String, Field[]>();
+            if (described != null) {
+                for (int j = 0; j < described.length; j++) {
+                    if (described[j] == null)
+                        continue;
+                    Field[] fields = (described[j].getFields() != null) ? (described[j].getFields()) : (new Field[0]);
+                    // the described name is the canonical one, the results are in the order of the requested names
+                    String name = (described[j].getName() != null) ? (described[j].getName()) : (batch.get(j));
+                    fieldsByName.put(name.toLowerCase(), fields);
                 }
             }
+            for (String name : batch) {
+                Field[] fields = fieldsByName.get(name.toLowerCase());
+                if (fields == null)
+                    fields = new Field[0];
+                if (cache != null)
+                    cache.putFields(sessionId, name, fields);
+                result.put(name, getFieldMap(fields));
+            }
+            l.debug("SFDC objects " + batch + " metadata retrieved.");
+        }
+        return result;
+    }
+
+    private static Map<String, Field> getFieldMap(Field[] fields) {
+        Map<String, Field> result = new HashMap<String, Field>();
+        for (Field field : fields) {
+            result.put(field.getName(), field);
         }
-        l.debug("SFDC object " + name + " metadata retrieved.");
         return result;
     }
 
+    /**
+     * Returns the session id of the logged in SFDC stub
+     *
+     * @param c SFDC stub
+     * @return the session id
+     */
+    protected static String getSessionId(SoapBindingStub c) {
+        SessionHeader sh = (SessionHeader) c.getHeader(new SforceServiceLocator().getServiceName().getNamespaceURI(),
+                "SessionHeader").getObjectValue();
+        return sh.getSessionId();
+    }
+
 
     /**
      * Saves a template of the config file
@@ -165,12 +252,31 @@ public class SfdcConnector extends AbstractConnector implements Connector {
     public static void saveConfigTemplate(String name, String configFileName, String sfdcHostname, String sfdcUsr, String sfdcPsw, String sfdcToken, String partnerId,
                                           String query)
             throws IOException {
+        saveConfigTemplate(name, configFileName, sfdcHostname, sfdcUsr, sfdcPsw, sfdcToken, partnerId, query, null);
+    }
+
+    /**
+     * Saves a template of the config file
+     *
+     * @param name           new schema name
+     * @param configFileName config file name
+     * @param sfdcUsr        SFDC username
+     * @param sfdcPsw        SFDC password
+     * @param sfdcToken      SFDC security token
+     * @param query          SFDC query
+     * @param partnerId      SFDC partner ID
+     * @param cache          the session cache or null
+     * @throws IOException if there is a problem with writing the config file
+     */
+    public static void saveConfigTemplate(String name, String configFileName, String sfdcHostname, String sfdcUsr, String sfdcPsw, String sfdcToken, String partnerId,
+                                          String query, SfdcSessionCache cache)
+            throws IOException {
         l.debug("Saving SFDC config template.");
         SourceSchema s = SourceSchema.createSchema(name);
-        SoapBindingStub c = connect(sfdcHostname, sfdcUsr, sfdcPsw, sfdcToken, partnerId);
+        SoapBindingStub c = connect(cache, sfdcHostname, sfdcUsr, sfdcPsw, sfdcToken, partnerId);
         SObject result = executeQueryFirstRow(c, query, partnerId);
         if (result != null) {
-            Map<String, Field> fields = describeObject(c, result.getType());
+            Map<String, Field> fields = describeObject(c, cache, result.getType());
             for (MessageElement column : result.get_any()) {
                 String nm = column.getName();
                 String tp = getColumnType(fields, nm);
@@ -227,68 +333,55 @@ public class SfdcConnector extends AbstractConnector implements Connector {
     public void extract(String file, boolean transform) throws IOException {
         File dataFile = new File(file);
         l.debug("Extracting SFDC data to file=" + dataFile.getAbsolutePath());
-        CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(dataFile);
+        CSVWriter cw = configureWriter(createDataWriter(dataFile, true));
         Transformer t = Transformer.create(schema);
         String[] header = t.getHeader(transform);
         cw.writeNext(header);
-        SoapBindingStub c = connect(getSfdcHostname(), getSfdcUsername(), getSfdcPassword(), getSfdcToken(), getClientID());
+        SoapBindingStub c = connect(sessionCache, getSfdcHostname(), getSfdcUsername(), getSfdcPassword(), getSfdcToken(),
+                getClientID());
+        if (isBulk()) {
+            extractBulk(c, cw, transform);
+            return;
+        }
         l.debug("Executing SFDC query " + sfdcQuery);
         QueryOptions qo = new QueryOptions();
-        qo.setBatchSize(500);
+        qo.setBatchSize(queryBatchSize);
         c.setHeader(new SforceServiceLocator().getServiceName().getNamespaceURI(), "QueryOptions", qo);
         String[] colTypes = null;
-        boolean firstBatch = true;
-        int rowCnt = 0;
+        RowPipeline p = createPipeline(cw, transform, DATE_LENGTH_UNRESTRICTED);
+        QueryBatches batches = (prefetch > 0) ? (new PrefetchedBatches(c, sessionCache, sfdcQuery, prefetch)) :
+                (new QueryBatches(c, sessionCache, sfdcQuery));
         try {
-            QueryResult qr = c.query(sfdcQuery);
-            boolean isdone = false;
-            do {
-                SObject[] sObjects = qr.getRecords();
-                if (sObjects != null && sObjects.length > 0) {
+            SObject[] sObjects;
+            while ((sObjects = batches.next()) != null) {
+                if (sObjects.length <= 0)
+                    continue;
+                if (colTypes == null) {
                     l.debug("Started retrieving SFDC data.");
-                    boolean firstRow = true;
-                    for (SObject srow : sObjects) {
-                        if (firstBatch && firstRow) {
-                            SObject hdr = sObjects[0];
-                            Map<String, Field> fields = describeObject(c, hdr.getType());
-                            MessageElement[] frCols = hdr.get_any();
-                            colTypes = new String[frCols.length];
-                            for (int i = 0; i < frCols.length; i++) {
-                                String nm = frCols[i].getName();
-                                colTypes[i] = getColumnType(fields, nm);
-                            }
-                            firstRow = false;
-                        }
-                        MessageElement[] cols = srow.get_any();
-                        Object[] row = new Object[cols.length];
-                        for (int i = 0; i < row.length; i++) {
-                            if (colTypes[i].equalsIgnoreCase(SourceColumn.LDM_TYPE_DATE)) {
-                                row[i] = new DateTime(cols[i].getValue());
-                            } else {
-                                row[i] = cols[i].getValue();
-                            }
-                        }
-                        String[] nrow = null;
-                        if (transform) {
-                            nrow = t.transformRow(row, DATE_LENGTH_UNRESTRICTED);
+                    SObject hdr = sObjects[0];
+                    Map<String, Field> fields = batches.describe(hdr.getType());
+                    MessageElement[] frCols = hdr.get_any();
+                    colTypes = new String[frCols.length];
+                    for (int i = 0; i < frCols.length; i++) {
+                        String nm = frCols[i].getName();
+                        colTypes[i] = getColumnType(fields, nm);
+                    }
+                }
+                for (SObject srow : sObjects) {
+                    MessageElement[] cols = srow.get_any();
+                    Object[] row = new Object[cols.length];
+                    for (int i = 0; i < row.length; i++) {
+                        if (colTypes[i].equalsIgnoreCase(SourceColumn.LDM_TYPE_DATE)) {
+                            row[i] = new DateTime(cols[i].getValue());
                         } else {
-                            nrow = new String[row.length];
-                            for (int i = 0; i < row.length; i++) {
-                                nrow[i] = row[i].toString();
-                            }
+                            row[i] = cols[i].getValue();
                         }
-                        cw.writeNext(nrow);
-                        cw.flush();
-                        rowCnt++;
-                    }
-                    isdone = qr.isDone();
-                    if (!isdone) {
-                        qr = c.queryMore(qr.getQueryLocator());
-                        firstBatch = false;
                     }
+                    p.add(row);
                 }
-            } while (!isdone);
-            l.debug("Retrieved " + rowCnt + " rows of SFDC data.");
+            }
+            p.finish();
+            l.debug("Retrieved " + p.getRowCount() + " rows of SFDC data.");
             cw.close();
 
         } catch (ApiQueryFault ex) {
@@ -306,12 +399,196 @@ public class SfdcConnector extends AbstractConnector implements Connector {
         } catch (RemoteException e) {
             l.debug("Executing SFDC query failed", e);
             throw new SfdcException("Failed to execute SFDC query.", e);
+        } finally {
+            batches.close();
+            p.abort();
         }
         l.debug("Finihed SFDC query execution.");
 
 
     }
 
+    /**
+     * Pages through the SOAP query results
+     */
+    static class QueryBatches {
+        protected final SoapBindingStub c;
+        protected final SfdcSessionCache cache;
+        protected final String query;
+        private QueryResult qr;
+
+        QueryBatches(SoapBindingStub c, SfdcSessionCache cache, String query) {
+            this.c = c;
+            this.cache = cache;
+            this.query = query;
+        }
+
+        /**
+         * Retrieves the next batch of the query results
+         *
+         * @return the batch records or null if all batches have been retrieved
+         * @throws RemoteException communication error
+         */
+        SObject[] next() throws RemoteException {
+            if (qr == null)
+                qr = c.query(query);
+            else if (qr.isDone())
+                return null;
+            else
+                qr = c.queryMore(qr.getQueryLocator());
+            return (qr.getRecords() != null) ? (qr.getRecords()) : (new SObject[0]);
+        }
+
+        /**
+         * Retrieves the object's metadata
+         *
+         * @param type SFDC object name
+         * @return Map of fields
+         * @throws RemoteException communication error
+         */
+        Map<String, Field> describe(String type) throws RemoteException {
+            return describeObject(c, cache, type);
+        }
+
+        void close() {
+        }
+    }
+
+    /**
+     * Retrieves the next batches of the query results on a background thread while the current batch is processed.
+     * The stub isn't thread safe, so the fetching thread makes all the SFDC calls including the describe of the
+     * queried object.
+     */
+    static class PrefetchedBatches extends QueryBatches implements Runnable {
+        // end of the results marker
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> queue;
+        private final Thread thread;
+        private volatile boolean closed = false;
+        private volatile Map<String, Field> fields;
+
+        PrefetchedBatches(SoapBindingStub c, SfdcSessionCache cache, String query, int depth) {
+            super(c, cache, query);
+            queue = new ArrayBlockingQueue<Object>(depth);
+            thread = new Thread(this, "gdc-sfdc-prefetch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            try {
+                SObject[] batch;
+                while ((batch = super.next()) != null) {
+                    if (fields == null && batch.length > 0)
+                        fields = describeObject(c, cache, batch[0].getType());
+                    put(batch);
+                }
+                put(END);
+            } catch (InterruptedException e) {
+                // closed
+            } catch (Throwable e) {
+                try {
+                    put(e);
+                } catch (InterruptedException ie) {
+                    // closed
+                }
+            }
+        }
+
+        private void put(Object o) throws InterruptedException {
+            while (!queue.offer(o, 1, TimeUnit.SECONDS)) {
+                if (closed)
+                    throw new InterruptedException();
+            }
+        }
+
+        SObject[] next() throws RemoteException {
+            Object o;
+            try {
+                o = queue.take();
+            } catch (InterruptedException e) {
+                throw new SfdcException("The SFDC query has been interrupted.", e);
+            }
+            if (o == END) {
+                queue.add(END);
+                return null;
+            }
+            if (o instanceof RemoteException)
+                throw (RemoteException) o;
+            if (o instanceof RuntimeException)
+                throw (RuntimeException) o;
+            if (o instanceof java.lang.Error)
+                throw (java.lang.Error) o;
+            if (o instanceof Throwable)
+                throw new SfdcException("Failed to execute SFDC query.", (Throwable) o);
+            return (SObject[]) o;
+        }
+
+        Map<String, Field> describe(String type) throws RemoteException {
+            return fields;
+        }
+
+        void close() {
+            closed = true;
+            thread.interrupt();
+        }
+    }
+
+
+    /**
+     * Extracts the query results using the SFDC Bulk API. The CSV results of the bulk query are streamed to the
+     * extract pipeline.
+     *
+     * @param c         SFDC stub of the logged in session
+     * @param cw        the extract writer
+     * @param transform perform the transformations
+     * @throws IOException in case of IO issues
+     */
+    private void extractBulk(SoapBindingStub c, CSVWriter cw, boolean transform) throws IOException {
+        String serverUrl = (String) c._getProperty(SoapBindingStub.ENDPOINT_ADDRESS_PROPERTY);
+        SfdcBulkApi bulk = new SfdcBulkApi(client, SfdcBulkApi.getBulkUrl(serverUrl), getSessionId(c));
+        Map<String, Field> fields = describeObject(c, sessionCache, SfdcBulkApi.getQueryObject(sfdcQuery));
+        l.debug("Executing SFDC bulk query " + sfdcQuery);
+        List<SfdcBulkApi.Result> results = bulk.query(sfdcQuery, new Backoff(bulkTimeout));
+        RowPipeline p = createPipeline(cw, transform, DATE_LENGTH_UNRESTRICTED);
+        try {
+            boolean[] dates = null;
+            for (SfdcBulkApi.Result result : results) {
+                CSVReader cr = result.open();
+                try {
+                    String[] hdr = cr.readNext();
+                    if (hdr == null)
+                        continue;
+                    if (dates == null) {
+                        dates = new boolean[hdr.length];
+                        for (int i = 0; i < hdr.length; i++) {
+                            dates[i] = SourceColumn.LDM_TYPE_DATE.equals(getColumnType(fields, hdr[i]));
+                        }
+                    }
+                    String[] srow;
+                    while ((srow = cr.readNext()) != null) {
+                        Object[] row = new Object[srow.length];
+                        for (int i = 0; i < row.length; i++) {
+                            if (dates[i] && srow[i].length() > 0)
+                                row[i] = new DateTime(srow[i]);
+                            else
+                                row[i] = srow[i];
+                        }
+                        p.add(row);
+                    }
+                } finally {
+                    cr.close();
+                }
+            }
+            p.finish();
+            l.debug("Retrieved " + p.getRowCount() + " rows of SFDC data.");
+            cw.close();
+        } finally {
+            p.abort();
+        }
+        l.debug("Finihed SFDC bulk query execution.");
+    }
 
     /**
      * Connect the SFDC
@@ -323,24 +600,44 @@ public class SfdcConnector extends AbstractConnector implements Connector {
      * @throws SfdcException in case of connection issues
      */
     protected static SoapBindingStub connect(String host, String usr, String psw, String token, String clientID) throws SfdcException {
+        return connect(null, host, usr, psw, token, clientID);
+    }
+
+    /**
+     * Connect the SFDC. Reuses the cached session of the same login if there is any.
+     *
+     * @param cache the session cache or null
+     * @param usr   SFDC username
+     * @param psw   SFDC pasword
+     * @param token SFDC security token
+     * @return SFDC stub
+     * @throws SfdcException in case of connection issues
+     */
+    protected static SoapBindingStub connect(SfdcSessionCache cache, String host, String usr, String psw, String token,
+                                             String clientID) throws SfdcException {
         SoapBindingStub binding;
         LoginResult loginResult;
         if (token != null) {
             psw += token;
         }
+        String key = null;
+        if (cache != null) {
+            key = SfdcSessionCache.getKey(host, usr, psw, clientID);
+            SfdcSessionCache.Session s = cache.getSession(key);
+            if (s != null) {
+                binding = createBinding(host, clientID);
+                setSession(binding, s.getServerUrl(), s.getSessionId());
+                if (s.isVerified() || isSessionValid(binding)) {
+                    cache.setVerified(s);
+                    l.debug("Reusing the cached SFDC session.");
+                    return binding;
+                }
+                cache.removeSession(key);
+            }
+        }
+        binding = createBinding(host, clientID);
         try {
-            SforceServiceLocator loc = new SforceServiceLocator();
-            loc.setSoapEndpointAddress(loc.getSoapAddress().replaceAll("www.salesforce.com", host).replaceAll("login.salesforce.com", host));
-            binding = (SoapBindingStub) loc.getSoap();
             l.debug("Connecting to SFDC.");
-            // Time out after a minute
-            binding.setTimeout(60000);
-            // Test operation
-            if (clientID != null && clientID.length() > 0) {
-                CallOptions co = new CallOptions();
-                co.setClient(clientID);
-                binding.setHeader(new SforceServiceLocator().getServiceName().getNamespaceURI(), "CallOptions", co);
-            }
             loginResult = binding.login(usr, psw);
         } catch (LoginFault ex) {
             // The LoginFault derives from AxisFault
@@ -388,6 +685,50 @@ public class SfdcConnector extends AbstractConnector implements Connector {
             l.debug("An error has occurred. Your password has expired.");
             throw new SfdcException("An error has occurred. Your password has expired.");
         }
+        setSession(binding, loginResult.getServerUrl(), loginResult.getSessionId());
+        if (cache != null)
+            cache.putSession(key, loginResult.getServerUrl(), loginResult.getSessionId());
+        l.debug("Connected to SFDC.");
+        return binding;
+    }
+
+    /**
+     * Creates the SFDC stub
+     *
+     * @param host     SFDC host
+     * @param clientID SFDC partner client ID
+     * @return SFDC stub that isn't logged in
+     * @throws SfdcException in case of the stub initialization issues
+     */
+    private static SoapBindingStub createBinding(String host, String clientID) throws SfdcException {
+        SoapBindingStub binding;
+        try {
+            SforceServiceLocator loc = new SforceServiceLocator();
+            loc.setSoapEndpointAddress(loc.getSoapAddress().replaceAll("www.salesforce.com", host).replaceAll("login.salesforce.com", host));
+            binding = (SoapBindingStub) loc.getSoap();
+        } catch (Exception ex) {
+            l.debug("Error logging into the SFDC.", ex);
+            throw new SfdcException("Error logging into the SFDC.", ex);
+        }
+        // Time out after a minute
+        binding.setTimeout(60000);
+        // Test operation
+        if (clientID != null && clientID.length() > 0) {
+            CallOptions co = new CallOptions();
+            co.setClient(clientID);
+            binding.setHeader(new SforceServiceLocator().getServiceName().getNamespaceURI(), "CallOptions", co);
+        }
+        return binding;
+    }
+
+    /**
+     * Points the SFDC stub to the server of a session and authenticates its calls with the session
+     *
+     * @param binding   SFDC stub
+     * @param serverUrl the server URL of the session
+     * @param sessionId the session id
+     */
+    private static void setSession(SoapBindingStub binding, String serverUrl, String sessionId) {
         /** Once the client application has logged in successfully, it will use
          *  the results of the login call to reset the endpoint of the service
          *  to the virtual server instance that is servicing your organization.
@@ -395,7 +736,7 @@ public class SfdcConnector extends AbstractConnector implements Connector {
          *  of the binding object using the URL returned from the LoginResult.
          */
         binding._setProperty(SoapBindingStub.ENDPOINT_ADDRESS_PROPERTY,
-                loginResult.getServerUrl());
+                serverUrl);
         /** The sample client application now has an instance of the SoapBindingStub
          *  that is pointing to the correct endpoint. Next, the sample client application
          *  sets a persistent SOAP header (to be included on all subsequent calls that
@@ -407,7 +748,7 @@ public class SfdcConnector extends AbstractConnector implements Connector {
         // Create a new session header object and add the session id
         // from the login return object
         SessionHeader sh = new SessionHeader();
-        sh.setSessionId(loginResult.getSessionId());
+        sh.setSessionId(sessionId);
         /** Next, the sample client application calls the setHeader method of the
          *  SoapBindingStub to add the header to all subsequent method calls. This
          *  header will persist until the SoapBindingStub is destroyed until the header
@@ -417,8 +758,22 @@ public class SfdcConnector extends AbstractConnector implements Connector {
         // set the session header for subsequent call authentication
         binding.setHeader(new SforceServiceLocator().getServiceName().getNamespaceURI(),
                 "SessionHeader", sh);
-        l.debug("Connected to SFDC.");
-        return binding;
+    }
+
+    /**
+     * Checks that a session loaded from the cache file hasn't been invalidated
+     *
+     * @param binding SFDC stub using the session
+     * @return true if the session is valid
+     */
+    private static boolean isSessionValid(SoapBindingStub binding) {
+        try {
+            binding.getServerTimestamp();
+            return true;
+        } catch (RemoteException e) {
+            l.debug("The cached SFDC session isn't valid.", e);
+            return false;
+        }
     }
 
     /**
@@ -515,6 +870,38 @@ public class SfdcConnector extends AbstractConnector implements Connector {
         this.clientID = clientID;
     }
 
+    public int getQueryBatchSize() {
+        return queryBatchSize;
+    }
+
+    public void setQueryBatchSize(int queryBatchSize) {
+        this.queryBatchSize = queryBatchSize;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    public void setBulk(boolean bulk) {
+        this.bulk = bulk;
+    }
+
+    public long getBulkTimeout() {
+        return bulkTimeout;
+    }
+
+    public void setBulkTimeout(long bulkTimeout) {
+        this.bulkTimeout = bulkTimeout;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -552,6 +939,12 @@ public class SfdcConnector extends AbstractConnector implements Connector {
         String t = c.getParam("token");
         String host = c.getParam("host");
         String partnerId = c.getParam("partnerId");
+        String b = c.getParam("bulk");
+        String bt = c.getParam("bulkTimeout");
+        String qbs = c.getParam("queryBatchSize");
+        String pf = c.getParam("prefetch");
+        String sc = c.getParam("sessionCache");
+        String st = c.getParam("sessionTtl");
         c.paramsProcessed();
 
         File conf = FileUtil.getFile(configFile);
@@ -564,6 +957,28 @@ public class SfdcConnector extends AbstractConnector implements Connector {
         if (host != null && !"".equals(host)) {
             setSfdcHostname(host);
         }
+        setBulk("true".equalsIgnoreCase(b));
+        if (bt != null && bt.length() > 0) {
+            try {
+                setBulkTimeout(1000L * Integer.parseInt(bt));
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException("UseSfdc: The bulkTimeout parameter must be a number.");
+            }
+        }
+        try {
+            if (qbs != null && qbs.length() > 0)
+                setQueryBatchSize(Integer.parseInt(qbs));
+            if (pf != null && pf.length() > 0)
+                setPrefetch(Integer.parseInt(pf));
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException("UseSfdc: The queryBatchSize and prefetch parameters must be numbers.");
+        }
+        if (getQueryBatchSize() < 200 || getQueryBatchSize() > 2000)
+            throw new InvalidParameterException("UseSfdc: The queryBatchSize parameter must be from 200 to 2000.");
+        if (getPrefetch() < 0)
+            throw new InvalidParameterException("UseSfdc: The prefetch parameter must not be negative.");
+        client = ctx.createHttpClient();
+        sessionCache = getSessionCache(ctx, sc, st, "UseSfdc");
         // sets the current connector
         ctx.setConnector(this);
         setProjectId(ctx);
@@ -590,9 +1005,34 @@ public class SfdcConnector extends AbstractConnector implements Connector {
             host = sfdcHostname;
         }
         String partnerId = c.getParam("partnerId");
+        String sc = c.getParam("sessionCache");
+        String st = c.getParam("sessionTtl");
         c.paramsProcessed();
 
-        SfdcConnector.saveConfigTemplate(name, configFile, host, usr, psw, token, partnerId, query);
+        SfdcConnector.saveConfigTemplate(name, configFile, host, usr, psw, token, partnerId, query,
+                getSessionCache(ctx, sc, st, "GenerateSfdcConfig"));
         l.info("SFDC Connector configuration successfully generated. See config file: " + configFile);
     }
+
+    /**
+     * Returns the SFDC session cache shared by the commands of the script
+     *
+     * @param ctx     current processing context
+     * @param file    the cache file parameter
+     * @param ttl     the session TTL parameter
+     * @param command the command name
+     * @return the session cache
+     */
+    private static SfdcSessionCache getSessionCache(ProcessingContext ctx, String file, String ttl, String command) {
+        SfdcSessionCache cache = SfdcSessionCache.getCache(ctx, (file != null && file.length() > 0) ?
+                (new File(file).getAbsoluteFile()) : (null));
+        if (ttl != null && ttl.length() > 0) {
+            try {
+                cache.setTtl(1000L * Integer.parseInt(ttl));
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException(command + ": The sessionTtl parameter must be a number.");
+            }
+        }
+        return cache;
+    }
 }
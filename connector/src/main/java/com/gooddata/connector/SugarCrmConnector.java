@@ -30,7 +30,9 @@ import com.gooddata.processor.Command;
 import com.gooddata.processor.ProcessingContext;
 import com.gooddata.sugar.SugarCrmWrapper;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.PageFetcher;
 import com.gooddata.util.StringUtil;
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.log4j.Logger;
 import org.jaxen.JaxenException;
 
@@ -61,6 +63,10 @@ public class SugarCrmConnector extends AbstractConnector implements Connector {
     private String entity;
     // Sugar CRM hostname
     private String hostname;
+    // number of the result pages requested concurrently
+    private int pageWindow = PageFetcher.DEFAULT_WINDOW;
+    // pooled HTTP client
+    private HttpClient client;
 
 
     /**
@@ -87,7 +93,8 @@ public class SugarCrmConnector extends AbstractConnector implements Connector {
     public void extract(String file, boolean transform) throws IOException {
         l.debug("Extracting SugarCrm data.");
         try {
-            SugarCrmWrapper m = new SugarCrmWrapper(getHostname(), getUsername(), getPassword());
+            SugarCrmWrapper m = (client != null) ? (new SugarCrmWrapper(getHostname(), getUsername(), getPassword(), client)) :
+                    (new SugarCrmWrapper(getHostname(), getUsername(), getPassword()));
             m.connect();
             l.debug("Executing SugarCrm query entity: " + getEntity() + " fields: " + getFields());
             if (fields != null && fields.length() > 0) {
@@ -101,8 +108,9 @@ public class SugarCrmConnector extends AbstractConnector implements Connector {
                         cfs.add(fs[i].trim());
                 }
                 File dt = FileUtil.getTempFile();
-                m.getAllEntries(getEntity(), cfs.toArray(new String[]{}), lfs.toArray(new String[]{}), "", dt.getAbsolutePath());
-                int rowCnt = copyAndTransform(FileUtil.createUtf8CsvReader(dt), FileUtil.createUtf8CsvWriter(new File(file)), transform, 10);
+                m.getAllEntries(getEntity(), cfs.toArray(new String[]{}), lfs.toArray(new String[]{}), "", dt.getAbsolutePath(),
+                        getPageWindow());
+                int rowCnt = copyAndTransform(FileUtil.createUtf8CsvReader(dt), createDataWriter(new File(file), false), transform, 10);
                 l.info("Finished SugarCrm query execution. Retrieved " + rowCnt + " rows of data.");
             } else {
                 throw new InvalidParameterException("The SugarCrm fields parameter must contain the comma separated list " +
@@ -201,6 +209,7 @@ public class SugarCrmConnector extends AbstractConnector implements Connector {
         String e = c.getParamMandatory("entity");
         String f = c.getParamMandatory("fields");
         String host = c.getParamMandatory("host");
+        String w = c.getParam("pageWindow");
         c.paramsProcessed();
 
         File conf = FileUtil.getFile(configFile);
@@ -210,6 +219,16 @@ public class SugarCrmConnector extends AbstractConnector implements Connector {
         setEntity(e);
         setFields(f);
         setHostname(host);
+        if (w != null && w.length() > 0) {
+            try {
+                setPageWindow(Integer.parseInt(w));
+            } catch (NumberFormatException ex) {
+                throw new InvalidParameterException("UseSugarCrm: The pageWindow parameter must be a number.");
+            }
+            if (getPageWindow() < 1)
+                throw new InvalidParameterException("UseSugarCrm: The pageWindow parameter must be at least 1.");
+        }
+        client = ctx.createHttpClient();
         ctx.setConnector(this);
         setProjectId(ctx);
         l.info("Sugar CRM Connector successfully loaded (entity: " + e + "fields: " + StringUtil.previewString(f, 256) + ").");
@@ -230,4 +249,12 @@ public class SugarCrmConnector extends AbstractConnector implements Connector {
     public void setEntity(String entity) {
         this.entity = entity;
     }
+
+    public int getPageWindow() {
+        return pageWindow;
+    }
+
+    public void setPageWindow(int pageWindow) {
+        this.pageWindow = pageWindow;
+    }
 }
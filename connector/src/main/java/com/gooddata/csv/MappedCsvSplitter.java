@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.csv;
+
+import com.gooddata.exception.InvalidParameterException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-maps a UTF-8 CSV file and splits it to chunks that end at record boundaries. A line feed
+ * inside a quoted field isn't a record boundary. The quote, escape and line feed characters are ASCII,
+ * so they never appear inside a multi-byte UTF-8 sequence and the file can be scanned byte by byte.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class MappedCsvSplitter implements Closeable {
+
+    /**
+     * Default chunk size in bytes
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // size of the window that is mapped while looking for the record boundaries
+    private static final int SCAN_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private final byte quote;
+    private final byte escape;
+    private final int chunkSize;
+
+    // scan status
+    private long position = 0;
+    private boolean quoted = false;
+    private boolean escaped = false;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+
+    /**
+     * Creates the splitter
+     *
+     * @param dataFile  the CSV file
+     * @param quote     quote character
+     * @param escape    escape character
+     * @param chunkSize approximate size of a chunk in bytes
+     * @throws IOException in case of IO issues
+     */
+    public MappedCsvSplitter(File dataFile, char quote, char escape, int chunkSize) throws IOException {
+        if (quote > 127 || escape > 127)
+            throw new InvalidParameterException("The parallel CSV processing supports ASCII quote and escape characters only.");
+        if (chunkSize <= 0)
+            throw new InvalidParameterException("The CSV chunk size must be positive.");
+        this.file = new RandomAccessFile(dataFile, "r");
+        this.channel = file.getChannel();
+        this.length = channel.size();
+        this.quote = (byte) quote;
+        this.escape = (byte) escape;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Skips the first record (e.g. the CSV header)
+     *
+     * @throws IOException in case of IO issues
+     */
+    public void skipRecord() throws IOException {
+        if (position == 0)
+            position = findBoundary(0);
+    }
+
+    /**
+     * Returns the next chunk of whole records
+     *
+     * @return the next chunk or null if the whole file has been returned
+     * @throws IOException in case of IO issues
+     */
+    public Chunk next() throws IOException {
+        if (position >= length)
+            return null;
+        long start = position;
+        long end = findBoundary(Math.min(length, start + chunkSize) - 1);
+        if (end - start > Integer.MAX_VALUE)
+            throw new InvalidParameterException("The CSV file contains a record longer than 2GB.");
+        position = end;
+        return new Chunk(start, (int) (end - start));
+    }
+
+    /**
+     * Scans the file from the current position and returns the offset after the first line feed that is
+     * at or after the target offset and outside of a quoted field
+     *
+     * @param target the minimal offset of the boundary
+     * @return the boundary offset (the file length if there is no further boundary)
+     * @throws IOException in case of IO issues
+     */
+    private long findBoundary(long target) throws IOException {
+        long i = position;
+        while (i < length) {
+            if (window == null || i < windowStart || i >= windowStart + window.limit()) {
+                windowStart = i;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, i, Math.min(SCAN_WINDOW_SIZE, length - i));
+            }
+            int p = (int) (i - windowStart);
+            int limit = window.limit();
+            while (p < limit) {
+                byte b = window.get(p++);
+                if (escaped) {
+                    escaped = false;
+                } else if (quoted && escape != quote && b == escape) {
+                    escaped = true;
+                } else if (b == quote) {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted && windowStart + p > target) {
+                    return windowStart + p;
+                }
+            }
+            i = windowStart + p;
+        }
+        return length;
+    }
+
+    /**
+     * Maps the chunk into memory
+     *
+     * @param c the chunk
+     * @return the chunk content
+     * @throws IOException in case of IO issues
+     */
+    public ByteBuffer map(Chunk c) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, c.getOffset(), c.getLength());
+    }
+
+    /**
+     * Opens an input stream of the mapped chunk
+     *
+     * @param c the chunk
+     * @return the input stream
+     * @throws IOException in case of IO issues
+     */
+    public InputStream open(Chunk c) throws IOException {
+        final ByteBuffer b = map(c);
+        if (b.hasArray())
+            return new ByteArrayInputStream(b.array(), b.arrayOffset(), b.remaining());
+        return new InputStream() {
+            public int read() {
+                return b.hasRemaining() ? (b.get() & 0xff) : -1;
+            }
+
+            public int read(byte[] dst, int off, int len) {
+                if (!b.hasRemaining())
+                    return -1;
+                int n = Math.min(len, b.remaining());
+                b.get(dst, off, n);
+                return n;
+            }
+
+            public int available() {
+                return b.remaining();
+            }
+        };
+    }
+
+    /**
+     * Closes the mapped file
+     *
+     * @throws IOException in case of IO issues
+     */
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * A part of the file that contains whole records
+     */
+    public static class Chunk {
+        private final long offset;
+        private final int length;
+
+        public Chunk(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
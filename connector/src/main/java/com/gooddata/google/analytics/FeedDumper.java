@@ -23,22 +23,25 @@
 
 package com.gooddata.google.analytics;
 
-import com.gooddata.connector.AbstractConnector;
 import com.gooddata.connector.GaConnector;
+import com.gooddata.connector.RowPipeline;
+import com.gooddata.exception.InternalErrorException;
 import com.gooddata.exception.InvalidParameterException;
-import com.gooddata.transform.Transformer;
-import com.gooddata.util.CSVWriter;
 import com.gooddata.util.DateUtil;
+import com.gooddata.util.PageFetcher;
+import com.google.gdata.client.analytics.AnalyticsService;
 import com.google.gdata.data.analytics.DataEntry;
 import com.google.gdata.data.analytics.DataFeed;
 import com.google.gdata.data.analytics.Dimension;
 import com.google.gdata.data.analytics.Metric;
+import com.google.gdata.util.ServiceException;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -54,19 +57,141 @@ public class FeedDumper {
     private static final String IN_FMT = "yyyyMMdd";
     private static final String OUT_FMT = "yyyy-MM-dd";
 
+    /**
+     * Number of the result pages of a shard that are fetched ahead of the dump
+     */
+    static final int PREFETCHED_PAGES = 2;
+
     private static Logger l = Logger.getLogger(FeedDumper.class);
 
     /**
-     * Dupmps the gdata feed to CSV
+     * Fetches the query results and dumps them to CSV. The query's date range is split to shards of the given
+     * number of days, up to window shards are fetched concurrently. The shards are dumped in the date order.
+     * Only the first PREFETCHED_PAGES pages of a shard are fetched ahead, the rest of the shard is fetched
+     * page by page when the shard is dumped, so the memory doesn't grow with the size of the shard.
      *
-     * @param cw        CSVWriter
-     * @param feed      Google feed
+     * @param p         extract pipeline that transforms and writes the rows
+     * @param as        Google Analytics service
      * @param gaq       Google Analytics Query
-     * @param t         Transformer
-     * @param transform perform transformations?
+     * @param chunk     max number of entries in a result page
+     * @param shardDays number of days in a shard, zero or less fetches the whole date range at once
+     * @param window    number of the concurrently fetched shards
+     * @return number of the dumped rows
+     * @throws IOException in case of an IO problem
+     */
+    public static int dump(RowPipeline p, final AnalyticsService as, GaQuery gaq, final int chunk, int shardDays,
+                           int window) throws IOException {
+        final List<GaQuery> shards = gaq.split(shardDays);
+        l.debug("Retrieving GA data in " + shards.size() + " shard(s).");
+        PageFetcher<Shard> f = new PageFetcher<Shard>(new PageFetcher.Source<Shard>() {
+            public Shard fetch(int page) throws Exception {
+                if (page >= shards.size())
+                    return null;
+                Shard shard = new Shard(as, shards.get(page), chunk);
+                shard.prefetch(PREFETCHED_PAGES);
+                return shard;
+            }
+
+            public boolean isLast(Shard page) {
+                return false;
+            }
+        }, 0, Math.max(1, Math.min(window, shards.size())));
+        int cnt = 0;
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = f.next();
+                for (DataFeed feed = shard.next(); feed != null; feed = shard.next()) {
+                    cnt += dump(p, feed, gaq);
+                }
+            }
+        } finally {
+            f.close();
+        }
+        return cnt;
+    }
+
+    /**
+     * The result pages of a query, the pages are fetched one by one
+     */
+    private static class Shard {
+
+        private final AnalyticsService as;
+        private final GaQuery gaq;
+        private final int chunk;
+        private int startIndex = 1;
+        private boolean done = false;
+        private final LinkedList<DataFeed> prefetched = new LinkedList<DataFeed>();
+
+        /**
+         * @param as    Google Analytics service
+         * @param gaq   Google Analytics Query, its start index and max results are changed
+         * @param chunk max number of entries in a result page
+         */
+        Shard(AnalyticsService as, GaQuery gaq, int chunk) {
+            this.as = as;
+            this.gaq = gaq;
+            this.chunk = chunk;
+            gaq.setMaxResults(chunk);
+        }
+
+        /**
+         * Fetches the first pages
+         *
+         * @param pages max number of the fetched pages
+         * @throws IOException in case of an IO problem
+         */
+        void prefetch(int pages) throws IOException {
+            while (prefetched.size() < pages) {
+                DataFeed feed = fetch();
+                if (feed == null)
+                    break;
+                prefetched.add(feed);
+            }
+        }
+
+        /**
+         * Returns the next result page
+         *
+         * @return the page or null if there are no more results
+         * @throws IOException in case of an IO problem
+         */
+        DataFeed next() throws IOException {
+            if (!prefetched.isEmpty())
+                return prefetched.removeFirst();
+            return fetch();
+        }
+
+        private DataFeed fetch() throws IOException {
+            if (done)
+                return null;
+            gaq.setStartIndex(startIndex);
+            l.debug("Retrieving GA data from " + gaq.getStartDate() + " to " + gaq.getEndDate() +
+                    " from index=" + startIndex);
+            DataFeed feed;
+            try {
+                feed = as.getFeed(gaq.getUrl(), DataFeed.class);
+            } catch (ServiceException e) {
+                throw new InternalErrorException(e);
+            }
+            int cnt = feed.getEntries().size();
+            l.debug("Retrieved " + cnt + " entries.");
+            startIndex += cnt;
+            int total = feed.getTotalResults();
+            if (cnt < chunk || (total >= 0 && startIndex > total))
+                done = true;
+            return (cnt > 0) ? (feed) : (null);
+        }
+    }
+
+    /**
+     * Dupmps the gdata feed to CSV
+     *
+     * @param p    extract pipeline that transforms and writes the rows
+     * @param feed Google feed
+     * @param gaq  Google Analytics Query
      * @throws IOException in case of an IO problem
      */
-    public static int dump(CSVWriter cw, DataFeed feed, GaQuery gaq, Transformer t, boolean transform) throws IOException {
+    public static int dump(RowPipeline p, DataFeed feed, GaQuery gaq) throws IOException {
         l.debug("Dumping GA feed.");
         String profileId = gaq.getIds();
         if (profileId == null || profileId.length() <= 0)
@@ -118,10 +243,7 @@ public class FeedDumper {
                 row.add(valueOut);
             }
             row.add(0, profileId);
-            String[] r = row.toArray(new String[]{});
-            if (transform)
-                r = t.transformRow(r, AbstractConnector.DATE_LENGTH_UNRESTRICTED);
-            cw.writeNext(r);
+            p.add(row.toArray(new String[row.size()]));
         }
         l.debug("Dumped " + entries.size() + " rows from GA feed.");
         return entries.size();
@@ -23,10 +23,16 @@
 
 package com.gooddata.google.analytics;
 
+import com.gooddata.exception.InvalidParameterException;
+import com.gooddata.util.DateUtil;
 import com.google.gdata.client.analytics.DataQuery;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormatter;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Google analytics query
@@ -39,6 +45,9 @@ public class GaQuery extends DataQuery {
     // GA API URL
     private static final String DATA_QUERY_URL = "https://www.google.com/analytics/feeds/data";
 
+    // GA query date format
+    private static final String DATE_FMT = "yyyy-MM-dd";
+
     /**
      * Constructor
      *
@@ -48,4 +57,76 @@ public class GaQuery extends DataQuery {
         super(new URL(DATA_QUERY_URL));
     }
 
+    /**
+     * Constructor
+     *
+     * @param feedUrl the GA data feed URL
+     */
+    public GaQuery(URL feedUrl) {
+        super(feedUrl);
+    }
+
+    /**
+     * Copies the query
+     *
+     * @return a new query with the same feed URL and parameters
+     */
+    public GaQuery copy() {
+        GaQuery q = new GaQuery(getFeedUrl());
+        q.setIds(getIds());
+        q.setDimensions(getDimensions());
+        q.setMetrics(getMetrics());
+        q.setFilters(getFilters());
+        q.setSegment(getSegment());
+        q.setSort(getSort());
+        q.setStartDate(getStartDate());
+        q.setEndDate(getEndDate());
+        q.setMaxResults(getMaxResults());
+        q.setStartIndex(getStartIndex());
+        return q;
+    }
+
+    /**
+     * Splits the query's date range to consecutive shards. Each shard is a copy of this query that covers
+     * at most the given number of days. The last shard ends with the query's end date.
+     *
+     * @param days number of days in a shard, zero or less returns a single copy of the query
+     * @return the shard queries in the date order
+     */
+    public List<GaQuery> split(int days) {
+        List<GaQuery> shards = new ArrayList<GaQuery>();
+        if (days <= 0) {
+            shards.add(copy());
+            return shards;
+        }
+        DateTimeFormatter fmt = DateUtil.getDateFormatter(DATE_FMT, false);
+        LocalDate start = parseDate(fmt, getStartDate());
+        LocalDate end = parseDate(fmt, getEndDate());
+        if (end.isBefore(start))
+            throw new InvalidParameterException("The Google Analytics end date " + getEndDate() +
+                    " precedes the start date " + getStartDate() + ".");
+        while (!start.isAfter(end)) {
+            LocalDate last = start.plusDays(days - 1);
+            if (last.isAfter(end))
+                last = end;
+            GaQuery shard = copy();
+            shard.setStartDate(fmt.print(start));
+            shard.setEndDate(fmt.print(last));
+            shards.add(shard);
+            start = last.plusDays(1);
+        }
+        return shards;
+    }
+
+    private static LocalDate parseDate(DateTimeFormatter fmt, String date) {
+        if (date == null || date.length() <= 0)
+            throw new InvalidParameterException("Empty Google Analytics date in query.");
+        try {
+            return fmt.parseDateTime(date).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException("Invalid Google Analytics date '" + date +
+                    "', the date must be in the yyyy-mm-dd format.");
+        }
+    }
+
 }
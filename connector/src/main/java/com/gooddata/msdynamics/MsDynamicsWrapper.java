@@ -23,8 +23,10 @@
 package com.gooddata.msdynamics;
 
 import com.gooddata.integration.soap.SoapExecutor;
+import com.gooddata.integration.soap.SoapTemplate;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
+import org.apache.commons.httpclient.HttpClient;
 import org.jaxen.JaxenException;
 import org.jaxen.XPath;
 
@@ -32,6 +34,7 @@ import javax.xml.soap.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Java wrapper of selected MS CRM 2011 Online web services
@@ -54,19 +57,24 @@ public class MsDynamicsWrapper {
     private final static String ENTITY_XMLNS = "http://schemas.microsoft.com/crm/2006/WebServices";
     private final static String RESULT_XMLNS = "http://schemas.microsoft.com/crm/2007/WebServices";
 
-    private final static String LIVE_ID_SERVER_PLACEHOLDER = "%SERVER%";
-    private final static String LIVE_ID_USERNAME_PLACEHOLDER = "%USERNAME%";
-    private final static String LIVE_ID_PASSWORD_PLACEHOLDER = "%PASSWORD%";
-    private final static String LIVE_ID_POLICY_PLACEHOLDER = "%POLICY%";
-
-    private final static String CRM_ORGANIZATION_PLACEHOLDER = "%ORGANIZATION%";
-    private final static String LIVE_ID_TICKET_PLACEHOLDER = "%LIVEID%";
-    private final static String CRM_TICKET_PLACEHOLDER = "%CRMTICKET%";
-    private final static String CRM_ENTITY_PLACEHOLDER = "%ENTITY%";
-    private final static String CRM_ATTRIBUTES_PLACEHOLDER = "%ATTRIBUTES%";
-    private final static String CRM_PAGE_NUMBER_PLACEHOLDER = "%PAGENUMBER%";
-    private final static String CRM_PAGE_COOKIE_PLACEHOLDER = "%PAGECOOKIE%";
-    private final static String CRM_PAGE_COUNT_PLACEHOLDER = "%PAGECOUNT%";
+    private final static Map<String, String> CRM_DISCOVERY_NAMESPACES = Collections.singletonMap("crm", CRM_DISCOVERY_XMLNS);
+    private final static Map<String, String> WSSE_NAMESPACES = Collections.singletonMap("wsse", WSSE_XMLNS);
+    private final static Map<String, String> ENTITY_NAMESPACES = Collections.singletonMap("crm", ENTITY_XMLNS);
+    private final static Map<String, String> RESULT_NAMESPACES = Collections.singletonMap("crm", RESULT_XMLNS);
+
+    private final static String LIVE_ID_SERVER_PLACEHOLDER = "SERVER";
+    private final static String LIVE_ID_USERNAME_PLACEHOLDER = "USERNAME";
+    private final static String LIVE_ID_PASSWORD_PLACEHOLDER = "PASSWORD";
+    private final static String LIVE_ID_POLICY_PLACEHOLDER = "POLICY";
+
+    private final static String CRM_ORGANIZATION_PLACEHOLDER = "ORGANIZATION";
+    private final static String LIVE_ID_TICKET_PLACEHOLDER = "LIVEID";
+    private final static String CRM_TICKET_PLACEHOLDER = "CRMTICKET";
+    private final static String CRM_ENTITY_PLACEHOLDER = "ENTITY";
+    private final static String CRM_ATTRIBUTES_PLACEHOLDER = "ATTRIBUTES";
+    private final static String CRM_PAGE_NUMBER_PLACEHOLDER = "PAGENUMBER";
+    private final static String CRM_PAGE_COOKIE_PLACEHOLDER = "PAGECOOKIE";
+    private final static String CRM_PAGE_COUNT_PLACEHOLDER = "PAGECOUNT";
 
     private final static int PAGE_COUNT = 1000;
 
@@ -96,7 +104,24 @@ public class MsDynamicsWrapper {
      * @param password     CRM 2011 Online password
      */
     public MsDynamicsWrapper(String hostName, String organization, String user, String password) {
-        soap = new SoapExecutor();
+        this(hostName, organization, user, password, new SoapExecutor());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hostName     CRM 2011 Online host
+     * @param organization CRM 2011 Online organization
+     * @param user         CRM 2011 Online username
+     * @param password     CRM 2011 Online password
+     * @param client       HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public MsDynamicsWrapper(String hostName, String organization, String user, String password, HttpClient client) {
+        this(hostName, organization, user, password, new SoapExecutor(client));
+    }
+
+    private MsDynamicsWrapper(String hostName, String organization, String user, String password, SoapExecutor soap) {
+        this.soap = soap;
         setHost(hostName);
         setOrganization(organization);
         setUsername(user);
@@ -130,8 +155,7 @@ public class MsDynamicsWrapper {
     public String retrievePolicy() throws IOException, SOAPException, JaxenException {
         String msg = FileUtil.readStringFromClasspath("/com/gooddata/msdynamics/RetrievePolicy.xml", MsDynamicsWrapper.class);
         SOAPMessage response = soap.execute(HTTPS + host + CRM_DISCOVERY_ENDPOINT, msg);
-        XPath xp = soap.createXPath("//crm:Policy/text()", response);
-        xp.addNamespace("crm", CRM_DISCOVERY_XMLNS);
+        XPath xp = soap.createXPath("//crm:Policy/text()", response, CRM_DISCOVERY_NAMESPACES);
         Text result = (Text) xp.selectSingleNode(response.getSOAPBody());
         return result.getValue();
     }
@@ -145,12 +169,13 @@ public class MsDynamicsWrapper {
      * @throws SOAPException  issue with SOAP invocation
      */
     public String retrieveCrmTicket() throws IOException, SOAPException, JaxenException {
-        String msg = FileUtil.readStringFromClasspath("/com/gooddata/msdynamics/RetrieveCrmTicket.xml", MsDynamicsWrapper.class);
-        msg = msg.replace(CRM_ORGANIZATION_PLACEHOLDER, getOrganization());
-        msg = msg.replace(LIVE_ID_TICKET_PLACEHOLDER, getLiveId());
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(CRM_ORGANIZATION_PLACEHOLDER, getOrganization());
+        values.put(LIVE_ID_TICKET_PLACEHOLDER, getLiveId());
+        String msg = SoapTemplate.getTemplate("/com/gooddata/msdynamics/RetrieveCrmTicket.xml", MsDynamicsWrapper.class)
+                .fill(values);
         SOAPMessage response = soap.execute(HTTPS + host + CRM_DISCOVERY_ENDPOINT, msg);
-        XPath xp = soap.createXPath("//crm:CrmTicket/text()", response);
-        xp.addNamespace("crm", CRM_DISCOVERY_XMLNS);
+        XPath xp = soap.createXPath("//crm:CrmTicket/text()", response, CRM_DISCOVERY_NAMESPACES);
         Text result = (Text) xp.selectSingleNode(response.getSOAPBody());
         return result.getNodeValue();
     }
@@ -166,17 +191,36 @@ public class MsDynamicsWrapper {
      * @throws IOException    generic IO issue
      * @throws SOAPException  issue with SOAP invocation
      */
-    public int retrieveMultiple(String entity, String[] columns, String csvFile)
+    public int retrieveMultiple(final String entity, final String[] columns, String csvFile)
             throws IOException, SOAPException, JaxenException {
         int cnt = 0;
         CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(new File(csvFile));
+        // the next page needs the paging cookie of the previous one, so the pages can't be requested concurrently,
+        // but the next page is requested while the current page is parsed and written
+        ExecutorService requests = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gdc-msdynamics-page");
+                t.setDaemon(true);
+                return t;
+            }
+        });
         try {
+            final SoapTemplate template = createPageTemplate(entity, columns);
             int pageNumber = 1;
-            String cookie = "";
-            boolean hasNext = true;
-            while (hasNext) {
+            SOAPMessage response = requestPage(template, pageNumber, "");
+            while (response != null) {
+                final RetrievePageInfo info = getPageInfo(response);
+                Future<SOAPMessage> next = null;
+                if (!"0".equalsIgnoreCase(info.getMoreRecords())) {
+                    final int nextPageNumber = ++pageNumber;
+                    next = requests.submit(new Callable<SOAPMessage>() {
+                        public SOAPMessage call() throws Exception {
+                            return requestPage(template, nextPageNumber, info.getPageCookie());
+                        }
+                    });
+                }
                 List<Map<String, String>> ret = new ArrayList<Map<String, String>>();
-                RetrievePageInfo info = retrievePage(entity, columns, pageNumber++, cookie, ret);
+                parseEntities(response, ret);
                 for (Map<String, String> m : ret) {
                     String[] row = new String[columns.length];
                     for (int i = 0; i < columns.length; i++) {
@@ -186,16 +230,49 @@ public class MsDynamicsWrapper {
                 }
                 cnt += ret.size();
                 cw.flush();
-                cookie = info.getPageCookie();
-                if ("0".equalsIgnoreCase(info.getMoreRecords()))
-                    hasNext = false;
+                response = (next != null) ? (waitForPage(next)) : (null);
             }
         } finally {
+            requests.shutdownNow();
             cw.close();
         }
         return cnt;
     }
 
+    /**
+     * Waits for the requested page
+     *
+     * @param page the page request
+     * @return the page response
+     * @throws JaxenException issue with the response format
+     * @throws IOException    generic IO issue
+     * @throws SOAPException  issue with SOAP invocation
+     */
+    private static SOAPMessage waitForPage(Future<SOAPMessage> page) throws IOException, SOAPException, JaxenException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            IOException ioe = new IOException("RetrieveMultiple: The page request has been interrupted.");
+            ioe.initCause(e);
+            throw ioe;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof SOAPException)
+                throw (SOAPException) cause;
+            if (cause instanceof JaxenException)
+                throw (JaxenException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            IOException ioe = new IOException("RetrieveMultiple: The page request failed.");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
     /**
      * Paging information holder
      */
@@ -241,45 +318,90 @@ public class MsDynamicsWrapper {
      */
     protected RetrievePageInfo retrievePage(String entity, String[] columns, int pageNumber, String cookie, List<Map<String, String>> ret)
             throws IOException, SOAPException, JaxenException {
-        String msg = FileUtil.readStringFromClasspath("/com/gooddata/msdynamics/RetrieveMultiple.xml", MsDynamicsWrapper.class);
-        msg = msg.replace(CRM_ORGANIZATION_PLACEHOLDER, getOrganization());
-        msg = msg.replace(CRM_TICKET_PLACEHOLDER, getCrmTicket());
-        msg = msg.replace(CRM_ENTITY_PLACEHOLDER, entity);
-        msg = msg.replace(CRM_PAGE_NUMBER_PLACEHOLDER, Integer.toString(pageNumber));
-        msg = msg.replace(CRM_PAGE_COUNT_PLACEHOLDER, Integer.toString(PAGE_COUNT));
+        SOAPMessage response = requestPage(entity, columns, pageNumber, cookie);
+        RetrievePageInfo info = getPageInfo(response);
+        parseEntities(response, ret);
+        return info;
+    }
+
+    /**
+     * Requests a single page of RetrieveMultiple result
+     *
+     * @param entity     CRM 2011 entity (e.g. account or opportunity)
+     * @param columns    Entity fields (e.g. accountid, name etc.)
+     * @param pageNumber the result page number (1..N)
+     * @param cookie     API paging cookie
+     * @return the page response
+     * @throws JaxenException issue with the response format
+     * @throws IOException    generic IO issue
+     * @throws SOAPException  issue with SOAP invocation
+     */
+    protected SOAPMessage requestPage(String entity, String[] columns, int pageNumber, String cookie)
+            throws IOException, SOAPException, JaxenException {
+        return requestPage(createPageTemplate(entity, columns), pageNumber, cookie);
+    }
+
+    /**
+     * Creates the RetrieveMultiple request template with the parameters that don't change from page to page
+     *
+     * @param entity  CRM 2011 entity (e.g. account or opportunity)
+     * @param columns Entity fields (e.g. accountid, name etc.)
+     * @return the page request template
+     * @throws IOException generic IO issue
+     */
+    private SoapTemplate createPageTemplate(String entity, String[] columns) throws IOException {
+        StringBuilder columnsElement = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            columnsElement.append("<ns4:Attribute>").append(columns[i]).append("</ns4:Attribute>");
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(CRM_ORGANIZATION_PLACEHOLDER, getOrganization());
+        values.put(CRM_TICKET_PLACEHOLDER, getCrmTicket());
+        values.put(CRM_ENTITY_PLACEHOLDER, entity);
+        values.put(CRM_PAGE_COUNT_PLACEHOLDER, Integer.toString(PAGE_COUNT));
+        values.put(CRM_ATTRIBUTES_PLACEHOLDER, columnsElement.toString());
+        return SoapTemplate.getTemplate("/com/gooddata/msdynamics/RetrieveMultiple.xml", MsDynamicsWrapper.class)
+                .bind(values);
+    }
+
+    /**
+     * Requests a single page of RetrieveMultiple result
+     *
+     * @param template   the page request template
+     * @param pageNumber the result page number (1..N)
+     * @param cookie     API paging cookie
+     * @return the page response
+     * @throws IOException   generic IO issue
+     * @throws SOAPException issue with SOAP invocation
+     */
+    private SOAPMessage requestPage(SoapTemplate template, int pageNumber, String cookie)
+            throws IOException, SOAPException {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(CRM_PAGE_NUMBER_PLACEHOLDER, Integer.toString(pageNumber));
         if (cookie != null && cookie.length() > 0) {
-            msg = msg.replace(CRM_PAGE_COOKIE_PLACEHOLDER, "<ns4:PageCookie><![CDATA[" + cookie + "]]></ns4:PageCookie>");
+            values.put(CRM_PAGE_COOKIE_PLACEHOLDER, "<ns4:PageCookie><![CDATA[" + cookie + "]]></ns4:PageCookie>");
         } else {
-            msg = msg.replace(CRM_PAGE_COOKIE_PLACEHOLDER, "");
-        }
-        String columnsElement = "";
-        for (int i = 0; i < columns.length; i++) {
-            columnsElement += "<ns4:Attribute>" + columns[i] + "</ns4:Attribute>";
+            values.put(CRM_PAGE_COOKIE_PLACEHOLDER, "");
         }
-        msg = msg.replace(CRM_ATTRIBUTES_PLACEHOLDER, columnsElement);
-        SOAPMessage response = soap.execute(HTTPS + host + CRM_ENDPOINT, msg);
-        XPath xp = soap.createXPath("//crm:RetrieveMultipleResult", response);
-        xp.addNamespace("crm", RESULT_XMLNS);
+        return soap.execute(HTTPS + host + CRM_ENDPOINT, template.fill(values));
+    }
+
+    /**
+     * Reads the paging status of a RetrieveMultiple result page
+     *
+     * @param response the page response
+     * @return the RetrievePageInfo structure that describes the status of the retrieval
+     * @throws JaxenException issue with the response format
+     * @throws SOAPException  invalid response
+     */
+    protected RetrievePageInfo getPageInfo(SOAPMessage response) throws SOAPException, JaxenException {
+        XPath xp = soap.createXPath("//crm:RetrieveMultipleResult", response, RESULT_NAMESPACES);
         List result = xp.selectNodes(response.getSOAPBody());
         if (result != null && result.size() == 1) {
             SOAPElement e = (SOAPElement) result.get(0);
             String more = e.getAttribute("MoreRecords");
             String newCookie = e.getAttribute("PagingCookie");
             if (more != null && more.length() > 0 && newCookie != null && newCookie.length() > 0) {
-                xp = soap.createXPath("//crm:BusinessEntity", response);
-                xp.addNamespace("crm", ENTITY_XMLNS);
-                result = xp.selectNodes(response.getSOAPBody());
-                for (Object o : result) {
-                    e = (SOAPElement) o;
-                    Map<String, String> instance = new HashMap<String, String>();
-                    Iterator elements = e.getChildElements();
-                    while (elements.hasNext()) {
-                        SOAPElement name = (SOAPElement) elements.next();
-                        String value = name.getFirstChild().getNodeValue();
-                        instance.put(name.getElementName().getLocalName(), value);
-                    }
-                    ret.add(instance);
-                }
                 return new RetrievePageInfo(newCookie, more);
             } else {
                 throw new SOAPException("RetrieveMultiple: Invalid response. The response doesn't contain either " +
@@ -292,6 +414,30 @@ public class MsDynamicsWrapper {
         }
     }
 
+    /**
+     * Parses the entities of a RetrieveMultiple result page
+     *
+     * @param response the page response
+     * @param ret      the List of Maps that will be populated with the data
+     * @throws JaxenException issue with the response format
+     * @throws SOAPException  invalid response
+     */
+    protected void parseEntities(SOAPMessage response, List<Map<String, String>> ret) throws SOAPException, JaxenException {
+        XPath xp = soap.createXPath("//crm:BusinessEntity", response, ENTITY_NAMESPACES);
+        List result = xp.selectNodes(response.getSOAPBody());
+        for (Object o : result) {
+            SOAPElement e = (SOAPElement) o;
+            Map<String, String> instance = new HashMap<String, String>();
+            Iterator elements = e.getChildElements();
+            while (elements.hasNext()) {
+                SOAPElement name = (SOAPElement) elements.next();
+                String value = name.getFirstChild().getNodeValue();
+                instance.put(name.getElementName().getLocalName(), value);
+            }
+            ret.add(instance);
+        }
+    }
+
     /**
      * Logs into the MS CRM 2011 Online
      *
@@ -301,14 +447,15 @@ public class MsDynamicsWrapper {
      * @throws SOAPException  issue with SOAP invocation
      */
     public String login() throws IOException, SOAPException, JaxenException {
-        String msg = FileUtil.readStringFromClasspath("/com/gooddata/msdynamics/LiveIdLogin.xml", MsDynamicsWrapper.class);
-        msg = msg.replaceAll(LIVE_ID_SERVER_PLACEHOLDER, getHost());
-        msg = msg.replaceAll(LIVE_ID_USERNAME_PLACEHOLDER, getUsername());
-        msg = msg.replaceAll(LIVE_ID_PASSWORD_PLACEHOLDER, getPassword());
-        msg = msg.replaceAll(LIVE_ID_POLICY_PLACEHOLDER, getPolicy());
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(LIVE_ID_SERVER_PLACEHOLDER, getHost());
+        values.put(LIVE_ID_USERNAME_PLACEHOLDER, getUsername());
+        values.put(LIVE_ID_PASSWORD_PLACEHOLDER, getPassword());
+        values.put(LIVE_ID_POLICY_PLACEHOLDER, getPolicy());
+        String msg = SoapTemplate.getTemplate("/com/gooddata/msdynamics/LiveIdLogin.xml", MsDynamicsWrapper.class)
+                .fill(values);
         SOAPMessage response = soap.execute(HTTPS + LIVE_ID_HOST + LIVE_ID_ENDPOINT, msg);
-        XPath xp = soap.createXPath("//wsse:BinarySecurityToken/text()", response);
-        xp.addNamespace("wsse", WSSE_XMLNS);
+        XPath xp = soap.createXPath("//wsse:BinarySecurityToken/text()", response, WSSE_NAMESPACES);
         Node result = (Node) xp.selectSingleNode(response.getSOAPBody());
         return result.getValue();
     }
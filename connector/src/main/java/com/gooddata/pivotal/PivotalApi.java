@@ -105,14 +105,24 @@ public class PivotalApi {
      * @param prjId - PT project ID (integer)
      */
     public PivotalApi(String usr, String psw, String prjId) {
+        this(usr, psw, prjId, new HttpClient());
+        NetUtil.configureHttpProxy(client);
+    }
+
+    /**
+     * The Pivotal API wrapper constructor
+     *
+     * @param usr    - PT username
+     * @param psw    - PT password
+     * @param prjId  - PT project ID (integer)
+     * @param client - HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public PivotalApi(String usr, String psw, String prjId, HttpClient client) {
         this.setUserName(usr);
         this.setPassword(psw);
         this.setProjectId(prjId);
 
-        client = new HttpClient();
-
-        NetUtil.configureHttpProxy(client);
-
+        this.client = client;
 
         client.getHostConfiguration().setHost(PIVOTAL_URL);
         // populate the STORY dataset columns
@@ -136,8 +146,10 @@ public class PivotalApi {
         m.setParameter("password", getPassword());
         try {
             client.executeMethod(m);
-            System.err.println(m.getResponseBodyAsString());
             if (m.getStatusCode() != HttpStatus.SC_OK && m.getStatusCode() != HttpStatus.SC_MOVED_TEMPORARILY) {
+                // the successful response contains the token, only the failed one is logged
+                l.debug("PT token request failed. HTTP reply code " + m.getStatusCode() + ": " +
+                        NetUtil.getResponseBodyAsString(m));
                 throw new InvalidParameterException("Invalid PT credentials. HTTP reply code " + m.getStatusCode());
             }
         } finally {
@@ -175,9 +187,13 @@ public class PivotalApi {
             GetMethod gm = new GetMethod(location);
             gm.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
             gm.setRequestHeader("Cookie", authCookie);
-            client.executeMethod(gm);
-            if (gm.getStatusCode() != HttpStatus.SC_OK && gm.getStatusCode() != HttpStatus.SC_MOVED_TEMPORARILY) {
-                throw new InvalidParameterException("Invalid PT credentials. HTTP reply code " + m.getStatusCode());
+            try {
+                client.executeMethod(gm);
+                if (gm.getStatusCode() != HttpStatus.SC_OK && gm.getStatusCode() != HttpStatus.SC_MOVED_TEMPORARILY) {
+                    throw new InvalidParameterException("Invalid PT credentials. HTTP reply code " + m.getStatusCode());
+                }
+            } finally {
+                gm.releaseConnection();
             }
         } finally {
             m.releaseConnection();
@@ -205,7 +221,7 @@ public class PivotalApi {
             if (m.getStatusCode() == HttpStatus.SC_OK) {
                 final int BUFLEN = 2048;
                 byte[] buf = new byte[BUFLEN];
-                BufferedInputStream is = new BufferedInputStream(m.getResponseBodyAsStream());
+                BufferedInputStream is = new BufferedInputStream(NetUtil.getResponseBodyAsStream(m));
                 BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(ptCsv));
                 int cnt = is.read(buf, 0, BUFLEN);
                 while (cnt > 0) {
@@ -216,6 +232,8 @@ public class PivotalApi {
                 os.flush();
                 os.close();
             } else {
+                l.debug("PT export request failed. HTTP reply code " + m.getStatusCode() + ": " +
+                        NetUtil.getResponseBodyAsString(m));
                 throw new InvalidParameterException("Error retrieving the PT data. HTTP reply code " + m.getStatusCode());
             }
         } finally {
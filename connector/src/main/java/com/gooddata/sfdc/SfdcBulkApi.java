@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.sfdc;
+
+import com.gooddata.exception.SfdcException;
+import com.gooddata.util.Backoff;
+import com.gooddata.util.CSVReader;
+import com.gooddata.util.FileUtil;
+import com.gooddata.util.NetUtil;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Salesforce Bulk API wrapper. Executes a SOQL query as a bulk query job and streams the CSV results.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class SfdcBulkApi {
+
+    private static Logger l = Logger.getLogger(SfdcBulkApi.class);
+
+    private static final String NS = "http://www.force.com/2009/06/asyncapi/dataload";
+
+    private static final Pattern SOAP_URL = Pattern.compile("^(https?://[^/]+)/services/Soap/[a-z]/([0-9.]+)(/.*)?$");
+    private static final Pattern QUERY_OBJECT = Pattern.compile("\\sFROM\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private final HttpClient client;
+    private final String url;
+    private final String sessionId;
+
+    /**
+     * Creates the Bulk API wrapper
+     *
+     * @param client    HTTP client (e.g. created by the HttpConnectionPool)
+     * @param url       the Bulk API URL (e.g. https://na1.salesforce.com/services/async/21.0)
+     * @param sessionId the session id of a logged in SOAP API session
+     */
+    public SfdcBulkApi(HttpClient client, String url, String sessionId) {
+        this.client = client;
+        this.url = url;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Derives the Bulk API URL from the SOAP API server URL returned by the login
+     *
+     * @param serverUrl the SOAP API server URL (e.g. https://na1.salesforce.com/services/Soap/u/21.0/00D...)
+     * @return the Bulk API URL
+     */
+    public static String getBulkUrl(String serverUrl) {
+        Matcher m = SOAP_URL.matcher(serverUrl);
+        if (!m.matches())
+            throw new SfdcException("Can't derive the SFDC Bulk API URL from the server URL " + serverUrl);
+        return m.group(1) + "/services/async/" + m.group(2);
+    }
+
+    /**
+     * Determines the queried object
+     *
+     * @param query SOQL query
+     * @return the object name
+     */
+    public static String getQueryObject(String query) {
+        Matcher m = QUERY_OBJECT.matcher(query);
+        if (!m.find())
+            throw new SfdcException("Can't determine the queried SFDC object from the query " + query);
+        return m.group(1);
+    }
+
+    /**
+     * Executes the query and returns the readers of the CSV results. The batch is polled until it finishes.
+     * Every result must be closed when it has been read.
+     *
+     * @param query   SOQL query
+     * @param backoff the batch status polling intervals
+     * @return the CSV results (with header)
+     * @throws IOException in case of IO issues
+     */
+    public List<Result> query(String query, Backoff backoff) throws IOException {
+        String object = getQueryObject(query);
+        String jobId = createQueryJob(object);
+        try {
+            String batchId = addBatch(jobId, query);
+            waitForBatch(jobId, batchId, backoff);
+            List<Result> results = new ArrayList<Result>();
+            for (String resultId : getResultIds(jobId, batchId)) {
+                results.add(new Result(jobId, batchId, resultId));
+            }
+            return results;
+        } finally {
+            closeJob(jobId);
+        }
+    }
+
+    /**
+     * Creates the query job
+     *
+     * @param object the queried object
+     * @return the job id
+     * @throws IOException in case of IO issues
+     */
+    public String createQueryJob(String object) throws IOException {
+        String body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<jobInfo xmlns=\"" + NS + "\">" +
+                "<operation>query</operation>" +
+                "<object>" + object + "</object>" +
+                "<concurrencyMode>Parallel</concurrencyMode>" +
+                "<contentType>CSV</contentType>" +
+                "</jobInfo>";
+        Document job = post("/job", body, "application/xml");
+        String jobId = getText(job, "id");
+        l.debug("Created SFDC bulk query job " + jobId + " for object " + object);
+        return jobId;
+    }
+
+    /**
+     * Adds the query batch to the job
+     *
+     * @param jobId job id
+     * @param query SOQL query
+     * @return the batch id
+     * @throws IOException in case of IO issues
+     */
+    public String addBatch(String jobId, String query) throws IOException {
+        Document batch = post("/job/" + jobId + "/batch", query, "text/csv");
+        String batchId = getText(batch, "id");
+        l.debug("Added SFDC bulk query batch " + batchId + " to job " + jobId);
+        return batchId;
+    }
+
+    /**
+     * Polls the batch state until the batch is completed
+     *
+     * @param jobId   job id
+     * @param batchId batch id
+     * @param backoff the polling intervals
+     * @throws IOException in case of IO issues
+     */
+    public void waitForBatch(String jobId, String batchId, Backoff backoff) throws IOException {
+        while (true) {
+            Document batch = get("/job/" + jobId + "/batch/" + batchId);
+            String state = getText(batch, "state");
+            l.debug("SFDC bulk query batch " + batchId + " state=" + state);
+            if ("Completed".equalsIgnoreCase(state))
+                return;
+            if ("Failed".equalsIgnoreCase(state) || "NotProcessed".equalsIgnoreCase(state))
+                throw new SfdcException("The SFDC bulk query failed: " + getText(batch, "stateMessage"));
+            try {
+                if (!backoff.sleep())
+                    throw new SfdcException("The SFDC bulk query hasn't finished in time.");
+            } catch (InterruptedException e) {
+                throw new SfdcException("The SFDC bulk query has been interrupted.", e);
+            }
+        }
+    }
+
+    /**
+     * Lists the results of a completed batch
+     *
+     * @param jobId   job id
+     * @param batchId batch id
+     * @return the result ids
+     * @throws IOException in case of IO issues
+     */
+    public List<String> getResultIds(String jobId, String batchId) throws IOException {
+        Document list = get("/job/" + jobId + "/batch/" + batchId + "/result");
+        NodeList nodes = list.getElementsByTagNameNS(NS, "result");
+        List<String> ret = new ArrayList<String>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            ret.add(nodes.item(i).getTextContent().trim());
+        }
+        return ret;
+    }
+
+    /**
+     * Closes the job
+     *
+     * @param jobId job id
+     * @throws IOException in case of IO issues
+     */
+    public void closeJob(String jobId) throws IOException {
+        String body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<jobInfo xmlns=\"" + NS + "\"><state>Closed</state></jobInfo>";
+        post("/job/" + jobId, body, "application/xml");
+        l.debug("Closed SFDC bulk query job " + jobId);
+    }
+
+    private Document post(String path, String body, String contentType) throws IOException {
+        PostMethod m = new PostMethod(url + path);
+        m.setRequestEntity(new StringRequestEntity(body, contentType, "UTF-8"));
+        return execute(m);
+    }
+
+    private Document get(String path) throws IOException {
+        return execute(new GetMethod(url + path));
+    }
+
+    private Document execute(HttpMethod m) throws IOException {
+        try {
+            executeOk(m);
+            return parse(NetUtil.getResponseBody(m));
+        } finally {
+            m.releaseConnection();
+        }
+    }
+
+    private void executeOk(HttpMethod m) throws IOException {
+        m.setRequestHeader("X-SFDC-Session", sessionId);
+        int status = client.executeMethod(m);
+        if (status != HttpStatus.SC_OK && status != HttpStatus.SC_CREATED) {
+            String error = m.getStatusLine().toString();
+            try {
+                Document d = parse(NetUtil.getResponseBody(m));
+                error = getText(d, "exceptionCode") + ": " + getText(d, "exceptionMessage");
+            } catch (SfdcException e) {
+                // not the Bulk API error, use the HTTP status
+            } catch (IOException e) {
+                // use the HTTP status
+            }
+            l.debug("SFDC Bulk API call " + m.getName() + " " + m.getPath() + " failed: " + error);
+            throw new SfdcException("SFDC Bulk API call failed: " + error);
+        }
+    }
+
+    private static Document parse(byte[] body) throws IOException {
+        try {
+            DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+            f.setNamespaceAware(true);
+            return f.newDocumentBuilder().parse(new java.io.ByteArrayInputStream(body));
+        } catch (ParserConfigurationException e) {
+            throw new SfdcException("Can't parse the SFDC Bulk API response.", e);
+        } catch (SAXException e) {
+            throw new SfdcException("Can't parse the SFDC Bulk API response.", e);
+        }
+    }
+
+    private static String getText(Document d, String element) {
+        NodeList nodes = d.getElementsByTagNameNS(NS, element);
+        if (nodes.getLength() <= 0)
+            throw new SfdcException("The SFDC Bulk API response doesn't contain the " + element + " element.");
+        return nodes.item(0).getTextContent().trim();
+    }
+
+    /**
+     * CSV result of a bulk query batch
+     */
+    public class Result {
+        private final String jobId;
+        private final String batchId;
+        private final String resultId;
+
+        Result(String jobId, String batchId, String resultId) {
+            this.jobId = jobId;
+            this.batchId = batchId;
+            this.resultId = resultId;
+        }
+
+        /**
+         * Downloads the result. The reader must be closed.
+         *
+         * @return the reader of the CSV result
+         * @throws IOException in case of IO issues
+         */
+        public CSVReader open() throws IOException {
+            final GetMethod m = new GetMethod(url + "/job/" + jobId + "/batch/" + batchId + "/result/" + resultId);
+            try {
+                executeOk(m);
+                InputStream is = new FilterInputStream(NetUtil.getResponseBodyAsStream(m)) {
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            m.releaseConnection();
+                        }
+                    }
+                };
+                return FileUtil.createUtf8CsvReader(is);
+            } catch (IOException e) {
+                m.releaseConnection();
+                throw e;
+            } catch (RuntimeException e) {
+                m.releaseConnection();
+                throw e;
+            }
+        }
+
+        public String getResultId() {
+            return resultId;
+        }
+    }
+
+}
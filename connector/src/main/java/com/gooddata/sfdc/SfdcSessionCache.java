@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.sfdc;
+
+import com.gooddata.exception.InternalErrorException;
+import com.gooddata.processor.ProcessingContext;
+import com.sforce.soap.partner.Field;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cache of the SFDC sessions and the describeSObject results shared by all commands of a script. The cache
+ * can be optionally persisted in a local file, so that the consecutive scripts reuse the sessions too. The file
+ * contains the session ids, it is readable by its owner only. It is written in a temporary directory that is
+ * restricted to the owner before the file is created, so that nobody else can open the file while it's being
+ * written. The file isn't persisted where the permissions can't be restricted (Java 5 or a file system without
+ * the owner permissions).
+ *
+ * A cached session is reused until it hasn't been used for the TTL. The described objects are cached with the
+ * session and expire with it.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class SfdcSessionCache {
+
+    private static Logger l = Logger.getLogger(SfdcSessionCache.class);
+
+    /**
+     * Default TTL of a cached session, the shortest SFDC session timeout
+     */
+    public static final long DEFAULT_TTL = 15 * 60 * 1000L;
+
+    // the Java 6 File setReadable, setWritable and setExecutable, null on Java 5
+    private static final Method[] PERMISSION_SETTERS = permissionSetters();
+
+    private final File file;
+    private volatile long ttl = DEFAULT_TTL;
+    // the sessions by the login key
+    private Map<String, Session> sessions = new HashMap<String, Session>();
+
+    /**
+     * Creates the cache
+     *
+     * @param file the persistent cache file or null for the in-memory cache
+     */
+    protected SfdcSessionCache(File file) {
+        this.file = file;
+        if (file != null)
+            load();
+    }
+
+    /**
+     * Returns the cache shared by the commands of the script
+     *
+     * @param ctx  current processing context
+     * @param file the persistent cache file or null for the in-memory cache
+     * @return the shared cache
+     */
+    public static SfdcSessionCache getCache(ProcessingContext ctx, File file) {
+        String key = SfdcSessionCache.class.getName();
+        if (file != null)
+            key += ":" + file.getAbsolutePath();
+        SfdcSessionCache cache = (SfdcSessionCache) ctx.getSharedObject(key);
+        if (cache == null)
+            cache = (SfdcSessionCache) ctx.shareObject(key, new SfdcSessionCache(file));
+        return cache;
+    }
+
+    /**
+     * Computes the key of the SFDC login. The password is hashed, so it isn't stored in the cache file.
+     *
+     * @param host     SFDC host
+     * @param usr      SFDC username
+     * @param psw      SFDC password including the security token
+     * @param clientID SFDC partner client ID
+     * @return the login key
+     */
+    public static String getKey(String host, String usr, String psw, String clientID) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest((host + "\n" + usr + "\n" + psw + "\n" + clientID).getBytes("UTF-8"));
+            StringBuffer key = new StringBuffer();
+            for (byte b : digest) {
+                key.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalErrorException("The SHA-1 digest isn't supported.", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new InternalErrorException("The UTF-8 encoding isn't supported.", e);
+        }
+    }
+
+    /**
+     * Returns the session of the login unless it has expired
+     *
+     * @param key the login key
+     * @return the session or null if there is no valid session
+     */
+    public synchronized Session getSession(String key) {
+        expire();
+        Session s = sessions.get(key);
+        if (s != null)
+            s.lastUsed = System.currentTimeMillis();
+        return s;
+    }
+
+    /**
+     * Caches a new session of the login
+     *
+     * @param key       the login key
+     * @param serverUrl the server URL of the session
+     * @param sessionId the session id
+     */
+    public synchronized void putSession(String key, String serverUrl, String sessionId) {
+        Session s = new Session(serverUrl, sessionId);
+        s.verified = true;
+        sessions.put(key, s);
+        store();
+    }
+
+    /**
+     * Forgets the session of the login (e.g. when the session has been invalidated by the SFDC)
+     *
+     * @param key the login key
+     */
+    public synchronized void removeSession(String key) {
+        if (sessions.remove(key) != null)
+            store();
+    }
+
+    /**
+     * Marks the session as valid, e.g. after a session loaded from the cache file has been successfully used
+     *
+     * @param s the session
+     */
+    public synchronized void setVerified(Session s) {
+        s.verified = true;
+    }
+
+    /**
+     * Returns the cached fields of an object
+     *
+     * @param sessionId the id of the session that described the object
+     * @param name      SFDC object name
+     * @return the object's fields or null if the object hasn't been described
+     */
+    public synchronized Field[] getFields(String sessionId, String name) {
+        Session s = findSession(sessionId);
+        return (s != null) ? (s.objects.get(name.toLowerCase())) : (null);
+    }
+
+    /**
+     * Caches the fields of an object
+     *
+     * @param sessionId the id of the session that described the object
+     * @param name      SFDC object name
+     * @param fields    the object's fields
+     */
+    public synchronized void putFields(String sessionId, String name, Field[] fields) {
+        Session s = findSession(sessionId);
+        if (s != null) {
+            s.objects.put(name.toLowerCase(), fields);
+            store();
+        }
+    }
+
+    private Session findSession(String sessionId) {
+        for (Session s : sessions.values()) {
+            if (s.sessionId.equals(sessionId))
+                return s;
+        }
+        return null;
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Session> i = sessions.values().iterator(); i.hasNext();) {
+            if (now - i.next().lastUsed >= ttl)
+                i.remove();
+        }
+    }
+
+    /**
+     * Loads the cache file
+     */
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (!file.exists())
+            return;
+        try {
+            ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                sessions = (Map<String, Session>) is.readObject();
+            } finally {
+                is.close();
+            }
+            l.debug("Loaded " + sessions.size() + " SFDC sessions from " + file.getAbsolutePath());
+        } catch (Exception e) {
+            // the cache is rebuilt
+            l.debug("Can't load the SFDC session cache file " + file.getAbsolutePath(), e);
+            sessions = new HashMap<String, Session>();
+        }
+    }
+
+    /**
+     * Writes the cache file
+     */
+    private void store() {
+        if (file == null)
+            return;
+        File dir = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+        File tmp = new File(dir, file.getName());
+        try {
+            // a leftover of a failed write
+            tmp.delete();
+            dir.delete();
+            if (!dir.mkdir())
+                throw new IOException("Can't create the directory " + dir.getAbsolutePath());
+            // nobody else can open the file in the restricted directory
+            restrict(dir);
+            OutputStream os = new FileOutputStream(tmp);
+            try {
+                restrict(tmp);
+            } catch (IOException e) {
+                os.close();
+                throw e;
+            }
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(os));
+            try {
+                oos.writeObject(sessions);
+            } finally {
+                oos.close();
+            }
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Can't rename " + tmp.getAbsolutePath() + " to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            // the cache file is only an optimization
+            l.warn("Can't store the SFDC session cache file " + file.getAbsolutePath() + ": " + e.getMessage());
+        } finally {
+            tmp.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Revokes all permissions of the others and leaves the owner the read and write permissions (and the execute
+     * permission of a directory)
+     *
+     * @param f the file or directory
+     * @throws IOException if the permissions can't be restricted
+     */
+    private static void restrict(File f) throws IOException {
+        if (PERMISSION_SETTERS == null)
+            throw new IOException("Restricting the file permissions requires Java 6 or later.");
+        for (int i = 0; i < PERMISSION_SETTERS.length; i++) {
+            Method setter = PERMISSION_SETTERS[i];
+            boolean owner = (i < 2) || f.isDirectory();
+            try {
+                if (!(Boolean) setter.invoke(f, false, false) || !(Boolean) setter.invoke(f, owner, true))
+                    throw new IOException("Can't restrict the permissions of " + f.getAbsolutePath());
+            } catch (IllegalAccessException e) {
+                throw new IOException("Can't invoke " + setter.getName() + ": " + e.getMessage());
+            } catch (InvocationTargetException e) {
+                throw new IOException("Can't restrict the permissions of " + f.getAbsolutePath() + ": "
+                        + e.getCause());
+            }
+        }
+    }
+
+    private static Method[] permissionSetters() {
+        try {
+            return new Method[]{
+                    File.class.getMethod("setReadable", boolean.class, boolean.class),
+                    File.class.getMethod("setWritable", boolean.class, boolean.class),
+                    File.class.getMethod("setExecutable", boolean.class, boolean.class)
+            };
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Cached SFDC session
+     */
+    public static class Session implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String serverUrl;
+        private final String sessionId;
+        private long lastUsed;
+        // the session has been successfully used by this process
+        private transient boolean verified = false;
+        // the described objects' fields by the lowercase object name
+        private final Map<String, Field[]> objects = new HashMap<String, Field[]>();
+
+        Session(String serverUrl, String sessionId) {
+            this.serverUrl = serverUrl;
+            this.sessionId = sessionId;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public String getServerUrl() {
+            return serverUrl;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public boolean isVerified() {
+            return verified;
+        }
+    }
+}
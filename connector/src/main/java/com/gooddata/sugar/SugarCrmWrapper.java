@@ -23,9 +23,12 @@
 package com.gooddata.sugar;
 
 import com.gooddata.integration.soap.SoapExecutor;
+import com.gooddata.integration.soap.SoapTemplate;
 import com.gooddata.util.CSVWriter;
 import com.gooddata.util.FileUtil;
+import com.gooddata.util.PageFetcher;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.httpclient.HttpClient;
 import org.jaxen.JaxenException;
 import org.jaxen.XPath;
 import org.w3c.dom.Node;
@@ -37,6 +40,7 @@ import javax.xml.soap.SOAPMessage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,18 +58,18 @@ public class SugarCrmWrapper {
 
     private final static int MAX_ROWS = 1000;
 
-    private final static String USERNAME_PLACEHOLDER = "%USERNAME%";
-    private final static String PASSWORD_PLACEHOLDER = "%PASSWORD%";
+    private final static String USERNAME_PLACEHOLDER = "USERNAME";
+    private final static String PASSWORD_PLACEHOLDER = "PASSWORD";
 
-    private final static String SESSION_PLACEHOLDER = "%SESSION%";
+    private final static String SESSION_PLACEHOLDER = "SESSION";
 
-    private final static String MODULE_PLACEHOLDER = "%MODULE%";
-    private final static String FIELDS_PLACEHOLDER = "%FIELDS%";
-    private final static String LINKED_FIELDS_PLACEHOLDER = "%LINKED_FIELDS%";
-    private final static String QUERY_PLACEHOLDER = "%QUERY%";
-    private final static String FIELDS_COUNT_PLACEHOLDER = "%FIELDS_COUNT%";
-    private final static String MAX_ROWS_PLACEHOLDER = "%MAX_ROWS%";
-    private final static String OFFSET_PLACEHOLDER = "%OFFSET%";
+    private final static String MODULE_PLACEHOLDER = "MODULE";
+    private final static String FIELDS_PLACEHOLDER = "FIELDS";
+    private final static String LINKED_FIELDS_PLACEHOLDER = "LINKED_FIELDS";
+    private final static String QUERY_PLACEHOLDER = "QUERY";
+    private final static String FIELDS_COUNT_PLACEHOLDER = "FIELDS_COUNT";
+    private final static String MAX_ROWS_PLACEHOLDER = "MAX_ROWS";
+    private final static String OFFSET_PLACEHOLDER = "OFFSET";
 
     // SAAJ SOAP executor
     private SoapExecutor soap;
@@ -92,32 +96,56 @@ public class SugarCrmWrapper {
     public int getAllEntries(String module, String[] fields, String[] linked_fields,
                              String query, String csvFile)
             throws IOException, SOAPException, JaxenException {
+        return getAllEntries(module, fields, linked_fields, query, csvFile, PageFetcher.DEFAULT_WINDOW);
+    }
+
+    /**
+     * Retrieves all module entries to a CSV file. The first page tells the number of entries the server returns
+     * per page, the next pages are then requested concurrently by their offsets.
+     *
+     * @param module        Sugar CRM module (e.g. Opportunities)
+     * @param fields        the module fields
+     * @param linked_fields the linked modules' fields (module.field)
+     * @param query         the entries query
+     * @param csvFile       name of the CSV file where the results will be stored
+     * @param window        number of the result pages requested concurrently
+     * @return number of rows retrieved
+     * @throws IOException    generic IO issue
+     * @throws SOAPException  issue with SOAP invocation
+     * @throws JaxenException issue with the response format
+     */
+    public int getAllEntries(final String module, final String[] fields, final String[] linked_fields,
+                             final String query, String csvFile, int window)
+            throws IOException, SOAPException, JaxenException {
         int cnt = 0;
         CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(new File(csvFile));
         try {
-            int nextIndex = 0;
-            while (nextIndex >= 0) {
-                List<Map<String, String>> ret = new ArrayList<Map<String, String>>();
-                nextIndex = getEntries(module, fields, linked_fields, query, nextIndex, ret);
-                for (Map<String, String> m : ret) {
-                    String[] row = null;
-                    if (linked_fields != null && linked_fields.length > 0) {
-                        row = new String[fields.length + linked_fields.length];
-                    } else {
-                        row = new String[fields.length];
-                    }
-                    for (int i = 0; i < fields.length; i++) {
-                        row[i] = m.get(fields[i]);
-                    }
-                    if (linked_fields != null && linked_fields.length > 0) {
-                        for (int i = 0; i < linked_fields.length; i++) {
-                            row[fields.length + i] = m.get(linked_fields[i]);
-                        }
+            final SoapTemplate template = createEntriesTemplate(module, fields, linked_fields, query);
+            List<Map<String, String>> ret = new ArrayList<Map<String, String>>();
+            final int pageSize = getEntries(template, linked_fields, 0, ret);
+            writeEntries(cw, ret, fields, linked_fields);
+            cnt += ret.size();
+            if (pageSize > 0 && ret.size() > 0) {
+                PageFetcher<List<Map<String, String>>> pages = new PageFetcher<List<Map<String, String>>>(
+                        new PageFetcher.Source<List<Map<String, String>>>() {
+                            public List<Map<String, String>> fetch(int page) throws Exception {
+                                List<Map<String, String>> ret = new ArrayList<Map<String, String>>();
+                                getEntries(template, linked_fields, page * pageSize, ret);
+                                return ret;
+                            }
+
+                            public boolean isLast(List<Map<String, String>> page) {
+                                return page.size() < pageSize;
+                            }
+                        }, 1, window);
+                try {
+                    while ((ret = pages.next()) != null) {
+                        writeEntries(cw, ret, fields, linked_fields);
+                        cnt += ret.size();
                     }
-                    cw.writeNext(row);
+                } finally {
+                    pages.close();
                 }
-                cnt += ret.size();
-                cw.flush();
             }
         } finally {
             cw.close();
@@ -126,6 +154,28 @@ public class SugarCrmWrapper {
 
     }
 
+    private static void writeEntries(CSVWriter cw, List<Map<String, String>> ret, String[] fields, String[] linked_fields)
+            throws IOException {
+        for (Map<String, String> m : ret) {
+            String[] row = null;
+            if (linked_fields != null && linked_fields.length > 0) {
+                row = new String[fields.length + linked_fields.length];
+            } else {
+                row = new String[fields.length];
+            }
+            for (int i = 0; i < fields.length; i++) {
+                row[i] = m.get(fields[i]);
+            }
+            if (linked_fields != null && linked_fields.length > 0) {
+                for (int i = 0; i < linked_fields.length; i++) {
+                    row[fields.length + i] = m.get(linked_fields[i]);
+                }
+            }
+            cw.writeNext(row);
+        }
+        cw.flush();
+    }
+
     /**
      * Constructor
      *
@@ -134,7 +184,23 @@ public class SugarCrmWrapper {
      * @param password Sugar CRM Online password
      */
     public SugarCrmWrapper(String hostName, String user, String password) {
-        soap = new SoapExecutor();
+        this(hostName, user, password, new SoapExecutor());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hostName Sugar CRM Online host
+     * @param user     Sugar CRM Online username
+     * @param password Sugar CRM Online password
+     * @param client   HTTP client (e.g. created by the HttpConnectionPool)
+     */
+    public SugarCrmWrapper(String hostName, String user, String password, HttpClient client) {
+        this(hostName, user, password, new SoapExecutor(client));
+    }
+
+    private SugarCrmWrapper(String hostName, String user, String password, SoapExecutor soap) {
+        this.soap = soap;
         setHost(hostName);
         setUsername(user);
         setPassword(password);
@@ -162,9 +228,10 @@ public class SugarCrmWrapper {
      * @throws javax.xml.soap.SOAPException issue with SOAP invocation
      */
     public String login() throws IOException, SOAPException, JaxenException {
-        String msg = FileUtil.readStringFromClasspath("/com/gooddata/sugar/Login.xml", SugarCrmWrapper.class);
-        msg = msg.replaceAll(USERNAME_PLACEHOLDER, getUsername());
-        msg = msg.replaceAll(PASSWORD_PLACEHOLDER, getPasswordMD5());
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(USERNAME_PLACEHOLDER, getUsername());
+        values.put(PASSWORD_PLACEHOLDER, getPasswordMD5());
+        String msg = SoapTemplate.getTemplate("/com/gooddata/sugar/Login.xml", SugarCrmWrapper.class).fill(values);
         String endpoint = PROTOCOL + getHost() + SUGAR_ENDPOINT;
         SOAPMessage response = soap.execute(endpoint, msg);
         XPath xp = soap.createXPath("//id/text()", response);
@@ -175,57 +242,121 @@ public class SugarCrmWrapper {
     public int getEntries(String module, String[] fields, String[] linked_fields,
                           String query, int offset, List<Map<String, String>> ret)
             throws IOException, SOAPException, JaxenException {
-        if (module != null && module.length() > 0) {
-            String msg = FileUtil.readStringFromClasspath("/com/gooddata/sugar/GetEntryList.xml", SugarCrmWrapper.class);
-            msg = msg.replaceAll(SESSION_PLACEHOLDER, getSessionToken());
-            msg = msg.replaceAll(MODULE_PLACEHOLDER, module);
-            msg = msg.replaceAll(FIELDS_COUNT_PLACEHOLDER, Integer.toString(fields.length));
-            String fieldsXml = "";
-            if (linked_fields != null && linked_fields.length > 0) {
-                fieldsXml += "<link_name_to_fields_array xsi:type='SOAP-ENC:Array' SOAP-ENC:arrayType='tns:link_name_to_fields_array[" +
-                        linked_fields.length + "]'>";
-                for (int i = 0; i < linked_fields.length; i++) {
-                    String[] components = linked_fields[i].split("\\.");
-                    if (components != null && components.length == 2) {
-                        fieldsXml += "<item><name>" + components[0].toLowerCase() + "</name><value><item>" + components[1] + "</item></value></item>";
-                    } else {
-                        throw new SOAPException("getEntries: the linked fields must have format module.field .");
-                    }
+        return getEntries(createEntriesTemplate(module, fields, linked_fields, query), linked_fields, offset, ret);
+    }
+
+    /**
+     * Creates the get_entry_list request template with the parameters that don't change from page to page
+     *
+     * @param module        Sugar CRM module (e.g. Opportunities)
+     * @param fields        the module fields
+     * @param linked_fields the linked modules' fields (module.field)
+     * @param query         the entries query
+     * @return the page request template
+     * @throws IOException   generic IO issue
+     * @throws SOAPException invalid parameters
+     */
+    private SoapTemplate createEntriesTemplate(String module, String[] fields, String[] linked_fields, String query)
+            throws IOException, SOAPException {
+        if (module == null || module.length() <= 0)
+            throw new SOAPException("The getEntries module parameter can't be empty.");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(SESSION_PLACEHOLDER, getSessionToken());
+        values.put(MODULE_PLACEHOLDER, module);
+        values.put(FIELDS_COUNT_PLACEHOLDER, Integer.toString(fields.length));
+        StringBuilder fieldsXml = new StringBuilder();
+        if (linked_fields != null && linked_fields.length > 0) {
+            fieldsXml.append("<link_name_to_fields_array xsi:type='SOAP-ENC:Array' SOAP-ENC:arrayType='tns:link_name_to_fields_array[")
+                    .append(linked_fields.length).append("]'>");
+            for (int i = 0; i < linked_fields.length; i++) {
+                String[] components = linked_fields[i].split("\\.");
+                if (components != null && components.length == 2) {
+                    fieldsXml.append("<item><name>").append(components[0].toLowerCase()).append("</name><value><item>")
+                            .append(components[1]).append("</item></value></item>");
+                } else {
+                    throw new SOAPException("getEntries: the linked fields must have format module.field .");
                 }
-                fieldsXml += "</link_name_to_fields_array>";
             }
-            msg = msg.replaceAll(LINKED_FIELDS_PLACEHOLDER, fieldsXml);
-            msg = msg.replaceAll(QUERY_PLACEHOLDER, query);
-            msg = msg.replaceAll(MAX_ROWS_PLACEHOLDER, Integer.toString(MAX_ROWS));
-            msg = msg.replaceAll(OFFSET_PLACEHOLDER, Integer.toString(offset));
-            fieldsXml = "";
-            if (fields != null && fields.length > 0) {
-                for (int i = 0; i < fields.length; i++) {
-                    fieldsXml += "<item xsi:type='xsd:string'>" + fields[i] + "</item>";
-                }
+            fieldsXml.append("</link_name_to_fields_array>");
+        }
+        values.put(LINKED_FIELDS_PLACEHOLDER, fieldsXml.toString());
+        values.put(QUERY_PLACEHOLDER, query);
+        values.put(MAX_ROWS_PLACEHOLDER, Integer.toString(MAX_ROWS));
+        fieldsXml.setLength(0);
+        if (fields != null && fields.length > 0) {
+            for (int i = 0; i < fields.length; i++) {
+                fieldsXml.append("<item xsi:type='xsd:string'>").append(fields[i]).append("</item>");
             }
-            msg = msg.replaceAll(FIELDS_PLACEHOLDER, fieldsXml);
-            //System.err.println(msg);
-            String endpoint = PROTOCOL + getHost() + SUGAR_ENDPOINT;
-            SOAPMessage response = soap.execute(endpoint, msg);
-            //System.err.println(soap.dumpSoapMessage(response));
-            XPath xp = soap.createXPath("//entry_list/item", response);
-            List result = xp.selectNodes(response.getSOAPBody());
-            if (result != null && result.size() > 0) {
-                for (int j = 0; j < result.size(); j++) {
-                    SOAPElement e = (SOAPElement) result.get(j);
-                    NodeList ids = e.getElementsByTagName("id");
-                    if (ids != null && ids.getLength() > 0) {
-                        Node id = ids.item(0);
-                        Node text = id.getFirstChild();
-                        if (text != null) {
-                            Map<String, String> record = new HashMap<String, String>();
-                            record.put("id", text.getNodeValue());
-                            XPath xpd = soap.createXPath("//entry_list/item[" + (j + 1) + "]/name_value_list/item", response);
-                            List dataResult = xpd.selectNodes(response.getSOAPBody());
-                            if (dataResult != null && dataResult.size() > 0) {
-                                for (int i = 0; i < dataResult.size(); i++) {
-                                    SOAPElement dataNode = (SOAPElement) dataResult.get(i);
+        }
+        values.put(FIELDS_PLACEHOLDER, fieldsXml.toString());
+        return SoapTemplate.getTemplate("/com/gooddata/sugar/GetEntryList.xml", SugarCrmWrapper.class).bind(values);
+    }
+
+    /**
+     * Retrieves a page of the module entries
+     *
+     * @param template      the page request template
+     * @param linked_fields the linked modules' fields (module.field)
+     * @param offset        the offset of the first entry
+     * @param ret           the List of Maps that will be populated with the entries
+     * @return the offset of the next page or -1 if there are no more entries
+     * @throws IOException    generic IO issue
+     * @throws SOAPException  issue with SOAP invocation
+     * @throws JaxenException issue with the response format
+     */
+    private int getEntries(SoapTemplate template, String[] linked_fields, int offset, List<Map<String, String>> ret)
+            throws IOException, SOAPException, JaxenException {
+        String msg = template.fill(Collections.singletonMap(OFFSET_PLACEHOLDER, Integer.toString(offset)));
+        String endpoint = PROTOCOL + getHost() + SUGAR_ENDPOINT;
+        SOAPMessage response = soap.execute(endpoint, msg);
+        XPath xp = soap.createXPath("//entry_list/item", response);
+        List result = xp.selectNodes(response.getSOAPBody());
+        if (result != null && result.size() > 0) {
+            XPath xpd = soap.createXPath("name_value_list/item", response);
+            List relationships = null;
+            if (linked_fields != null && linked_fields.length > 0)
+                relationships = soap.createXPath("//relationship_list/item", response).selectNodes(response.getSOAPBody());
+            for (int j = 0; j < result.size(); j++) {
+                SOAPElement e = (SOAPElement) result.get(j);
+                NodeList ids = e.getElementsByTagName("id");
+                if (ids != null && ids.getLength() > 0) {
+                    Node id = ids.item(0);
+                    Node text = id.getFirstChild();
+                    if (text != null) {
+                        Map<String, String> record = new HashMap<String, String>();
+                        record.put("id", text.getNodeValue());
+                        List dataResult = xpd.selectNodes(e);
+                        if (dataResult != null && dataResult.size() > 0) {
+                            for (int i = 0; i < dataResult.size(); i++) {
+                                SOAPElement dataNode = (SOAPElement) dataResult.get(i);
+                                NodeList names = dataNode.getElementsByTagName("name");
+                                NodeList values = dataNode.getElementsByTagName("value");
+                                if (names != null && names.getLength() > 0 && values != null && values.getLength() > 0) {
+                                    Node name = names.item(0).getFirstChild();
+                                    Node value = values.item(0).getFirstChild();
+                                    if (name != null) {
+                                        if (value != null) {
+                                            record.put(name.getNodeValue(), value.getNodeValue());
+                                        } else {
+                                            record.put(name.getNodeValue(), "");
+                                        }
+                                    } else {
+                                        throw new SOAPException("getEntries: No name texts in the result row.");
+                                    }
+                                } else {
+                                    throw new SOAPException("getEntries: No name/value pair in the result row.");
+                                }
+                            }
+                        } else {
+                            throw new SOAPException("getEntries: No record items in the result row.");
+                        }
+                        if (relationships != null && j < relationships.size()) {
+                            for (int k = 0; k < linked_fields.length; k++) {
+                                // take only the first item
+                                XPath xpr = soap.createXPath("item[" + (k + 1) + "]/records/item/item[1]", response);
+                                Object res = xpr.selectSingleNode(relationships.get(j));
+                                if (res != null) {
+                                    SOAPElement dataNode = (SOAPElement) res;
                                     NodeList names = dataNode.getElementsByTagName("name");
                                     NodeList values = dataNode.getElementsByTagName("value");
                                     if (names != null && names.getLength() > 0 && values != null && values.getLength() > 0) {
@@ -233,64 +364,33 @@ public class SugarCrmWrapper {
                                         Node value = values.item(0).getFirstChild();
                                         if (name != null) {
                                             if (value != null) {
-                                                record.put(name.getNodeValue(), value.getNodeValue());
+                                                record.put(linked_fields[k], value.getNodeValue());
                                             } else {
-                                                record.put(name.getNodeValue(), "");
+                                                record.put(linked_fields[k], "");
                                             }
                                         } else {
-                                            throw new SOAPException("getEntries: No name texts in the result row.");
+                                            throw new SOAPException("getEntries: No linked module name texts in the result row.");
                                         }
                                     } else {
                                         throw new SOAPException("getEntries: No name/value pair in the result row.");
                                     }
                                 }
-                            } else {
-                                throw new SOAPException("getEntries: No record items in the result row.");
                             }
-                            if (linked_fields != null && linked_fields.length > 0) {
-                                for (int k = 0; k < linked_fields.length; k++) {
-                                    // take only the first item
-                                    xpd = soap.createXPath("//relationship_list/item[" + (j + 1) + "]/item[" + (k + 1) + "]/records/item/item[1]", response);
-                                    Object res = xpd.selectSingleNode(response.getSOAPBody());
-                                    if (res != null) {
-                                        SOAPElement dataNode = (SOAPElement) res;
-                                        NodeList names = dataNode.getElementsByTagName("name");
-                                        NodeList values = dataNode.getElementsByTagName("value");
-                                        if (names != null && names.getLength() > 0 && values != null && values.getLength() > 0) {
-                                            Node name = names.item(0).getFirstChild();
-                                            Node value = values.item(0).getFirstChild();
-                                            if (name != null) {
-                                                if (value != null) {
-                                                    record.put(linked_fields[k], value.getNodeValue());
-                                                } else {
-                                                    record.put(linked_fields[k], "");
-                                                }
-                                            } else {
-                                                throw new SOAPException("getEntries: No linked module name texts in the result row.");
-                                            }
-                                        } else {
-                                            throw new SOAPException("getEntries: No name/value pair in the result row.");
-                                        }
-                                    }
-                                }
-                            }
-                            ret.add(record);
-                        } else {
-                            throw new SOAPException("getEntries: No text in the id element.");
                         }
+                        ret.add(record);
                     } else {
-                        throw new SOAPException("getEntries: No row id in the result.");
+                        throw new SOAPException("getEntries: No text in the id element.");
                     }
+                } else {
+                    throw new SOAPException("getEntries: No row id in the result.");
                 }
-                XPath xpn = soap.createXPath("//next_offset/text()", response);
-                Node nr = (Node) xpn.selectSingleNode(response.getSOAPBody());
-                if (nr != null) {
-                    String v = nr.getNodeValue();
-                    if (v != null) {
-                        return Integer.parseInt(nr.getNodeValue());
-                    } else {
-                        return -1;
-                    }
+            }
+            XPath xpn = soap.createXPath("//next_offset/text()", response);
+            Node nr = (Node) xpn.selectSingleNode(response.getSOAPBody());
+            if (nr != null) {
+                String v = nr.getNodeValue();
+                if (v != null) {
+                    return Integer.parseInt(nr.getNodeValue());
                 } else {
                     return -1;
                 }
@@ -298,7 +398,7 @@ public class SugarCrmWrapper {
                 return -1;
             }
         } else {
-            throw new SOAPException("The getEntries module parameter can't be empty.");
+            return -1;
         }
     }
 
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.time;
+
+import com.gooddata.connector.AbstractConnector;
+import com.gooddata.exception.InternalErrorException;
+import com.gooddata.integration.rest.GdcRESTApiWrapper;
+import com.gooddata.processor.ProcessingContext;
+import com.gooddata.util.CSVWriter;
+import com.gooddata.util.FileUtil;
+import com.gooddata.util.ParallelZipOutputStream;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Content addressed cache of the time dimension data and of the zipped time dimension data packages. The files
+ * are named by the SHA-1 digest of their content's sources (the bundled data or the generator version and
+ * the manifest of the dimension), so a package is built once per tool version and dimension name and then reused
+ * by all datasets and runs. A file is written under a temporary name and renamed when it is complete, so
+ * the concurrent runs never see a partial file. The SHA-1 digest of every cached file is stored beside it in
+ * a .sha1 file and it is verified before the file is reused for the first time, a file that doesn't match is
+ * rebuilt. The default cache directory is in the user's home directory, so other users can't plant a package.
+ *
+ * @author zd <zd@gooddata.com>
+ * @version 1.0
+ */
+public class TimeDimensionCache {
+
+    private static Logger l = Logger.getLogger(TimeDimensionCache.class);
+
+    /**
+     * The bundled time dimension data, the data are generated if they aren't bundled
+     */
+    public static final String DATA_RESOURCE = "/com/gooddata/connector/data.csv";
+
+    /**
+     * The time dimension manifest template
+     */
+    public static final String MANIFEST_RESOURCE = "/com/gooddata/connector/upload_info.json";
+
+    private static final int BUF_SIZE = 65536;
+
+    private static final String DIGEST_SUFFIX = ".sha1";
+
+    private File dir;
+    // the digest of the time dimension data
+    private String dataKey;
+    private String manifestTemplate;
+    // names of the cached files whose digest has been verified
+    private final Set<String> verified = new HashSet<String>();
+
+    /**
+     * Creates the cache
+     *
+     * @param dir the cache directory, it is created if it doesn't exist
+     */
+    public TimeDimensionCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache shared by the commands of the script
+     *
+     * @param ctx current processing context
+     * @return the shared cache
+     */
+    public static TimeDimensionCache getCache(ProcessingContext ctx) {
+        String key = TimeDimensionCache.class.getName();
+        TimeDimensionCache cache = (TimeDimensionCache) ctx.getSharedObject(key);
+        if (cache == null)
+            cache = (TimeDimensionCache) ctx.shareObject(key, new TimeDimensionCache(getDefaultDir()));
+        return cache;
+    }
+
+    /**
+     * Returns the default cache directory in the user's home directory
+     *
+     * @return the default cache directory
+     */
+    public static File getDefaultDir() {
+        return new File(new File(new File(System.getProperty("user.home"), ".gooddata"), "cache"), "time");
+    }
+
+    /**
+     * Returns the time dimension manifest
+     *
+     * @param id the dimension identifier
+     * @return the manifest
+     * @throws IOException in case of IO issues
+     */
+    public synchronized String getManifest(String id) throws IOException {
+        if (manifestTemplate == null)
+            manifestTemplate = FileUtil.readStringFromClasspath(MANIFEST_RESOURCE, TimeDimensionCache.class);
+        return manifestTemplate.replace("%id%", id);
+    }
+
+    /**
+     * Returns the time dimension data CSV, the data are written to the cache when they are requested first
+     *
+     * @return the cached data file, it must not be modified
+     * @throws IOException in case of IO issues
+     */
+    public synchronized File getData() throws IOException {
+        File data = new File(getDir(), getDataKey() + ".csv");
+        if (isValid(data)) {
+            l.debug("Using the cached time dimension data " + data.getAbsolutePath());
+            return data;
+        }
+        File tmp = File.createTempFile("data", ".tmp", getDir());
+        try {
+            InputStream is = TimeDimensionCache.class.getResourceAsStream(DATA_RESOURCE);
+            if (is != null) {
+                FileUtil.copy(is, new FileOutputStream(tmp));
+            } else {
+                CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(tmp);
+                new TimeDimensionGenerator().generate(cw);
+                cw.close();
+            }
+            store(tmp, data);
+        } finally {
+            tmp.delete();
+        }
+        l.debug("Cached the time dimension data " + data.getAbsolutePath());
+        return data;
+    }
+
+    /**
+     * Returns the zipped time dimension data package with the data and the manifest, the package is written
+     * to the cache when it is requested first
+     *
+     * @param id the dimension identifier
+     * @return the cached package file, it must not be modified
+     * @throws IOException in case of IO issues
+     */
+    public synchronized File getPackage(String id) throws IOException {
+        String manifest = getManifest(id);
+        File pkg = new File(getDir(), digest(getDataKey() + "\n" + manifest) + ".zip");
+        if (isValid(pkg)) {
+            l.debug("Using the cached time dimension package " + pkg.getAbsolutePath());
+            return pkg;
+        }
+        File data = getData();
+        File tmp = File.createTempFile("package", ".tmp", getDir());
+        try {
+            ParallelZipOutputStream out = new ParallelZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp), BUF_SIZE), Deflater.DEFAULT_COMPRESSION,
+                    Runtime.getRuntime().availableProcessors());
+            try {
+                out.putNextEntry(AbstractConnector.DATA_FILE_NAME);
+                copy(new FileInputStream(data), out);
+                out.putNextEntry(GdcRESTApiWrapper.DLI_MANIFEST_FILENAME);
+                out.write(manifest.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            store(tmp, pkg);
+        } finally {
+            tmp.delete();
+        }
+        l.debug("Cached the time dimension package " + pkg.getAbsolutePath());
+        return pkg;
+    }
+
+    /**
+     * Copies a cached file, e.g. to upload a package under a new name
+     *
+     * @param cached the cached file
+     * @param target the target file
+     * @throws IOException in case of IO issues
+     */
+    public static void copy(File cached, File target) throws IOException {
+        OutputStream os = new FileOutputStream(target);
+        try {
+            copy(new FileInputStream(cached), os);
+        } finally {
+            os.close();
+        }
+    }
+
+    // copies the stream and closes it, the output stream stays open
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        try {
+            byte[] buf = new byte[BUF_SIZE];
+            int cnt;
+            while ((cnt = is.read(buf)) != -1) {
+                os.write(buf, 0, cnt);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private String getDataKey() throws IOException {
+        if (dataKey == null) {
+            InputStream is = TimeDimensionCache.class.getResourceAsStream(DATA_RESOURCE);
+            if (is != null) {
+                MessageDigest md = createDigest();
+                try {
+                    byte[] buf = new byte[BUF_SIZE];
+                    int cnt;
+                    while ((cnt = is.read(buf)) != -1) {
+                        md.update(buf, 0, cnt);
+                    }
+                } finally {
+                    is.close();
+                }
+                dataKey = toHex(md.digest());
+            } else {
+                dataKey = digest(TimeDimensionGenerator.class.getName() + " " + TimeDimensionGenerator.VERSION);
+            }
+        }
+        return dataKey;
+    }
+
+    /**
+     * Returns the cache directory, a temporary directory is used when the cache directory can't be written
+     *
+     * @return the cache directory
+     * @throws IOException in case of IO issues
+     */
+    private File getDir() throws IOException {
+        if ((!dir.isDirectory() && !dir.mkdirs()) || !dir.canWrite()) {
+            l.warn("Can't write the time dimension cache directory " + dir.getAbsolutePath() +
+                    ", using a temporary directory.");
+            dir = FileUtil.createTempDir();
+        }
+        return dir;
+    }
+
+    /**
+     * Checks that the cached file exists and matches the digest stored beside it, the file and its digest are
+     * removed if they don't match
+     *
+     * @param f the cached file
+     * @return true if the file can be reused
+     * @throws IOException in case of IO issues
+     */
+    private boolean isValid(File f) throws IOException {
+        if (!f.isFile())
+            return false;
+        if (verified.contains(f.getName()))
+            return true;
+        File sum = getDigestFile(f);
+        if (sum.isFile() && FileUtil.readStringFromFile(sum.getAbsolutePath()).trim().equals(digest(f))) {
+            verified.add(f.getName());
+            return true;
+        }
+        l.warn("The cached file " + f.getAbsolutePath() + " doesn't match its digest, rebuilding it.");
+        f.delete();
+        sum.delete();
+        return false;
+    }
+
+    /**
+     * Moves the complete file to the cache, the digest is stored first, so the file is never reused without it
+     *
+     * @param tmp    the complete file
+     * @param target the cached file
+     * @throws IOException in case of IO issues
+     */
+    private void store(File tmp, File target) throws IOException {
+        File sum = getDigestFile(target);
+        File tmpSum = File.createTempFile("digest", ".tmp", getDir());
+        try {
+            String digest = digest(tmp);
+            FileUtil.writeStringToFile(digest, tmpSum.getAbsolutePath());
+            rename(tmpSum, sum);
+            rename(tmp, target);
+            verified.add(target.getName());
+        } finally {
+            tmpSum.delete();
+        }
+    }
+
+    private static File getDigestFile(File f) {
+        return new File(f.getParentFile(), f.getName() + DIGEST_SUFFIX);
+    }
+
+    private static void rename(File tmp, File target) throws IOException {
+        // a concurrent run may have written the same file
+        target.delete();
+        if (!tmp.renameTo(target) && !target.isFile())
+            throw new IOException("Can't rename " + tmp.getAbsolutePath() + " to " + target.getAbsolutePath());
+    }
+
+    private static String digest(String s) throws IOException {
+        return toHex(createDigest().digest(s.getBytes("UTF-8")));
+    }
+
+    private static String digest(File f) throws IOException {
+        MessageDigest md = createDigest();
+        InputStream is = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[BUF_SIZE];
+            int cnt;
+            while ((cnt = is.read(buf)) != -1) {
+                md.update(buf, 0, cnt);
+            }
+        } finally {
+            is.close();
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalErrorException("The SHA-1 digest isn't supported.", e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuffer ret = new StringBuffer();
+        for (byte b : digest) {
+            ret.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return ret.toString();
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+}
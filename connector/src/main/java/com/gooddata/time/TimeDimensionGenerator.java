@@ -28,7 +28,6 @@ import com.gooddata.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.DecimalFormat;
 
 /**
  * Generates the time dimension CSV
@@ -38,40 +37,78 @@ import java.text.DecimalFormat;
  */
 public class TimeDimensionGenerator {
 
+    /**
+     * Version of the generated data, it must be changed whenever the generated data changes
+     */
+    public static final String VERSION = "1";
+
+    /**
+     * The time dimension CSV header
+     */
+    public static final String[] HEADER = {"second_of_day", "second", "minute_of_day", "minute", "hour", "hour12",
+            "am_pm", "time", "time12"};
+
+    // the zero padded numbers 00 - 59
+    private static final String[] TWO_DIGITS = new String[60];
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = (i < 10) ? ("0" + i) : (Integer.toString(i));
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         TimeDimensionGenerator tg = new TimeDimensionGenerator();
         tg.generate("/Users/zdenek/temp/data.csv");
     }
 
-    DecimalFormat nf = new DecimalFormat("00");
-
     public void generate(String outputCsv) throws IOException {
-        String[] header = {"second_of_day", "second", "minute_of_day", "minute", "hour", "hour12", "am_pm", "time", "time12"};
         CSVWriter cw = FileUtil.createUtf8CsvEscapingWriter(new File(outputCsv));
-        cw.writeNext(header);
-        for (int sec_of_day = 0; sec_of_day < 24 * 60 * 60; sec_of_day++) {
-            String[] row = new String[header.length];
-            row[0] = nf.format(sec_of_day);
-            int sec = sec_of_day % 60;
-            row[1] = nf.format(sec);
-            int minute_of_day = sec_of_day / 60;
-            row[2] = nf.format(minute_of_day);
-            int minute = minute_of_day % 60;
-            row[3] = nf.format(minute);
-            int hour = minute_of_day / 60;
-            row[4] = nf.format(hour);
+        generate(cw);
+        cw.close();
+    }
+
+    /**
+     * Writes the time dimension CSV, a row per second of the day
+     *
+     * @param cw the CSV writer, it isn't closed
+     * @throws IOException in case of IO issues
+     */
+    public void generate(CSVWriter cw) throws IOException {
+        cw.writeNext(HEADER);
+        String[] row = new String[HEADER.length];
+        for (int hour = 0; hour < 24; hour++) {
             int hour12 = (hour == 12) ? (12) : (hour % 12);
-            row[5] = nf.format(hour12);
+            String hh = TWO_DIGITS[hour];
+            String hh12 = TWO_DIGITS[hour12];
             String ampm = (hour < 12) ? ("AM") : ("PM");
-            row[6] = ampm;
-            String time = nf.format(hour) + ":" + nf.format(minute) + ":" + nf.format(sec);
-            row[7] = time;
-            String time12 = nf.format(hour12) + ":" + nf.format(minute) + ":" + nf.format(sec);
-            row[8] = time12;
-            cw.writeNext(row);
+            for (int minute = 0; minute < 60; minute++) {
+                int minute_of_day = hour * 60 + minute;
+                String mm = TWO_DIGITS[minute];
+                String minuteOfDay = format(minute_of_day);
+                String time = hh + ":" + mm + ":";
+                String time12 = hh12 + ":" + mm + ":";
+                for (int sec = 0; sec < 60; sec++) {
+                    String ss = TWO_DIGITS[sec];
+                    row[0] = format(minute_of_day * 60 + sec);
+                    row[1] = ss;
+                    row[2] = minuteOfDay;
+                    row[3] = mm;
+                    row[4] = hh;
+                    row[5] = hh12;
+                    row[6] = ampm;
+                    row[7] = time + ss;
+                    row[8] = time12 + ss;
+                    cw.writeNext(row);
+                }
+            }
         }
         cw.flush();
-        cw.close();
+    }
+
+    // formats the number with at least two digits
+    private static String format(int n) {
+        return (n < TWO_DIGITS.length) ? (TWO_DIGITS[n]) : (Integer.toString(n));
     }
 
 }
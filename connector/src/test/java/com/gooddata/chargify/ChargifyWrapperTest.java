@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.chargify;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the streaming parser of the Chargify responses
+ */
+public class ChargifyWrapperTest extends TestCase {
+
+    private static final String CUSTOMERS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<customers type=\"array\">\n" +
+            "  <customer>\n" +
+            "    <id type=\"integer\">1</id>\n" +
+            "    <first_name>Joe &amp; Jane</first_name>\n" +
+            "    <organization></organization>\n" +
+            "    <reference/>\n" +
+            "    <address>\n" +
+            "      <city>Prague</city>\n" +
+            "      <zip><![CDATA[110 00]]></zip>\n" +
+            "    </address>\n" +
+            "  </customer>\n" +
+            "  <customer>\n" +
+            "    <id type=\"integer\">2</id>\n" +
+            "    <first_name>Ann</first_name>\n" +
+            "  </customer>\n" +
+            "</customers>\n";
+
+    public void testParseRecords() throws IOException {
+        List<Map<String, String>> records = parse(CUSTOMERS, "customers");
+        assertEquals(2, records.size());
+        Map<String, String> r = records.get(0);
+        assertEquals("1", r.get("id"));
+        assertEquals("Joe & Jane", r.get("first_name"));
+        assertEquals("", r.get("organization"));
+        assertEquals("", r.get("reference"));
+        assertEquals("Prague", r.get("address_city"));
+        assertEquals("110 00", r.get("address_zip"));
+        assertFalse(r.containsKey("address"));
+        assertEquals("Ann", records.get(1).get("first_name"));
+        assertNull(records.get(1).get("address_city"));
+    }
+
+    public void testNestedEntityElement() throws IOException {
+        List<Map<String, String>> records = parse("<response><customers><customer><id>7</id></customer></customers>" +
+                "</response>", "customers");
+        assertEquals(1, records.size());
+        assertEquals("7", records.get(0).get("id"));
+    }
+
+    public void testNoRecords() throws IOException {
+        assertEquals(0, parse("<customers type=\"array\"></customers>", "customers").size());
+        assertEquals(0, parse("<errors><error>Not found</error></errors>", "customers").size());
+    }
+
+    public void testEmptyRecord() {
+        try {
+            parse("<customers><customer/></customers>", "customers");
+            fail("The empty record hasn't been reported.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testInvalidResponse() {
+        try {
+            parse("<customers><customer><id>1</i></customer></customers>", "customers");
+            fail("The malformed response hasn't been reported.");
+        } catch (IOException e) {
+            assertNotNull(e.getCause());
+        }
+        try {
+            parse("<customers><customer><id>1</id>", "customers");
+            fail("The truncated response hasn't been reported.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static List<Map<String, String>> parse(String xml, String entity) throws IOException {
+        final List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+        int cnt = ChargifyWrapper.parseRecords(new ByteArrayInputStream(xml.getBytes("UTF-8")), entity,
+                new ChargifyWrapper.RecordHandler() {
+                    private Map<String, String> record = new HashMap<String, String>();
+
+                    void field(String name, String value) {
+                        record.put(name, value);
+                    }
+
+                    void endRecord() {
+                        records.add(record);
+                        record = new HashMap<String, String>();
+                    }
+                });
+        assertEquals(records.size(), cnt);
+        return records;
+    }
+}
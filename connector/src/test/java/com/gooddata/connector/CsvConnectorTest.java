@@ -25,11 +25,21 @@ package com.gooddata.connector;
 
 import com.gooddata.modeling.model.SourceColumn;
 import com.gooddata.modeling.model.SourceSchema;
+import com.gooddata.util.CSVReader;
+import com.gooddata.util.FileUtil;
 import junit.framework.TestCase;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 
 public class CsvConnectorTest extends TestCase {
@@ -77,4 +87,93 @@ public class CsvConnectorTest extends TestCase {
             // }
         }
     }
+
+    public void testParallelExtract() throws IOException {
+        File data = createData(true);
+        try {
+            for (boolean transform : new boolean[]{false, true}) {
+                String expected = extract(data, true, 1, true, transform);
+                // the small chunks end inside the quoted line feeds
+                assertEquals(expected, extract(data, true, 4, true, transform));
+            }
+        } finally {
+            data.delete();
+        }
+    }
+
+    public void testParallelExtractWithoutHeader() throws IOException {
+        File data = createData(false);
+        File withHeader = createData(true);
+        try {
+            // the first record isn't skipped, the extract has the header of the schema
+            String expected = extract(withHeader, true, 1, true, true);
+            assertEquals(expected, extract(data, false, 1, true, true));
+            assertEquals(expected, extract(data, false, 3, true, true));
+        } finally {
+            data.delete();
+            withHeader.delete();
+        }
+    }
+
+    public void testUnorderedParallelExtract() throws IOException {
+        File data = createData(true);
+        try {
+            String expected = extract(data, true, 1, true, true);
+            String unordered = extract(data, true, 4, false, true);
+            assertEquals(sortRows(expected), sortRows(unordered));
+            assertEquals(expected.substring(0, expected.indexOf('\n')), unordered.substring(0, unordered.indexOf('\n')));
+        } finally {
+            data.delete();
+        }
+    }
+
+    private static File createData(boolean header) throws IOException {
+        File f = FileUtil.getTempFile();
+        StringBuilder sb = new StringBuilder();
+        if (header)
+            sb.append("id,name,amount\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(",\"name ").append(i).append((i % 3 == 0) ? ("\nsecond line\n") : ("")).append("\",")
+                    .append(i * 1.5).append("\n");
+        }
+        OutputStream os = new FileOutputStream(f);
+        os.write(sb.toString().getBytes("UTF-8"));
+        os.close();
+        return f;
+    }
+
+    private static String extract(File data, boolean header, int threads, boolean preserveOrder, boolean transform)
+            throws IOException {
+        SourceSchema s = SourceSchema.createSchema("test");
+        s.addColumn(new SourceColumn("id", SourceColumn.LDM_TYPE_CONNECTION_POINT, "id"));
+        s.addColumn(new SourceColumn("name", SourceColumn.LDM_TYPE_ATTRIBUTE, "name"));
+        s.addColumn(new SourceColumn("amount", SourceColumn.LDM_TYPE_FACT, "amount"));
+        CsvConnector c = CsvConnector.createConnector();
+        c.setSchema(s);
+        c.setDataFile(data);
+        c.setHasHeader(header);
+        c.setThreads(threads);
+        c.setChunkSize(100);
+        c.setPreserveOrder(preserveOrder);
+        File out = FileUtil.getTempFile();
+        try {
+            c.extract(out.getAbsolutePath(), transform);
+            return FileUtil.readStringFromFile(out.getAbsolutePath());
+        } finally {
+            out.delete();
+        }
+    }
+
+    // the extracted records without the header in a sorted order
+    private static List<String> sortRows(String extract) throws IOException {
+        CSVReader cr = new CSVReader(new StringReader(extract));
+        cr.readNext();
+        List<String> rows = new ArrayList<String>();
+        for (String[] r = cr.readNext(); r != null; r = cr.readNext()) {
+            rows.add(Arrays.asList(r).toString());
+        }
+        cr.close();
+        Collections.sort(rows);
+        return rows;
+    }
 }
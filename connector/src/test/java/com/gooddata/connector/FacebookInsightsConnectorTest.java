@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.connector;
+
+import com.gooddata.exception.HttpMethodException;
+import com.gooddata.modeling.model.SourceColumn;
+import com.gooddata.modeling.model.SourceSchema;
+import com.gooddata.util.CSVReader;
+import com.gooddata.util.FileUtil;
+import com.gooddata.util.StubHttpServer;
+import junit.framework.TestCase;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the Facebook Insights extraction against a local Graph API stand-in
+ */
+public class FacebookInsightsConnectorTest extends TestCase {
+
+    private static final String[] METRICS = {"page_views", "page_likes"};
+
+    private StubHttpServer server;
+    private final List<String> requests = new ArrayList<String>();
+    private String failedMetric = null;
+    private File dataFile;
+
+    protected void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) throws IOException {
+                String body;
+                if ("POST".equals(request.getMethod())) {
+                    Map<String, String> params = parseQuery(request.getBodyAsString());
+                    synchronized (FacebookInsightsConnectorTest.this) {
+                        requests.add("POST " + params.get("access_token"));
+                    }
+                    JSONArray batch = JSONArray.fromObject(params.get("batch"));
+                    JSONArray responses = new JSONArray();
+                    for (int i = 0; i < batch.size(); i++) {
+                        String url = batch.getJSONObject(i).getString("relative_url");
+                        JSONObject r = new JSONObject();
+                        if (failedMetric != null && url.contains(failedMetric)) {
+                            r.put("code", 400);
+                            r.put("body", "{\"error\":{\"message\":\"Unknown metric\"}}");
+                        } else {
+                            r.put("code", 200);
+                            r.put("body", createInsights(url));
+                        }
+                        responses.add(r);
+                    }
+                    body = responses.toString();
+                } else {
+                    String url = request.getUri().substring(1);
+                    synchronized (FacebookInsightsConnectorTest.this) {
+                        requests.add("GET " + parseQuery(request.getQuery()).get("access_token"));
+                    }
+                    body = createInsights(url);
+                }
+                response.setBody(body, "text/javascript");
+            }
+        });
+        dataFile = FileUtil.getTempFile();
+    }
+
+    protected void tearDown() {
+        server.stop();
+        dataFile.delete();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> ret = new HashMap<String, String>();
+        for (String p : query.split("&")) {
+            int i = p.indexOf('=');
+            ret.put(URLDecoder.decode(p.substring(0, i), "UTF-8"), URLDecoder.decode(p.substring(i + 1), "UTF-8"));
+        }
+        return ret;
+    }
+
+    // returns a data point per day for the requested metric or for all metrics
+    private static String createInsights(String url) throws IOException {
+        int q = url.indexOf('?');
+        String[] path = url.substring(0, q).split("/");
+        Map<String, String> params = parseQuery(url.substring(q + 1));
+        long since = Long.parseLong(params.get("since")) * 1000;
+        long until = Long.parseLong(params.get("until")) * 1000;
+        String[] metrics = (path.length > 2) ? (new String[]{path[2]}) : (METRICS);
+        JSONArray data = new JSONArray();
+        for (String metric : metrics) {
+            JSONArray values = new JSONArray();
+            for (LocalDate d = new LocalDate(since).plusDays(1); !d.isAfter(new LocalDate(until)); d = d.plusDays(1)) {
+                JSONObject v = new JSONObject();
+                v.put("value", d.getDayOfMonth() * ((metric.equals(METRICS[0])) ? (1) : (100)));
+                v.put("end_time", d.toString() + "T12:00:00");
+                values.add(v);
+            }
+            JSONObject m = new JSONObject();
+            m.put("id", path[0] + "/insights/" + metric + "/day");
+            m.put("name", metric);
+            m.put("period", "day");
+            m.put("values", values);
+            data.add(m);
+        }
+        JSONObject ret = new JSONObject();
+        ret.put("data", data);
+        return ret.toString();
+    }
+
+    private FacebookInsightsConnector createConnector(String[] metrics, int shardDays, int batchSize)
+            throws IOException {
+        FacebookInsightsConnector c = FacebookInsightsConnector.createConnector();
+        SourceSchema s = SourceSchema.createSchema("insights");
+        s.addColumn(new SourceColumn("objectid", SourceColumn.LDM_TYPE_ATTRIBUTE, "objectid"));
+        s.addColumn(new SourceColumn("date", SourceColumn.LDM_TYPE_DATE, "date"));
+        s.addColumn(new SourceColumn("metric", SourceColumn.LDM_TYPE_ATTRIBUTE, "metric"));
+        s.addColumn(new SourceColumn("value", SourceColumn.LDM_TYPE_FACT, "value"));
+        c.setSchema(s);
+        c.setBaseUrl(server.getUrl("/123/insights"));
+        c.setOauthToken("TOKEN");
+        c.setStartDate(DateTimeFormat.forPattern("yyyy-MM-dd").parseDateTime("2011-01-01"));
+        c.setEndDate(DateTimeFormat.forPattern("yyyy-MM-dd").parseDateTime("2011-01-11"));
+        c.setMetrics(metrics);
+        c.setShardDays(shardDays);
+        c.setShardWindow(2);
+        c.setBatchSize(batchSize);
+        return c;
+    }
+
+    private List<String[]> extract(FacebookInsightsConnector c) throws IOException {
+        c.extract(dataFile.getAbsolutePath(), false);
+        CSVReader cr = new CSVReader(new FileReader(dataFile));
+        List<String[]> rows = new ArrayList<String[]>();
+        cr.readNext();
+        String[] row;
+        while ((row = cr.readNext()) != null)
+            rows.add(row);
+        cr.close();
+        return rows;
+    }
+
+    public void testBatchedMetrics() throws IOException {
+        List<String[]> rows = extract(createConnector(METRICS, 3, FacebookInsightsConnector.MAX_BATCH_SIZE));
+        // 4 shards of 2 metrics in 2 concurrent batches
+        assertEquals(2, requests.size());
+        assertEquals("POST TOKEN", requests.get(0));
+        assertRows(rows, new int[]{3, 3, 3, 1});
+    }
+
+    public void testSingleRequests() throws IOException {
+        List<String[]> rows = extract(createConnector(null, 3, 1));
+        assertEquals(4, requests.size());
+        assertEquals("GET TOKEN", requests.get(0));
+        assertRows(rows, new int[]{3, 3, 3, 1});
+    }
+
+    public void testWholeRange() throws IOException {
+        List<String[]> rows = extract(createConnector(null, 30, FacebookInsightsConnector.MAX_BATCH_SIZE));
+        assertEquals(1, requests.size());
+        assertRows(rows, new int[]{10});
+    }
+
+    public void testFailedBatchRequest() throws IOException {
+        failedMetric = METRICS[1];
+        try {
+            extract(createConnector(METRICS, 3, FacebookInsightsConnector.MAX_BATCH_SIZE));
+            fail("The failed batch request must fail the extraction.");
+        } catch (HttpMethodException e) {
+            assertTrue(e.getMessage().startsWith("400"));
+        }
+    }
+
+    // every shard has all metrics' days in the metric order, the shards are in the date order
+    private static void assertRows(List<String[]> rows, int[] shards) {
+        int i = 0;
+        int day = 2;
+        for (int shard : shards) {
+            for (int m = 0; m < METRICS.length; m++) {
+                for (int d = day; d < day + shard; d++) {
+                    String[] row = rows.get(i++);
+                    assertEquals("123", row[0]);
+                    assertEquals("2011-01-" + ((d < 10) ? ("0") : ("")) + d, row[1]);
+                    assertEquals(METRICS[m], row[2]);
+                    assertEquals(Double.toString(d * ((m == 0) ? (1) : (100))), row[3]);
+                }
+            }
+            day += shard;
+        }
+        assertEquals(i, rows.size());
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.gooddata.exception.InternalErrorException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the partitioned JDBC extract against an embedded Derby database
+ */
+public class JdbcPartitionerTest extends TestCase {
+
+    private static final String URL = "jdbc:derby:memory:gdc_partitioner;create=true";
+
+    private static final int ROWS = 20000;
+
+    // the connections opened by the connectors
+    private final List<Connection> connections = Collections.synchronizedList(new ArrayList<Connection>());
+    // the "id,name" of the table rows
+    private final List<String> table = new ArrayList<String>();
+
+    protected void setUp() throws SQLException {
+        Connection con = DriverManager.getConnection(URL);
+        try {
+            Statement st = con.createStatement();
+            st.execute("CREATE TABLE t (id BIGINT, name VARCHAR(20), created TIMESTAMP)");
+            st.close();
+            con.setAutoCommit(false);
+            PreparedStatement ps = con.prepareStatement("INSERT INTO t VALUES (?, ?, ?)");
+            // the IDs aren't sorted, every 97th is NULL
+            for (int i = 0; i < ROWS; i++) {
+                Long id = (i % 97 == 0) ? (null) : ((i * 7919L) % ROWS);
+                if (id != null)
+                    ps.setLong(1, id);
+                else
+                    ps.setNull(1, Types.BIGINT);
+                ps.setString(2, "name" + i);
+                ps.setTimestamp(3, new Timestamp(1293840000000L + i * 60000L));
+                ps.addBatch();
+                table.add(((id != null) ? (id.toString()) : ("")) + ",name" + i);
+            }
+            ps.executeBatch();
+            ps.close();
+            con.commit();
+        } finally {
+            con.close();
+        }
+    }
+
+    protected void tearDown() throws SQLException {
+        Connection con = DriverManager.getConnection(URL);
+        try {
+            Statement st = con.createStatement();
+            st.execute("DROP TABLE t");
+            st.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    public void testCreatePartitions() {
+        List<JdbcPartitioner.Partition> p = JdbcPartitioner.createPartitions(1, 100L, 4);
+        assertEquals(4, p.size());
+        assertNull(p.get(0).getLower());
+        assertEquals(26L, p.get(0).getUpper());
+        assertTrue(p.get(0).isNulls());
+        assertEquals(26L, p.get(1).getLower());
+        assertEquals(51L, p.get(1).getUpper());
+        assertFalse(p.get(1).isNulls());
+        assertEquals(76L, p.get(3).getLower());
+        assertNull(p.get(3).getUpper());
+    }
+
+    public void testSmallInterval() {
+        List<JdbcPartitioner.Partition> p = JdbcPartitioner.createPartitions(5, 6, 4);
+        assertEquals(2, p.size());
+        assertNull(p.get(1).getUpper());
+        p = JdbcPartitioner.createPartitions(null, null, 4);
+        assertEquals(1, p.size());
+        assertEquals("SELECT * FROM (SELECT * FROM t) gdc_partition", p.get(0).getQuery("SELECT * FROM t", "id"));
+    }
+
+    public void testParseRanges() {
+        List<JdbcPartitioner.Partition> p = JdbcPartitioner.parseRanges("1000, 2000,2011-01-01");
+        assertEquals(4, p.size());
+        assertEquals(1000L, p.get(0).getUpper());
+        assertEquals("2011-01-01", p.get(3).getLower());
+        assertEquals("SELECT * FROM (SELECT * FROM t) gdc_partition WHERE (id < ?) OR id IS NULL",
+                p.get(0).getQuery("SELECT * FROM t", "id"));
+        assertEquals("SELECT * FROM (SELECT * FROM t) gdc_partition WHERE id >= ? AND id < ?",
+                p.get(1).getQuery("SELECT * FROM t", "id"));
+        assertEquals("SELECT * FROM (SELECT * FROM t) gdc_partition WHERE id >= ?",
+                p.get(3).getQuery("SELECT * FROM t", "id"));
+    }
+
+    public void testDiscoverPartitions() throws Exception {
+        List<JdbcPartitioner.Partition> p = JdbcPartitioner.discoverPartitions(createConnector("SELECT id, name FROM t"),
+                "id", 4);
+        assertEquals(JdbcPartitioner.createPartitions(1L, ROWS - 1L, 4).toString(), p.toString());
+        assertClosed();
+        assertEquals(sorted(table), sorted(extract("SELECT id, name FROM t", "id", p, false)));
+    }
+
+    public void testDatePartitions() throws Exception {
+        String query = "SELECT id, name, created FROM t";
+        List<JdbcPartitioner.Partition> p = JdbcPartitioner.discoverPartitions(createConnector(query), "created", 3);
+        assertEquals(3, p.size());
+        assertTrue(p.get(1).getLower() instanceof Timestamp);
+        assertEquals(sorted(table), sorted(extract(query, "created", p, true)));
+    }
+
+    public void testOrderedExtract() throws Exception {
+        int spools = countSpools();
+        List<JdbcPartitioner.Partition> partitions = JdbcPartitioner.createPartitions(0, ROWS - 1, 4);
+        List<String> rows = extract("SELECT id, name FROM t", "id", partitions, true);
+        // the rows of each range in the order of the ranges, the later ranges are replayed from the spool files
+        int last = 0;
+        for (String row : rows) {
+            int idx = findPartition(partitions, row);
+            assertTrue(row + " is out of the partition order", idx >= last);
+            last = idx;
+        }
+        assertEquals(sorted(table), sorted(rows));
+        assertClosed();
+        assertEquals(spools, countSpools());
+    }
+
+    public void testUnorderedExtract() throws Exception {
+        List<String> rows = extract("SELECT id, name FROM t", "id", JdbcPartitioner.createPartitions(0, ROWS - 1, 4),
+                false);
+        assertEquals(sorted(table), sorted(rows));
+        assertClosed();
+    }
+
+    public void testPartitionFailure() throws Exception {
+        // the division by zero fails the third partition
+        String query = "SELECT id, name FROM t WHERE 1 / (id - " + (ROWS * 3 / 5) + ") <> 2";
+        for (boolean ordered : new boolean[]{true, false}) {
+            int spools = countSpools();
+            try {
+                extract(query, "id", JdbcPartitioner.createPartitions(0, ROWS - 1, 4), ordered);
+                fail("The failed partition hasn't been reported.");
+            } catch (InternalErrorException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+            }
+            assertClosed();
+            assertEquals(spools, countSpools());
+        }
+    }
+
+    public void testPipelineFailure() throws Exception {
+        for (boolean ordered : new boolean[]{true, false}) {
+            final IllegalStateException failure = new IllegalStateException("The pipeline failed.");
+            RowPipeline p = new RowPipeline(null, null, false, -1) {
+                private int cnt = 0;
+
+                public void add(Object[] row) {
+                    if (++cnt == 100)
+                        throw failure;
+                }
+            };
+            JdbcPartitioner jp = new JdbcPartitioner(createConnector("SELECT id, name FROM t"),
+                    "id", JdbcPartitioner.createPartitions(0, ROWS - 1, 4), ordered);
+            try {
+                jp.extract(p, null, 100, null);
+                fail("The pipeline failure hasn't been reported.");
+            } catch (IllegalStateException e) {
+                assertSame(failure, e);
+            }
+            // the other partitions are cancelled
+            assertClosed();
+        }
+    }
+
+    private List<String> extract(String query, String column, List<JdbcPartitioner.Partition> partitions,
+                                 boolean ordered) throws IOException {
+        final List<String> rows = Collections.synchronizedList(new ArrayList<String>());
+        RowPipeline p = new RowPipeline(null, null, false, -1) {
+            public void add(Object[] row) {
+                // the extracted NULLs are empty strings
+                rows.add(row[0] + "," + row[1]);
+            }
+        };
+        new JdbcPartitioner(createConnector(query), column, partitions, ordered).extract(p, null, 100, null);
+        return rows;
+    }
+
+    private static int findPartition(List<JdbcPartitioner.Partition> partitions, String row) {
+        String id = row.substring(0, row.indexOf(','));
+        for (int i = 0; i < partitions.size(); i++) {
+            JdbcPartitioner.Partition p = partitions.get(i);
+            if (id.length() == 0) {
+                if (p.isNulls())
+                    return i;
+            } else {
+                long v = Long.parseLong(id);
+                if ((p.getLower() == null || v >= (Long) p.getLower()) &&
+                        (p.getUpper() == null || v < (Long) p.getUpper()))
+                    return i;
+            }
+        }
+        throw new IllegalStateException("No partition of " + row);
+    }
+
+    private static List<String> sorted(List<String> rows) {
+        List<String> s = new ArrayList<String>(rows);
+        Collections.sort(s);
+        return s;
+    }
+
+    private static int countSpools() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list();
+        int cnt = 0;
+        for (String f : files) {
+            if (f.startsWith("gdc-jdbc-partition"))
+                cnt++;
+        }
+        return cnt;
+    }
+
+    private void assertClosed() throws InterruptedException, SQLException {
+        for (int i = 0; i < 50 && countOpen() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, countOpen());
+    }
+
+    private int countOpen() throws SQLException {
+        int cnt = 0;
+        synchronized (connections) {
+            for (Connection c : connections) {
+                if (!c.isClosed())
+                    cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Connector of the test database that records its connections
+     */
+    private JdbcConnector createConnector(String query) {
+        JdbcConnector c = new JdbcConnector() {
+            public Connection connect() throws SQLException {
+                Connection con = super.connect();
+                connections.add(con);
+                return con;
+            }
+        };
+        c.setJdbcUrl(URL);
+        c.setSqlQuery(query);
+        return c;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.gooddata.util.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the JDBC watermark against an embedded Derby database
+ */
+public class JdbcWatermarkTest extends TestCase {
+
+    private static final String URL = "jdbc:derby:memory:gdc_watermark;create=true";
+
+    private Connection con;
+
+    protected void setUp() throws SQLException {
+        con = DriverManager.getConnection(URL);
+        Statement st = con.createStatement();
+        st.execute("CREATE TABLE t (id BIGINT, name VARCHAR(20))");
+        st.close();
+    }
+
+    protected void tearDown() throws SQLException {
+        Statement st = con.createStatement();
+        st.execute("DROP TABLE t");
+        st.close();
+        con.close();
+    }
+
+    public void testStoreAndLoad() throws Exception {
+        File state = File.createTempFile("watermark", ".properties");
+        state.delete();
+        try {
+            insert(5, 42, 17);
+            JdbcWatermark w = new JdbcWatermark("id", state);
+            w.load("pid", "dataset.orders");
+            assertNull(w.getValue());
+            assertEquals("SELECT id, name FROM t", w.getQuery("SELECT id, name FROM t"));
+            assertEquals(3, extract(w).size());
+            w.store();
+
+            JdbcWatermark loaded = new JdbcWatermark("id", state);
+            loaded.load("pid", "dataset.orders");
+            assertEquals(42L, loaded.getValue());
+            assertEquals("SELECT * FROM (SELECT id, name FROM t) gdc_watermark WHERE id > ?",
+                    loaded.getQuery("SELECT id, name FROM t"));
+
+            // only the new rows above the watermark are extracted
+            insert(43, 100, 7);
+            List<Long> ids = extract(loaded);
+            assertEquals(2, ids.size());
+            assertTrue(ids.contains(43L) && ids.contains(100L));
+            assertEquals(100L, loaded.getMax());
+
+            loaded.load("other", "dataset.orders");
+            assertNull(loaded.getValue());
+        } finally {
+            FileUtil.deleteProperties(state);
+        }
+    }
+
+    public void testInterruptedStore() throws Exception {
+        File state = File.createTempFile("watermark", ".properties");
+        File next = File.createTempFile("watermark", ".properties");
+        state.delete();
+        next.delete();
+        try {
+            insert(42);
+            store(state);
+            insert(100);
+            store(next);
+            // crashed after the old file has been backed up and the new one has been written
+            assertTrue(state.renameTo(new File(state.getPath() + ".bak")));
+            assertTrue(next.renameTo(new File(state.getPath() + ".tmp")));
+            JdbcWatermark w = new JdbcWatermark("id", state);
+            w.load("pid", "dataset.orders");
+            assertEquals(100L, w.getValue());
+            assertTrue(state.exists());
+        } finally {
+            FileUtil.deleteProperties(state);
+            FileUtil.deleteProperties(next);
+        }
+    }
+
+    public void testNoRows() throws Exception {
+        File state = File.createTempFile("watermark", ".properties");
+        state.delete();
+        JdbcWatermark w = new JdbcWatermark("id", state);
+        w.load("pid", "dataset.orders");
+        assertTrue(extract(w).isEmpty());
+        w.store();
+        assertFalse(state.exists());
+    }
+
+    private void insert(long... ids) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("INSERT INTO t VALUES (?, ?)");
+        for (long id : ids) {
+            ps.setLong(1, id);
+            ps.setString(2, "name" + id);
+            ps.executeUpdate();
+        }
+        ps.close();
+    }
+
+    /**
+     * Runs the watermark query and tracks the maximal id like the extract does
+     *
+     * @return the extracted ids
+     */
+    private List<Long> extract(JdbcWatermark w) throws SQLException {
+        List<Long> ids = new ArrayList<Long>();
+        PreparedStatement ps = con.prepareStatement(w.getQuery("SELECT id, name FROM t"));
+        try {
+            w.bind(ps, 1);
+            ResultSet rs = ps.executeQuery();
+            JdbcWatermark.Tracker t = w.createTracker();
+            while (rs.next()) {
+                t.update(rs);
+                ids.add(rs.getLong(1));
+            }
+            rs.close();
+            w.merge(t);
+        } finally {
+            ps.close();
+        }
+        return ids;
+    }
+
+    private void store(File state) throws Exception {
+        JdbcWatermark w = new JdbcWatermark("id", state);
+        w.load("pid", "dataset.orders");
+        extract(w);
+        w.store();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.connector;
+
+import com.sforce.soap.partner.DescribeSObjectResult;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.SessionHeader;
+import com.sforce.soap.partner.SforceServiceLocator;
+import com.sforce.soap.partner.SoapBindingStub;
+import com.sforce.soap.partner.fault.UnexpectedErrorFault;
+import com.sforce.soap.partner.sobject.SObject;
+import junit.framework.TestCase;
+import org.apache.axis.AxisFault;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the prefetched SFDC query batches against a stubbed SOAP binding
+ */
+public class SfdcConnectorTest extends TestCase {
+
+    private static final String QUERY = "SELECT Id FROM Account";
+
+    public void testPrefetchedBatches() throws RemoteException {
+        StubBinding c = new StubBinding(4);
+        SfdcConnector.PrefetchedBatches batches = new SfdcConnector.PrefetchedBatches(c, null, QUERY, 2);
+        try {
+            for (int i = 0; i < 4; i++) {
+                SObject[] batch = batches.next();
+                assertEquals(2, batch.length);
+                assertEquals("p" + i + "r0", batch[0].getId());
+                assertEquals("p" + i + "r1", batch[1].getId());
+            }
+            assertTrue(batches.describe("Account").containsKey("Id"));
+            assertNull(batches.next());
+            assertNull(batches.next());
+        } finally {
+            batches.close();
+        }
+        // the stub isn't thread safe, all calls are made by the prefetching thread
+        assertEquals(Arrays.asList("gdc-sfdc-prefetch query " + QUERY, "gdc-sfdc-prefetch describeSObject Account",
+                "gdc-sfdc-prefetch queryMore 1", "gdc-sfdc-prefetch queryMore 2", "gdc-sfdc-prefetch queryMore 3"),
+                c.calls);
+    }
+
+    public void testEmptyResult() throws RemoteException {
+        StubBinding c = new StubBinding(0);
+        SfdcConnector.PrefetchedBatches batches = new SfdcConnector.PrefetchedBatches(c, null, QUERY, 2);
+        try {
+            assertEquals(0, batches.next().length);
+            assertNull(batches.next());
+            assertNull(batches.describe("Account"));
+        } finally {
+            batches.close();
+        }
+        assertEquals(Arrays.asList("gdc-sfdc-prefetch query " + QUERY), c.calls);
+    }
+
+    public void testPrefetchFailure() throws RemoteException {
+        StubBinding c = new StubBinding(4);
+        c.failingPage = 2;
+        c.failure = new UnexpectedErrorFault();
+        SfdcConnector.PrefetchedBatches batches = new SfdcConnector.PrefetchedBatches(c, null, QUERY, 2);
+        try {
+            assertEquals("p0r0", batches.next()[0].getId());
+            assertEquals("p1r0", batches.next()[0].getId());
+            batches.next();
+            fail("The queryMore failure hasn't been rethrown.");
+        } catch (UnexpectedErrorFault e) {
+            assertSame(c.failure, e);
+        } finally {
+            batches.close();
+        }
+        assertEquals("gdc-sfdc-prefetch queryMore 2", c.calls.get(c.calls.size() - 1));
+    }
+
+    public void testPrefetchRuntimeFailure() throws RemoteException {
+        StubBinding c = new StubBinding(4);
+        c.failingPage = 0;
+        c.failure = new IllegalStateException("broken stub");
+        SfdcConnector.PrefetchedBatches batches = new SfdcConnector.PrefetchedBatches(c, null, QUERY, 2);
+        try {
+            batches.next();
+            fail("The query failure hasn't been rethrown.");
+        } catch (IllegalStateException e) {
+            assertSame(c.failure, e);
+        } finally {
+            batches.close();
+        }
+    }
+
+    public void testClose() throws RemoteException, InterruptedException {
+        StubBinding c = new StubBinding(100);
+        SfdcConnector.PrefetchedBatches batches = new SfdcConnector.PrefetchedBatches(c, null, QUERY, 1);
+        assertEquals("p0r0", batches.next()[0].getId());
+        batches.close();
+        Thread.sleep(200);
+        int calls = c.calls.size();
+        Thread.sleep(200);
+        // the prefetching stops instead of waiting for a free slot in the queue
+        assertEquals(calls, c.calls.size());
+        assertTrue(calls < 100);
+    }
+
+    /**
+     * SOAP binding that returns the query result pages of two Account records, the query locator is the number
+     * of the next page
+     */
+    private static class StubBinding extends SoapBindingStub {
+        private final int pages;
+        // the calls as "thread method argument"
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        volatile int failingPage = -1;
+        volatile Exception failure;
+
+        StubBinding(int pages) throws AxisFault {
+            this.pages = pages;
+            setHeader(new SforceServiceLocator().getServiceName().getNamespaceURI(), "SessionHeader",
+                    new SessionHeader("s1"));
+        }
+
+        public QueryResult query(String query) throws RemoteException {
+            record("query", query);
+            return page(0);
+        }
+
+        public QueryResult queryMore(String locator) throws RemoteException {
+            record("queryMore", locator);
+            return page(Integer.parseInt(locator));
+        }
+
+        public DescribeSObjectResult describeSObject(String name) {
+            record("describeSObject", name);
+            Field id = new Field();
+            id.setName("Id");
+            DescribeSObjectResult r = new DescribeSObjectResult();
+            r.setName(name);
+            r.setFields(new Field[]{id});
+            return r;
+        }
+
+        private void record(String method, String arg) {
+            calls.add(Thread.currentThread().getName() + " " + method + " " + arg);
+        }
+
+        private QueryResult page(int n) throws RemoteException {
+            if (n == failingPage) {
+                if (failure instanceof RemoteException)
+                    throw (RemoteException) failure;
+                throw (RuntimeException) failure;
+            }
+            QueryResult qr = new QueryResult();
+            qr.setDone(n >= pages - 1);
+            qr.setQueryLocator(qr.isDone() ? null : String.valueOf(n + 1));
+            if (pages > 0) {
+                qr.setRecords(new SObject[]{new SObject("Account", null, "p" + n + "r0", null),
+                        new SObject("Account", null, "p" + n + "r1", null)});
+                qr.setSize(pages * 2);
+            }
+            return qr;
+        }
+    }
+}
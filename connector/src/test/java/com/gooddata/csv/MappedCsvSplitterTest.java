@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.csv;
+
+import com.gooddata.util.CSVReader;
+import com.gooddata.util.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the splitting of the memory-mapped CSV files to chunks of whole records
+ */
+public class MappedCsvSplitterTest extends TestCase {
+
+    private static final String DATA = "id,name,note\n" +
+            "1,\"Joe\",\"first\nsecond\nthird line\"\n" +
+            "2,Ann,\"a \"\"quoted\"\"\nvalue\"\n" +
+            "3,\"Žluťoučký kůň\",plain\n" +
+            "4,\"x\",\"\n\n\n\"\n" +
+            "5,last,\"no line feed at the end\"";
+
+    private File file;
+
+    protected void setUp() throws IOException {
+        file = FileUtil.getTempFile();
+        OutputStream os = new FileOutputStream(file);
+        os.write(DATA.getBytes("UTF-8"));
+        os.close();
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testQuotedLineFeedsAcrossChunks() throws IOException {
+        List<String[]> expected = parse(DATA);
+        for (int chunkSize = 1; chunkSize <= DATA.length() + 1; chunkSize++) {
+            MappedCsvSplitter splitter = new MappedCsvSplitter(file, '"', '\\', chunkSize);
+            StringBuilder all = new StringBuilder();
+            List<String[]> records = new ArrayList<String[]>();
+            try {
+                for (MappedCsvSplitter.Chunk c = splitter.next(); c != null; c = splitter.next()) {
+                    String chunk = read(splitter.open(c));
+                    all.append(chunk);
+                    // every chunk contains whole records
+                    records.addAll(parse(chunk));
+                }
+            } finally {
+                splitter.close();
+            }
+            assertEquals(DATA, all.toString());
+            assertRecords(expected, records);
+        }
+    }
+
+    public void testSkipHeader() throws IOException {
+        MappedCsvSplitter splitter = new MappedCsvSplitter(file, '"', '\\', 16);
+        List<String[]> records = new ArrayList<String[]>();
+        try {
+            splitter.skipRecord();
+            for (MappedCsvSplitter.Chunk c = splitter.next(); c != null; c = splitter.next()) {
+                records.addAll(parse(read(splitter.open(c))));
+            }
+        } finally {
+            splitter.close();
+        }
+        List<String[]> expected = parse(DATA);
+        assertRecords(expected.subList(1, expected.size()), records);
+        assertEquals("first\nsecond\nthird line", records.get(0)[2]);
+    }
+
+    public void testEmptyFile() throws IOException {
+        File empty = FileUtil.getTempFile();
+        new FileOutputStream(empty).close();
+        MappedCsvSplitter splitter = new MappedCsvSplitter(empty, '"', '\\', 16);
+        try {
+            splitter.skipRecord();
+            assertNull(splitter.next());
+        } finally {
+            splitter.close();
+            empty.delete();
+        }
+    }
+
+    private static List<String[]> parse(String data) throws IOException {
+        CSVReader cr = new CSVReader(new StringReader(data));
+        List<String[]> ret = new ArrayList<String[]>();
+        for (String[] r = cr.readNext(); r != null; r = cr.readNext())
+            ret.add(r);
+        cr.close();
+        return ret;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FileUtil.copy(is, bos);
+        return bos.toString("UTF-8");
+    }
+
+    private static void assertRecords(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).length, actual.get(i).length);
+            for (int j = 0; j < expected.get(i).length; j++)
+                assertEquals(expected.get(i)[j], actual.get(i)[j]);
+        }
+    }
+}
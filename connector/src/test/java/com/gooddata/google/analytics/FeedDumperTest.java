@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.google.analytics;
+
+import com.gooddata.connector.RowPipeline;
+import com.gooddata.exception.InvalidParameterException;
+import com.gooddata.util.CSVWriter;
+import com.gooddata.util.StubHttpServer;
+import com.google.gdata.client.analytics.AnalyticsService;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the sharded GA extraction against a local data feed stand-in
+ */
+public class FeedDumperTest extends TestCase {
+
+    private static final String[] SOURCES = {"direct", "google", "referral"};
+
+    private StubHttpServer server;
+    private final List<String> requests = new ArrayList<String>();
+    private int active = 0;
+    private int maxActive = 0;
+    // number of the requests sent before the first row has been dumped
+    private int firstRowRequests = -1;
+
+    protected void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) throws IOException {
+                synchronized (FeedDumperTest.this) {
+                    active++;
+                    maxActive = Math.max(maxActive, active);
+                }
+                try {
+                    Map<String, String> q = parseQuery(request.getQuery());
+                    response.setBody(createFeed(q), "application/atom+xml");
+                    synchronized (FeedDumperTest.this) {
+                        requests.add(q.get("start-date") + "/" + q.get("end-date") + "/" + q.get("start-index"));
+                    }
+                } finally {
+                    synchronized (FeedDumperTest.this) {
+                        active--;
+                    }
+                }
+            }
+        });
+    }
+
+    protected void tearDown() {
+        server.stop();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> ret = new HashMap<String, String>();
+        for (String p : query.split("&")) {
+            int i = p.indexOf('=');
+            ret.put(URLDecoder.decode(p.substring(0, i), "UTF-8"), URLDecoder.decode(p.substring(i + 1), "UTF-8"));
+        }
+        return ret;
+    }
+
+    // returns a row per day and source
+    private static String createFeed(Map<String, String> q) {
+        LocalDate start = new LocalDate(q.get("start-date"));
+        LocalDate end = new LocalDate(q.get("end-date"));
+        int startIndex = Integer.parseInt(q.get("start-index"));
+        int maxResults = Integer.parseInt(q.get("max-results"));
+        List<String> entries = new ArrayList<String>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            for (int i = 0; i < SOURCES.length; i++) {
+                entries.add("<entry><id>e" + entries.size() + "</id><updated>2011-01-01T00:00:00.000Z</updated>" +
+                        "<title>entry</title>" +
+                        "<dxp:dimension name='ga:date' value='" + d.toString().replace("-", "") + "'/>" +
+                        "<dxp:dimension name='ga:source' value='" + SOURCES[i] + "'/>" +
+                        "<dxp:metric name='ga:visits' type='integer' value='" + (d.getDayOfMonth() * 10 + i) +
+                        "' confidenceInterval='0.0'/></entry>");
+            }
+        }
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>" +
+                "<feed xmlns='http://www.w3.org/2005/Atom' xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/' " +
+                "xmlns:dxp='http://schemas.google.com/analytics/2009' xmlns:gd='http://schemas.google.com/g/2005' " +
+                "gd:kind='analytics#data'><id>data</id><updated>2011-01-01T00:00:00.000Z</updated>" +
+                "<title>Data</title>" +
+                "<openSearch:totalResults>" + entries.size() + "</openSearch:totalResults>" +
+                "<openSearch:startIndex>" + startIndex + "</openSearch:startIndex>" +
+                "<openSearch:itemsPerPage>" + maxResults + "</openSearch:itemsPerPage>");
+        for (int i = startIndex - 1; i < Math.min(entries.size(), startIndex - 1 + maxResults); i++) {
+            sb.append(entries.get(i));
+        }
+        return sb.append("</feed>").toString();
+    }
+
+    private GaQuery createQuery(String startDate, String endDate) {
+        GaQuery q = new GaQuery(createUrl());
+        q.setIds("ga:1234");
+        q.setDimensions("ga:date,ga:source");
+        q.setMetrics("ga:visits");
+        q.setStartDate(startDate);
+        q.setEndDate(endDate);
+        return q;
+    }
+
+    private URL createUrl() {
+        try {
+            return new URL(server.getUrl("/analytics/feeds/data"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String[] dump(GaQuery q, int chunk, int shardDays, int window) throws IOException {
+        AnalyticsService as = new AnalyticsService("gdc-ga-test");
+        as.setAuthSubToken("TOKEN");
+        StringWriter sw = new StringWriter();
+        CSVWriter cw = new CSVWriter(sw);
+        RowPipeline p = new RowPipeline(null, cw, false, -1) {
+            public void add(Object[] row) throws IOException {
+                synchronized (FeedDumperTest.this) {
+                    if (firstRowRequests < 0)
+                        firstRowRequests = requests.size();
+                }
+                super.add(row);
+            }
+        };
+        int cnt = FeedDumper.dump(p, as, q, chunk, shardDays, window);
+        assertEquals(cnt, p.finish());
+        cw.close();
+        return sw.toString().split("\n");
+    }
+
+    public void testSplit() {
+        List<GaQuery> shards = createQuery("2011-01-30", "2011-02-14").split(7);
+        assertEquals(3, shards.size());
+        assertEquals("2011-01-30", shards.get(0).getStartDate());
+        assertEquals("2011-02-05", shards.get(0).getEndDate());
+        assertEquals("2011-02-06", shards.get(1).getStartDate());
+        assertEquals("2011-02-12", shards.get(1).getEndDate());
+        assertEquals("2011-02-13", shards.get(2).getStartDate());
+        assertEquals("2011-02-14", shards.get(2).getEndDate());
+        assertEquals("ga:date,ga:source", shards.get(2).getDimensions());
+        assertEquals(1, createQuery("2011-01-01", "2011-01-01").split(1).size());
+        assertEquals(1, createQuery("2011-01-01", "2011-12-31").split(0).size());
+        assertEquals(365, createQuery("2011-01-01", "2011-12-31").split(1).size());
+    }
+
+    public void testSplitInvalidRange() {
+        try {
+            createQuery("2011-02-01", "2011-01-01").split(1);
+            fail("The end date precedes the start date.");
+        } catch (InvalidParameterException e) {
+            // expected
+        }
+        try {
+            createQuery("2011-02-01", "2011/03/01").split(1);
+            fail("Invalid date format.");
+        } catch (InvalidParameterException e) {
+            // expected
+        }
+    }
+
+    public void testShardedDump() throws IOException {
+        String[] rows = dump(createQuery("2011-01-01", "2011-01-10"), 2, 3, 3);
+        // 4 shards of 9, 9, 9 and 3 rows in pages of 2 rows
+        assertEquals(17, requests.size());
+        assertTrue(requests.contains("2011-01-10/2011-01-10/3"));
+        assertTrue(maxActive <= 3);
+        assertRows(rows, 10);
+    }
+
+    public void testUnshardedDump() throws IOException {
+        String[] rows = dump(createQuery("2011-01-01", "2011-01-10"), 4, 0, 4);
+        assertEquals(8, requests.size());
+        assertEquals("2011-01-01/2011-01-10/29", requests.get(7));
+        assertRows(rows, 10);
+    }
+
+    public void testUnshardedDumpIsStreamed() throws IOException {
+        String[] rows = dump(createQuery("2011-01-01", "2011-01-10"), 3, 0, 4);
+        assertEquals(10, requests.size());
+        // the pages aren't buffered till the end of the shard
+        assertEquals(FeedDumper.PREFETCHED_PAGES, firstRowRequests);
+        assertRows(rows, 10);
+    }
+
+    // all days and sources in the date order
+    private static void assertRows(String[] rows, int days) {
+        assertEquals(days * SOURCES.length, rows.length);
+        for (int d = 0; d < days; d++) {
+            for (int i = 0; i < SOURCES.length; i++) {
+                String date = "2011-01-" + ((d < 9) ? ("0") : ("")) + (d + 1);
+                assertEquals("\"ga:1234\",\"" + date + "\",\"" + SOURCES[i] + "\",\"" + ((d + 1) * 10 + i) + "\"",
+                        rows[d * SOURCES.length + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.gooddata.sfdc;
+
+import com.gooddata.exception.SfdcException;
+import com.gooddata.util.Backoff;
+import com.gooddata.util.CSVReader;
+import com.gooddata.util.StubHttpServer;
+import junit.framework.TestCase;
+import org.apache.commons.httpclient.HttpClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the bulk query against a local Bulk API stand-in
+ */
+public class SfdcBulkApiTest extends TestCase {
+
+    private static final String NS = "http://www.force.com/2009/06/asyncapi/dataload";
+
+    private StubHttpServer server;
+    private final List<String> requests = new ArrayList<String>();
+    private String query;
+    private String session;
+    private int polls = 0;
+    private String failedState = null;
+
+    protected void setUp() throws IOException {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public void handle(StubHttpServer.Request request, StubHttpServer.Response response) {
+                String path = request.getPath().substring("/services/async/21.0".length());
+                String body = request.getBodyAsString();
+                String result;
+                String type = "application/xml";
+                synchronized (SfdcBulkApiTest.this) {
+                    requests.add(request.getMethod() + " " + path);
+                    session = request.getHeader("X-SFDC-Session");
+                    if (path.equals("/job")) {
+                        result = "<jobInfo xmlns=\"" + NS + "\"><id>750J</id><state>Open</state></jobInfo>";
+                    } else if (path.equals("/job/750J/batch")) {
+                        query = body;
+                        result = "<batchInfo xmlns=\"" + NS + "\"><id>751B</id><state>Queued</state></batchInfo>";
+                    } else if (path.equals("/job/750J/batch/751B")) {
+                        String state = (polls++ < 2) ? ("InProgress") : ((failedState != null) ? (failedState) : ("Completed"));
+                        result = "<batchInfo xmlns=\"" + NS + "\"><id>751B</id><state>" + state + "</state>" +
+                                "<stateMessage>INVALID_FIELD</stateMessage></batchInfo>";
+                    } else if (path.equals("/job/750J/batch/751B/result")) {
+                        result = "<result-list xmlns=\"" + NS + "\"><result>752R1</result><result>752R2</result></result-list>";
+                    } else if (path.startsWith("/job/750J/batch/751B/result/")) {
+                        String id = path.substring(path.lastIndexOf('/') + 1);
+                        result = "\"Id\",\"Name\",\"CloseDate\"\n\"" + id + "a\",\"Big, deal\",\"2011-03-04\"\n\"" + id + "b\",\"\",\"\"\n";
+                        type = "text/csv";
+                    } else if (path.equals("/job/750J")) {
+                        result = "<jobInfo xmlns=\"" + NS + "\"><id>750J</id><state>Closed</state></jobInfo>";
+                    } else {
+                        result = "<error xmlns=\"" + NS + "\"><exceptionCode>InvalidUrl</exceptionCode>" +
+                                "<exceptionMessage>unknown " + path + "</exceptionMessage></error>";
+                        response.setStatus(400);
+                        response.setBody(result, type);
+                        return;
+                    }
+                }
+                response.setStatus(path.equals("/job") ? 201 : 200);
+                response.setBody(result, type);
+            }
+        });
+    }
+
+    protected void tearDown() {
+        server.stop();
+    }
+
+    private SfdcBulkApi createApi() {
+        return new SfdcBulkApi(new HttpClient(), server.getUrl("/services/async/21.0"), "SESSION");
+    }
+
+    public void testBulkUrl() {
+        assertEquals("https://na1.salesforce.com/services/async/21.0",
+                SfdcBulkApi.getBulkUrl("https://na1.salesforce.com/services/Soap/u/21.0/00D30000000XXXX"));
+        assertEquals("Opportunity", SfdcBulkApi.getQueryObject("SELECT Id, Name FROM Opportunity WHERE Amount > 0"));
+    }
+
+    public void testQuery() throws IOException {
+        List<SfdcBulkApi.Result> results = createApi().query("SELECT Id, Name, CloseDate FROM Opportunity",
+                new Backoff(10, 10, 1, 0, 0));
+        assertEquals(2, results.size());
+        List<String[]> rows = new ArrayList<String[]>();
+        for (SfdcBulkApi.Result r : results) {
+            CSVReader cr = r.open();
+            assertEquals("Id", cr.readNext()[0]);
+            String[] row;
+            while ((row = cr.readNext()) != null)
+                rows.add(row);
+            cr.close();
+        }
+        assertEquals(4, rows.size());
+        assertEquals("752R1a", rows.get(0)[0]);
+        assertEquals("Big, deal", rows.get(0)[1]);
+        assertEquals("", rows.get(1)[2]);
+        assertEquals("752R2b", rows.get(3)[0]);
+        assertEquals("SELECT Id, Name, CloseDate FROM Opportunity", query);
+        assertEquals("SESSION", session);
+        assertEquals(3, polls);
+        // the job is closed before the results are downloaded
+        assertTrue(requests.indexOf("POST /job/750J") < requests.indexOf("GET /job/750J/batch/751B/result/752R1"));
+    }
+
+    public void testFailedBatch() throws IOException {
+        failedState = "Failed";
+        try {
+            createApi().query("SELECT Id FROM Opportunity", new Backoff(10, 10, 1, 0, 0));
+            fail("The failed batch hasn't been reported.");
+        } catch (SfdcException e) {
+            assertTrue(e.getMessage().contains("INVALID_FIELD"));
+        }
+        assertTrue(requests.contains("POST /job/750J"));
+    }
+
+}
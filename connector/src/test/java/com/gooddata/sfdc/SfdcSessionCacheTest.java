@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.sfdc;
+
+import com.gooddata.processor.ProcessingContext;
+import com.sforce.soap.partner.Field;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Tests the SFDC session cache
+ */
+public class SfdcSessionCacheTest extends TestCase {
+
+    private File file;
+
+    protected void setUp() throws IOException {
+        file = File.createTempFile("sfdc-sessions", ".cache");
+        file.delete();
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testKey() {
+        String key = SfdcSessionCache.getKey("www.salesforce.com", "usr", "psw", null);
+        assertEquals(key, SfdcSessionCache.getKey("www.salesforce.com", "usr", "psw", null));
+        assertFalse(key.equals(SfdcSessionCache.getKey("www.salesforce.com", "usr", "psw2", null)));
+        assertFalse(key.equals(SfdcSessionCache.getKey("test.salesforce.com", "usr", "psw", null)));
+        assertEquals(-1, key.indexOf("psw"));
+    }
+
+    public void testSharedByContext() {
+        ProcessingContext ctx = new ProcessingContext();
+        SfdcSessionCache cache = SfdcSessionCache.getCache(ctx, null);
+        assertSame(cache, SfdcSessionCache.getCache(ctx, null));
+        assertNotSame(cache, SfdcSessionCache.getCache(ctx, file));
+        assertNotSame(cache, SfdcSessionCache.getCache(new ProcessingContext(), null));
+    }
+
+    public void testSessionTtl() throws InterruptedException {
+        SfdcSessionCache cache = new SfdcSessionCache(null);
+        cache.putSession("key", "https://na1.salesforce.com/services/Soap/u/18.0", "s1");
+        SfdcSessionCache.Session s = cache.getSession("key");
+        assertNotNull(s);
+        assertEquals("s1", s.getSessionId());
+        assertTrue(s.isVerified());
+        assertNull(cache.getSession("other"));
+        cache.setTtl(50);
+        Thread.sleep(100);
+        assertNull(cache.getSession("key"));
+    }
+
+    public void testDescribedObjects() {
+        SfdcSessionCache cache = new SfdcSessionCache(null);
+        assertNull(cache.getFields("s1", "Account"));
+        cache.putSession("key", "https://na1.salesforce.com/services/Soap/u/18.0", "s1");
+        cache.putFields("s1", "Account", new Field[]{field("Id"), field("Name")});
+        assertEquals(2, cache.getFields("s1", "account").length);
+        assertNull(cache.getFields("s2", "Account"));
+        cache.removeSession("key");
+        assertNull(cache.getFields("s1", "Account"));
+    }
+
+    public void testPersistence() {
+        SfdcSessionCache cache = new SfdcSessionCache(file);
+        cache.putSession("key", "https://na1.salesforce.com/services/Soap/u/18.0", "s1");
+        cache.putFields("s1", "Account", new Field[]{field("Id")});
+        assertTrue(file.exists());
+
+        SfdcSessionCache loaded = new SfdcSessionCache(file);
+        SfdcSessionCache.Session s = loaded.getSession("key");
+        assertNotNull(s);
+        assertEquals("https://na1.salesforce.com/services/Soap/u/18.0", s.getServerUrl());
+        assertFalse(s.isVerified());
+        assertEquals("Id", loaded.getFields("s1", "Account")[0].getName());
+
+        loaded.removeSession("key");
+        assertNull(new SfdcSessionCache(file).getSession("key"));
+    }
+
+    public void testPermissions() throws IOException, InterruptedException {
+        // a leftover of a failed write
+        File dir = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        assertTrue(dir.mkdir());
+        SfdcSessionCache cache = new SfdcSessionCache(file);
+        cache.putSession("key", "https://na1.salesforce.com/services/Soap/u/18.0", "s1");
+        assertTrue(file.exists());
+        assertFalse(dir.exists());
+        if (File.separatorChar == '/') {
+            Process p = Runtime.getRuntime().exec(new String[]{"stat", "-c", "%a", file.getAbsolutePath()});
+            BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            assertEquals("600", r.readLine());
+            r.close();
+            p.waitFor();
+        }
+    }
+
+    public void testCorruptedFile() throws IOException {
+        FileWriter w = new FileWriter(file);
+        w.write("garbage");
+        w.close();
+        SfdcSessionCache cache = new SfdcSessionCache(file);
+        assertNull(cache.getSession("key"));
+    }
+
+    private static Field field(String name) {
+        Field f = new Field();
+        f.setName(name);
+        return f;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2009, GoodData Corporation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice, this list of conditions and
+ *        the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ *        and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the GoodData Corporation nor the names of its contributors may be used to endorse
+ *        or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.gooddata.time;
+
+import com.gooddata.util.CSVReader;
+import com.gooddata.util.CSVWriter;
+import com.gooddata.util.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests the time dimension generator and the cache of the time dimension packages
+ */
+public class TimeDimensionCacheTest extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws IOException {
+        dir = FileUtil.createTempDir();
+    }
+
+    protected void tearDown() {
+        FileUtil.recursiveDelete(dir);
+    }
+
+    public void testGenerate() throws IOException {
+        StringWriter sw = new StringWriter();
+        CSVWriter cw = new CSVWriter(sw);
+        new TimeDimensionGenerator().generate(cw);
+        cw.close();
+        CSVReader cr = new CSVReader(new StringReader(sw.toString()));
+        assertEquals("second_of_day", cr.readNext()[0]);
+        DecimalFormat nf = new DecimalFormat("00");
+        for (int secOfDay = 0; secOfDay < 24 * 60 * 60; secOfDay++) {
+            int hour = secOfDay / 3600;
+            int hour12 = (hour == 12) ? (12) : (hour % 12);
+            int minute = secOfDay / 60 % 60;
+            int sec = secOfDay % 60;
+            String[] expected = {nf.format(secOfDay), nf.format(sec), nf.format(secOfDay / 60), nf.format(minute),
+                    nf.format(hour), nf.format(hour12), (hour < 12) ? ("AM") : ("PM"),
+                    nf.format(hour) + ":" + nf.format(minute) + ":" + nf.format(sec),
+                    nf.format(hour12) + ":" + nf.format(minute) + ":" + nf.format(sec)};
+            String[] row = cr.readNext();
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], row[i]);
+            }
+        }
+        assertNull(cr.readNext());
+    }
+
+    public void testPackage() throws IOException {
+        TimeDimensionCache cache = new TimeDimensionCache(dir);
+        File created = cache.getPackage("created");
+        assertEquals(cache.getData(), cache.getData());
+        Map<String, String> entries = readZip(created);
+        assertEquals(2, entries.size());
+        assertTrue(entries.get("upload_info.json").contains("label.time.second.of.day.created"));
+        assertFalse(entries.get("upload_info.json").contains("%id%"));
+        assertEquals(FileUtil.readStringFromFile(cache.getData().getAbsolutePath()), entries.get("data.csv"));
+
+        File closed = cache.getPackage("closed");
+        assertFalse(created.equals(closed));
+        assertTrue(readZip(closed).get("upload_info.json").contains("label.time.second.of.day.closed"));
+    }
+
+    public void testReuse() throws IOException {
+        File created = new TimeDimensionCache(dir).getPackage("created");
+        long modified = created.lastModified();
+        int files = dir.listFiles().length;
+        // a new run with the same cache directory
+        File reused = new TimeDimensionCache(dir).getPackage("created");
+        assertEquals(created, reused);
+        assertEquals(modified, reused.lastModified());
+        assertEquals(files, dir.listFiles().length);
+    }
+
+    public void testTamperedPackage() throws IOException {
+        File created = new TimeDimensionCache(dir).getPackage("created");
+        String manifest = readZip(created).get("upload_info.json");
+        File digest = new File(dir, created.getName() + ".sha1");
+        assertTrue(digest.isFile());
+        // another package planted under the cached name
+        FileUtil.writeStringToFile("planted", created.getAbsolutePath());
+        File rebuilt = new TimeDimensionCache(dir).getPackage("created");
+        assertEquals(created, rebuilt);
+        assertEquals(manifest, readZip(rebuilt).get("upload_info.json"));
+
+        // a package without the digest isn't reused either
+        assertTrue(digest.delete());
+        FileUtil.writeStringToFile("planted", created.getAbsolutePath());
+        rebuilt = new TimeDimensionCache(dir).getPackage("created");
+        assertEquals(manifest, readZip(rebuilt).get("upload_info.json"));
+        assertTrue(digest.isFile());
+    }
+
+    public void testTamperedData() throws IOException {
+        File data = new TimeDimensionCache(dir).getData();
+        String content = FileUtil.readStringFromFile(data.getAbsolutePath());
+        FileUtil.writeStringToFile("second_of_day\n00\n", data.getAbsolutePath());
+        TimeDimensionCache cache = new TimeDimensionCache(dir);
+        assertEquals(content, FileUtil.readStringFromFile(cache.getData().getAbsolutePath()));
+        assertEquals(content, readZip(cache.getPackage("created")).get("data.csv"));
+    }
+
+    public void testDefaultDir() {
+        File home = new File(System.getProperty("user.home"));
+        File d = TimeDimensionCache.getDefaultDir();
+        while (d != null && !d.equals(home)) {
+            d = d.getParentFile();
+        }
+        assertEquals(home, d);
+    }
+
+    private static Map<String, String> readZip(File zip) throws IOException {
+        Map<String, String> ret = new HashMap<String, String>();
+        ZipFile zf = new ZipFile(zip);
+        try {
+            for (ZipEntry e : Collections.list(zf.entries())) {
+                ret.put(e.getName(), FileUtil.readStringFromStream(zf.getInputStream(e)));
+            }
+        } finally {
+            zf.close();
+        }
+        return ret;
+    }
+}